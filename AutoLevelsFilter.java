@@ -0,0 +1,42 @@
+/**
+ * AutoLevelsFilter estira cada canal para que ocupe todo el rango de 0 a
+ * 255. Los extremos se toman en los percentiles CLIP y 1 - CLIP, para que
+ * unos pocos pixeles muy claros u oscuros no impidan el ajuste.
+ */
+public class AutoLevelsFilter extends HistogramFilter
+{
+    // fraccion de pixeles que se recorta en cada extremo de cada canal
+    private static final double CLIP = 0.005;
+
+    public AutoLevelsFilter(String name)
+    {
+        super(name);
+    }
+
+    public LookupTable createTable(ImageStatistics statistics)
+    {
+        return LookupTable.forChannels(stretch(statistics, ImageStatistics.Channel.RED),
+                                       stretch(statistics, ImageStatistics.Channel.GREEN),
+                                       stretch(statistics, ImageStatistics.Channel.BLUE));
+    }
+
+    /**
+     * Arma la tabla que lleva los percentiles de un canal a 0 y 255.
+     */
+    private static int[] stretch(ImageStatistics statistics, ImageStatistics.Channel channel)
+    {
+        int low = statistics.getPercentile(channel, CLIP);
+        int high = statistics.getPercentile(channel, 1 - CLIP);
+        int[] table = new int[256];
+        for(int i = 0; i < 256; i++) {
+            if(high <= low) {
+                table[i] = i;
+            }
+            else {
+                int value = Math.round((i - low) * 255f / (high - low));
+                table[i] = Math.min(Math.max(value, 0), 255);
+            }
+        }
+        return table;
+    }
+}
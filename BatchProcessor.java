@@ -0,0 +1,739 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+/**
+ * BatchProcessor aplica una cadena de filtros a muchas imagenes sin abrir
+ * ninguna ventana, por ejemplo en un servidor sin pantalla:
+ *
+ *     java BatchProcessor -f "Más claro,Suavizar" fotos/ salida/
+ *
+ * El trabajo se hace en tres etapas que se solapan: leer las imagenes,
+ * filtrarlas y escribirlas. Cada etapa tiene sus propios hilos y entre una
+ * y otra hay una cola de tamaño fijo, asi que nunca hay en memoria más de
+ * unas pocas imagenes a la vez. Al terminar se informa cuantas imagenes y
+ * megapixeles por segundo se procesaron.
+ */
+public class BatchProcessor
+{
+    // marca el fin de una cola: cada hilo que la recibe termina
+    private static final Item END = new Item(null, null);
+
+    private Filter filter;
+    // giro o volteo que se aplica despues del filtro, o 'null'
+    private Transform transform;
+    private File outputDir;
+    private String format;
+    private int decoders;
+    private int workers;
+    private int encoders;
+    private int queueSize;
+    private boolean virtualThreads;
+    // alto de las franjas si se procesa por franjas (0: automatico), o -1
+    private int stripRows;
+    // calidad JPEG (0-100) y nivel de compresion PNG (0-9)
+    private int jpegQuality;
+    private int pngLevel;
+
+    // resultados de la ultima ejecucion
+    private AtomicInteger processed;
+    private AtomicInteger failed;
+    private AtomicLong pixels;
+    private AtomicLong bytes;
+    private AtomicLong[] busyTime;
+
+    /**
+     * Crea un procesador por lotes con dos hilos para leer, dos para
+     * escribir y uno por procesador para filtrar.
+     * @param filter El filtro (o cadena de filtros) a aplicar, o 'null' si solo
+     *               se gira (ver setTransform).
+     * @param outputDir La carpeta donde se escriben los resultados.
+     */
+    public BatchProcessor(Filter filter, File outputDir)
+    {
+        this.filter = filter;
+        this.outputDir = outputDir;
+        decoders = 2;
+        workers = Runtime.getRuntime().availableProcessors();
+        encoders = 2;
+        queueSize = 8;
+        stripRows = -1;
+        jpegQuality = ImageFileManager.DEFAULT_JPEG_QUALITY;
+        pngLevel = ImageFileManager.DEFAULT_PNG_LEVEL;
+    }
+
+    /**
+     * Cambia el numero de hilos de cada etapa.
+     * @param decoders Los hilos que leen imagenes.
+     * @param workers Los hilos que aplican los filtros.
+     * @param encoders Los hilos que escriben imagenes.
+     */
+    public void setThreads(int decoders, int workers, int encoders)
+    {
+        if(decoders < 1 || workers < 1 || encoders < 1) {
+            throw new IllegalArgumentException("cada etapa necesita al menos un hilo");
+        }
+        this.decoders = decoders;
+        this.workers = workers;
+        this.encoders = encoders;
+    }
+
+    /**
+     * Cambia cuantas imagenes pueden esperar entre una etapa y la siguiente.
+     * @param queueSize El tamaño de cada cola.
+     */
+    public void setQueueSize(int queueSize)
+    {
+        if(queueSize < 1) {
+            throw new IllegalArgumentException("tamaño de cola no valido: " + queueSize);
+        }
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Cambia el formato de los archivos de salida.
+     * @param format El formato, por ejemplo "png", o 'null' para usar el
+     *               de cada archivo de entrada.
+     */
+    public void setFormat(String format)
+    {
+        this.format = format;
+    }
+
+    /**
+     * Gira o voltea cada imagen despues de filtrarla, sobre sus propios
+     * pixeles cuando el tamaño no cambia. No se puede usar al procesar por
+     * franjas.
+     * @param transform El giro o volteo, o 'null' para ninguno.
+     */
+    public void setTransform(Transform transform)
+    {
+        this.transform = transform;
+    }
+
+    /**
+     * Cambia la compresion de los archivos de salida.
+     * @param jpegQuality La calidad si son JPEG, de 0 a 100.
+     * @param pngLevel El nivel de compresion si son PNG, de 0 (ninguna) a 9.
+     */
+    public void setCompression(int jpegQuality, int pngLevel)
+    {
+        if(jpegQuality < 0 || jpegQuality > 100) {
+            throw new IllegalArgumentException("calidad JPEG fuera de rango: " + jpegQuality);
+        }
+        if(pngLevel < 0 || pngLevel > 9) {
+            throw new IllegalArgumentException("nivel de compresion PNG fuera de rango: " + pngLevel);
+        }
+        this.jpegQuality = jpegQuality;
+        this.pngLevel = pngLevel;
+    }
+
+    /**
+     * Indica si la lectura y la escritura usan hilos virtuales. Solo tiene
+     * efecto en Java 21 o superior; en versiones anteriores se usan hilos
+     * normales.
+     * @param virtualThreads 'true' para usar hilos virtuales.
+     */
+    public void setVirtualThreads(boolean virtualThreads)
+    {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Indica si cada imagen se procesa por franjas (ver StripProcessor), sin
+     * tenerla nunca entera en memoria. En ese caso cada hilo de filtrado
+     * lee, filtra y escribe una imagen y las etapas de leer y escribir no
+     * se usan.
+     * @param stripRows El alto de las franjas (0 para elegirlo segun el
+     *                  ancho), o -1 para procesar las imagenes enteras.
+     * @throws IllegalArgumentException Si el filtro no se puede aplicar
+     *                                  por franjas.
+     */
+    public void setStripRows(int stripRows)
+    {
+        if(stripRows < -1) {
+            throw new IllegalArgumentException("alto de franja no valido: " + stripRows);
+        }
+        if(stripRows >= 0 && filter != null) {
+            // falla aqui, y no al procesar, si el filtro no se puede aplicar por franjas
+            new StripProcessor(filter);
+        }
+        this.stripRows = stripRows;
+    }
+
+    /**
+     * Procesa unos archivos. Los que no se pueden leer o escribir se
+     * informan por la salida de errores y se siguen procesando los demas.
+     *
+     * @param files Los archivos de imagen.
+     * @return El numero de imagenes que fallaron.
+     * @throws InterruptedException Si se interrumpe el hilo que llama.
+     */
+    public int run(final List<File> files) throws InterruptedException
+    {
+        processed = new AtomicInteger();
+        failed = new AtomicInteger();
+        pixels = new AtomicLong();
+        bytes = new AtomicLong();
+        busyTime = new AtomicLong[] { new AtomicLong(), new AtomicLong(), new AtomicLong() };
+        if(stripRows >= 0) {
+            if(transform != null) {
+                throw new IllegalStateException("los giros no se pueden hacer por franjas");
+            }
+            return runStrips(files);
+        }
+
+        final BlockingQueue<Item> decoded = new ArrayBlockingQueue<Item>(queueSize);
+        final BlockingQueue<Item> filtered = new ArrayBlockingQueue<Item>(queueSize);
+        final AtomicInteger nextFile = new AtomicInteger();
+        final AtomicInteger decodersLeft = new AtomicInteger(decoders);
+        final AtomicInteger workersLeft = new AtomicInteger(workers);
+
+        boolean virtual = virtualThreads && supportsVirtualThreads();
+        ExecutorService decodeStage = createStage("Leer", decoders, virtual);
+        ExecutorService filterStage = createStage("Filtrar", workers, false);
+        ExecutorService encodeStage = createStage("Escribir", encoders, virtual);
+
+        for(int i = 0; i < decoders; i++) {
+            decodeStage.execute(new StageTask(decodersLeft, decoded, workers) {
+                protected void work() throws InterruptedException
+                {
+                    for(int n = nextFile.getAndIncrement(); n < files.size();
+                            n = nextFile.getAndIncrement()) {
+                        File file = files.get(n);
+                        long start = System.nanoTime();
+                        OFImage image = decode(file);
+                        busyTime[0].addAndGet(System.nanoTime() - start);
+                        if(image != null) {
+                            decoded.put(new Item(file, image));
+                        }
+                    }
+                }
+            });
+        }
+        for(int i = 0; i < workers; i++) {
+            filterStage.execute(new StageTask(workersLeft, filtered, encoders) {
+                protected void work() throws InterruptedException
+                {
+                    for(Item item = decoded.take(); item != END; item = decoded.take()) {
+                        long start = System.nanoTime();
+                        boolean ok = applyFilter(item);
+                        busyTime[1].addAndGet(System.nanoTime() - start);
+                        if(ok) {
+                            filtered.put(item);
+                        }
+                    }
+                }
+            });
+        }
+        for(int i = 0; i < encoders; i++) {
+            encodeStage.execute(new StageTask(null, null, 0) {
+                protected void work() throws InterruptedException
+                {
+                    for(Item item = filtered.take(); item != END; item = filtered.take()) {
+                        long start = System.nanoTime();
+                        encode(item);
+                        busyTime[2].addAndGet(System.nanoTime() - start);
+                    }
+                }
+            });
+        }
+
+        try {
+            for(ExecutorService stage : Arrays.asList(decodeStage, filterStage, encodeStage)) {
+                stage.shutdown();
+                stage.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+        }
+        finally {
+            decodeStage.shutdownNow();
+            filterStage.shutdownNow();
+            encodeStage.shutdownNow();
+        }
+        return failed.get();
+    }
+
+    /**
+     * Procesa cada archivo por franjas en uno de los hilos de filtrado.
+     */
+    private int runStrips(List<File> files) throws InterruptedException
+    {
+        final StripProcessor strips = new StripProcessor(filter);
+        strips.setStripHeight(stripRows);
+        strips.setPngLevel(pngLevel);
+        ExecutorService stage = createStage("Franjas", workers, false);
+        for(final File file : files) {
+            stage.execute(new Runnable() {
+                public void run()
+                {
+                    long start = System.nanoTime();
+                    String imageFormat = getOutputFormat(file);
+                    File output = getOutputFile(file, imageFormat);
+                    try {
+                        pixels.addAndGet(strips.process(file, output, imageFormat));
+                        bytes.addAndGet(output.length());
+                        processed.incrementAndGet();
+                    }
+                    catch(IOException | RuntimeException exc) {
+                        error(file, exc.getMessage());
+                    }
+                    busyTime[1].addAndGet(System.nanoTime() - start);
+                }
+            });
+        }
+        stage.shutdown();
+        stage.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        return failed.get();
+    }
+
+    /**
+     * Escribe un resumen de la ultima ejecucion: imagenes y megapixeles
+     * por segundo, bytes escritos y el tiempo ocupado de cada etapa.
+     *
+     * @param seconds Lo que tardó la ejecucion, en segundos.
+     * @return El resumen.
+     */
+    public String getReport(double seconds)
+    {
+        int count = processed.get();
+        double megapixels = pixels.get() / 1e6;
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT,
+                      "%d imagenes (%d con error) en %.2f s: %.2f img/s, %.2f MP/s%n",
+                      count, failed.get(), seconds, count / seconds, megapixels / seconds));
+        report.append(String.format(Locale.ROOT, "  %.2f MB escritos%n", bytes.get() / 1e6));
+        String[] names = { "leer", "filtrar", "escribir" };
+        int[] threads = { decoders, workers, encoders };
+        if(stripRows >= 0) {
+            names[1] = "franjas";
+        }
+        for(int i = 0; i < names.length; i++) {
+            if(stripRows >= 0 && i != 1) {
+                continue;
+            }
+            double busy = busyTime[i].get() / 1e9;
+            report.append(String.format(Locale.ROOT,
+                          "  %-8s %2d hilos, %.2f s ocupados (%.0f%% de los hilos)%n",
+                          names[i], threads[i], busy, 100 * busy / (seconds * threads[i])));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Lee una imagen. Devuelve 'null' si no se pudo.
+     */
+    private OFImage decode(File file)
+    {
+        OFImage image = ImageFileManager.loadImage(file);
+        if(image == null) {
+            error(file, "no es una imagen que se pueda leer");
+        }
+        return image;
+    }
+
+    /**
+     * Aplica el filtro a una imagen. Devuelve 'false' si falló.
+     */
+    private boolean applyFilter(Item item)
+    {
+        try {
+            if(filter != null) {
+                PerformanceMonitor.Measurement measurement =
+                    PerformanceMonitor.getDefault().start(filter.getName());
+                filter.apply(item.image);
+                measurement.stop((long) item.image.getWidth() * item.image.getHeight());
+            }
+            if(transform != null) {
+                item.image = transform.applyInPlace(item.image);
+            }
+            return true;
+        }
+        catch(RuntimeException exc) {
+            error(item.file, exc.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Escribe una imagen filtrada en la carpeta de salida.
+     */
+    private void encode(Item item)
+    {
+        String imageFormat = getOutputFormat(item.file);
+        File output = getOutputFile(item.file, imageFormat);
+        try {
+            bytes.addAndGet(ImageFileManager.writeImage(item.image, output, imageFormat,
+                                                        jpegQuality, pngLevel));
+            processed.incrementAndGet();
+            pixels.addAndGet((long) item.image.getWidth() * item.image.getHeight());
+        }
+        catch(IOException exc) {
+            error(item.file, exc.getMessage());
+        }
+    }
+
+    /**
+     * Devuelve el formato en que se escribe el resultado de un archivo.
+     */
+    private String getOutputFormat(File file)
+    {
+        if(format != null) {
+            return format;
+        }
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 ? name.substring(dot + 1).toLowerCase() : "png";
+    }
+
+    /**
+     * Devuelve el archivo donde se escribe el resultado de un archivo.
+     */
+    private File getOutputFile(File file, String imageFormat)
+    {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String baseName = dot >= 0 ? name.substring(0, dot) : name;
+        return new File(outputDir, baseName + "." + imageFormat);
+    }
+
+    /**
+     * Informa que una imagen falló.
+     */
+    private void error(File file, String message)
+    {
+        failed.incrementAndGet();
+        System.err.println(file + ": " + message);
+    }
+
+    /**
+     * Indica si esta version de Java tiene hilos virtuales (Java 21 o
+     * superior). Si no, lo avisa por la salida de errores.
+     */
+    private static boolean supportsVirtualThreads()
+    {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        }
+        catch(NoSuchMethodException exc) {
+            System.err.println("Esta version de Java no tiene hilos virtuales; se usan hilos normales");
+            return false;
+        }
+    }
+
+    /**
+     * Crea los hilos de una etapa.
+     */
+    private static ExecutorService createStage(final String name, int threads, boolean virtual)
+    {
+        if(virtual) {
+            try {
+                return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            }
+            catch(ReflectiveOperationException exc) {
+                throw new IllegalStateException(exc);
+            }
+        }
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                               public Thread newThread(Runnable task) {
+                                   Thread thread = new Thread(task, name + "-" + count.incrementAndGet());
+                                   thread.setDaemon(true);
+                                   return thread;
+                               }
+                           });
+    }
+
+    /**
+     * Una imagen que pasa de una etapa a la siguiente.
+     */
+    private static class Item
+    {
+        private File file;
+        private OFImage image;
+
+        public Item(File file, OFImage image)
+        {
+            this.file = file;
+            this.image = image;
+        }
+    }
+
+    /**
+     * El trabajo de un hilo de una etapa. Cuando termina el ultimo hilo de
+     * la etapa, avisa a cada hilo de la etapa siguiente poniendo END en la
+     * cola de salida.
+     */
+    private abstract static class StageTask implements Runnable
+    {
+        private AtomicInteger threadsLeft;
+        private BlockingQueue<Item> output;
+        private int consumers;
+
+        /**
+         * @param threadsLeft Los hilos de la etapa que no terminaron.
+         * @param output La cola de salida, o 'null' en la ultima etapa.
+         * @param consumers Los hilos que leen de la cola de salida.
+         */
+        public StageTask(AtomicInteger threadsLeft, BlockingQueue<Item> output, int consumers)
+        {
+            this.threadsLeft = threadsLeft;
+            this.output = output;
+            this.consumers = consumers;
+        }
+
+        public void run()
+        {
+            try {
+                work();
+            }
+            catch(InterruptedException exc) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                if(output != null && threadsLeft.decrementAndGet() == 0) {
+                    try {
+                        for(int i = 0; i < consumers; i++) {
+                            output.put(END);
+                        }
+                    }
+                    catch(InterruptedException exc) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Procesa elementos hasta que no quede ninguno.
+         */
+        protected abstract void work() throws InterruptedException;
+    }
+
+    // ---- linea de comandos ----
+
+    /**
+     * Procesa por lotes desde la linea de comandos. Ver usage().
+     *
+     * @param args Las opciones, la carpeta (o archivo) de entrada y la
+     *             carpeta de salida.
+     */
+    public static void main(String[] args) throws InterruptedException
+    {
+        if(System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+        List<Filter> available = FilterCatalog.createFilters();
+        List<Filter> chain = new ArrayList<Filter>();
+        List<String> paths = new ArrayList<String>();
+        Transform transform = null;
+        String format = null;
+        int decoders = 2;
+        int workers = Runtime.getRuntime().availableProcessors();
+        int encoders = 2;
+        int queueSize = 8;
+        boolean virtual = false;
+        int stripRows = -1;
+        int jpegQuality = ImageFileManager.DEFAULT_JPEG_QUALITY;
+        int pngLevel = ImageFileManager.DEFAULT_PNG_LEVEL;
+        BatchProcessor processor = null;
+
+        try {
+            for(int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if(arg.equals("-f") || arg.equals("--filters")) {
+                    for(String name : value(args, ++i).split(",")) {
+                        Filter filter = FilterCatalog.findFilter(available, name);
+                        if(filter == null) {
+                            throw new IllegalArgumentException("filtro desconocido: " + name.trim());
+                        }
+                        chain.add(filter);
+                    }
+                }
+                else if(arg.equals("-l") || arg.equals("--list")) {
+                    for(Filter filter : available) {
+                        System.out.println(filter.getName());
+                    }
+                    return;
+                }
+                else if(arg.equals("--transform")) {
+                    String name = value(args, ++i);
+                    try {
+                        transform = Transform.valueOf(name.toUpperCase().replace('-', '_'));
+                    }
+                    catch(IllegalArgumentException exc) {
+                        throw new IllegalArgumentException("giro desconocido: " + name);
+                    }
+                }
+                else if(arg.equals("--format")) {
+                    format = value(args, ++i).toLowerCase();
+                }
+                else if(arg.equals("--decoders")) {
+                    decoders = positive(args, ++i);
+                }
+                else if(arg.equals("--workers")) {
+                    workers = positive(args, ++i);
+                }
+                else if(arg.equals("--encoders")) {
+                    encoders = positive(args, ++i);
+                }
+                else if(arg.equals("--queue")) {
+                    queueSize = positive(args, ++i);
+                }
+                else if(arg.equals("--virtual")) {
+                    virtual = true;
+                }
+                else if(arg.equals("--stream")) {
+                    stripRows = Math.max(stripRows, 0);
+                }
+                else if(arg.equals("--strip-rows")) {
+                    stripRows = Integer.parseInt(value(args, ++i));
+                    if(stripRows < 1) {
+                        throw new IllegalArgumentException("alto de franja no valido: " + stripRows);
+                    }
+                }
+                else if(arg.equals("--jpeg-quality")) {
+                    jpegQuality = Integer.parseInt(value(args, ++i));
+                    if(jpegQuality < 0 || jpegQuality > 100) {
+                        throw new IllegalArgumentException("calidad JPEG fuera de rango: " + jpegQuality);
+                    }
+                }
+                else if(arg.equals("--png-level")) {
+                    pngLevel = Integer.parseInt(value(args, ++i));
+                    if(pngLevel < 0 || pngLevel > 9) {
+                        throw new IllegalArgumentException("nivel de compresion PNG fuera de rango: " + pngLevel);
+                    }
+                }
+                else if(arg.startsWith("-")) {
+                    throw new IllegalArgumentException("opcion desconocida: " + arg);
+                }
+                else {
+                    paths.add(arg);
+                }
+            }
+            if((chain.isEmpty() && transform == null) || paths.size() != 2) {
+                throw new IllegalArgumentException("faltan los filtros, la entrada o la salida");
+            }
+            if(transform != null && stripRows >= 0) {
+                throw new IllegalArgumentException("--transform no se puede usar con --stream");
+            }
+            Filter filter = chain.isEmpty() ? null
+                            : chain.size() == 1 ? chain.get(0) : new FilterChain("Lote", chain);
+            processor = new BatchProcessor(filter, new File(paths.get(1)));
+            processor.setThreads(decoders, workers, encoders);
+            processor.setQueueSize(queueSize);
+            processor.setFormat(format);
+            processor.setTransform(transform);
+            processor.setVirtualThreads(virtual);
+            processor.setStripRows(stripRows);
+            processor.setCompression(jpegQuality, pngLevel);
+        }
+        catch(IllegalArgumentException exc) {
+            System.err.println(exc.getMessage());
+            usage();
+            System.exit(2);
+        }
+
+        File outputDir = new File(paths.get(1));
+        if(!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            System.err.println("No se puede crear la carpeta " + outputDir);
+            System.exit(2);
+        }
+        List<File> files = listImages(new File(paths.get(0)));
+
+        long start = System.nanoTime();
+        int errors = processor.run(files);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.print(processor.getReport(seconds));
+        System.exit(errors == 0 ? 0 : 1);
+    }
+
+    /**
+     * Devuelve el valor de una opcion.
+     */
+    private static String value(String[] args, int i)
+    {
+        if(i >= args.length) {
+            throw new IllegalArgumentException("falta el valor de " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    /**
+     * Devuelve el valor de una opcion que cuenta hilos o imagenes, que debe
+     * ser al menos 1.
+     */
+    private static int positive(String[] args, int i)
+    {
+        int count = Integer.parseInt(value(args, i));
+        if(count < 1) {
+            throw new IllegalArgumentException(args[i - 1] + " debe ser al menos 1: " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Devuelve los archivos de imagen de una carpeta, ordenados por nombre,
+     * o el archivo mismo si no es una carpeta.
+     */
+    private static List<File> listImages(File input)
+    {
+        List<File> files = new ArrayList<File>();
+        if(!input.isDirectory()) {
+            files.add(input);
+            return files;
+        }
+        List<String> suffixes = new ArrayList<String>();
+        for(String suffix : ImageIO.getReaderFileSuffixes()) {
+            suffixes.add(suffix.toLowerCase());
+        }
+        File[] entries = input.listFiles();
+        if(entries != null) {
+            Arrays.sort(entries);
+            for(File file : entries) {
+                String name = file.getName();
+                String suffix = name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+                if(file.isFile() && suffixes.contains(suffix)) {
+                    files.add(file);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Muestra como se usa el programa.
+     */
+    private static void usage()
+    {
+        System.err.println("uso: java BatchProcessor [opciones] <entrada> <salida>");
+        System.err.println("  -f, --filters <nombres>  filtros separados por comas, en orden");
+        System.err.println("  -l, --list               muestra los filtros disponibles");
+        System.err.println("  --transform <giro>       flip-horizontal, flip-vertical, rotate-90, rotate-180,");
+        System.err.println("                           rotate-270 o transpose, despues de los filtros");
+        System.err.println("  --format <formato>       formato de salida (por defecto el de cada archivo)");
+        System.err.println("  --jpeg-quality <n>       calidad de los JPEG, de 0 a 100 (90)");
+        System.err.println("  --png-level <n>          compresion de los PNG, de 0 a 9 (4)");
+        System.err.println("  --decoders <n>           hilos que leen imagenes (2)");
+        System.err.println("  --workers <n>            hilos que aplican los filtros (uno por procesador)");
+        System.err.println("  --encoders <n>           hilos que escriben imagenes (2)");
+        System.err.println("  --queue <n>              imagenes que esperan entre etapas (8)");
+        System.err.println("  --virtual                hilos virtuales para leer y escribir (Java 21)");
+        System.err.println("  --stream                 procesa cada imagen por franjas, sin cargarla entera");
+        System.err.println("                           (salida png, tiff o bmp)");
+        System.err.println("  --strip-rows <n>         alto de las franjas (implica --stream)");
+    }
+}
@@ -0,0 +1,384 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ConvolveFilter aplica un Kernel a la imagen: cada canal de cada pixel
+ * pasa a ser la suma de los pixeles de su alrededor por sus pesos. Los
+ * pixeles que el nucleo toma fuera de la imagen se resuelven segun un
+ * EdgePolicy.
+ *
+ * Las filas se calculan por grupos: primero se pasan los canales del grupo,
+ * con el margen que necesita el nucleo, a arreglos de float, y despues se
+ * aplica el nucleo de una de tres formas:
+ * - si es separable, con una pasada horizontal y una vertical;
+ * - si es chico, directamente;
+ * - si tiene FFT_MIN_AREA pesos o más, multiplicando las transformadas de
+ *   Fourier por bloques (overlap-save), con un costo por pixel que casi no
+ *   depende del tamaño del nucleo.
+ */
+public class ConvolveFilter extends RowFilter
+{
+    // a partir de este numero de pesos los nucleos no separables usan la FFT
+    public static final int FFT_MIN_AREA = 225;
+    // filas que se calculan juntas en las formas directa y separable
+    private static final int CHUNK_ROWS = 64;
+
+    private Kernel kernel;
+    private EdgePolicy edgePolicy;
+    private float[] values;
+    // fila y columna si el nucleo es separable, o 'null'
+    private float[][] separable;
+    // transformadas del nucleo ya calculadas, por tamaño de bloque
+    private Map<Long, Spectrum> spectra;
+    // si se aplica siempre directamente (ver directFilter)
+    private boolean direct;
+
+    /**
+     * Crea un filtro que repite los pixeles del borde.
+     * @param name El nombre del filtro.
+     * @param kernel El nucleo.
+     */
+    public ConvolveFilter(String name, Kernel kernel)
+    {
+        this(name, kernel, EdgePolicy.CLAMP);
+    }
+
+    /**
+     * Crea un filtro de convolucion.
+     * @param name El nombre del filtro.
+     * @param kernel El nucleo.
+     * @param edgePolicy Que se toma para los pixeles fuera de la imagen.
+     */
+    public ConvolveFilter(String name, Kernel kernel, EdgePolicy edgePolicy)
+    {
+        super(name);
+        this.kernel = kernel;
+        this.edgePolicy = edgePolicy;
+        values = kernel.getValues();
+        separable = kernel.separate();
+        spectra = new HashMap<Long, Spectrum>();
+    }
+
+    /**
+     * @return El nucleo.
+     */
+    public Kernel getKernel()
+    {
+        return kernel;
+    }
+
+    /**
+     * @return Que se toma para los pixeles fuera de la imagen.
+     */
+    public EdgePolicy getEdgePolicy()
+    {
+        return edgePolicy;
+    }
+
+    /**
+     * Devuelve un filtro con el mismo nucleo que lo aplica siempre
+     * directamente, para comparar con él las otras dos formas.
+     */
+    ConvolveFilter directFilter()
+    {
+        ConvolveFilter filter = new ConvolveFilter(getName(), kernel, edgePolicy);
+        filter.separable = null;
+        filter.direct = true;
+        return filter;
+    }
+
+    /**
+     * @return La mitad del alto del nucleo; con WRAP las filas de un borde
+     *         leen las del otro, asi que puede ser cualquiera.
+     */
+    public int getHaloRows()
+    {
+        return edgePolicy == EdgePolicy.WRAP ? ALL_ROWS : kernel.getHeight() / 2;
+    }
+
+    public void applyRows(int[] source, int[] pixels, int width, int height,
+                          int startY, int endY)
+    {
+        applyStrip(source, pixels, width, height, 0, height, startY, endY);
+    }
+
+    /**
+     * Los bordes son los de la imagen entera, no los de la franja.
+     */
+    public void applyStrip(int[] source, int[] pixels, int width, int height,
+                           int sourceY, int sourceRows, int startY, int endY)
+    {
+        int kw = kernel.getWidth();
+        int kh = kernel.getHeight();
+        boolean fft = !direct && separable == null && kw * kh >= FFT_MIN_AREA;
+        int blockWidth = 0;
+        int blockHeight = 0;
+        int chunkRows = CHUNK_ROWS;
+        if(fft) {
+            blockWidth = Math.max(FourierTransform.sizeFor(4 * kw), 64);
+            blockHeight = FourierTransform.sizeFor(Math.min(endY - startY, blockWidth - kw + 1)
+                                                   + kh - 1);
+            chunkRows = blockHeight - kh + 1;
+        }
+        for(int chunkY = startY; chunkY < endY; chunkY += chunkRows) {
+            int rows = Math.min(chunkRows, endY - chunkY);
+            float[][] planes = unpack(source, width, height, sourceY, sourceRows,
+                                      chunkY - kh / 2, rows + kh - 1);
+            int offset = (chunkY - sourceY) * width;
+            if(separable != null) {
+                convolveSeparable(planes, pixels, offset, width, rows);
+            }
+            else if(fft) {
+                convolveFourier(planes, pixels, offset, width, rows, blockWidth, blockHeight);
+            }
+            else {
+                convolveDirect(planes, pixels, offset, width, rows);
+            }
+        }
+    }
+
+    /**
+     * Pasa los canales de unas filas a arreglos de float, con el margen de
+     * la mitad del ancho del nucleo a cada lado.
+     *
+     * @param firstY La primera fila, en la imagen entera; puede estar fuera.
+     * @return Los canales rojo, verde y azul.
+     */
+    private float[][] unpack(int[] source, int width, int height, int sourceY, int sourceRows,
+                             int firstY, int rows)
+    {
+        int margin = kernel.getWidth() / 2;
+        int paddedWidth = width + 2 * margin;
+        float[][] planes = new float[3][paddedWidth * rows];
+        float[] red = planes[0];
+        float[] green = planes[1];
+        float[] blue = planes[2];
+        for(int j = 0; j < rows; j++) {
+            int y = edgePolicy.resolve(firstY + j, height);
+            if(y < 0) {
+                continue;
+            }
+            // con el margen de getHaloRows no pasa, pero se limita por las dudas
+            int in = Math.min(Math.max(y - sourceY, 0), sourceRows - 1) * width;
+            int out = j * paddedWidth + margin;
+            for(int x = -margin; x < width + margin; x++) {
+                int sx = x >= 0 && x < width ? x : edgePolicy.resolve(x, width);
+                if(sx >= 0) {
+                    int pix = source[in + sx];
+                    red[out + x] = (pix >> 16) & 0xff;
+                    green[out + x] = (pix >> 8) & 0xff;
+                    blue[out + x] = pix & 0xff;
+                }
+            }
+        }
+        return planes;
+    }
+
+    /**
+     * Suma cada peso por los pixeles que le corresponden.
+     */
+    private void convolveDirect(float[][] planes, int[] pixels, int offset, int width, int rows)
+    {
+        int kw = kernel.getWidth();
+        int kh = kernel.getHeight();
+        int paddedWidth = width + kw - 1;
+        float[][] sums = new float[3][width];
+        for(int y = 0; y < rows; y++) {
+            for(int c = 0; c < 3; c++) {
+                float[] plane = planes[c];
+                float[] sum = sums[c];
+                Arrays.fill(sum, 0);
+                for(int j = 0; j < kh; j++) {
+                    for(int i = 0; i < kw; i++) {
+                        float weight = values[j * kw + i];
+                        if(weight != 0) {
+                            int in = (y + j) * paddedWidth + i;
+                            for(int x = 0; x < width; x++) {
+                                sum[x] += weight * plane[in + x];
+                            }
+                        }
+                    }
+                }
+            }
+            pack(sums[0], sums[1], sums[2], 0, pixels, offset + y * width, width);
+        }
+    }
+
+    /**
+     * Aplica la fila del nucleo a todas las filas y despues la columna.
+     */
+    private void convolveSeparable(float[][] planes, int[] pixels, int offset, int width, int rows)
+    {
+        float[] row = separable[0];
+        float[] column = separable[1];
+        int kw = row.length;
+        int kh = column.length;
+        int paddedWidth = width + kw - 1;
+        int paddedRows = rows + kh - 1;
+        float[][] sums = new float[3][width * rows];
+        float[] line = new float[width * paddedRows];
+        for(int c = 0; c < 3; c++) {
+            float[] plane = planes[c];
+            Arrays.fill(line, 0);
+            for(int y = 0; y < paddedRows; y++) {
+                for(int i = 0; i < kw; i++) {
+                    float weight = row[i];
+                    int in = y * paddedWidth + i;
+                    int out = y * width;
+                    for(int x = 0; x < width; x++) {
+                        line[out + x] += weight * plane[in + x];
+                    }
+                }
+            }
+            float[] sum = sums[c];
+            for(int y = 0; y < rows; y++) {
+                for(int j = 0; j < kh; j++) {
+                    float weight = column[j];
+                    int in = (y + j) * width;
+                    int out = y * width;
+                    for(int x = 0; x < width; x++) {
+                        sum[out + x] += weight * line[in + x];
+                    }
+                }
+            }
+        }
+        for(int y = 0; y < rows; y++) {
+            pack(sums[0], sums[1], sums[2], y * width, pixels, offset + y * width, width);
+        }
+    }
+
+    /**
+     * Convoluciona por bloques de blockWidth x blockHeight multiplicando
+     * las transformadas. El rojo y el verde van juntos en una transformada
+     * compleja (como parte real e imaginaria) porque el nucleo es real.
+     */
+    private void convolveFourier(float[][] planes, int[] pixels, int offset, int width, int rows,
+                                 int blockWidth, int blockHeight)
+    {
+        int kw = kernel.getWidth();
+        int kh = kernel.getHeight();
+        int paddedWidth = width + kw - 1;
+        int paddedRows = rows + kh - 1;
+        int outWidth = blockWidth - kw + 1;
+        Spectrum spectrum = getSpectrum(blockWidth, blockHeight);
+        int size = blockWidth * blockHeight;
+        double[] redGreenRe = new double[size];
+        double[] redGreenIm = new double[size];
+        double[] blueRe = new double[size];
+        double[] blueIm = new double[size];
+        float[] red = new float[width * rows];
+        float[] green = new float[width * rows];
+        float[] blue = new float[width * rows];
+
+        for(int x0 = 0; x0 < width; x0 += outWidth) {
+            Arrays.fill(redGreenRe, 0);
+            Arrays.fill(redGreenIm, 0);
+            Arrays.fill(blueRe, 0);
+            Arrays.fill(blueIm, 0);
+            int columns = Math.min(blockWidth, paddedWidth - x0);
+            for(int y = 0; y < Math.min(blockHeight, paddedRows); y++) {
+                int in = y * paddedWidth + x0;
+                int out = y * blockWidth;
+                for(int x = 0; x < columns; x++) {
+                    redGreenRe[out + x] = planes[0][in + x];
+                    redGreenIm[out + x] = planes[1][in + x];
+                    blueRe[out + x] = planes[2][in + x];
+                }
+            }
+            FourierTransform.transform2D(spectrum.rows, spectrum.columns,
+                                         redGreenRe, redGreenIm, false);
+            FourierTransform.transform2D(spectrum.rows, spectrum.columns, blueRe, blueIm, false);
+            for(int i = 0; i < size; i++) {
+                double kr = spectrum.re[i];
+                double ki = spectrum.im[i];
+                double r = redGreenRe[i];
+                redGreenRe[i] = r * kr - redGreenIm[i] * ki;
+                redGreenIm[i] = r * ki + redGreenIm[i] * kr;
+                r = blueRe[i];
+                blueRe[i] = r * kr - blueIm[i] * ki;
+                blueIm[i] = r * ki + blueIm[i] * kr;
+            }
+            FourierTransform.transform2D(spectrum.rows, spectrum.columns,
+                                         redGreenRe, redGreenIm, true);
+            FourierTransform.transform2D(spectrum.rows, spectrum.columns, blueRe, blueIm, true);
+
+            // solo son validos los resultados que no dan la vuelta al bloque
+            int outColumns = Math.min(outWidth, width - x0);
+            for(int y = 0; y < rows; y++) {
+                int in = (y + kh - 1) * blockWidth + kw - 1;
+                int out = y * width + x0;
+                for(int x = 0; x < outColumns; x++) {
+                    red[out + x] = (float) redGreenRe[in + x];
+                    green[out + x] = (float) redGreenIm[in + x];
+                    blue[out + x] = (float) blueRe[in + x];
+                }
+            }
+        }
+        for(int y = 0; y < rows; y++) {
+            pack(red, green, blue, y * width, pixels, offset + y * width, width);
+        }
+    }
+
+    /**
+     * Devuelve la transformada del nucleo invertido para un tamaño de
+     * bloque, ya dividida por el numero de valores para que la inversa de
+     * el resultado sin escalar.
+     */
+    private Spectrum getSpectrum(int blockWidth, int blockHeight)
+    {
+        Long key = ((long) blockWidth << 32) | blockHeight;
+        synchronized(spectra) {
+            Spectrum spectrum = spectra.get(key);
+            if(spectrum == null) {
+                int kw = kernel.getWidth();
+                int kh = kernel.getHeight();
+                spectrum = new Spectrum();
+                spectrum.rows = new FourierTransform(blockWidth);
+                spectrum.columns = new FourierTransform(blockHeight);
+                int size = blockWidth * blockHeight;
+                spectrum.re = new double[size];
+                spectrum.im = new double[size];
+                for(int j = 0; j < kh; j++) {
+                    for(int i = 0; i < kw; i++) {
+                        spectrum.re[j * blockWidth + i] = (double) values[(kh - 1 - j) * kw
+                                                                          + kw - 1 - i] / size;
+                    }
+                }
+                FourierTransform.transform2D(spectrum.rows, spectrum.columns,
+                                             spectrum.re, spectrum.im, false);
+                spectra.put(key, spectrum);
+            }
+            return spectrum;
+        }
+    }
+
+    /**
+     * Redondea y limita los canales de una fila y los empaqueta.
+     */
+    private static void pack(float[] red, float[] green, float[] blue, int in,
+                             int[] pixels, int out, int width)
+    {
+        for(int x = 0; x < width; x++) {
+            pixels[out + x] = 0xff000000 | (clamp(red[in + x]) << 16)
+                                         | (clamp(green[in + x]) << 8) | clamp(blue[in + x]);
+        }
+    }
+
+    private static int clamp(float value)
+    {
+        int v = Math.round(value);
+        return v < 0 ? 0 : v > 255 ? 255 : v;
+    }
+
+    /**
+     * La transformada del nucleo para un tamaño de bloque.
+     */
+    private static class Spectrum
+    {
+        private FourierTransform rows;
+        private FourierTransform columns;
+        private double[] re;
+        private double[] im;
+    }
+}
@@ -1,6 +1,8 @@
 
-public class DarkerFilter extends Filter
+public class DarkerFilter extends PointFilter
 {
+    // el mismo factor que usa Color.darker()
+    private static final double FACTOR = 0.7;
 
     public DarkerFilter(String name)
     {
@@ -8,14 +10,12 @@ public class DarkerFilter extends Filter
     }
 
 
-    public void apply(OFImage image)
+    protected LookupTable createTable()
     {
-        int height = image.getHeight();
-        int width = image.getWidth();
-        for(int y = 0; y < height; y++) {
-            for(int x = 0; x < width; x++) {
-                image.setPixel(x, y, image.getPixel(x, y).darker());
-            }
+        int[] table = new int[256];
+        for(int i = 0; i < 256; i++) {
+            table[i] = (int)(i * FACTOR);
         }
+        return LookupTable.forChannels(table);
     }
 }
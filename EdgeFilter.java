@@ -1,136 +1,299 @@
-import java.awt.Color;
 
-import java.util.List;
-import java.util.ArrayList;
-
-public class EdgeFilter extends Filter
+/**
+ * Detecta los bordes de la imagen. Cada canal del resultado es 255 menos la
+ * intensidad del borde en ese punto (menos la tolerancia), asi que los
+ * bordes quedan oscuros sobre fondo blanco.
+ *
+ * La intensidad del borde se puede medir de tres formas (ver Operator):
+ * la diferencia entre el maximo y el minimo de los pixeles adyacentes, o la
+ * magnitud del gradiente de Sobel o de Prewitt.
+ */
+public class EdgeFilter extends RowFilter
 {
-    private static final int TOLERANCE = 20;
-    
-    private OFImage original;
-    private int width;
-    private int height;
+    /**
+     * Las formas de medir la intensidad de un borde.
+     */
+    public enum Operator
+    {
+        // maximo menos minimo del pixel y sus adyacentes
+        RANGE,
+        // magnitud del gradiente con los nucleos de Sobel
+        SOBEL,
+        // magnitud del gradiente con los nucleos de Prewitt
+        PREWITT
+    }
+
+    public static final int DEFAULT_TOLERANCE = 20;
+
+    private Operator operator;
+    private int tolerance;
 
     /**
      * Constructor de objetos de la clase EdgeFilter.
      * @param nombre El nombre del filtro.
      */
     public EdgeFilter(String name)
+    {
+        this(name, Operator.RANGE, DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * Crea un filtro de bordes con una forma de medir y una tolerancia.
+     * @param name El nombre del filtro.
+     * @param operator La forma de medir la intensidad del borde.
+     * @param tolerance Lo que se resta a la intensidad antes de dibujarla (0-255).
+     */
+    public EdgeFilter(String name, Operator operator, int tolerance)
     {
         super(name);
+        this.operator = operator;
+        setTolerance(tolerance);
     }
 
     /**
-     * Aplica este filtro a una imagen.
+     * Devuelve la forma de medir la intensidad del borde.
      *
-     * @param image La imagen que cambiará este filtro.
+     * @return El operador.
      */
-    public void apply(OFImage image)
+    public Operator getOperator()
     {
-        original = new OFImage(image);
-        width = original.getWidth();
-        height = original.getHeight();
-        
-        for(int y = 0; y < height; y++) {
-            for(int x = 0; x < width; x++) {
-                image.setPixel(x, y, edge(x, y));
-            }
-        }
+        return operator;
     }
 
     /**
-      * Devuelve un nuevo color que es el color suavizado de un determinado
-      * posición. El "color suavizado" es el valor de color que es el
-      * promedio de este píxel y todos los píxeles adyacentes.
-      * @param xpos La posición x del píxel.
-      * @param ypos La posición y del píxel.
-      * @return El color suavizado.
+     * Devuelve lo que se resta a la intensidad del borde.
+     *
+     * @return La tolerancia.
      */
-    private Color edge(int xpos, int ypos)
+    public int getTolerance()
     {
-        List<Color> pixels = new ArrayList<Color>(9);
-        
-        for(int y = ypos-1; y <= ypos+1; y++) {
-            for(int x = xpos-1; x <= xpos+1; x++) {
-                if( x >= 0 && x < width && y >= 0 && y < height ) {
-                    pixels.add(original.getPixel(x, y));
-                }
-            }
+        return tolerance;
+    }
+
+    /**
+     * Cambia lo que se resta a la intensidad del borde.
+     *
+     * @param tolerance La nueva tolerancia, de 0 a 255.
+     */
+    public void setTolerance(int tolerance)
+    {
+        if(tolerance < 0 || tolerance > 255) {
+            throw new IllegalArgumentException("tolerancia fuera de rango: " + tolerance);
         }
+        this.tolerance = tolerance;
+    }
 
-        return new Color(255 - diffRed(pixels), 255 - diffGreen(pixels), 255 - diffBlue(pixels));
+    /**
+     * @return 1: cada fila lee la de arriba y la de abajo.
+     */
+    public int getHaloRows()
+    {
+        return 1;
     }
 
     /**
-     * @param pixels La lista de píxeles a promediar.
-     * @return El promedio de todos los valores rojos en la lista dada de píxeles.
+     * Calcula las filas de startY (incluida) a endY (excluida).
      */
-    private int diffRed(List<Color> pixels)
+    public void applyRows(int[] original, int[] pixels, int width, int height,
+                          int startY, int endY)
     {
-        int max = 0;
-        int min = 255;
-        for(Color color : pixels) {
-            int val = color.getRed();
-            if(val > max) {
-                max = val;
-            }
-            if(val < min) {
-                min = val;
-            }
+        if(operator == Operator.RANGE) {
+            rangeRows(original, pixels, width, height, startY, endY);
         }
-        int difference = max - min - TOLERANCE;
-        if(difference < 0) {
-            difference = 0;
+        else {
+            gradientRows(original, pixels, width, height, startY, endY);
         }
-        return difference;
     }
 
     /**
-      * @param pixels La lista de píxeles a promediar.
-      * @return El promedio de todos los valores verdes en la lista dada de píxeles.
+     * Calcula el maximo menos el minimo de cada pixel y sus adyacentes.
+     *
+     * Para cada fila se guarda el maximo y el minimo de cada pixel con sus
+     * vecinos de la izquierda y la derecha. Las tres ultimas filas quedan
+     * en un buffer circular: al bajar una fila solo se calcula la nueva.
+     * Los tres canales se procesan a la vez, cada uno en 16 bits de un long
+     * (ver spread).
      */
-    private int diffGreen(List<Color> pixels)
+    private void rangeRows(int[] original, int[] pixels, int width, int height,
+                           int startY, int endY)
     {
-        int max = 0;
-        int min = 255;
-        for(Color color : pixels) {
-            int val = color.getGreen();
-            if(val > max) {
-                max = val;
+        long[][] rowMax = new long[3][width];
+        long[][] rowMin = new long[3][width];
+        long lanes255 = spread(0xffffff);
+        long lanesTolerance = spread((tolerance << 16) | (tolerance << 8) | tolerance);
+
+        for(int y = Math.max(startY - 1, 0); y <= Math.min(startY, height - 1); y++) {
+            rowRange(original, y * width, width, rowMax[y % 3], rowMin[y % 3]);
+        }
+        for(int y = startY; y < endY; y++) {
+            if(y + 1 < height) {
+                rowRange(original, (y + 1) * width, width, rowMax[(y + 1) % 3], rowMin[(y + 1) % 3]);
             }
-            if(val < min) {
-                min = val;
+            long[] max = rowMax[y % 3];
+            long[] min = rowMin[y % 3];
+            long[] maxAbove = y > 0 ? rowMax[(y + 2) % 3] : max;
+            long[] minAbove = y > 0 ? rowMin[(y + 2) % 3] : min;
+            long[] maxBelow = y + 1 < height ? rowMax[(y + 1) % 3] : max;
+            long[] minBelow = y + 1 < height ? rowMin[(y + 1) % 3] : min;
+            int offset = y * width;
+            for(int x = 0; x < width; x++) {
+                long hi = laneMax(laneMax(maxAbove[x], max[x]), maxBelow[x]);
+                long lo = laneMin(laneMin(minAbove[x], min[x]), minBelow[x]);
+                // hi >= lo en cada canal, asi que la resta no pasa de un canal a otro
+                long strength = laneSubtractClamped(hi - lo, lanesTolerance);
+                pixels[offset + x] = 0xff000000 | pack(lanes255 - strength);
             }
         }
-        int difference = max - min - TOLERANCE;
-        if(difference < 0) {
-            difference = 0;
+    }
+
+    /**
+     * Calcula, canal por canal, el maximo y el minimo de cada pixel de una
+     * fila con sus vecinos de la izquierda y la derecha.
+     */
+    private static void rowRange(int[] original, int offset, int width, long[] max, long[] min)
+    {
+        long previous = spread(original[offset]);
+        long current = previous;
+        for(int x = 0; x < width; x++) {
+            long next = x + 1 < width ? spread(original[offset + x + 1]) : current;
+            max[x] = laneMax(laneMax(previous, current), next);
+            min[x] = laneMin(laneMin(previous, current), next);
+            previous = current;
+            current = next;
         }
-        return difference;
     }
 
     /**
-     * @param pixels La lista de píxeles a promediar.
-     * @return El promedio de todos los valores azules en la lista dada de píxeles.
+     * Calcula la magnitud del gradiente con los nucleos de Sobel o Prewitt.
+     * Fuera de la imagen se repiten los pixeles del borde.
+     *
+     * Las sumas positivas y negativas de cada nucleo se calculan para los
+     * tres canales a la vez (ver spread) y solo la raiz se hace por canal.
      */
-    private int diffBlue(List<Color> pixels)
+    private void gradientRows(int[] original, int[] pixels, int width, int height,
+                              int startY, int endY)
     {
-        int max = 0;
-        int min = 255;
-        for(Color color : pixels) {
-            int val = color.getBlue();
-            if(val > max) {
-                max = val;
-            }
-            if(val < min) {
-                min = val;
+        // peso de la fila (o columna) central del nucleo
+        long center = operator == Operator.SOBEL ? 2 : 1;
+        int t = tolerance;
+        long[] above = new long[width];
+        long[] row = new long[width];
+        long[] below = new long[width];
+        spreadRow(original, Math.max(startY - 1, 0) * width, width, above);
+        spreadRow(original, startY * width, width, row);
+
+        for(int y = startY; y < endY; y++) {
+            spreadRow(original, Math.min(y + 1, height - 1) * width, width, below);
+            for(int x = 0; x < width; x++) {
+                int left = Math.max(x - 1, 0);
+                int right = Math.min(x + 1, width - 1);
+                long rightSum = above[right] + center * row[right] + below[right];
+                long leftSum = above[left] + center * row[left] + below[left];
+                long bottomSum = below[left] + center * below[x] + below[right];
+                long topSum = above[left] + center * above[x] + above[right];
+                int result = 0xff000000;
+                for(int lane = 0; lane < 3; lane++) {
+                    int bits = lane * 16;
+                    int gx = (int)((rightSum >>> bits) & 0xffff) - (int)((leftSum >>> bits) & 0xffff);
+                    int gy = (int)((bottomSum >>> bits) & 0xffff) - (int)((topSum >>> bits) & 0xffff);
+                    int magnitude = (int) Math.sqrt(gx * gx + gy * gy);
+                    result |= edgeValue(magnitude, t) << (lane * 8);
+                }
+                pixels[y * width + x] = result;
             }
+            long[] free = above;
+            above = row;
+            row = below;
+            below = free;
+        }
+    }
+
+    /**
+     * Separa los pixeles de una fila (ver spread).
+     */
+    private static void spreadRow(int[] original, int offset, int width, long[] row)
+    {
+        for(int x = 0; x < width; x++) {
+            row[x] = spread(original[offset + x]);
         }
-        int difference = max - min - TOLERANCE;
+    }
+
+    /**
+     * Convierte la intensidad de un borde en el valor del canal resultante.
+     * @param strength La intensidad del borde en un canal.
+     * @param tolerance Lo que se resta a la intensidad.
+     * @return 255 menos la intensidad (sin bajar de 0 ni pasar de 255).
+     */
+    private static int edgeValue(int strength, int tolerance)
+    {
+        int difference = strength - tolerance;
         if(difference < 0) {
             difference = 0;
         }
-        return difference;
+        else if(difference > 255) {
+            difference = 255;
+        }
+        return 255 - difference;
     }
 
+    // bit alto de cada canal separado por spread
+    private static final long LANE_GUARD = 0x800080008000L;
+    private static final long LANE_MASK = 0xffffL;
+
+    /**
+     * Separa los canales de un pixel en un long, cada uno en 16 bits:
+     * el rojo en los bits 32-47, el verde en 16-31 y el azul en 0-15. Asi
+     * se pueden sumar o comparar los tres canales con una sola operacion.
+     */
+    private static long spread(int pixel)
+    {
+        return ((pixel & 0xff0000L) << 16) | ((pixel & 0xff00L) << 8) | (pixel & 0xffL);
+    }
+
+    /**
+     * Junta de nuevo en un pixel los canales separados por spread, que
+     * deben estar entre 0 y 255.
+     */
+    private static int pack(long lanes)
+    {
+        return (int)(((lanes >>> 16) & 0xff0000L) | ((lanes >>> 8) & 0xff00L) | (lanes & 0xffL));
+    }
+
+    /**
+     * Devuelve una mascara con 16 bits a uno en los canales en que a >= b.
+     * Los canales deben estar entre 0 y 0x7fff.
+     */
+    private static long laneGreaterOrEqual(long a, long b)
+    {
+        long guards = ((a | LANE_GUARD) - b) & LANE_GUARD;
+        return (guards >>> 15) * LANE_MASK;
+    }
+
+    /**
+     * Devuelve, canal por canal, el maximo de dos valores separados.
+     */
+    private static long laneMax(long a, long b)
+    {
+        long mask = laneGreaterOrEqual(a, b);
+        return (a & mask) | (b & ~mask);
+    }
+
+    /**
+     * Devuelve, canal por canal, el minimo de dos valores separados.
+     */
+    private static long laneMin(long a, long b)
+    {
+        long mask = laneGreaterOrEqual(a, b);
+        return (b & mask) | (a & ~mask);
+    }
+
+    /**
+     * Resta, canal por canal, b de a sin bajar de 0.
+     */
+    private static long laneSubtractClamped(long a, long b)
+    {
+        long difference = (a | LANE_GUARD) - b;
+        long mask = ((difference & LANE_GUARD) >>> 15) * LANE_MASK;
+        return difference & mask & ~LANE_GUARD;
+    }
 }
@@ -0,0 +1,39 @@
+/**
+ * EdgePolicy indica que valor tiene un pixel que cae fuera de la imagen,
+ * para los filtros que leen posiciones arbitrarias (deformaciones,
+ * convoluciones).
+ */
+public enum EdgePolicy
+{
+    // se repite el pixel más cercano del borde
+    CLAMP,
+    // la imagen se repite como un mosaico
+    WRAP,
+    // fuera de la imagen todo es transparente (negro si la imagen no tiene alfa)
+    TRANSPARENT;
+
+    /**
+     * Convierte una posicion que puede estar fuera de la imagen en una
+     * posicion valida.
+     *
+     * @param i La posicion (columna o fila).
+     * @param size El ancho o alto de la imagen.
+     * @return La posicion dentro de la imagen, o -1 si el pixel es
+     *         transparente.
+     */
+    public int resolve(int i, int size)
+    {
+        if(i >= 0 && i < size) {
+            return i;
+        }
+        switch(this) {
+            case CLAMP:
+                return i < 0 ? 0 : size - 1;
+            case WRAP:
+                int wrapped = i % size;
+                return wrapped < 0 ? wrapped + size : wrapped;
+            default:
+                return -1;
+        }
+    }
+}
@@ -0,0 +1,595 @@
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * EditGraph representa una imagen editada sin cambiarla: la imagen original
+ * y la lista ordenada de filtros que se le aplican (los pasos). Los pixeles
+ * del resultado no se calculan al agregar un paso sino cuando se piden, por
+ * bandas de BAND_HEIGHT filas: ImagePanel pide solo las bandas que se ven y
+ * al guardar se piden todas (ver render).
+ *
+ * Cada paso es un nodo que conoce al paso anterior, y las bandas calculadas
+ * de cada nodo se guardan en una memoria comun (ver Cache) hasta un limite,
+ * olvidando primero las usadas hace más tiempo. Un EditGraph no cambia:
+ * editar, mover o quitar un paso crea otro (withSteps) que reusa los nodos
+ * de los pasos anteriores al primero que cambió, con sus bandas ya
+ * calculadas, asi que solo se recalculan los pasos siguientes, y de ellos
+ * solo las bandas que se piden. Volver a una lista de pasos que ya se usó
+ * (por ejemplo al deshacer) reusa tambien sus nodos.
+ *
+ * Los RowFilter, y las FilterChain de ellos, calculan cada banda leyendo
+ * del paso anterior solo las filas de margen que necesitan (ver
+ * RowFilter.getHaloRows), como StripProcessor. Los demas filtros, y los que
+ * pueden leer cualquier fila, calculan la imagen entera la primera vez que
+ * se pide una de sus bandas; esa imagen se guarda aparte de las bandas
+ * (hasta que falte memoria), para no volver a calcularla si la memoria de
+ * bandas se llena antes de pedirlas todas. De la imagen original solo se
+ * leen las filas que se piden.
+ *
+ * getProxy da un grafo con los mismos pasos sobre una version reducida de
+ * la imagen original, que sirve de vista previa mientras se calcula el
+ * resultado.
+ *
+ * Los metodos son seguros entre hilos.
+ */
+public class EditGraph
+{
+    // filas de cada banda; coincide con los cuadros de MipmapPyramid
+    public static final int BAND_HEIGHT = MipmapPyramid.TILE_SIZE;
+
+    private static final ColorModel COLOR_MODEL = new DirectColorModel(24, 0xff0000, 0xff00, 0xff);
+    private static final AtomicLong nextId = new AtomicLong();
+
+    private Node root;
+    // un nodo por paso, en orden
+    private List<Node> nodes;
+    private List<Filter> steps;
+    private Cache cache;
+    private TileExecutor executor;
+    // si la imagen original es la version reducida de otra (ver getProxy)
+    private boolean proxy;
+
+    /**
+     * Crea un grafo sin pasos.
+     *
+     * @param original La imagen original; no se debe modificar mientras se
+     *                 use el grafo.
+     * @param cache Donde se guardan las bandas calculadas; se puede
+     *              compartir entre grafos.
+     * @param executor Reparte entre sus hilos las filas de cada banda, o
+     *                 'null' para calcularlas en el hilo que las pide.
+     */
+    public EditGraph(OFImage original, Cache cache, TileExecutor executor)
+    {
+        this(new Node(null, null, original), Collections.<Filter>emptyList(), cache, executor);
+    }
+
+    private EditGraph(Node root, List<Filter> steps, Cache cache, TileExecutor executor)
+    {
+        this.root = root;
+        this.cache = cache;
+        this.executor = executor;
+        this.steps = Collections.unmodifiableList(new ArrayList<Filter>(steps));
+        nodes = new ArrayList<Node>();
+        Node node = root;
+        for(Filter step : steps) {
+            node = node.getChild(step);
+            nodes.add(node);
+        }
+    }
+
+    /**
+     * Devuelve un grafo con la misma imagen original y otros pasos. Los
+     * pasos que coinciden con los de algun grafo anterior (el mismo objeto
+     * Filter en el mismo lugar, despues de los mismos pasos) conservan sus
+     * bandas calculadas.
+     *
+     * @param newSteps Los filtros a aplicar, en orden.
+     * @return El grafo.
+     */
+    public EditGraph withSteps(List<Filter> newSteps)
+    {
+        return new EditGraph(root, newSteps, cache, executor);
+    }
+
+    /**
+     * Devuelve un grafo con los mismos pasos sobre otra imagen original, por
+     * ejemplo la imagen completa en lugar de una version reducida.
+     *
+     * @param original La imagen original.
+     * @return El grafo.
+     */
+    public EditGraph withOriginal(OFImage original)
+    {
+        return new EditGraph(new Node(null, null, original), steps, cache, executor);
+    }
+
+    /**
+     * Devuelve un grafo con los mismos pasos sobre una version reducida de
+     * la imagen original, que cabe en un tamaño dado. Su resultado se
+     * calcula mucho más rapido y sirve de vista previa aproximada. La
+     * version reducida se guarda con la imagen original, asi que los grafos
+     * de la misma imagen comparten tambien sus pasos ya calculados.
+     *
+     * @param maxWidth El ancho máximo de la version reducida.
+     * @param maxHeight La altura máxima de la version reducida.
+     * @return El grafo, o 'null' si la imagen original ya cabe.
+     */
+    public EditGraph getProxy(int maxWidth, int maxHeight)
+    {
+        Node proxyRoot = root.getProxy(maxWidth, maxHeight);
+        if(proxyRoot == null) {
+            return null;
+        }
+        EditGraph graph = new EditGraph(proxyRoot, steps, cache, executor);
+        graph.proxy = true;
+        return graph;
+    }
+
+    /**
+     * @return La imagen original.
+     */
+    public OFImage getOriginal()
+    {
+        return root.image;
+    }
+
+    /**
+     * @return Los filtros que se aplican a la imagen original, en orden.
+     */
+    public List<Filter> getSteps()
+    {
+        return steps;
+    }
+
+    /**
+     * @return El ancho del resultado (los filtros no cambian el tamaño).
+     */
+    public int getWidth()
+    {
+        return root.image.getWidth();
+    }
+
+    /**
+     * @return La altura del resultado.
+     */
+    public int getHeight()
+    {
+        return root.image.getHeight();
+    }
+
+    /**
+     * @return El numero de bandas del resultado.
+     */
+    public int getBandCount()
+    {
+        return (getHeight() + BAND_HEIGHT - 1) / BAND_HEIGHT;
+    }
+
+    /**
+     * Indica si dos grafos dan el mismo resultado porque aplican los mismos
+     * pasos a la misma imagen original.
+     *
+     * @param other El otro grafo, o 'null'.
+     * @return 'true' si el resultado es el mismo.
+     */
+    public boolean isSameResult(EditGraph other)
+    {
+        return other != null && other.last() == last();
+    }
+
+    /**
+     * Indica si una banda del resultado ya está calculada, y se puede pedir
+     * sin esperar.
+     *
+     * @param band La banda, de 0 a getBandCount() - 1.
+     * @return 'true' si está calculada.
+     */
+    public boolean isReady(int band)
+    {
+        Node node = last();
+        return node == root || cache.contains(key(node, band)) || node.getImage() != null;
+    }
+
+    /**
+     * Devuelve un numero que identifica el resultado de una banda, el mismo
+     * con que se guarda en la memoria de bandas: dos grafos dan el mismo
+     * numero para una banda cuando aplican los mismos pasos a la misma
+     * imagen original.
+     *
+     * @param band La banda, de 0 a getBandCount() - 1.
+     * @return El numero.
+     */
+    public long getBandKey(int band)
+    {
+        return key(last(), band);
+    }
+
+    /**
+     * Devuelve los pixeles de una banda del resultado, calculandola si hace
+     * falta.
+     *
+     * @param band La banda, de 0 a getBandCount() - 1.
+     * @return Los pixeles de las filas de la banda, fila por fila; no se
+     *         deben modificar.
+     */
+    public int[] getBand(int band)
+    {
+        return band(last(), band);
+    }
+
+    /**
+     * Devuelve una banda del resultado como una imagen que comparte sus
+     * pixeles.
+     *
+     * @param band La banda, de 0 a getBandCount() - 1.
+     * @return La imagen, de BAND_HEIGHT filas (menos la ultima banda); no se
+     *         debe modificar.
+     */
+    public OFImage getBandImage(int band)
+    {
+        int[] pixels = getBand(band);
+        int width = getWidth();
+        int rows = pixels.length / width;
+        WritableRaster raster = Raster.createWritableRaster(
+            COLOR_MODEL.createCompatibleSampleModel(width, rows),
+            new DataBufferInt(pixels, pixels.length), null);
+        return new OFImage(COLOR_MODEL, raster);
+    }
+
+    /**
+     * Calcula el resultado entero, por ejemplo para guardarlo.
+     *
+     * @param progress Recibe el avance (en bandas), o 'null'.
+     * @return El resultado. Si no hay pasos es la imagen original; si no,
+     *         una imagen nueva.
+     * @throws CancellationException Si progress indica que hay que detenerse.
+     */
+    public OFImage render(TileExecutor.Progress progress)
+    {
+        if(steps.isEmpty()) {
+            return root.image;
+        }
+        int width = getWidth();
+        int height = getHeight();
+        PerformanceMonitor.Measurement measurement =
+            PerformanceMonitor.getDefault().start(proxy ? "Calcular vista previa"
+                                                        : "Calcular pasos");
+        OFImage result = new OFImage(width, height);
+        int[] pixels = result.getPixels();
+        int bands = getBandCount();
+        for(int band = 0; band < bands; band++) {
+            if(progress != null && progress.isCancelled()) {
+                throw new CancellationException();
+            }
+            int[] part = getBand(band);
+            System.arraycopy(part, 0, pixels, band * BAND_HEIGHT * width, part.length);
+            if(progress != null) {
+                progress.update(band + 1, bands);
+            }
+        }
+        result.setPixels(pixels);
+        measurement.stop((long) width * height);
+        return result;
+    }
+
+    /**
+     * El nodo del ultimo paso, o la raiz si no hay pasos.
+     */
+    private Node last()
+    {
+        return nodes.isEmpty() ? root : nodes.get(nodes.size() - 1);
+    }
+
+    // ---- calculo de bandas ----
+
+    /**
+     * Devuelve una banda de un nodo, calculandola si no está guardada.
+     */
+    private int[] band(Node node, int band)
+    {
+        int width = getWidth();
+        int height = getHeight();
+        if(node == root) {
+            int startY = band * BAND_HEIGHT;
+            int endY = Math.min(startY + BAND_HEIGHT, height);
+            return root.image.getPixels(new Rectangle(0, startY, width, endY - startY), null);
+        }
+        long key = key(node, band);
+        int[] pixels = cache.get(key);
+        if(pixels != null) {
+            return pixels;
+        }
+        if(node.stages == null) {
+            return computeImage(node, band);
+        }
+        pixels = computeBand(node, band);
+        cache.put(key, pixels);
+        return pixels;
+    }
+
+    /**
+     * Calcula una banda de un nodo de RowFilter a partir de las filas del
+     * paso anterior que necesita, con su margen.
+     */
+    private int[] computeBand(Node node, int band)
+    {
+        int width = getWidth();
+        int height = getHeight();
+        int startY = band * BAND_HEIGHT;
+        int endY = Math.min(startY + BAND_HEIGHT, height);
+        int halo = Math.min(node.halo, height);
+        int readY = Math.max(startY - halo, 0);
+        int readRows = Math.min(endY + halo, height) - readY;
+        int[] pixels = readRows(node.parent, readY, readRows, new int[readRows * width]);
+        pixels = RowFilter.applyStages(node.stages, pixels, width, height, readY, readRows,
+                                       startY, endY, executor);
+        if(readY == startY && readRows == endY - startY) {
+            return pixels;
+        }
+        return Arrays.copyOfRange(pixels, (startY - readY) * width, (endY - readY) * width);
+    }
+
+    /**
+     * Devuelve una banda de un nodo cuyo filtro no se puede aplicar por
+     * bandas. La imagen entera del nodo se calcula la primera vez y se
+     * guarda en el nodo, fuera de la memoria de bandas, y cada banda se
+     * copia de ella cuando se pide. Si otro hilo ya la está calculando,
+     * espera a que termine.
+     */
+    private int[] computeImage(Node node, int band)
+    {
+        synchronized(node) {
+            long key = key(node, band);
+            int[] pixels = cache.get(key);
+            if(pixels != null) {
+                return pixels;
+            }
+            int width = getWidth();
+            int height = getHeight();
+            int[] all = node.getImage();
+            if(all == null) {
+                OFImage image = new OFImage(width, height);
+                all = image.getPixels();
+                readRows(node.parent, 0, height, all);
+                image.setPixels(all);
+                if(executor != null) {
+                    executor.apply(node.filter, image);
+                }
+                else {
+                    node.filter.apply(image);
+                }
+                all = image.getPixels();
+                node.setImage(all);
+            }
+            int startY = band * BAND_HEIGHT;
+            int endY = Math.min(startY + BAND_HEIGHT, height);
+            pixels = Arrays.copyOfRange(all, startY * width, endY * width);
+            cache.put(key, pixels);
+            return pixels;
+        }
+    }
+
+    /**
+     * Junta unas filas de un nodo a partir de sus bandas.
+     */
+    private int[] readRows(Node node, int y, int count, int[] pixels)
+    {
+        int width = getWidth();
+        if(node == root) {
+            return root.image.getPixels(new Rectangle(0, y, width, count), pixels);
+        }
+        for(int band = y / BAND_HEIGHT; band * BAND_HEIGHT < y + count; band++) {
+            int[] part = band(node, band);
+            int bandY = band * BAND_HEIGHT;
+            int from = Math.max(y, bandY);
+            int to = Math.min(y + count, bandY + part.length / width);
+            System.arraycopy(part, (from - bandY) * width, pixels, (from - y) * width,
+                             (to - from) * width);
+        }
+        return pixels;
+    }
+
+    private static long key(Node node, int band)
+    {
+        return (node.id << 32) | band;
+    }
+
+    /**
+     * Un paso del grafo: un filtro aplicado al resultado del paso anterior.
+     * La raiz no tiene filtro y da la imagen original.
+     */
+    private static class Node
+    {
+        private final long id;
+        private final Node parent;
+        private final Filter filter;
+        private final OFImage image;
+        // los pasos por filas en que se aplica el filtro, o 'null' si se
+        // aplica a la imagen entera; y las filas de margen que necesitan
+        private final List<RowFilter> stages;
+        private final int halo;
+        // los pasos que se aplicaron despues de este, por filtro
+        private final Map<Filter, Node> children;
+        // la imagen entera de un paso que no se aplica por bandas, hasta
+        // que falte memoria
+        private volatile SoftReference<int[]> result;
+        // la raiz de la version reducida de la imagen original (ver
+        // EditGraph.getProxy); usa el lock del nodo
+        private Node proxy;
+
+        public Node(Node parent, Filter filter, OFImage image)
+        {
+            this.id = nextId.incrementAndGet();
+            this.parent = parent;
+            this.filter = filter;
+            this.image = parent != null ? parent.image : image;
+            this.children = new HashMap<Filter, Node>();
+            List<RowFilter> rowStages = filter != null ? new ArrayList<RowFilter>() : null;
+            if(filter != null) {
+                List<Filter> parts = filter instanceof FilterChain
+                                     ? ((FilterChain) filter).getStages() : Arrays.asList(filter);
+                for(Filter part : parts) {
+                    if(!(part instanceof RowFilter)
+                       || ((RowFilter) part).getHaloRows() == RowFilter.ALL_ROWS) {
+                        rowStages = null;
+                        break;
+                    }
+                    rowStages.add((RowFilter) part);
+                }
+            }
+            this.stages = rowStages;
+            this.halo = rowStages != null ? RowFilter.getHaloRows(rowStages) : 0;
+        }
+
+        /**
+         * @return La imagen entera calculada del paso, o 'null' si no se
+         *         calculó o se olvidó.
+         */
+        public int[] getImage()
+        {
+            SoftReference<int[]> reference = result;
+            return reference != null ? reference.get() : null;
+        }
+
+        public void setImage(int[] pixels)
+        {
+            result = new SoftReference<int[]>(pixels);
+        }
+
+        /**
+         * Devuelve la raiz de una version reducida de la imagen de esta
+         * raiz que cabe en un tamaño dado, creandola si no existe o si tiene
+         * otro tamaño. La version reducida toma un pixel de cada bloque.
+         *
+         * @return La raiz, o 'null' si la imagen ya cabe en ese tamaño.
+         */
+        public synchronized Node getProxy(int maxWidth, int maxHeight)
+        {
+            int width = image.getWidth();
+            int height = image.getHeight();
+            double scale = Math.min((double) maxWidth / width, (double) maxHeight / height);
+            if(scale >= 1) {
+                return null;
+            }
+            int proxyWidth = Math.max(1, (int) (width * scale));
+            int proxyHeight = Math.max(1, (int) (height * scale));
+            if(proxy != null && proxy.image.getWidth() == proxyWidth
+               && proxy.image.getHeight() == proxyHeight) {
+                return proxy;
+            }
+            OFImage reduced = new OFImage(proxyWidth, proxyHeight);
+            int[] columns = new int[proxyWidth];
+            for(int x = 0; x < proxyWidth; x++) {
+                columns[x] = (int) ((long) x * width / proxyWidth);
+            }
+            int[] row = new int[width];
+            int[] proxyRow = new int[proxyWidth];
+            for(int y = 0; y < proxyHeight; y++) {
+                image.getRow((int) ((long) y * height / proxyHeight), row);
+                for(int x = 0; x < proxyWidth; x++) {
+                    proxyRow[x] = row[columns[x]];
+                }
+                reduced.setRow(y, proxyRow);
+            }
+            proxy = new Node(null, null, reduced);
+            return proxy;
+        }
+
+        /**
+         * Devuelve el nodo que aplica un filtro despues de este, creandolo
+         * la primera vez.
+         */
+        public synchronized Node getChild(Filter step)
+        {
+            Node child = children.get(step);
+            if(child == null) {
+                child = new Node(this, step, null);
+                children.put(step, child);
+            }
+            return child;
+        }
+    }
+
+    /**
+     * Guarda las bandas calculadas de los grafos de un editor, hasta un
+     * limite de memoria; si se pasa, se olvidan las usadas hace más tiempo.
+     * Los metodos son seguros entre hilos.
+     */
+    public static class Cache
+    {
+        private long memoryLimit;
+        private long memoryUsed;
+        // en orden de uso, la más vieja primero
+        private LinkedHashMap<Long, int[]> bands;
+
+        /**
+         * Crea una memoria vacia.
+         * @param memoryLimit Los bytes que pueden ocupar las bandas.
+         */
+        public Cache(long memoryLimit)
+        {
+            if(memoryLimit < 0) {
+                throw new IllegalArgumentException("limite de memoria negativo: " + memoryLimit);
+            }
+            this.memoryLimit = memoryLimit;
+            bands = new LinkedHashMap<Long, int[]>(64, 0.75f, true);
+        }
+
+        /**
+         * @return Los bytes que ocupan las bandas guardadas.
+         */
+        public synchronized long getMemoryUsed()
+        {
+            return memoryUsed;
+        }
+
+        /**
+         * Olvida todas las bandas.
+         */
+        public synchronized void clear()
+        {
+            bands.clear();
+            memoryUsed = 0;
+        }
+
+        private synchronized int[] get(long key)
+        {
+            return bands.get(key);
+        }
+
+        private synchronized boolean contains(long key)
+        {
+            return bands.containsKey(key);
+        }
+
+        private synchronized void put(long key, int[] pixels)
+        {
+            int[] old = bands.put(key, pixels);
+            if(old != null) {
+                memoryUsed -= 4L * old.length;
+            }
+            memoryUsed += 4L * pixels.length;
+            Iterator<int[]> eldest = bands.values().iterator();
+            while(memoryUsed > memoryLimit && bands.size() > 1) {
+                memoryUsed -= 4L * eldest.next().length;
+                eldest.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,648 @@
+import java.awt.Rectangle;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * EditHistory guarda los cambios hechos a una imagen para poder deshacerlos
+ * y rehacerlos.
+ *
+ * De cada cambio solo se guardan los cuadros (de TILE_SIZE x TILE_SIZE
+ * pixeles) que cambiaron, comprimidos. Cada cuadro guarda la diferencia
+ * (XOR) entre los pixeles de antes y los de despues: aplicarla una vez
+ * deshace el cambio y aplicarla otra vez lo rehace, y como las zonas que
+ * quedaron iguales dan ceros se comprime muy bien. Deshacer o rehacer
+ * cuesta lo proporcional a los cuadros que cambiaron, no a toda la imagen.
+ *
+ * La imagen que se recibe al deshacer o rehacer no se modifica (puede
+ * estar mostrandose): la diferencia se aplica a otra imagen que ya no se
+ * usa, la de antes del cambio o la que se recibió al deshacer o rehacer
+ * anteriormente, que se guarda mientras haya memoria. Esa imagen solo
+ * difiere de la que se recibe en los cuadros del cambio anterior, asi que
+ * basta con corregir esos cuadros y aplicar los del cambio. Si se olvidó,
+ * se copia la imagen entera.
+ *
+ * Los cambios que cambian el tamaño de la imagen guardan las dos imagenes
+ * enteras, comprimidas.
+ *
+ * Cada cambio guarda tambien los pasos de EditGraph que habia antes y
+ * despues. Los cambios que solo agregan, quitan o mueven pasos no cambian
+ * los pixeles y no guardan ninguno (ver recordSteps).
+ *
+ * El historial tiene un limite de memoria: si se pasa, se olvidan los
+ * cambios más antiguos. Los metodos son seguros entre hilos.
+ */
+public class EditHistory
+{
+    // lado de los cuadros en que se divide la imagen, en pixeles
+    public static final int TILE_SIZE = 128;
+
+    private long memoryLimit;
+    private long memoryUsed;
+    // el ultimo cambio está al principio
+    private Deque<Edit> undoList;
+    private Deque<Edit> redoList;
+    // la imagen que ya no se usa: tiene los pixeles de spareFor con la
+    // diferencia de spareEdit aplicada
+    private SoftReference<OFImage> spare;
+    private OFImage spareFor;
+    private TileEdit spareEdit;
+
+    /**
+     * Crea un historial vacio.
+     * @param memoryLimit Los bytes que pueden ocupar los cambios guardados.
+     */
+    public EditHistory(long memoryLimit)
+    {
+        if(memoryLimit < 0) {
+            throw new IllegalArgumentException("limite de memoria negativo: " + memoryLimit);
+        }
+        this.memoryLimit = memoryLimit;
+        undoList = new ArrayDeque<Edit>();
+        redoList = new ArrayDeque<Edit>();
+    }
+
+    /**
+     * Guarda un cambio. Los cambios deshechos ya no se pueden rehacer.
+     *
+     * @param description Lo que hizo el cambio, por ejemplo "Invertido".
+     * @param filters Los filtros que aplicó el cambio (puede estar vacia).
+     * @param before La imagen antes del cambio; despues ya no se debe usar,
+     *               porque deshacer puede modificarla y devolverla.
+     * @param after La imagen despues del cambio.
+     */
+    public void record(String description, List<Filter> filters, OFImage before, OFImage after)
+    {
+        List<Filter> noSteps = Collections.emptyList();
+        record(description, filters, before, after, noSteps, noSteps);
+    }
+
+    /**
+     * Guarda un cambio de la imagen que tambien cambió los pasos, por
+     * ejemplo porque los aplicó antes de girarla. Los cambios deshechos ya
+     * no se pueden rehacer.
+     *
+     * @param description Lo que hizo el cambio, por ejemplo "Invertido".
+     * @param filters Los filtros que aplicó el cambio (puede estar vacia).
+     * @param before La imagen antes del cambio; despues ya no se debe usar,
+     *               porque deshacer puede modificarla y devolverla.
+     * @param after La imagen despues del cambio.
+     * @param stepsBefore Los pasos antes del cambio.
+     * @param stepsAfter Los pasos despues del cambio.
+     */
+    public void record(String description, List<Filter> filters, OFImage before, OFImage after,
+                       List<Filter> stepsBefore, List<Filter> stepsAfter)
+    {
+        // se comprime fuera del lock: es lo que más tarda
+        Edit edit;
+        if(before.getWidth() == after.getWidth() && before.getHeight() == after.getHeight()) {
+            edit = new TileEdit(description, filters, before, after);
+        }
+        else {
+            edit = new ResizeEdit(description, filters, before, after);
+        }
+        edit.setSteps(stepsBefore, stepsAfter);
+        synchronized(this) {
+            add(edit);
+            if(edit instanceof TileEdit) {
+                setSpare(before, after, (TileEdit) edit);
+            }
+            else {
+                setSpare(null, null, null);
+            }
+        }
+    }
+
+    /**
+     * Guarda un cambio que solo cambió los pasos, sin cambiar la imagen
+     * original. Los cambios deshechos ya no se pueden rehacer.
+     *
+     * @param description Lo que hizo el cambio, por ejemplo "Quitar Suavizar".
+     * @param stepsBefore Los pasos antes del cambio.
+     * @param stepsAfter Los pasos despues del cambio.
+     */
+    public void recordSteps(String description, List<Filter> stepsBefore, List<Filter> stepsAfter)
+    {
+        Edit edit = new StepsEdit(description);
+        edit.setSteps(stepsBefore, stepsAfter);
+        add(edit);
+    }
+
+    /**
+     * Agrega un cambio al principio de la lista de los que se pueden
+     * deshacer.
+     */
+    private synchronized void add(Edit edit)
+    {
+        clearList(redoList);
+        undoList.addFirst(edit);
+        memoryUsed += edit.getSize();
+        while(memoryUsed > memoryLimit && !undoList.isEmpty()) {
+            memoryUsed -= undoList.removeLast().getSize();
+        }
+    }
+
+    /**
+     * Deshace el ultimo cambio.
+     *
+     * @param image La imagen tal como quedó despues del cambio; no se
+     *              modifica, pero cuando ya no se use puede reutilizarse
+     *              para deshacer o rehacer otro cambio.
+     * @return La imagen como estaba antes del cambio, o 'null' si no hay
+     *         nada que deshacer.
+     */
+    public synchronized OFImage undo(OFImage image)
+    {
+        if(undoList.isEmpty()) {
+            return null;
+        }
+        Edit edit = undoList.removeFirst();
+        redoList.addFirst(edit);
+        return apply(edit, image, true);
+    }
+
+    /**
+     * Rehace el ultimo cambio deshecho.
+     *
+     * @param image La imagen tal como quedó al deshacer el cambio; no se
+     *              modifica, pero cuando ya no se use puede reutilizarse
+     *              para deshacer o rehacer otro cambio.
+     * @return La imagen como estaba despues del cambio, o 'null' si no hay
+     *         nada que rehacer.
+     */
+    public synchronized OFImage redo(OFImage image)
+    {
+        if(redoList.isEmpty()) {
+            return null;
+        }
+        Edit edit = redoList.removeFirst();
+        undoList.addFirst(edit);
+        return apply(edit, image, false);
+    }
+
+    /**
+     * Deshace o rehace un cambio. Si es de cuadros y la imagen que ya no se
+     * usa corresponde a la que se recibe, se le aplica la diferencia en
+     * lugar de copiar la imagen, y la que se recibe pasa a ser la que ya no
+     * se usa.
+     */
+    private OFImage apply(Edit edit, OFImage image, boolean undo)
+    {
+        OFImage target = spare != null && spareFor == image ? spare.get() : null;
+        if(!(edit instanceof TileEdit) || target == null) {
+            OFImage result = undo ? edit.undo(image) : edit.redo(image);
+            if(edit instanceof TileEdit) {
+                setSpare(image, result, (TileEdit) edit);
+            }
+            else if(result != image) {
+                setSpare(null, null, null);
+            }
+            return result;
+        }
+        TileEdit tileEdit = (TileEdit) edit;
+        if(spareEdit != tileEdit) {
+            // primero vuelve a los pixeles de la imagen que se recibe
+            spareEdit.applyDifference(target);
+            tileEdit.applyDifference(target);
+        }
+        setSpare(image, target, tileEdit);
+        return target;
+    }
+
+    /**
+     * Guarda la imagen que ya no se usa y cómo difiere de la actual.
+     */
+    private void setSpare(OFImage image, OFImage current, TileEdit edit)
+    {
+        spare = image != null ? new SoftReference<OFImage>(image) : null;
+        spareFor = current;
+        spareEdit = edit;
+    }
+
+    /**
+     * @return Lo que hizo el cambio que se desharía, o 'null' si no hay.
+     */
+    public synchronized String getUndoDescription()
+    {
+        return undoList.isEmpty() ? null : undoList.getFirst().description;
+    }
+
+    /**
+     * @return Lo que hizo el cambio que se reharía, o 'null' si no hay.
+     */
+    public synchronized String getRedoDescription()
+    {
+        return redoList.isEmpty() ? null : redoList.getFirst().description;
+    }
+
+    /**
+     * @return Los filtros del cambio que se desharía (vacia si no hay).
+     */
+    public synchronized List<Filter> getUndoFilters()
+    {
+        return undoList.isEmpty() ? Collections.<Filter>emptyList() : undoList.getFirst().filters;
+    }
+
+    /**
+     * @return Los filtros del cambio que se reharía (vacia si no hay).
+     */
+    public synchronized List<Filter> getRedoFilters()
+    {
+        return redoList.isEmpty() ? Collections.<Filter>emptyList() : redoList.getFirst().filters;
+    }
+
+    /**
+     * @return Los pasos que habia antes del cambio que se desharía, o
+     *         'null' si no hay.
+     */
+    public synchronized List<Filter> getUndoSteps()
+    {
+        return undoList.isEmpty() ? null : undoList.getFirst().stepsBefore;
+    }
+
+    /**
+     * @return Los pasos que quedaron despues del cambio que se reharía, o
+     *         'null' si no hay.
+     */
+    public synchronized List<Filter> getRedoSteps()
+    {
+        return redoList.isEmpty() ? null : redoList.getFirst().stepsAfter;
+    }
+
+    /**
+     * @return Las zonas de la imagen que cambiaría deshacer, o 'null' si
+     *         cambia el tamaño o no hay nada que deshacer.
+     */
+    public synchronized List<Rectangle> getUndoChanges()
+    {
+        return undoList.isEmpty() ? null : undoList.getFirst().getChanges();
+    }
+
+    /**
+     * @return Las zonas de la imagen que cambiaría rehacer, o 'null' si
+     *         cambia el tamaño o no hay nada que rehacer.
+     */
+    public synchronized List<Rectangle> getRedoChanges()
+    {
+        return redoList.isEmpty() ? null : redoList.getFirst().getChanges();
+    }
+
+    /**
+     * @return Los bytes que ocupan los cambios guardados.
+     */
+    public synchronized long getMemoryUsed()
+    {
+        return memoryUsed;
+    }
+
+    /**
+     * Olvida todos los cambios.
+     */
+    public synchronized void clear()
+    {
+        clearList(undoList);
+        clearList(redoList);
+        setSpare(null, null, null);
+    }
+
+    /**
+     * Vacia una lista de cambios descontando la memoria que ocupaban.
+     */
+    private void clearList(Deque<Edit> list)
+    {
+        for(Edit edit : list) {
+            memoryUsed -= edit.getSize();
+        }
+        list.clear();
+    }
+
+    // ---- compresion ----
+
+    // pixeles que se pasan de una vez al compresor
+    private static final int CHUNK = 16384;
+
+    /**
+     * Comprime unos pixeles, de a trozos para no copiar la imagen entera.
+     */
+    private static byte[] compress(int[] pixels, int length)
+    {
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK * 4);
+        byte[] buffer = new byte[Math.max(64, Math.min(length, CHUNK))];
+        int size = 0;
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            if(length == 0) {
+                deflater.finish();
+            }
+            for(int start = 0; start < length || !deflater.finished(); ) {
+                if(deflater.needsInput() && start < length) {
+                    int count = Math.min(CHUNK, length - start);
+                    chunk.clear();
+                    chunk.asIntBuffer().put(pixels, start, count);
+                    deflater.setInput(chunk.array(), 0, count * 4);
+                    start += count;
+                    if(start == length) {
+                        deflater.finish();
+                    }
+                }
+                if(size == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                size += deflater.deflate(buffer, size, buffer.length - size);
+            }
+            return Arrays.copyOf(buffer, size);
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Descomprime unos pixeles comprimidos con compress.
+     */
+    private static void decompress(byte[] data, int[] pixels, int length)
+    {
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK * 4);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            for(int start = 0; start < length; ) {
+                int count = Math.min(CHUNK, length - start);
+                int bytes = 0;
+                while(bytes < count * 4) {
+                    int read = inflater.inflate(chunk.array(), bytes, count * 4 - bytes);
+                    if(read == 0 && (inflater.finished() || inflater.needsInput())) {
+                        throw new IllegalStateException("datos comprimidos incompletos");
+                    }
+                    bytes += read;
+                }
+                chunk.clear();
+                chunk.asIntBuffer().get(pixels, start, count);
+                start += count;
+            }
+        }
+        catch(DataFormatException exc) {
+            // los datos los comprimió esta misma clase
+            throw new IllegalStateException(exc);
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    // ---- cambios ----
+
+    /**
+     * Un cambio guardado.
+     */
+    private static abstract class Edit
+    {
+        protected String description;
+        protected List<Filter> filters;
+        protected List<Filter> stepsBefore;
+        protected List<Filter> stepsAfter;
+
+        public Edit(String description, List<Filter> filters)
+        {
+            this.description = description;
+            this.filters = Collections.unmodifiableList(new ArrayList<Filter>(filters));
+        }
+
+        /**
+         * Guarda los pasos de antes y de despues del cambio.
+         */
+        public void setSteps(List<Filter> before, List<Filter> after)
+        {
+            stepsBefore = Collections.unmodifiableList(new ArrayList<Filter>(before));
+            stepsAfter = Collections.unmodifiableList(new ArrayList<Filter>(after));
+        }
+
+        /**
+         * @return Los bytes que ocupa este cambio.
+         */
+        public abstract long getSize();
+
+        /**
+         * @return Las zonas de la imagen que cambian, o 'null' si cambia el
+         *         tamaño.
+         */
+        public List<Rectangle> getChanges()
+        {
+            return null;
+        }
+
+        /**
+         * Devuelve la imagen de antes del cambio a partir de la de despues.
+         */
+        public abstract OFImage undo(OFImage image);
+
+        /**
+         * Devuelve la imagen de despues del cambio a partir de la de antes.
+         */
+        public abstract OFImage redo(OFImage image);
+    }
+
+    /**
+     * Un cambio que solo cambió los pasos: no guarda pixeles.
+     */
+    private static class StepsEdit extends Edit
+    {
+        public StepsEdit(String description)
+        {
+            super(description, Collections.<Filter>emptyList());
+        }
+
+        public long getSize()
+        {
+            // las dos listas de pasos
+            return 8L * (stepsBefore.size() + stepsAfter.size());
+        }
+
+        public List<Rectangle> getChanges()
+        {
+            return Collections.emptyList();
+        }
+
+        public OFImage undo(OFImage image)
+        {
+            return image;
+        }
+
+        public OFImage redo(OFImage image)
+        {
+            return image;
+        }
+    }
+
+    /**
+     * Un cambio que no cambió el tamaño: guarda la diferencia de los
+     * cuadros que cambiaron.
+     */
+    private static class TileEdit extends Edit
+    {
+        private int width;
+        private int height;
+        // posicion de cada cuadro guardado (esquina superior izquierda)
+        private int[] tileX;
+        private int[] tileY;
+        private byte[][] tiles;
+        private long size;
+
+        public TileEdit(String description, List<Filter> filters, OFImage before, OFImage after)
+        {
+            super(description, filters);
+            width = before.getWidth();
+            height = before.getHeight();
+            // se comparan de a una fila de cuadros, asi solo se copia esa
+            // parte de las imagenes que no guardan sus pixeles como enteros
+            int[] oldPixels = new int[width * TILE_SIZE];
+            int[] newPixels = new int[width * TILE_SIZE];
+            int[] tile = new int[TILE_SIZE * TILE_SIZE];
+            List<int[]> positions = new ArrayList<int[]>();
+            List<byte[]> changed = new ArrayList<byte[]>();
+
+            for(int y = 0; y < height; y += TILE_SIZE) {
+                int tileHeight = Math.min(TILE_SIZE, height - y);
+                Rectangle band = new Rectangle(0, y, width, tileHeight);
+                before.getPixels(band, oldPixels);
+                after.getPixels(band, newPixels);
+                for(int x = 0; x < width; x += TILE_SIZE) {
+                    int tileWidth = Math.min(TILE_SIZE, width - x);
+                    boolean differs = false;
+                    int i = 0;
+                    for(int row = 0; row < tileHeight; row++) {
+                        int offset = row * width + x;
+                        for(int column = 0; column < tileWidth; column++) {
+                            int difference = oldPixels[offset + column] ^ newPixels[offset + column];
+                            differs |= difference != 0;
+                            tile[i++] = difference;
+                        }
+                    }
+                    if(differs) {
+                        positions.add(new int[] { x, y });
+                        changed.add(compress(tile, i));
+                    }
+                }
+            }
+
+            tileX = new int[positions.size()];
+            tileY = new int[positions.size()];
+            tiles = changed.toArray(new byte[changed.size()][]);
+            for(int t = 0; t < tiles.length; t++) {
+                tileX[t] = positions.get(t)[0];
+                tileY[t] = positions.get(t)[1];
+                size += tiles[t].length + 8;
+            }
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public List<Rectangle> getChanges()
+        {
+            List<Rectangle> changes = new ArrayList<Rectangle>(tiles.length);
+            for(int t = 0; t < tiles.length; t++) {
+                changes.add(new Rectangle(tileX[t], tileY[t],
+                                          Math.min(TILE_SIZE, width - tileX[t]),
+                                          Math.min(TILE_SIZE, height - tileY[t])));
+            }
+            return changes;
+        }
+
+        public OFImage undo(OFImage image)
+        {
+            OFImage result = new OFImage(image);
+            applyDifference(result);
+            return result;
+        }
+
+        public OFImage redo(OFImage image)
+        {
+            OFImage result = new OFImage(image);
+            applyDifference(result);
+            return result;
+        }
+
+        /**
+         * Aplica a la imagen la diferencia de cada cuadro guardado, leyendo
+         * y escribiendo solo esos cuadros.
+         */
+        public void applyDifference(OFImage result)
+        {
+            int[] tile = new int[TILE_SIZE * TILE_SIZE];
+            int[] difference = new int[TILE_SIZE * TILE_SIZE];
+            List<Rectangle> changes = getChanges();
+            for(int t = 0; t < tiles.length; t++) {
+                Rectangle area = changes.get(t);
+                int count = area.width * area.height;
+                decompress(tiles[t], difference, count);
+                result.getPixels(area, tile);
+                for(int i = 0; i < count; i++) {
+                    tile[i] ^= difference[i];
+                }
+                result.setPixels(area, tile);
+            }
+        }
+    }
+
+    /**
+     * Un cambio de tamaño: guarda las dos imagenes enteras.
+     */
+    private static class ResizeEdit extends Edit
+    {
+        private int oldWidth;
+        private int oldHeight;
+        private byte[] oldPixels;
+        private int newWidth;
+        private int newHeight;
+        private byte[] newPixels;
+
+        public ResizeEdit(String description, List<Filter> filters, OFImage before, OFImage after)
+        {
+            super(description, filters);
+            oldWidth = before.getWidth();
+            oldHeight = before.getHeight();
+            oldPixels = compress(before.getPixels(), oldWidth * oldHeight);
+            newWidth = after.getWidth();
+            newHeight = after.getHeight();
+            newPixels = compress(after.getPixels(), newWidth * newHeight);
+        }
+
+        public long getSize()
+        {
+            return oldPixels.length + newPixels.length;
+        }
+
+        public OFImage undo(OFImage image)
+        {
+            return restore(oldPixels, oldWidth, oldHeight);
+        }
+
+        public OFImage redo(OFImage image)
+        {
+            return restore(newPixels, newWidth, newHeight);
+        }
+
+        /**
+         * Crea una imagen con unos pixeles guardados.
+         */
+        private static OFImage restore(byte[] data, int width, int height)
+        {
+            OFImage image = new OFImage(width, height);
+            int[] pixels = new int[width * height];
+            decompress(data, pixels, pixels.length);
+            image.setPixels(pixels);
+            return image;
+        }
+    }
+}
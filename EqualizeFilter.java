@@ -0,0 +1,43 @@
+/**
+ * EqualizeFilter ecualiza el histograma de cada canal: cada valor pasa a
+ * ser proporcional a cuantos pixeles tienen ese valor o uno menor, asi que
+ * los valores del resultado quedan repartidos de forma pareja.
+ */
+public class EqualizeFilter extends HistogramFilter
+{
+    public EqualizeFilter(String name)
+    {
+        super(name);
+    }
+
+    public LookupTable createTable(ImageStatistics statistics)
+    {
+        return LookupTable.forChannels(equalize(statistics, ImageStatistics.Channel.RED),
+                                       equalize(statistics, ImageStatistics.Channel.GREEN),
+                                       equalize(statistics, ImageStatistics.Channel.BLUE));
+    }
+
+    /**
+     * Arma la tabla de un canal con su histograma acumulado. El valor más
+     * bajo de la imagen queda en 0 y el más alto en 255.
+     */
+    private static int[] equalize(ImageStatistics statistics, ImageStatistics.Channel channel)
+    {
+        int[] histogram = statistics.getHistogram(channel);
+        long total = statistics.getPixelCount();
+        long first = histogram[statistics.getMin(channel)];
+        int[] table = new int[256];
+        long below = 0;
+        for(int i = 0; i < 256; i++) {
+            below += histogram[i];
+            if(total == first) {
+                table[i] = i;
+            }
+            else {
+                long value = Math.round((double) (below - first) * 255 / (total - first));
+                table[i] = (int) Math.min(Math.max(value, 0), 255);
+            }
+        }
+        return table;
+    }
+}
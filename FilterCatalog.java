@@ -0,0 +1,85 @@
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * FilterCatalog crea los filtros que ofrece el editor. Los usan tanto la
+ * ventana (ImageViewer) como el procesamiento por lotes sin pantalla
+ * (BatchProcessor).
+ */
+public class FilterCatalog
+{
+    /**
+     * Crea la lista con todos los filtros disponibles.
+     * @return es la lista de los filtros.
+     */
+    public static List<Filter> createFilters()
+    {
+        List<Filter> filterList = new ArrayList<Filter>();
+        filterList.add(new DarkerFilter("Más oscuro"));
+        filterList.add(new LighterFilter("Más claro"));
+        filterList.add(new ThresholdFilter("Threshold"));
+        filterList.add(new OtsuThresholdFilter("Threshold automático"));
+        filterList.add(new OtsuThresholdFilter("Blanco y negro (Otsu)", 2));
+        filterList.add(new AutoLevelsFilter("Niveles automáticos"));
+        filterList.add(new EqualizeFilter("Ecualizar"));
+        filterList.add(new InvertFilter("Colores invertidos"));
+        filterList.add(new SolarizeFilter("Solarize"));
+        filterList.add(new SmoothFilter("Suavizar"));
+        filterList.add(new SmoothFilter("Desenfoque fuerte", 12));
+        filterList.add(new PixelizeFilter("Pixelizar"));
+        filterList.add(new PixelizeFilter("Pixelizar grueso", 16));
+        filterList.add(new MirrorFilter("Mirror"));
+        filterList.add(new GrayScaleFilter("Escala de grises"));
+        filterList.add(new EdgeFilter("Deteción de bordes"));
+        filterList.add(new EdgeFilter("Bordes (Sobel)", EdgeFilter.Operator.SOBEL,
+                                      EdgeFilter.DEFAULT_TOLERANCE));
+        filterList.add(new EdgeFilter("Bordes (Prewitt)", EdgeFilter.Operator.PREWITT,
+                                      EdgeFilter.DEFAULT_TOLERANCE));
+        filterList.add(new ConvolveFilter("Enfocar", Kernel.sharpen()));
+        filterList.add(new ConvolveFilter("Relieve", Kernel.emboss()));
+        filterList.add(new ConvolveFilter("Desenfoque gaussiano", Kernel.gaussian(5)));
+        filterList.add(new ConvolveFilter("Desenfoque circular", Kernel.disk(15)));
+        filterList.add(new FishEyeFilter("Fish Eye"));
+        filterList.add(new LensFilter("Lente (barril)"));
+        filterList.add(new LensFilter("Lente (cojín)", -LensFilter.DEFAULT_STRENGTH,
+                                      EdgePolicy.CLAMP));
+        filterList.add(new SwirlFilter("Remolino"));
+        filterList.add(new RippleFilter("Ondas"));
+        filterList.add(new FilterChain("Claro + Solarize + Invertido",
+                                       Arrays.asList(new LighterFilter("Más claro"),
+                                                     new SolarizeFilter("Solarize"),
+                                                     new InvertFilter("Colores invertidos"))));
+       
+        return filterList;
+    }
+
+    /**
+     * Busca un filtro por su nombre, sin distinguir mayusculas ni acentos.
+     *
+     * @param filters Los filtros entre los que se busca.
+     * @param name El nombre, por ejemplo "mas claro".
+     * @return El filtro, o 'null' si no hay ninguno con ese nombre.
+     */
+    public static Filter findFilter(List<Filter> filters, String name)
+    {
+        String key = simplify(name);
+        for(Filter filter : filters) {
+            if(simplify(filter.getName()).equals(key)) {
+                return filter;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Pasa un nombre a minusculas y le quita los acentos y los espacios de
+     * los extremos.
+     */
+    private static String simplify(String name)
+    {
+        String decomposed = Normalizer.normalize(name.trim(), Normalizer.Form.NFD);
+        return decomposed.replaceAll("\\p{M}", "").toLowerCase();
+    }
+}
@@ -0,0 +1,157 @@
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * FilterChain es un filtro que aplica varios filtros seguidos, por ejemplo
+ * Más claro, Solarize y Colores invertidos.
+ *
+ * Los filtros de pixel (PointFilter) consecutivos se juntan en un solo paso:
+ * sus tablas se combinan cuando es posible y cada pixel se lee y se escribe
+ * una sola vez, en lugar de recorrer la imagen una vez por filtro.
+ */
+public class FilterChain extends Filter
+{
+    private List<Filter> filters;
+    private List<Filter> stages;
+
+    /**
+     * Crea una cadena de filtros.
+     * @param name El nombre de la cadena.
+     * @param filters Los filtros, en el orden en que se aplican.
+     */
+    public FilterChain(String name, List<Filter> filters)
+    {
+        super(name);
+        this.filters = new ArrayList<Filter>(filters);
+    }
+
+    /**
+     * Devuelve los filtros de esta cadena.
+     *
+     * @return Los filtros, en el orden en que se aplican.
+     */
+    public List<Filter> getFilters()
+    {
+        return new ArrayList<Filter>(filters);
+    }
+
+    /**
+     * Devuelve los pasos en que se ejecuta esta cadena: cada grupo de
+     * filtros de pixel consecutivos queda como un solo paso y el resto de
+     * los filtros como pasos propios.
+     *
+     * @return Los pasos de la cadena.
+     */
+    public List<Filter> getStages()
+    {
+        if(stages == null) {
+            stages = createStages();
+        }
+        return stages;
+    }
+
+    /**
+     * Aplica esta cadena a una imagen.
+     *
+     * @param image La imagen que cambiará este filtro.
+     */
+    public void apply(OFImage image)
+    {
+        for(Filter stage : getStages()) {
+            stage.apply(image);
+        }
+    }
+
+    /**
+     * Agrupa los filtros de la cadena en pasos.
+     */
+    private List<Filter> createStages()
+    {
+        List<Filter> result = new ArrayList<Filter>();
+        List<LookupTable> tables = new ArrayList<LookupTable>();
+        for(Filter filter : flatten(filters)) {
+            if(filter instanceof PointFilter) {
+                LookupTable table = ((PointFilter) filter).getTable();
+                int last = tables.size() - 1;
+                LookupTable combined = last >= 0 ? tables.get(last).then(table) : null;
+                if(combined != null) {
+                    tables.set(last, combined);
+                }
+                else {
+                    tables.add(table);
+                }
+            }
+            else {
+                if(!tables.isEmpty()) {
+                    result.add(new FusedFilter(getName(), tables));
+                    tables = new ArrayList<LookupTable>();
+                }
+                result.add(filter);
+            }
+        }
+        if(!tables.isEmpty()) {
+            result.add(new FusedFilter(getName(), tables));
+        }
+        return result;
+    }
+
+    /**
+     * Devuelve los filtros de una lista sustituyendo las cadenas que haya
+     * dentro por sus propios filtros.
+     */
+    private static List<Filter> flatten(List<Filter> filters)
+    {
+        List<Filter> result = new ArrayList<Filter>();
+        for(Filter filter : filters) {
+            if(filter instanceof FilterChain) {
+                result.addAll(flatten(((FilterChain) filter).filters));
+            }
+            else {
+                result.add(filter);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Un paso que aplica varias tablas seguidas a cada pixel en un solo
+     * recorrido de la imagen.
+     */
+    private static class FusedFilter extends RowFilter
+    {
+        private LookupTable[] tables;
+
+        public FusedFilter(String name, List<LookupTable> tables)
+        {
+            super(name);
+            this.tables = tables.toArray(new LookupTable[tables.size()]);
+        }
+
+        public boolean readsNeighbors()
+        {
+            return false;
+        }
+
+        public void applyRows(int[] source, int[] target, int width, int height,
+                              int startY, int endY)
+        {
+            int start = startY * width;
+            int end = endY * width;
+            if(source != target) {
+                System.arraycopy(source, start, target, start, end - start);
+            }
+            if(tables.length == 1) {
+                tables[0].apply(target, start, end);
+            }
+            else {
+                for(int i = start; i < end; i++) {
+                    int pix = target[i];
+                    for(LookupTable table : tables) {
+                        pix = table.lookup(pix);
+                    }
+                    target[i] = pix;
+                }
+            }
+        }
+    }
+}
@@ -1,7 +1,6 @@
-import java.awt.Color;
 
 
-public class FishEyeFilter extends Filter
+public class FishEyeFilter extends WarpFilter
 {
     // constants:
     private final static int SCALE = 20;   // this defines the strenght of the filter
@@ -10,45 +9,39 @@ public class FishEyeFilter extends Filter
 
     public FishEyeFilter(String name)
     {
-        super(name);
+        super(name, EdgePolicy.CLAMP);
     }
 
 
-    public void apply(OFImage image)
+    /**
+     * @return SCALE más la fila que se interpola: ninguna fila se desplaza
+     *         más que eso.
+     */
+    public int getHaloRows()
     {
-        int height = image.getHeight();
-        int width = image.getWidth();
-        OFImage original = new OFImage(image);
-
-        int[] xa = computeXArray(width);
-        int[] ya = computeYArray(height);
-        
-        for(int y = 0; y < height; y++) {
-            for(int x = 0; x < width; x++) {
-                image.setPixel(x, y, original.getPixel(x + xa[x], y + ya[y]));
-            }
-        }
+        return SCALE + 1;
     }
 
 
-    private int[] computeXArray(int width)
+    /**
+     * El desplazamiento en x depende solo de la columna y en y solo de la
+     * fila.
+     */
+    protected boolean isSeparable()
     {
-        int[] xArray = new int[width];
-        
-        for(int i=0; i < width; i++) {
-            xArray[i] = (int)(Math.sin( ((double)i / width) * TWO_PI) * SCALE);
-        }
-        return xArray;
+        return true;
     }
 
 
-    private int[] computeYArray(int height)
+    protected Object[] getParameters()
     {
-        int[] yArray = new int[height];
-        
-        for(int i=0; i < height; i++) {
-            yArray[i] = (int)(Math.sin( ((double)i / height) * TWO_PI) * SCALE);
-        }
-        return yArray;
+        return new Object[] { SCALE };
+    }
+
+
+    protected void map(int x, int y, int width, int height, double[] source)
+    {
+        source[0] = x + Math.sin(((double) x / width) * TWO_PI) * SCALE;
+        source[1] = y + Math.sin(((double) y / height) * TWO_PI) * SCALE;
     }
 }
@@ -0,0 +1,134 @@
+/**
+ * FourierTransform calcula la transformada rapida de Fourier (FFT) de
+ * tamaños que son potencia de dos, con el algoritmo iterativo de
+ * Cooley-Tukey. Las tablas de cada tamaño se calculan al crear el objeto,
+ * que despues se puede usar desde varios hilos a la vez.
+ */
+public class FourierTransform
+{
+    private int size;
+    // posicion de cada elemento despues de invertir sus bits
+    private int[] reversed;
+    // cos y sin de 2 * pi * k / size para k de 0 a size / 2
+    private double[] cos;
+    private double[] sin;
+
+    /**
+     * Prepara las transformadas de un tamaño.
+     * @param size El numero de valores, potencia de dos.
+     */
+    public FourierTransform(int size)
+    {
+        if(size < 1 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("el tamaño debe ser potencia de dos: " + size);
+        }
+        this.size = size;
+        int bits = Integer.numberOfTrailingZeros(size);
+        reversed = new int[size];
+        for(int i = 0; i < size; i++) {
+            reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+        cos = new double[size / 2 + 1];
+        sin = new double[size / 2 + 1];
+        for(int k = 0; k <= size / 2; k++) {
+            cos[k] = Math.cos(2 * Math.PI * k / size);
+            sin[k] = Math.sin(2 * Math.PI * k / size);
+        }
+    }
+
+    /**
+     * Devuelve el menor tamaño que es potencia de dos y no es menor que n.
+     *
+     * @param n El tamaño minimo.
+     * @return La potencia de dos.
+     */
+    public static int sizeFor(int n)
+    {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    /**
+     * @return El numero de valores que transforma.
+     */
+    public int getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Transforma size valores complejos consecutivos sobre los mismos
+     * arreglos. La inversa no divide por size.
+     *
+     * @param re Las partes reales.
+     * @param im Las partes imaginarias.
+     * @param offset La posicion del primer valor.
+     * @param inverse 'true' para la transformada inversa.
+     */
+    public void transform(double[] re, double[] im, int offset, boolean inverse)
+    {
+        for(int i = 0; i < size; i++) {
+            int j = reversed[i];
+            if(j > i) {
+                double t = re[offset + i];
+                re[offset + i] = re[offset + j];
+                re[offset + j] = t;
+                t = im[offset + i];
+                im[offset + i] = im[offset + j];
+                im[offset + j] = t;
+            }
+        }
+        double sign = inverse ? 1 : -1;
+        for(int length = 2; length <= size; length <<= 1) {
+            int half = length >> 1;
+            int step = size / length;
+            for(int start = offset; start < offset + size; start += length) {
+                for(int k = 0; k < half; k++) {
+                    double wr = cos[k * step];
+                    double wi = sign * sin[k * step];
+                    int a = start + k;
+                    int b = a + half;
+                    double xr = re[b] * wr - im[b] * wi;
+                    double xi = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - xr;
+                    im[b] = im[a] - xi;
+                    re[a] += xr;
+                    im[a] += xi;
+                }
+            }
+        }
+    }
+
+    /**
+     * Transforma una matriz de valores complejos guardada fila por fila:
+     * primero cada fila y despues cada columna.
+     *
+     * @param rows La transformada del largo de las filas.
+     * @param columns La transformada del largo de las columnas.
+     * @param re Las partes reales.
+     * @param im Las partes imaginarias.
+     * @param inverse 'true' para la transformada inversa.
+     */
+    public static void transform2D(FourierTransform rows, FourierTransform columns,
+                                   double[] re, double[] im, boolean inverse)
+    {
+        int width = rows.size;
+        int height = columns.size;
+        for(int y = 0; y < height; y++) {
+            rows.transform(re, im, y * width, inverse);
+        }
+        // cada columna se copia a un arreglo aparte para recorrerla seguida
+        double[] columnRe = new double[height];
+        double[] columnIm = new double[height];
+        for(int x = 0; x < width; x++) {
+            for(int y = 0; y < height; y++) {
+                columnRe[y] = re[y * width + x];
+                columnIm[y] = im[y * width + x];
+            }
+            columns.transform(columnRe, columnIm, 0, inverse);
+            for(int y = 0; y < height; y++) {
+                re[y * width + x] = columnRe[y];
+                im[y * width + x] = columnIm[y];
+            }
+        }
+    }
+}
@@ -1,7 +1,5 @@
-import java.awt.Color;
 
-
-public class GrayScaleFilter extends Filter
+public class GrayScaleFilter extends PointFilter
 {
 
     public GrayScaleFilter(String name)
@@ -10,16 +8,18 @@ public class GrayScaleFilter extends Filter
     }
 
 
-    public void apply(OFImage image)
+    protected LookupTable createTable()
     {
-        int height = image.getHeight();
-        int width = image.getWidth();
-        for(int y = 0; y < height; y++) {
-            for(int x = 0; x < width; x++) {
-                Color pix = image.getPixel(x, y);
-                int avg = (pix.getRed() + pix.getGreen() + pix.getBlue()) / 3;
-                image.setPixel(x, y, new Color(avg, avg, avg));
-            }
+        int[] colors = new int[256];
+        for(int avg = 0; avg < 256; avg++) {
+            colors[avg] = (avg << 16) | (avg << 8) | avg;
         }
+        return LookupTable.forLuminance(colors);
+    }
+
+
+    protected void applyTable(int[] pixels, int start, int end)
+    {
+        PixelKernels.getDefault().grayScale(pixels, start, end);
     }
 }
@@ -0,0 +1,38 @@
+/**
+ * HistogramFilter es la superclase de los filtros de pixel cuya tabla
+ * depende de la imagen: primero se calculan las estadisticas de la imagen
+ * (ver ImageStatistics) y con ellas se arma una LookupTable que despues se
+ * aplica a todos los pixeles.
+ *
+ * TileExecutor hace las dos pasadas en paralelo. Como necesitan la imagen
+ * entera, estos filtros no se pueden aplicar por franjas.
+ */
+public abstract class HistogramFilter extends Filter
+{
+    /**
+     * Crea un filtro con un nombre dado.
+     * @param name El nombre del filtro.
+     */
+    public HistogramFilter(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Aplica el filtro en el hilo que llama.
+     *
+     * @param image La imagen que cambiará el filtro.
+     */
+    public void apply(OFImage image)
+    {
+        createTable(ImageStatistics.compute(image)).apply(image);
+    }
+
+    /**
+     * Construye la tabla del filtro para una imagen.
+     *
+     * @param statistics Las estadisticas de la imagen.
+     * @return La tabla.
+     */
+    public abstract LookupTable createTable(ImageStatistics statistics);
+}
@@ -0,0 +1,291 @@
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.swing.*;
+
+/**
+ * HistogramPanel muestra el histograma de la imagen: la luminosidad como un
+ * area gris y el rojo, el verde y el azul como lineas, con el minimo, el
+ * maximo y el promedio de la luminosidad debajo.
+ *
+ * Las estadisticas se guardan por cuadros de TILE_SIZE pixeles y se
+ * calculan en un hilo aparte. Cuando la imagen solo cambió en algunas
+ * zonas se vuelven a contar solo los cuadros que las tocan, aunque la
+ * imagen se haya modificado sobre sus propios pixeles. Mientras el panel
+ * no se ve no se calcula nada.
+ *
+ * Del resultado de un EditGraph (setGraph) se cuentan todas las bandas,
+ * que se calculan si hace falta: el histograma necesita la imagen entera.
+ * Las estadisticas de cada banda se guardan con el mismo numero con que el
+ * grafo guarda la banda (EditGraph.getBandKey), asi que al cambiar los
+ * pasos solo se cuentan las bandas cuyo resultado no se habia contado.
+ */
+public class HistogramPanel extends JPanel
+{
+    private static final long serialVersionUID = 1L;
+
+    // lado de los cuadros que se cuentan por separado
+    public static final int TILE_SIZE = MipmapPyramid.TILE_SIZE;
+
+    // bandas de grafos cuyas estadisticas se recuerdan
+    private static final int MAX_BANDS = 1024;
+
+    private static final int GRAPH_HEIGHT = 120;
+    private static final int MARGIN = 6;
+
+    // cuenta los cuadros en orden, de a un cambio por vez
+    private ExecutorService worker;
+    // solo los usa el hilo del worker: la imagen contada y sus cuadros
+    private OFImage image;
+    private ImageStatistics[] tiles;
+    // solo las usa el hilo del worker: las estadisticas de las bandas de
+    // grafos ya contadas, por EditGraph.getBandKey, la usada hace más
+    // tiempo primero
+    private LinkedHashMap<Long, ImageStatistics> bands;
+    // las estadisticas que se muestran; solo las usa el hilo de Swing
+    private ImageStatistics statistics;
+
+    /**
+     * Crea un panel vacio.
+     */
+    public HistogramPanel()
+    {
+        worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                               public Thread newThread(Runnable task)
+                               {
+                                   Thread thread = new Thread(task, "Histograma");
+                                   thread.setDaemon(true);
+                                   return thread;
+                               }
+                           });
+        bands = new LinkedHashMap<Long, ImageStatistics>(64, 0.75f, true);
+        setBackground(Color.WHITE);
+    }
+
+    /**
+     * Muestra el histograma de una imagen nueva. Se llama desde el hilo de
+     * Swing.
+     *
+     * @param newImage La imagen.
+     * @param previous La imagen anterior (puede ser la misma, si se
+     *                 modificó sobre sus pixeles), o 'null'.
+     * @param changes Las zonas que cambiaron respecto de previous, o 'null'
+     *                si no se sabe.
+     */
+    public void setImage(final OFImage newImage, final OFImage previous,
+                         final List<Rectangle> changes)
+    {
+        if(!isVisible()) {
+            // al volver a verse se cuenta todo de nuevo
+            worker.execute(new Runnable() {
+                               public void run() { image = null; }
+                           });
+            return;
+        }
+        worker.execute(new Runnable() {
+                               public void run()
+                               {
+                                   final ImageStatistics result = update(newImage, previous, changes);
+                                   SwingUtilities.invokeLater(new Runnable() {
+                                           public void run()
+                                           {
+                                               statistics = result;
+                                               repaint();
+                                           }
+                                       });
+                               }
+                           });
+    }
+
+    /**
+     * Muestra el histograma del resultado de un EditGraph. Se llama desde el
+     * hilo de Swing.
+     *
+     * @param graph El grafo.
+     */
+    public void setGraph(final EditGraph graph)
+    {
+        if(!isVisible()) {
+            worker.execute(new Runnable() {
+                               public void run() { image = null; }
+                           });
+            return;
+        }
+        worker.execute(new Runnable() {
+                               public void run()
+                               {
+                                   final ImageStatistics result = count(graph);
+                                   SwingUtilities.invokeLater(new Runnable() {
+                                           public void run()
+                                           {
+                                               statistics = result;
+                                               repaint();
+                                           }
+                                       });
+                               }
+                           });
+    }
+
+    /**
+     * Borra el histograma.
+     */
+    public void clearImage()
+    {
+        worker.execute(new Runnable() {
+                               public void run()
+                               {
+                                   image = null;
+                                   bands.clear();
+                               }
+                           });
+        statistics = null;
+        repaint();
+    }
+
+    /**
+     * Cuenta los cuadros que cambiaron, o todos, y junta las estadisticas.
+     * Se ejecuta en el hilo del worker.
+     */
+    private ImageStatistics update(OFImage newImage, OFImage previous, List<Rectangle> changes)
+    {
+        int width = newImage.getWidth();
+        int height = newImage.getHeight();
+        int tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        boolean partial = image != null && image == previous && changes != null
+                          && image.getWidth() == width && image.getHeight() == height;
+        if(!partial) {
+            tiles = new ImageStatistics[tilesX * tilesY];
+        }
+        else {
+            for(Rectangle change : changes) {
+                int firstX = Math.max(change.x / TILE_SIZE, 0);
+                int firstY = Math.max(change.y / TILE_SIZE, 0);
+                int lastX = Math.min((change.x + change.width - 1) / TILE_SIZE, tilesX - 1);
+                int lastY = Math.min((change.y + change.height - 1) / TILE_SIZE, tilesY - 1);
+                for(int ty = firstY; ty <= lastY; ty++) {
+                    Arrays.fill(tiles, ty * tilesX + firstX, ty * tilesX + lastX + 1, null);
+                }
+            }
+        }
+        image = newImage;
+        Rectangle bounds = new Rectangle(0, 0, width, height);
+        for(int ty = 0; ty < tilesY; ty++) {
+            for(int tx = 0; tx < tilesX; tx++) {
+                int i = ty * tilesX + tx;
+                if(tiles[i] == null) {
+                    Rectangle tile = new Rectangle(tx * TILE_SIZE, ty * TILE_SIZE,
+                                                   TILE_SIZE, TILE_SIZE).intersection(bounds);
+                    tiles[i] = ImageStatistics.compute(newImage, tile);
+                }
+            }
+        }
+        return ImageStatistics.combine(new ArrayList<ImageStatistics>(Arrays.asList(tiles)));
+    }
+
+    /**
+     * Junta las estadisticas de las bandas del resultado de un grafo,
+     * contando las que no se habian contado. Se ejecuta en el hilo del
+     * worker.
+     */
+    private ImageStatistics count(EditGraph graph)
+    {
+        image = null;
+        List<ImageStatistics> parts = new ArrayList<ImageStatistics>();
+        for(int band = 0; band < graph.getBandCount(); band++) {
+            Long key = graph.getBandKey(band);
+            ImageStatistics part = bands.get(key);
+            if(part == null) {
+                OFImage pixels = graph.getBandImage(band);
+                part = ImageStatistics.compute(pixels, new Rectangle(0, 0, pixels.getWidth(),
+                                                                     pixels.getHeight()));
+                bands.put(key, part);
+            }
+            parts.add(part);
+        }
+        Iterator<ImageStatistics> eldest = bands.values().iterator();
+        while(bands.size() > Math.max(MAX_BANDS, graph.getBandCount())) {
+            eldest.next();
+            eldest.remove();
+        }
+        return ImageStatistics.combine(parts);
+    }
+
+    public Dimension getPreferredSize()
+    {
+        FontMetrics metrics = getFontMetrics(getFont());
+        return new Dimension(256 + 2 * MARGIN,
+                             GRAPH_HEIGHT + 3 * MARGIN + 2 * metrics.getHeight());
+    }
+
+    public void paintComponent(Graphics g)
+    {
+        super.paintComponent(g);
+        if(statistics == null || statistics.getPixelCount() == 0) {
+            return;
+        }
+        Graphics2D g2 = (Graphics2D) g;
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        int[] luminance = statistics.getHistogram(ImageStatistics.Channel.LUMINANCE);
+        int[][] channels = {
+            statistics.getHistogram(ImageStatistics.Channel.RED),
+            statistics.getHistogram(ImageStatistics.Channel.GREEN),
+            statistics.getHistogram(ImageStatistics.Channel.BLUE)
+        };
+        // la escala se toma sin los extremos, que suelen tener picos
+        int max = 1;
+        for(int i = 1; i < 255; i++) {
+            max = Math.max(max, luminance[i]);
+            for(int[] channel : channels) {
+                max = Math.max(max, channel[i]);
+            }
+        }
+        int bottom = MARGIN + GRAPH_HEIGHT;
+
+        g2.setColor(Color.LIGHT_GRAY);
+        for(int i = 0; i < 256; i++) {
+            int h = barHeight(luminance[i], max);
+            g2.drawLine(MARGIN + i, bottom, MARGIN + i, bottom - h);
+        }
+        Color[] colors = { Color.RED, new Color(0, 160, 0), Color.BLUE };
+        for(int c = 0; c < 3; c++) {
+            int[] xs = new int[256];
+            int[] ys = new int[256];
+            for(int i = 0; i < 256; i++) {
+                xs[i] = MARGIN + i;
+                ys[i] = bottom - barHeight(channels[c][i], max);
+            }
+            g2.setColor(colors[c]);
+            g2.drawPolyline(xs, ys, 256);
+        }
+        g2.setColor(Color.GRAY);
+        g2.drawRect(MARGIN - 1, MARGIN - 1, 257, GRAPH_HEIGHT + 1);
+
+        g2.setColor(Color.BLACK);
+        FontMetrics metrics = g2.getFontMetrics();
+        ImageStatistics.Channel lum = ImageStatistics.Channel.LUMINANCE;
+        int y = bottom + MARGIN + metrics.getAscent();
+        g2.drawString(String.format(Locale.ROOT, "Mín: %d  Máx: %d  Media: %.1f",
+                                    statistics.getMin(lum), statistics.getMax(lum),
+                                    statistics.getMean(lum)), MARGIN, y);
+        g2.drawString(String.format(Locale.ROOT, "Mediana: %d  Pixeles: %d",
+                                    statistics.getPercentile(lum, 0.5),
+                                    statistics.getPixelCount()),
+                      MARGIN, y + metrics.getHeight());
+    }
+
+    /**
+     * Alto de una barra del grafico, sin pasar del alto del grafico.
+     */
+    private static int barHeight(int count, int max)
+    {
+        return (int) Math.min(GRAPH_HEIGHT, (long) count * GRAPH_HEIGHT / max);
+    }
+}
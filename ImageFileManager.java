@@ -1,16 +1,28 @@
+import java.awt.Dimension;
 import java.awt.image.*;
 import javax.imageio.*;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.*;
 import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Locale;
 
 /**
  * En esta clase se usan metodos estaticos para cargar y guardar las imagenes
  * 
- * El formato se define por IMAGE_FORMAT y solo recibe formatos de imagen
+ * Al guardar, el formato se elige por la extension del archivo (IMAGE_FORMAT
+ * si no tiene) y se puede indicar la calidad JPEG y la compresion PNG.
  */
 public class ImageFileManager
 {
-    // Los formatos definidos son "jpg" and "png".
+    // formato de los archivos sin extension
     private static final String IMAGE_FORMAT = "jpg";
+    // calidad JPEG (0-100) y nivel de compresion PNG (0-9) por defecto
+    public static final int DEFAULT_JPEG_QUALITY = 90;
+    public static final int DEFAULT_PNG_LEVEL = 4;
     
     /**
      * Lee un archivo de imagen en los archivos y lo devuelve como una imagen.
@@ -23,12 +35,104 @@ public class ImageFileManager
     public static OFImage loadImage(File imageFile)
     {
         try {
-            BufferedImage image = ImageIO.read(imageFile);
-            if(image == null || (image.getWidth(null) < 0)) {
+            ImageReader reader = openReader(imageFile);
+            if(reader == null) {
                 // No se pudo cargar la imagen
                 return null;
             }
-            return new OFImage(image);
+            try {
+                PerformanceMonitor.Measurement measurement =
+                    PerformanceMonitor.getDefault().start("Cargar " + getFormatName(reader));
+                // se decodifica directamente en la OFImage, sin copiarla
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setDestination(createDestination(reader, reader.getWidth(0),
+                                                       reader.getHeight(0)));
+                OFImage image = (OFImage) reader.read(0, param);
+                measurement.stop((long) image.getWidth() * image.getHeight());
+                return image;
+            }
+            finally {
+                closeReader(reader);
+            }
+        }
+        catch(IOException exc) {
+            return null;
+        }
+    }
+
+    /**
+     * Lee una version reducida de una imagen que cabe en un tamaño dado,
+     * decodificando solo una de cada tantas filas y columnas. Es mucho más
+     * rapido que leer la imagen entera cuando es más grande que la pantalla.
+     *
+     * @param imageFile Es el archivo que se va a cargar
+     * @param maxWidth El ancho máximo de la version reducida.
+     * @param maxHeight La altura máxima de la version reducida.
+     * @return La version reducida, o 'null' si la imagen ya cabe en ese
+     *         tamaño o no se pudo leer.
+     */
+    public static OFImage loadPreview(File imageFile, int maxWidth, int maxHeight)
+    {
+        try {
+            ImageReader reader = openReader(imageFile);
+            if(reader == null) {
+                return null;
+            }
+            try {
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int step = Math.max((width + maxWidth - 1) / maxWidth,
+                                    (height + maxHeight - 1) / maxHeight);
+                if(step <= 1) {
+                    return null;
+                }
+                PerformanceMonitor.Measurement measurement =
+                    PerformanceMonitor.getDefault().start("Cargar reducida " + getFormatName(reader));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                param.setDestination(createDestination(reader, (width + step - 1) / step,
+                                                       (height + step - 1) / step));
+                OFImage image = (OFImage) reader.read(0, param);
+                // se cuentan los pixeles del archivo, que son los que se recorren
+                measurement.stop((long) width * height);
+                return image;
+            }
+            finally {
+                closeReader(reader);
+            }
+        }
+        catch(IOException exc) {
+            return null;
+        }
+    }
+
+    /**
+     * Lee la miniatura guardada dentro de un archivo de imagen: la de los
+     * datos EXIF de las fotos JPEG o, si no hay, la que sepa leer el lector
+     * del formato (por ejemplo la de JFIF).
+     *
+     * @param imageFile El archivo de imagen.
+     * @return La miniatura, o 'null' si no tiene.
+     */
+    public static OFImage loadThumbnail(File imageFile)
+    {
+        try {
+            BufferedImage thumbnail = readExifThumbnail(imageFile);
+            if(thumbnail == null) {
+                ImageReader reader = openReader(imageFile);
+                if(reader == null) {
+                    return null;
+                }
+                try {
+                    if(reader.readerSupportsThumbnails() && reader.hasThumbnails(0)) {
+                        thumbnail = reader.readThumbnail(0, 0);
+                    }
+                }
+                finally {
+                    closeReader(reader);
+                }
+            }
+            return thumbnail != null ? new OFImage(thumbnail) : null;
         }
         catch(IOException exc) {
             return null;
@@ -36,17 +140,349 @@ public class ImageFileManager
     }
 
     /**
-     * Escribe un archivo de imagen en el disco. el formato es JPG
+     * Lee el tamaño de una imagen sin decodificarla.
+     *
+     * @param imageFile El archivo de imagen.
+     * @return El tamaño, o 'null' si no se pudo leer.
+     */
+    public static Dimension readSize(File imageFile)
+    {
+        try {
+            ImageReader reader = openReader(imageFile);
+            if(reader == null) {
+                return null;
+            }
+            try {
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            }
+            finally {
+                closeReader(reader);
+            }
+        }
+        catch(IOException exc) {
+            return null;
+        }
+    }
+
+    /**
+     * Abre un lector para un archivo de imagen.
+     *
+     * @return El lector, o 'null' si el archivo no es una imagen conocida.
+     *         Hay que cerrarlo con closeReader.
+     */
+    private static ImageReader openReader(File imageFile) throws IOException
+    {
+        ImageInputStream input = ImageIO.createImageInputStream(imageFile);
+        if(input == null) {
+            return null;
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if(!readers.hasNext()) {
+            input.close();
+            return null;
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(input, true, true);
+        return reader;
+    }
+
+    /**
+     * Libera un lector abierto con openReader y cierra su archivo.
+     */
+    private static void closeReader(ImageReader reader) throws IOException
+    {
+        Object input = reader.getInput();
+        reader.dispose();
+        if(input instanceof ImageInputStream) {
+            ((ImageInputStream) input).close();
+        }
+    }
+
+    /**
+     * Devuelve el nombre del formato de un lector en minusculas, por
+     * ejemplo "jpeg".
+     */
+    private static String getFormatName(ImageReader reader) throws IOException
+    {
+        return reader.getFormatName().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Busca la miniatura de los datos EXIF de un archivo JPEG: esta en el
+     * segmento APP1, en el segundo directorio (IFD1) de la estructura TIFF.
+     *
+     * @return La miniatura, o 'null' si no es un JPEG o no tiene.
+     */
+    private static BufferedImage readExifThumbnail(File imageFile) throws IOException
+    {
+        DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(imageFile)));
+        try {
+            if(in.readUnsignedShort() != 0xffd8) {
+                return null;
+            }
+            while(true) {
+                int marker = in.readUnsignedShort();
+                if((marker & 0xff00) != 0xff00 || marker == 0xffda) {
+                    // empiezan los datos de la imagen: no hay EXIF
+                    return null;
+                }
+                int length = in.readUnsignedShort() - 2;
+                if(marker != 0xffe1) {
+                    in.skipBytes(length);
+                    continue;
+                }
+                byte[] segment = new byte[length];
+                in.readFully(segment);
+                if(length < 14 || !new String(segment, 0, 6, "ISO-8859-1").equals("Exif\0\0")) {
+                    continue;
+                }
+                return readTiffThumbnail(segment, 6);
+            }
+        }
+        catch(EOFException exc) {
+            return null;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Lee la miniatura JPEG de una estructura TIFF que empieza en la
+     * posicion base de un arreglo.
+     */
+    private static BufferedImage readTiffThumbnail(byte[] data, int base) throws IOException
+    {
+        try {
+            boolean little = data[base] == 'I';
+            int ifd0 = readInt(data, base + 4, little);
+            int entries = readShort(data, base + ifd0, little);
+            int ifd1 = readInt(data, base + ifd0 + 2 + 12 * entries, little);
+            if(ifd1 == 0) {
+                return null;
+            }
+            entries = readShort(data, base + ifd1, little);
+            int offset = -1;
+            int length = -1;
+            for(int i = 0; i < entries; i++) {
+                int entry = base + ifd1 + 2 + 12 * i;
+                int tag = readShort(data, entry, little);
+                if(tag == 0x0201) {
+                    offset = readInt(data, entry + 8, little);
+                }
+                else if(tag == 0x0202) {
+                    length = readInt(data, entry + 8, little);
+                }
+            }
+            if(offset <= 0 || length <= 0 || base + offset + length > data.length) {
+                return null;
+            }
+            return ImageIO.read(new ByteArrayInputStream(data, base + offset, length));
+        }
+        catch(ArrayIndexOutOfBoundsException exc) {
+            // datos EXIF incompletos
+            return null;
+        }
+    }
+
+    /**
+     * Lee un entero de 16 bits sin signo de datos TIFF.
+     */
+    private static int readShort(byte[] data, int index, boolean little)
+    {
+        int first = data[index] & 0xff;
+        int second = data[index + 1] & 0xff;
+        return little ? (second << 8) | first : (first << 8) | second;
+    }
+
+    /**
+     * Lee un entero de 32 bits de datos TIFF.
+     */
+    private static int readInt(byte[] data, int index, boolean little)
+    {
+        int high = readShort(data, index + (little ? 2 : 0), little);
+        int low = readShort(data, index + (little ? 0 : 2), little);
+        return (high << 16) | low;
+    }
+
+    /**
+     * Crea la OFImage en la que un lector decodificará la imagen. Se
+     * prefieren los formatos de un entero por pixel, con los que los filtros
+     * trabajan directamente sobre los pixeles.
+     */
+    private static OFImage createDestination(ImageReader reader, int width, int height)
+        throws IOException
+    {
+        ImageTypeSpecifier chosen = null;
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        while(types.hasNext()) {
+            ImageTypeSpecifier type = types.next();
+            int bufferedType = type.getBufferedImageType();
+            if(chosen == null || bufferedType == BufferedImage.TYPE_INT_RGB
+                    || (bufferedType == BufferedImage.TYPE_INT_ARGB
+                        && chosen.getBufferedImageType() != BufferedImage.TYPE_INT_RGB)) {
+                chosen = type;
+            }
+        }
+        if(chosen == null) {
+            throw new IOException("formato de pixeles desconocido");
+        }
+        return new OFImage(chosen.getColorModel(),
+                           Raster.createWritableRaster(chosen.getSampleModel(width, height), null));
+    }
+
+    /**
+     * Escribe un archivo de imagen en el disco, en el formato que indica su
+     * extension (JPG si no tiene) y con la calidad y compresion por defecto.
+     * @param image Es la imagen que se va a guardar
+     * @param file El archivo para guardar
+     * @return Los bytes escritos.
+     * @throws IOException Si no se pudo escribir.
+     */
+    public static long saveImage(OFImage image, File file) throws IOException
+    {
+        return saveImage(image, file, DEFAULT_JPEG_QUALITY, DEFAULT_PNG_LEVEL);
+    }
+
+    /**
+     * Escribe un archivo de imagen en el disco, en el formato que indica su
+     * extension (JPG si no tiene).
      * @param image Es la imagen que se va a guardar
      * @param file El archivo para guardar
+     * @param jpegQuality La calidad si es JPEG, de 0 a 100.
+     * @param pngLevel El nivel de compresion si es PNG, de 0 (ninguna) a 9.
+     * @return Los bytes escritos.
+     * @throws IOException Si no se pudo escribir.
      */
-    public static void saveImage(OFImage image, File file)
+    public static long saveImage(OFImage image, File file, int jpegQuality, int pngLevel)
+        throws IOException
     {
+        return writeImage(image, file, getFormat(file), jpegQuality, pngLevel);
+    }
+
+    /**
+     * Escribe una imagen en un formato dado. Se escribe primero en un
+     * archivo temporal en la misma carpeta que luego se renombra, asi que
+     * si algo falla el archivo anterior (si habia) queda intacto.
+     *
+     * Si el formato no admite transparencia se descarta el canal alfa.
+     *
+     * @param image La imagen.
+     * @param file El archivo para guardar
+     * @param format El formato, por ejemplo "png".
+     * @param jpegQuality La calidad si es JPEG, de 0 a 100.
+     * @param pngLevel El nivel de compresion si es PNG, de 0 (ninguna) a 9.
+     * @return Los bytes escritos.
+     * @throws IOException Si no se pudo escribir.
+     */
+    public static long writeImage(RenderedImage image, File file, String format,
+                                  int jpegQuality, int pngLevel) throws IOException
+    {
+        if(jpegQuality < 0 || jpegQuality > 100) {
+            throw new IllegalArgumentException("calidad JPEG fuera de rango: " + jpegQuality);
+        }
+        if(pngLevel < 0 || pngLevel > 9) {
+            throw new IllegalArgumentException("nivel de compresion PNG fuera de rango: " + pngLevel);
+        }
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if(!writers.hasNext()) {
+            throw new IOException("No se puede guardar en formato " + format);
+        }
+        ImageWriter writer = writers.next();
+        ImageWriterSpi provider = writer.getOriginatingProvider();
+        if(provider != null && !provider.canEncodeImage(image) && image instanceof BufferedImage) {
+            image = withoutAlpha((BufferedImage) image);
+        }
+
+        PerformanceMonitor.Measurement measurement =
+            PerformanceMonitor.getDefault().start("Guardar " + format.toLowerCase(Locale.ROOT));
+        File directory = file.getAbsoluteFile().getParentFile();
+        File temp = new File(directory, "." + file.getName() + "." + System.nanoTime() + ".tmp");
         try {
-            ImageIO.write(image, IMAGE_FORMAT, file);
+            ImageOutputStream output = new FileImageOutputStream(temp);
+            try {
+                writer.setOutput(output);
+                writer.write(null, new IIOImage(image, null, null),
+                             createWriteParam(writer, format, jpegQuality, pngLevel));
+            }
+            finally {
+                output.close();
+                writer.dispose();
+            }
+            long bytes = temp.length();
+            measurement.stop((long) image.getWidth() * image.getHeight());
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch(AtomicMoveNotSupportedException exc) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return bytes;
         }
-        catch(IOException exc) {
-            return;
+        finally {
+            // si se renombró ya no existe
+            temp.delete();
+        }
+    }
+
+    /**
+     * Devuelve el formato en que se guarda un archivo segun su extension.
+     *
+     * @param file El archivo.
+     * @return El formato, por ejemplo "png", o IMAGE_FORMAT si no tiene
+     *         extension.
+     */
+    public static String getFormat(File file)
+    {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        if(dot < 0 || dot == name.length() - 1) {
+            return IMAGE_FORMAT;
+        }
+        return name.substring(dot + 1).toLowerCase();
+    }
+
+    /**
+     * Crea los parametros de escritura con la calidad JPEG o el nivel de
+     * compresion PNG.
+     */
+    private static ImageWriteParam createWriteParam(ImageWriter writer, String format,
+                                                    int jpegQuality, int pngLevel)
+    {
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        float quality;
+        if(format.equals("jpg") || format.equals("jpeg")) {
+            quality = jpegQuality / 100f;
+        }
+        else if(format.equals("png")) {
+            // el escritor de PNG usa el nivel 9 - round(9 * calidad)
+            quality = (9 - pngLevel) / 9f;
+        }
+        else {
+            return param;
+        }
+        if(param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+        }
+        return param;
+    }
+
+    /**
+     * Copia una imagen descartando la transparencia, para los formatos que
+     * no la admiten (como JPEG).
+     */
+    private static BufferedImage withoutAlpha(BufferedImage image)
+    {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        OFImage copy = new OFImage(width, height);
+        int[] row = new int[width];
+        for(int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            copy.setRow(y, row);
         }
+        return copy;
     }
 }
@@ -1,19 +1,73 @@
 import java.awt.*;
+import java.awt.event.*;
 import javax.swing.*;
+import java.awt.geom.AffineTransform;
 import java.awt.image.*;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Un ImagePanel es un componente Swing que puede mostrar una OFImage.
  * Se contruye como una clase JComponent
+ *
+ * La imagen se puede acercar y alejar (setZoom) sin cambiarla: solo cambia
+ * como se dibuja. Conviene ponerlo dentro de un JScrollPane; entonces se
+ * puede mover arrastrando con el raton y acercar con Ctrl y la rueda. Solo
+ * se dibuja la parte visible, y si la imagen está alejada se dibuja desde
+ * una version reducida (ver MipmapPyramid), asi que el costo de repintar
+ * no depende del tamaño de la imagen. Los cuadros reducidos que leen muchos
+ * pixeles se calculan en un hilo aparte; mientras tanto se dibujan como
+ * estaban antes del cambio, si la imagen anterior tenia el mismo tamaño, o
+ * grises.
+ *
+ * La imagen se dibuja por cuadros copiados a imagenes compatibles con la
+ * pantalla, y cuando cambia solo en algunas zonas se recalculan y repintan
+ * solo esas zonas.
+ *
+ * Tambien puede mostrar el resultado de un EditGraph (setGraph). Entonces
+ * solo se calculan las bandas del grafo que tocan los cuadros que se ven,
+ * en un hilo aparte. Si la imagen está alejada, antes se calcula una vista
+ * previa: los pasos aplicados a una version reducida de la imagen original
+ * del tamaño del nivel que se ve (ver EditGraph.getProxy). Mientras tanto
+ * los cuadros que faltan se dibujan desde esa vista previa, o como estaban
+ * antes del cambio si la imagen anterior tenia el mismo tamaño, o grises.
  */
 public class ImagePanel extends JComponent
 {
-    // Ancho y altura del panel
+    // zoom minimo y maximo
+    public static final double MIN_ZOOM = 1 / 64.0;
+    public static final double MAX_ZOOM = 32;
+
+    // Ancho y altura de la imagen que se muestra (sin zoom)
     private int width, height;
+    private double zoom;
+
+    // Las versiones reducidas de la imagen actual; se lee desde el worker
+    private volatile MipmapPyramid pyramid;
+    // lo que se mostraba antes de pyramid, para los cuadros que faltan
+    private MipmapPyramid stale;
+    // la ultima vista previa calculada, del grafo previewGraph, para los
+    // cuadros que faltan; y el grafo y ancho de la ultima pedida
+    private MipmapPyramid preview;
+    private EditGraph previewGraph;
+    private EditGraph requestedPreview;
+    private int requestedPreviewWidth;
+    private long cacheMemory;
+    // calcula los cuadros de pyramid que no estan listos (y las bandas del
+    // grafo que tocan), de a uno; requested son los cuadros pedidos que
+    // todavia no se dibujaron
+    private ExecutorService worker;
+    private Set<Long> requested;
+    // si se borró la imagen (se muestra un rectangulo gris en su lugar)
+    private boolean cleared;
 
-    // Un búfer de imagen interno que se utiliza para pintar. Para 
-    // la visualización real, este búfer de imagen se copia en la pantalla.
-    private OFImage panelImage;
+    // donde empezó el arrastre, en coordenadas de la pantalla
+    private Point dragStart;
 
     /**
      * Crea un ImagePanel, nuevo y vacio.
@@ -22,59 +76,528 @@ public class ImagePanel extends JComponent
     {
         width = 360;    // tamaño del vacio
         height = 240;
-        panelImage = null;
+        zoom = 1;
+        cacheMemory = MipmapPyramid.DEFAULT_MEMORY;
+        pyramid = null;
+        requested = new HashSet<Long>();
+        worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                               public Thread newThread(Runnable task)
+                               {
+                                   Thread thread = new Thread(task, "Vista");
+                                   thread.setDaemon(true);
+                                   return thread;
+                               }
+                           });
+        // se pinta todo el fondo, asi Swing no pinta lo que hay debajo
+        setOpaque(true);
+
+        MouseAdapter mouse = new MouseAdapter() {
+            public void mousePressed(MouseEvent e)
+            {
+                dragStart = e.getLocationOnScreen();
+            }
+
+            public void mouseDragged(MouseEvent e)
+            {
+                Point point = e.getLocationOnScreen();
+                Rectangle visible = getVisibleRect();
+                visible.translate(dragStart.x - point.x, dragStart.y - point.y);
+                scrollRectToVisible(visible);
+                dragStart = point;
+            }
+
+            public void mouseWheelMoved(MouseWheelEvent e)
+            {
+                if(e.isControlDown() || e.isMetaDown()) {
+                    setZoom(zoom * Math.pow(1.25, -e.getPreciseWheelRotation()), e.getPoint());
+                }
+                else {
+                    // sin Ctrl la rueda desplaza, como en cualquier JScrollPane
+                    Container scrollPane =
+                        SwingUtilities.getAncestorOfClass(JScrollPane.class, ImagePanel.this);
+                    if(scrollPane != null) {
+                        scrollPane.dispatchEvent(SwingUtilities.convertMouseEvent(
+                                                     ImagePanel.this, e, scrollPane));
+                    }
+                }
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
     }
 
     /**
      * La imagen que debe mostrar el panel.
-     * 
+     *
      * @param image  Es la imagen que se mostrará.
      */
     public void setImage(OFImage image)
     {
         if(image != null) {
-            width = image.getWidth();
-            height = image.getHeight();
-            panelImage = image;
+            setImage(image, image.getWidth(), image.getHeight());
+        }
+    }
+
+    /**
+     * La imagen que debe mostrar el panel, estirada a un tamaño dado; por
+     * ejemplo una version reducida mientras se carga la imagen completa.
+     *
+     * @param image  Es la imagen que se mostrará.
+     * @param width El ancho con que se muestra.
+     * @param height La altura con que se muestra.
+     */
+    public void setImage(OFImage image, int width, int height)
+    {
+        setImage(image, width, height, null, null);
+    }
+
+    /**
+     * La imagen que debe mostrar el panel, cuando se sabe en qué zonas
+     * difiere de una anterior. Si el panel mostraba esa imagen anterior, se
+     * conservan las versiones reducidas de las zonas que no cambiaron.
+     *
+     * @param image  Es la imagen que se mostrará.
+     * @param width El ancho con que se muestra.
+     * @param height La altura con que se muestra.
+     * @param previous La imagen anterior (puede ser la misma, modificada),
+     *                 o 'null'.
+     * @param changes Las zonas en que difieren, o 'null' si no se sabe.
+     */
+    public void setImage(OFImage image, int width, int height,
+                         OFImage previous, List<Rectangle> changes)
+    {
+        if(image != null) {
+            MipmapPyramid current = pyramid;
+            // solo se repintan las zonas que cambiaron si la vista no cambia
+            boolean partial = !cleared
+                              && width == this.width && height == this.height;
+            if(current != null && current.getImage() == image && changes == null) {
+                // la misma imagen, sin cambios
+                changes = Collections.emptyList();
+            }
+            else if(current != null && previous != null && current.getImage() == previous
+                    && changes != null
+                    && image.getWidth() == previous.getWidth()
+                    && image.getHeight() == previous.getHeight()) {
+                // los cuadros que cambian se muestran como estaban hasta
+                // que se calculen de nuevo
+                stale = current.copy();
+                current.update(image, changes);
+            }
+            else {
+                boolean keep = current != null && !cleared
+                               && current.getWidth() == image.getWidth()
+                               && current.getHeight() == image.getHeight();
+                stale = keep ? current : null;
+                pyramid = new MipmapPyramid(image, cacheMemory);
+                requested = new HashSet<Long>();
+                partial = false;
+            }
+            clearPreview();
+            cleared = false;
+            setDisplaySize(width, height);
+            if(partial) {
+                repaintImage(image, changes);
+            }
+            else {
+                repaint();
+            }
+        }
+    }
+
+    /**
+     * Muestra el resultado de un EditGraph, estirado a un tamaño dado. Solo
+     * se calculan las bandas que se ven, a medida que se ven.
+     *
+     * @param graph El grafo.
+     * @param width El ancho con que se muestra.
+     * @param height La altura con que se muestra.
+     */
+    public void setGraph(EditGraph graph, int width, int height)
+    {
+        if(graph != null) {
+            MipmapPyramid current = pyramid;
+            if(current == null || !graph.isSameResult(current.getGraph())) {
+                // lo que se veia sirve mientras se calcula lo nuevo
+                boolean keep = current != null && !cleared
+                               && current.getWidth() == graph.getWidth()
+                               && current.getHeight() == graph.getHeight();
+                stale = keep ? current : null;
+                pyramid = new MipmapPyramid(graph, cacheMemory);
+                requested = new HashSet<Long>();
+            }
+            cleared = false;
+            setDisplaySize(width, height);
             repaint();
         }
     }
-    
+
     /**
      * Borra la imagen del panel.
      */
     public void clearImage()
     {
-        Graphics imageGraphics = panelImage.getGraphics();
-        imageGraphics.setColor(Color.LIGHT_GRAY);
-        imageGraphics.fillRect(0, 0, width, height);
+        pyramid = null;
+        clearPreview();
+        stale = null;
+        cleared = true;
         repaint();
     }
-    
+
+    /**
+     * Cambia la memoria que pueden ocupar las versiones reducidas de la
+     * imagen. Vale para las imagenes que se muestren despues.
+     *
+     * @param bytes La memoria, en bytes.
+     */
+    public void setCacheMemory(long bytes)
+    {
+        cacheMemory = bytes;
+    }
+
+    /**
+     * @return El zoom actual (1 es el tamaño real).
+     */
+    public double getZoom()
+    {
+        return zoom;
+    }
+
+    /**
+     * Cambia el zoom manteniendo el centro de la parte visible.
+     *
+     * @param zoom El nuevo zoom (1 es el tamaño real).
+     */
+    public void setZoom(double zoom)
+    {
+        Rectangle visible = getVisibleRect();
+        setZoom(zoom, new Point(visible.x + visible.width / 2, visible.y + visible.height / 2));
+    }
+
+    /**
+     * Cambia el zoom manteniendo quieto un punto del panel, por ejemplo el
+     * que está bajo el raton.
+     *
+     * @param zoom El nuevo zoom (1 es el tamaño real).
+     * @param anchor El punto, en coordenadas del panel.
+     */
+    public void setZoom(double zoom, Point anchor)
+    {
+        zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom));
+        if(zoom == this.zoom) {
+            return;
+        }
+        double factor = zoom / this.zoom;
+        this.zoom = zoom;
+        Container parent = getParent();
+        if(parent instanceof JViewport) {
+            JViewport viewport = (JViewport) parent;
+            Point position = viewport.getViewPosition();
+            int x = (int) Math.round(anchor.x * factor - (anchor.x - position.x));
+            int y = (int) Math.round(anchor.y * factor - (anchor.y - position.y));
+            setSize(getPreferredSize());
+            revalidate();
+            Dimension extent = viewport.getExtentSize();
+            Dimension size = getPreferredSize();
+            viewport.setViewPosition(new Point(Math.max(0, Math.min(x, size.width - extent.width)),
+                                               Math.max(0, Math.min(y, size.height - extent.height))));
+        }
+        else {
+            revalidate();
+        }
+        repaint();
+    }
+
+    /**
+     * Devuelve el zoom con que la imagen entera cabe en un espacio dado.
+     *
+     * @param space El espacio disponible.
+     * @return El zoom.
+     */
+    public double getFitZoom(Dimension space)
+    {
+        double fit = Math.min((double) space.width / width, (double) space.height / height);
+        return Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, fit));
+    }
+
+    /**
+     * Repinta unas zonas de la imagen.
+     *
+     * @param image La imagen que se muestra.
+     * @param changes Las zonas, en pixeles de la imagen.
+     */
+    private void repaintImage(OFImage image, List<Rectangle> changes)
+    {
+        for(Rectangle change : changes) {
+            repaintArea(image.getWidth(), change);
+        }
+    }
+
+    /**
+     * Pide que se calcule en el worker un cuadro que no está listo de la
+     * imagen que se muestra, y que al terminar se repinte.
+     */
+    private void requestTile(final MipmapPyramid shown, final int level,
+                             final int tileX, final int tileY)
+    {
+        final Set<Long> pending = requested;
+        final Long key = ((long) level << 56) | ((long) tileY << 28) | tileX;
+        if(!pending.add(key)) {
+            return;
+        }
+        worker.execute(new Runnable() {
+                           public void run()
+                           {
+                               // si ya se muestra otra cosa no hace falta
+                               if(shown != pyramid) {
+                                   return;
+                               }
+                               shown.prepareTile(level, tileX, tileY);
+                               SwingUtilities.invokeLater(new Runnable() {
+                                       public void run()
+                                       {
+                                           pending.remove(key);
+                                           if(shown == pyramid) {
+                                               repaintArea(shown.getWidth(),
+                                                           shown.getTileBounds(level, tileX, tileY));
+                                           }
+                                       }
+                                   });
+                           }
+                       });
+    }
+
+    /**
+     * Pide que se calcule una vista previa del grafo que se muestra, del
+     * tamaño de un nivel, si no hay una al menos de ese tamaño. Se pide
+     * antes que las bandas, asi que se calcula primero.
+     */
+    private void requestPreview(final MipmapPyramid shown, int level)
+    {
+        final EditGraph graph = shown.getGraph();
+        final int maxWidth = shown.getLevelWidth(level);
+        final int maxHeight = shown.getLevelHeight(level);
+        if(graph == requestedPreview && maxWidth <= requestedPreviewWidth) {
+            return;
+        }
+        requestedPreview = graph;
+        requestedPreviewWidth = maxWidth;
+        worker.execute(new Runnable() {
+                           public void run()
+                           {
+                               EditGraph proxy = graph.getProxy(maxWidth, maxHeight);
+                               if(shown != pyramid || proxy == null) {
+                                   return;
+                               }
+                               final OFImage image = proxy.render(null);
+                               SwingUtilities.invokeLater(new Runnable() {
+                                       public void run()
+                                       {
+                                           if(shown == pyramid) {
+                                               preview = new MipmapPyramid(image, cacheMemory);
+                                               previewGraph = graph;
+                                               repaint();
+                                           }
+                                       }
+                                   });
+                           }
+                       });
+    }
+
+    /**
+     * Olvida la vista previa.
+     */
+    private void clearPreview()
+    {
+        preview = null;
+        previewGraph = null;
+        requestedPreview = null;
+    }
+
+    /**
+     * Repinta una zona de la imagen que se muestra.
+     *
+     * @param imageWidth El ancho de la imagen en que se mide la zona.
+     */
+    private void repaintArea(int imageWidth, Rectangle area)
+    {
+        double scale = zoom * width / imageWidth;
+        // un pixel de más por el suavizado
+        int x = (int) Math.floor(area.x * scale) - 1;
+        int y = (int) Math.floor(area.y * scale) - 1;
+        repaint(x, y, (int) Math.ceil((area.x + area.width) * scale) + 1 - x,
+                (int) Math.ceil((area.y + area.height) * scale) + 1 - y);
+    }
+
+    /**
+     * Cambia el tamaño con que se muestra la imagen, sin zoom.
+     */
+    private void setDisplaySize(int width, int height)
+    {
+        if(width != this.width || height != this.height) {
+            this.width = width;
+            this.height = height;
+            revalidate();
+        }
+    }
+
     // The following methods are redefinitions of methods
     // inherited from superclasses.
-    
+
     /**
      * (This method gets called by layout managers for placing
      * the components.)
-     * 
+     *
      * @return La dimensión preferida para este componente.
      */
     public Dimension getPreferredSize()
     {
-        return new Dimension(width, height);
+        return new Dimension((int) Math.ceil(width * zoom), (int) Math.ceil(height * zoom));
     }
-    
+
     /**
-     * Copia la imagen interna
+     * Dibuja la parte visible de la imagen.
      * Llamamos este metodo con Swing
      */
     public void paintComponent(Graphics g)
     {
-        Dimension size = getSize();
-        g.clearRect(0, 0, size.width, size.height);
-        if(panelImage != null) {
-            g.drawImage(panelImage, 0, 0, null);
+        Rectangle clip = g.getClipBounds();
+        if(clip == null) {
+            clip = new Rectangle(getSize());
+        }
+        MipmapPyramid shown = pyramid;
+        Rectangle imageBounds = new Rectangle((int) Math.floor(width * zoom),
+                                              (int) Math.floor(height * zoom));
+        if(shown == null || !imageBounds.contains(clip)) {
+            // los cuadros son opacos: solo hace falta borrar fuera de la imagen
+            g.setColor(getBackground());
+            g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        }
+        if(shown == null) {
+            if(cleared) {
+                // un panel vacio del tamaño de la ultima imagen
+                g.setColor(Color.LIGHT_GRAY);
+                g.fillRect(0, 0, (int) Math.ceil(width * zoom), (int) Math.ceil(height * zoom));
+            }
+            return;
+        }
+        Graphics2D g2 = (Graphics2D) g;
+        // al acercar se ven los pixeles; si no, se suaviza
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                            zoom >= 2 ? RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR
+                                      : RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        paintTiles(g2, shown, clip, getGraphicsConfiguration(), true);
+    }
+
+    /**
+     * Dibuja los cuadros de una version de la imagen que tocan una zona de
+     * la pantalla, estirados al tamaño con que se muestra la imagen. Los que
+     * todavia no se pueden dibujar se piden, y mientras tanto se dibujan
+     * desde la vista previa, desde lo que se mostraba antes, o grises.
+     *
+     * @param config La configuracion de la pantalla, o 'null' fuera de ella.
+     * @param request Si se piden los cuadros que no estan listos; si no, se
+     *                calculan al dibujarlos (para la vista previa, que es
+     *                pequeña).
+     */
+    private void paintTiles(Graphics2D g2, MipmapPyramid shown, Rectangle clip,
+                            GraphicsConfiguration config, boolean request)
+    {
+        OFImage image = shown.getImage();
+        // pixeles de pantalla por pixel de la imagen
+        double scale = zoom * width / shown.getWidth();
+        int level = shown.getLevel(scale);
+        double levelScale = scale * (1 << level);
+        int levelWidth = shown.getLevelWidth(level);
+        int levelHeight = shown.getLevelHeight(level);
+
+        // la parte visible en pixeles del nivel
+        int fromX = Math.max((int) Math.floor(clip.x / levelScale), 0);
+        int fromY = Math.max((int) Math.floor(clip.y / levelScale), 0);
+        int toX = Math.min((int) Math.ceil((clip.x + clip.width) / levelScale), levelWidth);
+        int toY = Math.min((int) Math.ceil((clip.y + clip.height) / levelScale), levelHeight);
+        if(fromX >= toX || fromY >= toY) {
+            return;
+        }
+
+        if(config == null) {
+            // fuera de la pantalla (por ejemplo al imprimir) no hay copias compatibles
+            if(level == 0 && image != null) {
+                // getSubimage no copia los pixeles
+                draw(g2, image.getSubimage(fromX, fromY, toX - fromX, toY - fromY),
+                     fromX, fromY, levelScale);
+                return;
+            }
         }
+        int tile = MipmapPyramid.TILE_SIZE;
+        for(int tileY = fromY / tile; tileY * tile < toY; tileY++) {
+            for(int tileX = fromX / tile; tileX * tile < toX; tileX++) {
+                MipmapPyramid source = shown;
+                if(request && !shown.isReady(level, tileX, tileY)) {
+                    if(level > 0 && shown.getGraph() != null) {
+                        requestPreview(shown, level);
+                    }
+                    requestTile(shown, level, tileX, tileY);
+                    source = null;
+                    int x = (int) Math.floor(tileX * tile * levelScale);
+                    int y = (int) Math.floor(tileY * tile * levelScale);
+                    Rectangle area = new Rectangle(x, y,
+                        (int) Math.ceil(Math.min((tileX + 1) * tile, levelWidth) * levelScale) - x,
+                        (int) Math.ceil(Math.min((tileY + 1) * tile, levelHeight) * levelScale) - y);
+                    // la vista previa del grafo que se muestra va antes que
+                    // el resultado anterior, y una vieja despues
+                    if(preview != null && previewGraph == shown.getGraph()) {
+                        paintPreview(g2, area.intersection(clip), config);
+                    }
+                    else if(shown == pyramid && stale != null
+                            && stale.isReady(level, tileX, tileY)) {
+                        source = stale;
+                    }
+                    else if(preview != null && previewGraph.getWidth() == shown.getWidth()
+                            && previewGraph.getHeight() == shown.getHeight()) {
+                        paintPreview(g2, area.intersection(clip), config);
+                    }
+                    else {
+                        g2.setColor(Color.LIGHT_GRAY);
+                        g2.fillRect(area.x, area.y, area.width, area.height);
+                    }
+                    if(source == null) {
+                        continue;
+                    }
+                }
+                BufferedImage part = config != null
+                                     ? source.getDisplayTile(level, tileX, tileY, config)
+                                     : source.getTile(level, tileX, tileY);
+                draw(g2, part, tileX * tile, tileY * tile, levelScale);
+            }
+        }
+    }
+
+    /**
+     * Dibuja una zona de la pantalla desde la vista previa.
+     */
+    private void paintPreview(Graphics2D g2, Rectangle area, GraphicsConfiguration config)
+    {
+        if(area.isEmpty()) {
+            return;
+        }
+        Graphics2D clipped = (Graphics2D) g2.create();
+        try {
+            clipped.clip(area);
+            paintTiles(clipped, preview, area, config, false);
+        }
+        finally {
+            clipped.dispose();
+        }
+    }
+
+    /**
+     * Dibuja una parte de un nivel en su lugar.
+     */
+    private static void draw(Graphics2D g, BufferedImage part, int x, int y, double scale)
+    {
+        AffineTransform transform = new AffineTransform(scale, 0, 0, scale, x * scale, y * scale);
+        g.drawImage(part, transform, null);
     }
 }
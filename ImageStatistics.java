@@ -0,0 +1,247 @@
+import java.awt.Rectangle;
+import java.util.List;
+
+/**
+ * ImageStatistics guarda los histogramas de una imagen: uno por canal y uno
+ * de la luminosidad, calculada como (r + g + b) / 3 igual que en
+ * LookupTable. De los histogramas salen el minimo, el maximo, el promedio y
+ * los percentiles de cada uno.
+ *
+ * Los histogramas se calculan en un solo recorrido de la imagen, por bandas
+ * en paralelo: cada banda cuenta en sus propios histogramas y al terminar
+ * los suma a los totales. Tambien se pueden calcular por partes y juntarlas
+ * con combine, para volver a contar solo las partes que cambian. Los
+ * pixeles se leen de a una fila, solo los de la parte que se cuenta, asi
+ * que no se copia la imagen aunque no guarde sus pixeles como enteros.
+ */
+public class ImageStatistics
+{
+    /**
+     * Los histogramas que se guardan.
+     */
+    public enum Channel
+    {
+        RED, GREEN, BLUE, LUMINANCE
+    }
+
+    // histogramas en el orden de Channel
+    private int[][] histograms;
+    private long pixelCount;
+
+    private ImageStatistics()
+    {
+        histograms = new int[4][256];
+    }
+
+    /**
+     * Calcula las estadisticas de una imagen en el hilo que llama.
+     *
+     * @param image La imagen.
+     * @return Las estadisticas.
+     */
+    public static ImageStatistics compute(OFImage image)
+    {
+        return compute(image, null, null);
+    }
+
+    /**
+     * Calcula las estadisticas de una imagen repartiendo las filas entre
+     * los hilos de un ejecutor.
+     *
+     * @param image La imagen.
+     * @param executor El ejecutor, o 'null' para hacerlo en el hilo que llama.
+     * @param progress Recibe el avance, o 'null'.
+     * @return Las estadisticas.
+     * @throws CancellationException Si progress indica que hay que detenerse.
+     */
+    public static ImageStatistics compute(final OFImage image, TileExecutor executor,
+                                          TileExecutor.Progress progress)
+    {
+        final ImageStatistics statistics = new ImageStatistics();
+        final int width = image.getWidth();
+        TileExecutor.Rows rows = new TileExecutor.Rows() {
+            public void compute(int startY, int endY)
+            {
+                ImageStatistics partial = new ImageStatistics();
+                partial.count(image, 0, startY, width, endY);
+                statistics.add(partial);
+            }
+        };
+        if(executor != null) {
+            executor.run(image.getHeight(), rows, progress);
+        }
+        else {
+            rows.compute(0, image.getHeight());
+        }
+        return statistics;
+    }
+
+    /**
+     * Calcula las estadisticas de una parte de una imagen en el hilo que
+     * llama. Las de varias partes se juntan con combine.
+     *
+     * @param image La imagen.
+     * @param area La parte; debe estar dentro de la imagen.
+     * @return Las estadisticas de esa parte.
+     */
+    public static ImageStatistics compute(OFImage image, Rectangle area)
+    {
+        ImageStatistics statistics = new ImageStatistics();
+        statistics.count(image, area.x, area.y, area.x + area.width, area.y + area.height);
+        return statistics;
+    }
+
+    /**
+     * Junta las estadisticas de varias partes de una imagen.
+     *
+     * @param parts Las estadisticas de cada parte.
+     * @return Las estadisticas de todas las partes juntas.
+     */
+    public static ImageStatistics combine(List<ImageStatistics> parts)
+    {
+        ImageStatistics statistics = new ImageStatistics();
+        for(ImageStatistics part : parts) {
+            statistics.add(part);
+        }
+        return statistics;
+    }
+
+    /**
+     * Cuenta los pixeles de un rectangulo de la imagen en los histogramas,
+     * leyendolos de a una fila.
+     */
+    private void count(OFImage image, int x0, int y0, int x1, int y1)
+    {
+        int[] red = histograms[0];
+        int[] green = histograms[1];
+        int[] blue = histograms[2];
+        // se cuenta la suma r + g + b y al final se pasa a luminosidad
+        int[] sums = new int[766];
+        int[] pixels = new int[x1 - x0];
+        Rectangle line = new Rectangle(x0, 0, x1 - x0, 1);
+        for(int y = y0; y < y1; y++) {
+            line.y = y;
+            image.getPixels(line, pixels);
+            for(int x = 0; x < pixels.length; x++) {
+                int pix = pixels[x];
+                int r = (pix >> 16) & 0xff;
+                int g = (pix >> 8) & 0xff;
+                int b = pix & 0xff;
+                red[r]++;
+                green[g]++;
+                blue[b]++;
+                sums[r + g + b]++;
+            }
+        }
+        int[] luminance = histograms[3];
+        for(int i = 0; i < sums.length; i++) {
+            luminance[i / 3] += sums[i];
+        }
+        pixelCount += (long) (x1 - x0) * (y1 - y0);
+    }
+
+    /**
+     * Suma otras estadisticas a estas.
+     */
+    private synchronized void add(ImageStatistics other)
+    {
+        for(int c = 0; c < histograms.length; c++) {
+            for(int i = 0; i < 256; i++) {
+                histograms[c][i] += other.histograms[c][i];
+            }
+        }
+        pixelCount += other.pixelCount;
+    }
+
+    /**
+     * @return El numero de pixeles contados.
+     */
+    public long getPixelCount()
+    {
+        return pixelCount;
+    }
+
+    /**
+     * Devuelve un histograma.
+     *
+     * @param channel El canal, o la luminosidad.
+     * @return Una copia del histograma: cuantos pixeles tienen cada valor
+     *         de 0 a 255.
+     */
+    public int[] getHistogram(Channel channel)
+    {
+        return histograms[channel.ordinal()].clone();
+    }
+
+    /**
+     * @param channel El canal, o la luminosidad.
+     * @return El valor más bajo, o 0 si no hay pixeles.
+     */
+    public int getMin(Channel channel)
+    {
+        int[] histogram = histograms[channel.ordinal()];
+        for(int i = 0; i < 256; i++) {
+            if(histogram[i] > 0) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param channel El canal, o la luminosidad.
+     * @return El valor más alto, o 0 si no hay pixeles.
+     */
+    public int getMax(Channel channel)
+    {
+        int[] histogram = histograms[channel.ordinal()];
+        for(int i = 255; i >= 0; i--) {
+            if(histogram[i] > 0) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param channel El canal, o la luminosidad.
+     * @return El valor promedio, o 0 si no hay pixeles.
+     */
+    public double getMean(Channel channel)
+    {
+        if(pixelCount == 0) {
+            return 0;
+        }
+        int[] histogram = histograms[channel.ordinal()];
+        long sum = 0;
+        for(int i = 0; i < 256; i++) {
+            sum += (long) i * histogram[i];
+        }
+        return (double) sum / pixelCount;
+    }
+
+    /**
+     * Devuelve el valor que deja por debajo una fraccion de los pixeles.
+     *
+     * @param channel El canal, o la luminosidad.
+     * @param fraction La fraccion, de 0 a 1 (0.5 es la mediana).
+     * @return El menor valor tal que al menos esa fraccion de los pixeles
+     *         tiene ese valor o menos.
+     */
+    public int getPercentile(Channel channel, double fraction)
+    {
+        if(fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("fraccion fuera de rango: " + fraction);
+        }
+        int[] histogram = histograms[channel.ordinal()];
+        double target = fraction * pixelCount;
+        long below = 0;
+        for(int i = 0; i < 256; i++) {
+            below += histogram[i];
+            if(below >= target && below > 0) {
+                return i;
+            }
+        }
+        return getMax(channel);
+    }
+}
@@ -4,28 +4,90 @@ import java.awt.image.*;
 import javax.swing.*;
 import javax.swing.border.*;
 
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+
 import java.io.File;
+import java.io.IOException;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 public class ImageViewer
 {
     // campos estáticos:
     private static final String VERSION = "Version final";
+    // hilos y alto de banda para aplicar filtros; se pueden cambiar con
+    // -Deditor.threads=N y -Deditor.bandHeight=N
+    private static final int THREADS =
+        Integer.getInteger("editor.threads", Runtime.getRuntime().availableProcessors());
+    private static final int BAND_HEIGHT =
+        Integer.getInteger("editor.bandHeight", TileExecutor.DEFAULT_BAND_HEIGHT);
+    // memoria para deshacer cambios, en megabytes
+    private static final int HISTORY_MEMORY = Integer.getInteger("editor.historyMemory", 256);
+    // calidad JPEG (0-100) y nivel de compresion PNG (0-9) al guardar
+    private static final int JPEG_QUALITY =
+        Integer.getInteger("editor.jpegQuality", ImageFileManager.DEFAULT_JPEG_QUALITY);
+    private static final int PNG_LEVEL =
+        Integer.getInteger("editor.pngLevel", ImageFileManager.DEFAULT_PNG_LEVEL);
+    // memoria para las versiones reducidas que se muestran al alejar, en megabytes
+    private static final int VIEW_CACHE = Integer.getInteger("editor.viewCache", 64);
+    // memoria para las bandas calculadas de los pasos (ver EditGraph), en megabytes
+    private static final int GRAPH_CACHE = Integer.getInteger("editor.graphCache", 256);
     private static JFileChooser fileChooser = new JFileChooser(System.getProperty("user.dir"));
 
     // campos:
     private JFrame frame;
     private ImagePanel imagePanel;
+    private HistogramPanel histogramPanel;
+    private StepsPanel stepsPanel;
+    private JScrollPane scrollPane;
     private JLabel filenameLabel;
     private JLabel statusLabel;
-    private JButton smallerButton;
-    private JButton largerButton;
+    // la ultima medicion de PerformanceMonitor
+    private JLabel performanceLabel;
+    private JButton scaleButton;
+    private JProgressBar progressBar;
+    private JButton cancelButton;
     private OFImage currentImage;
+    // los pasos que se muestran, aplicados a currentImage
+    private EditGraph currentGraph;
+    // tamaño de la imagen; si no es el de currentImage, currentImage es una
+    // version reducida porque la imagen completa todavia no se cargó
+    private Dimension imageSize;
+    private boolean imageOpen;
     
     private List<Filter> filters;
+    private List<Filter> appliedFilters;
+    private TileExecutor executor;
+    private Resampler.Mode scaleMode;
+    private JMenu filterMenu;
+    private EditHistory history;
+    private EditGraph.Cache graphCache;
+    private JMenuItem undoItem;
+    private JMenuItem redoItem;
+
+    // Los trabajos sobre la imagen se ejecutan de a uno en este hilo, en
+    // el orden en que se piden. workingImage es la imagen que deja el
+    // ultimo trabajo terminado y workingGraph sus pasos; solo los usa ese
+    // hilo.
+    private ExecutorService jobQueue;
+    private List<ImageJob> pendingJobs;
+    // el ultimo trabajo pedido; solo lo usa el hilo de Swing
+    private ImageJob lastJob;
+    private OFImage workingImage;
+    private EditGraph workingGraph;
+    // si no es 'null', workingImage es una version reducida de este archivo,
+    // que se carga entero cuando un trabajo lo necesita
+    private File fullImageFile;
     
     /**
      * Crea un ImageViewer y muestre su GUI en la pantalla.
@@ -33,7 +95,20 @@ public class ImageViewer
     public ImageViewer()
     {
         currentImage = null;
-        filters = createFilters();
+        filters = FilterCatalog.createFilters();
+        appliedFilters = new ArrayList<Filter>();
+        executor = new TileExecutor(THREADS, BAND_HEIGHT);
+        scaleMode = Resampler.Mode.BICUBIC;
+        history = new EditHistory(HISTORY_MEMORY * 1024L * 1024L);
+        graphCache = new EditGraph.Cache(GRAPH_CACHE * 1024L * 1024L);
+        pendingJobs = new ArrayList<ImageJob>();
+        jobQueue = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                               public Thread newThread(Runnable task) {
+                                   Thread thread = new Thread(task, "Editor de imagenes");
+                                   thread.setDaemon(true);
+                                   return thread;
+                               }
+                           });
         makeFrame();
     }
 
@@ -51,22 +126,97 @@ public class ImageViewer
         if(returnVal != JFileChooser.APPROVE_OPTION) {
             return;  // Cancelar
         }
-        File selectedFile = fileChooser.getSelectedFile();
-        currentImage = ImageFileManager.loadImage(selectedFile);
-        
-        if(currentImage == null) {   // Si el archivo no es una imagen
-            JOptionPane.showMessageDialog(frame,
-                    "El archivo no estaba en un formato de archivo de imagen reconocido.",
-                    "Error al cargar la imagen",
-                    JOptionPane.ERROR_MESSAGE);
-            return;
-        }
+        final File selectedFile = fileChooser.getSelectedFile();
 
-        imagePanel.setImage(currentImage);
-        setButtonsEnabled(true);
-        showFilename(selectedFile.getPath());
-        showStatus("Imagen cargada");
-        frame.pack();
+        // lo pendiente sobre la imagen anterior ya no sirve
+        cancelJobs();
+        runJob(new ImageJob("Cargando " + selectedFile.getName()) {
+            private Dimension size;
+            // el archivo de la imagen completa, si se cargó una version reducida
+            private File fullFile;
+
+            protected boolean needsFullImage()
+            {
+                return false;
+            }
+
+            protected OFImage process(OFImage image) throws IOException
+            {
+                size = ImageFileManager.readSize(selectedFile);
+                if(size == null) {   // Si el archivo no es una imagen
+                    throw new IOException(
+                        "El archivo no estaba en un formato de archivo de imagen reconocido.");
+                }
+
+                // si no cabe en la pantalla, primero se muestra la miniatura
+                // y una version reducida; la imagen completa se carga cuando
+                // se edita o se guarda
+                Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
+                if(size.width > screen.width || size.height > screen.height) {
+                    final OFImage thumbnail = ImageFileManager.loadThumbnail(selectedFile);
+                    if(thumbnail != null) {
+                        SwingUtilities.invokeLater(new Runnable() {
+                                       public void run() { showThumbnail(thumbnail, size); }
+                                   });
+                    }
+                    OFImage preview = ImageFileManager.loadPreview(selectedFile,
+                                                                   screen.width, screen.height);
+                    if(preview != null) {
+                        setSteps(Collections.<Filter>emptyList());
+                        fullFile = selectedFile;
+                        return preview;
+                    }
+                }
+
+                OFImage loaded = ImageFileManager.loadImage(selectedFile);
+                if(loaded == null) {
+                    throw new IOException(
+                        "El archivo no estaba en un formato de archivo de imagen reconocido.");
+                }
+                setSteps(Collections.<Filter>emptyList());
+                fullFile = null;
+                return loaded;
+            }
+
+            protected void commit(OFImage result)
+            {
+                history.clear();
+                graphCache.clear();
+                fullImageFile = fullFile;
+            }
+
+            /**
+             * Muestra la miniatura mientras se lee la version reducida.
+             */
+            private void showThumbnail(OFImage thumbnail, Dimension size)
+            {
+                if(!isCancelled() && !isDone()) {
+                    imagePanel.setImage(thumbnail, size.width, size.height);
+                    zoomToScreen();
+                    fitFrame();
+                }
+            }
+
+            protected void finished(OFImage result)
+            {
+                imageOpen = true;
+                appliedFilters.clear();
+                setButtonsEnabled(true);
+                showFilename(selectedFile.getPath());
+                showImage(getGraph(), size, null, null);
+                zoomToScreen();
+                fitFrame();
+                showStatus(result.getWidth() == size.width ? "Imagen cargada"
+                           : "Imagen cargada (version reducida)");
+            }
+
+            protected void failed(Throwable error)
+            {
+                JOptionPane.showMessageDialog(frame, error.getMessage(),
+                        "Error al cargar la imagen",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+        });
     }
 
     /**
@@ -74,10 +224,40 @@ public class ImageViewer
      */
     private void close()
     {
-        currentImage = null;
-        imagePanel.clearImage();
-        showFilename(null);
-        setButtonsEnabled(false);
+        cancelJobs();
+        runJob(new ImageJob("Cerrando") {
+            protected boolean needsFullImage()
+            {
+                return false;
+            }
+
+            protected OFImage process(OFImage image)
+            {
+                return null;
+            }
+
+            protected void commit(OFImage result)
+            {
+                fullImageFile = null;
+                history.clear();
+                graphCache.clear();
+            }
+
+            protected void finished(OFImage result)
+            {
+                currentImage = null;
+                currentGraph = null;
+                imageSize = null;
+                imageOpen = false;
+                appliedFilters.clear();
+                imagePanel.clearImage();
+                histogramPanel.clearImage();
+                stepsPanel.setSteps(Collections.<Filter>emptyList());
+                showFilename(null);
+                setButtonsEnabled(false);
+                showStatus(VERSION);
+            }
+        });
     }
 
     /**
@@ -85,16 +265,37 @@ public class ImageViewer
      */
     private void saveAs()
     {
-        if(currentImage != null) {
+        if(imageOpen) {
             int returnVal = fileChooser.showSaveDialog(frame);
     
             if(returnVal != JFileChooser.APPROVE_OPTION) {
                 return;  // cancelled
             }
-            File selectedFile = fileChooser.getSelectedFile();
-            ImageFileManager.saveImage(currentImage, selectedFile);
-            
-            showFilename(selectedFile.getPath());
+            final File selectedFile = fileChooser.getSelectedFile();
+            // se guarda en la cola, despues de los cambios pendientes y con
+            // la imagen completa aunque solo se haya cargado la reducida; los
+            // pasos se calculan enteros solo para guardarlos
+            runJob(new ImageJob("Guardando " + selectedFile.getName()) {
+                private long bytes;
+                private long time;
+
+                protected OFImage process(OFImage image) throws IOException
+                {
+                    long start = System.nanoTime();
+                    OFImage output = workingGraph.render(getTracker());
+                    bytes = ImageFileManager.saveImage(output, selectedFile,
+                                                       JPEG_QUALITY, PNG_LEVEL);
+                    time = (System.nanoTime() - start) / 1000000;
+                    return image;
+                }
+
+                protected void finished(OFImage result)
+                {
+                    showFilename(selectedFile.getPath());
+                    showStatus(String.format("Guardado %s: %d KB en %d ms",
+                                             selectedFile.getName(), bytes / 1024, time));
+                }
+            });
         }
     }
 
@@ -109,20 +310,115 @@ public class ImageViewer
     /**
      * Aplicar un filtro dado a la imagen actual.
      * 
+     * El filtro se agrega como el ultimo paso de la imagen (ver EditGraph):
+     * no se calcula nada hasta que se muestra, y entonces solo la parte que
+     * se ve. Los pasos se pueden mover, quitar o cambiar despues.
+     * 
      * @param filter El objeto de filtro que se va a aplicar.
      */
-    private void applyFilter(Filter filter)
+    private void applyFilter(final Filter filter)
     {
-        if(currentImage != null) {
-            filter.apply(currentImage);
-            frame.repaint();
-            showStatus("Aplicado: " + filter.getName());
+        if(imageOpen) {
+            runJob(new StepsJob("Aplicar " + filter.getName()) {
+                protected void editSteps(List<Filter> steps)
+                {
+                    steps.add(filter);
+                }
+            });
         }
         else {
             showStatus("No se cargó la imagen");
         }
     }
 
+    /**
+     * Mueve un paso una posicion antes o despues.
+     * 
+     * @param index La posicion del paso.
+     * @param step El filtro del paso.
+     * @param offset -1 para aplicarlo antes, 1 para aplicarlo despues.
+     */
+    private void moveStep(final int index, final Filter step, final int offset)
+    {
+        runJob(new StepsJob("Mover " + step.getName()) {
+            protected void editSteps(List<Filter> steps)
+            {
+                int position = findStep(steps, index, step);
+                if(position >= 0 && position + offset >= 0 && position + offset < steps.size()) {
+                    steps.remove(position);
+                    steps.add(position + offset, step);
+                }
+            }
+        });
+    }
+
+    /**
+     * Quita un paso.
+     * 
+     * @param index La posicion del paso.
+     * @param step El filtro del paso.
+     */
+    private void removeStep(final int index, final Filter step)
+    {
+        runJob(new StepsJob("Quitar " + step.getName()) {
+            protected void editSteps(List<Filter> steps)
+            {
+                int position = findStep(steps, index, step);
+                if(position >= 0) {
+                    steps.remove(position);
+                }
+            }
+        });
+    }
+
+    /**
+     * Cambia el filtro de un paso por otro.
+     * 
+     * @param index La posicion del paso.
+     * @param step El filtro del paso.
+     * @param replacement El filtro nuevo.
+     */
+    private void replaceStep(final int index, final Filter step, final Filter replacement)
+    {
+        runJob(new StepsJob("Cambiar " + step.getName() + " por " + replacement.getName()) {
+            protected void editSteps(List<Filter> steps)
+            {
+                int position = findStep(steps, index, step);
+                if(position >= 0) {
+                    steps.set(position, replacement);
+                }
+            }
+        });
+    }
+
+    /**
+     * Guarda los filtros aplicados a la imagen actual como un preset nuevo
+     * en el menú de filtros. Los filtros de pixel seguidos del preset se
+     * aplican en un solo paso.
+     */
+    private void savePreset()
+    {
+        List<Filter> presetFilters = new ArrayList<Filter>(appliedFilters);
+        if(currentGraph != null) {
+            presetFilters.addAll(currentGraph.getSteps());
+        }
+        if(presetFilters.isEmpty()) {
+            showStatus("No se aplicó ningún filtro");
+            return;
+        }
+        String name = JOptionPane.showInputDialog(frame, "Nombre del preset:",
+                                                  "Guardar preset",
+                                                  JOptionPane.QUESTION_MESSAGE);
+        if(name == null || name.trim().isEmpty()) {
+            return;  // cancelado
+        }
+        Filter preset = new FilterChain(name.trim(), presetFilters);
+        filters.add(preset);
+        // los presets van antes del separador y de esta opción
+        filterMenu.insert(makeFilterItem(preset), filterMenu.getItemCount() - 2);
+        showStatus("Preset guardado: " + preset.getName());
+    }
+
     /**
      * función 'About': muestra un recuadro 'acerca de'.
      */
@@ -135,55 +431,771 @@ public class ImageViewer
     }
 
     /**
-     * Hacer mas grande la imagen.
+     * Deshace el ultimo cambio de la imagen.
+     */
+    private void undo()
+    {
+        if(imageOpen) {
+            runJob(new ImageJob("Deshaciendo") {
+                private List<Filter> undone;
+
+                protected OFImage process(OFImage image) throws InterruptedException
+                {
+                    undone = history.getUndoFilters();
+                    List<Filter> steps = history.getUndoSteps();
+                    setChanges(history.getUndoChanges());
+                    awaitPreviousShown();
+                    OFImage result = history.undo(image);
+                    if(result == null) {
+                        return image;
+                    }
+                    setSteps(steps);
+                    return result;
+                }
+
+                protected void finished(OFImage result)
+                {
+                    // los filtros del cambio son los ultimos aplicados
+                    int size = appliedFilters.size();
+                    appliedFilters.subList(Math.max(size - undone.size(), 0), size).clear();
+                    showResult(result);
+                    showStatus("Deshecho");
+                }
+            });
+        }
+    }
+
+    /**
+     * Rehace el ultimo cambio deshecho.
      */
-    private void makeLarger()
+    private void redo()
     {
-        if(currentImage != null) {
-            // crea nueva imagen con el doble de su tamaño
-            int width = currentImage.getWidth();
-            int height = currentImage.getHeight();
-            OFImage newImage = new OFImage(width * 2, height * 2);
+        if(imageOpen) {
+            runJob(new ImageJob("Rehaciendo") {
+                private List<Filter> redone;
+
+                protected OFImage process(OFImage image) throws InterruptedException
+                {
+                    redone = history.getRedoFilters();
+                    List<Filter> steps = history.getRedoSteps();
+                    setChanges(history.getRedoChanges());
+                    awaitPreviousShown();
+                    OFImage result = history.redo(image);
+                    if(result == null) {
+                        return image;
+                    }
+                    setSteps(steps);
+                    return result;
+                }
 
-            // copia los datos de los pixeles en una nueva imagen
-            for(int y = 0; y < height; y++) {
-                for(int x = 0; x < width; x++) {
-                    Color col = currentImage.getPixel(x, y);
-                    newImage.setPixel(x * 2, y * 2, col);
-                    newImage.setPixel(x * 2 + 1, y * 2, col);
-                    newImage.setPixel(x * 2, y * 2 + 1, col);
-                    newImage.setPixel(x * 2+1, y * 2 + 1, col);
+                protected void finished(OFImage result)
+                {
+                    appliedFilters.addAll(redone);
+                    showResult(result);
+                    showStatus("Rehecho");
                 }
+            });
+        }
+    }
+
+    /**
+     * Cambia el tamaño de la imagen a uno que se pide con un dialogo.
+     */
+    private void scale()
+    {
+        if(imageOpen) {
+            ScaleDialog dialog = new ScaleDialog(imageSize.width, imageSize.height, scaleMode);
+            if(!dialog.show(frame)) {
+                return;
             }
-            
-            currentImage = newImage;
-            imagePanel.setImage(currentImage);
-            frame.pack();
+            final int width = dialog.getNewWidth();
+            final int height = dialog.getNewHeight();
+            final Resampler resampler = new Resampler(dialog.getMode());
+            scaleMode = resampler.getMode();
+            runJob(new ImageJob("Cambiando el tamaño a " + width + "x" + height) {
+                protected List<Filter> getEditFilters()
+                {
+                    return new ArrayList<Filter>();
+                }
+
+                protected boolean appliesSteps()
+                {
+                    return true;
+                }
+
+                protected OFImage process(OFImage image)
+                {
+                    return resampler.resize(image, width, height, executor, getTracker());
+                }
+            });
         }
     }
-    
 
     /**
-     * Reducir el tamaño de la imagen actual.
+     * Gira o voltea la imagen.
+     *
+     * @param transform El giro o volteo.
+     */
+    private void transform(final Transform transform)
+    {
+        if(imageOpen) {
+            runJob(new ImageJob(transform.toString()) {
+                protected List<Filter> getEditFilters()
+                {
+                    return new ArrayList<Filter>();
+                }
+
+                protected boolean appliesSteps()
+                {
+                    return true;
+                }
+
+                protected OFImage process(OFImage image)
+                {
+                    return transform.apply(image, executor, getTracker());
+                }
+            });
+        }
+    }
+
+    // ---- trabajos en segundo plano ----
+
+    /**
+     * Pone un trabajo en la cola. Se ejecutará cuando terminen los
+     * anteriores, partiendo de la imagen que dejen.
+     *
+     * @param job El trabajo.
+     */
+    private void runJob(final ImageJob job)
+    {
+        pendingJobs.add(job);
+        job.previousJob = lastJob;
+        lastJob = job;
+        job.addPropertyChangeListener(new PropertyChangeListener() {
+                               public void propertyChange(PropertyChangeEvent e) {
+                                   showProgress();
+                               }
+                           });
+        showProgress();
+        jobQueue.execute(job);
+        jobQueue.execute(new Runnable() {
+                               public void run() { job.recordEdit(); }
+                           });
+    }
+
+    /**
+     * Cancela el trabajo en curso y los que esperan en la cola. Lo que
+     * hayan calculado se descarta.
+     */
+    private void cancelJobs()
+    {
+        for(ImageJob job : new ArrayList<ImageJob>(pendingJobs)) {
+            job.cancelJob();
+        }
+    }
+
+    /**
+     * Muestra el avance del trabajo en curso, o esconde la barra de avance
+     * si no hay trabajos pendientes.
+     */
+    private void showProgress()
+    {
+        updateHistoryItems();
+        if(pendingJobs.isEmpty()) {
+            progressBar.setVisible(false);
+            cancelButton.setVisible(false);
+            return;
+        }
+        ImageJob job = pendingJobs.get(0);
+        progressBar.setValue(job.getProgress());
+        String text = job.getDescription();
+        if(pendingJobs.size() > 1) {
+            text += " (" + (pendingJobs.size() - 1) + " en espera)";
+        }
+        progressBar.setString(text);
+        progressBar.setVisible(true);
+        cancelButton.setVisible(true);
+    }
+
+    /**
+     * Actualiza las opciones de deshacer y rehacer del menú.
+     */
+    private void updateHistoryItems()
+    {
+        String undoDescription = history.getUndoDescription();
+        String redoDescription = history.getRedoDescription();
+        undoItem.setText(undoDescription != null ? "Deshacer: " + undoDescription : "Deshacer");
+        redoItem.setText(redoDescription != null ? "Rehacer: " + redoDescription : "Rehacer");
+        undoItem.setEnabled(imageOpen && undoDescription != null);
+        redoItem.setEnabled(imageOpen && redoDescription != null);
+    }
+
+    /**
+     * Muestra una imagen nueva, con sus pasos, en el panel. Si no hay pasos
+     * y el panel mostraba otra imagen que solo difiere en unas zonas, solo
+     * se actualizan esas zonas; si hay pasos, la vista calcula solo lo que
+     * se ve.
+     *
+     * @param graph La imagen y sus pasos.
+     * @param size El tamaño de la imagen completa; si es más grande que la
+     *             imagen, la imagen es una version reducida.
+     * @param previous La imagen anterior, o 'null'.
+     * @param changes Las zonas que cambiaron, o 'null' si no se sabe.
+     */
+    private void showImage(EditGraph graph, Dimension size, OFImage previous, List<Rectangle> changes)
+    {
+        boolean resized = !size.equals(imageSize);
+        currentGraph = graph;
+        currentImage = graph.getOriginal();
+        imageSize = size;
+        if(graph.getSteps().isEmpty()) {
+            imagePanel.setImage(currentImage, size.width, size.height, previous, changes);
+            histogramPanel.setImage(currentImage, previous, changes);
+        }
+        else {
+            imagePanel.setGraph(graph, size.width, size.height);
+            histogramPanel.setGraph(graph);
+        }
+        stepsPanel.setSteps(graph.getSteps());
+        if(resized) {
+            fitFrame();
+        }
+    }
+
+    /**
+     * Muestra u oculta el histograma de la imagen actual.
+     *
+     * @param visible 'true' para mostrarlo.
+     */
+    private void showHistogram(boolean visible)
+    {
+        histogramPanel.setVisible(visible);
+        if(visible && currentGraph != null) {
+            if(currentGraph.getSteps().isEmpty()) {
+                histogramPanel.setImage(currentImage, null, null);
+            }
+            else {
+                histogramPanel.setGraph(currentGraph);
+            }
+        }
+        frame.getContentPane().revalidate();
+    }
+
+    /**
+     * Muestra u oculta la lista de pasos.
+     *
+     * @param visible 'true' para mostrarla.
+     */
+    private void showSteps(boolean visible)
+    {
+        stepsPanel.setVisible(visible);
+        frame.getContentPane().revalidate();
+    }
+
+    /**
+     * Ajusta la ventana al tamaño de la imagen, sin pasar del de la pantalla.
+     */
+    private void fitFrame()
+    {
+        frame.pack();
+        Rectangle screen = GraphicsEnvironment.getLocalGraphicsEnvironment().getMaximumWindowBounds();
+        if(frame.getWidth() > screen.width || frame.getHeight() > screen.height) {
+            frame.setSize(Math.min(frame.getWidth(), screen.width),
+                          Math.min(frame.getHeight(), screen.height));
+            frame.setLocation(screen.x, screen.y);
+        }
+    }
+
+    // ---- zoom ----
+
+    /**
+     * Cambia el zoom en un factor.
+     *
+     * @param factor Mayor que 1 para acercar, menor para alejar.
      */
-    private void makeSmaller()
+    private void zoom(double factor)
     {
-        if(currentImage != null) {
-            // crea una imagen con el doble de tamaño reducido
-            int width = currentImage.getWidth() / 2;
-            int height = currentImage.getHeight() / 2;
-            OFImage newImage = new OFImage(width, height);
+        setZoom(imagePanel.getZoom() * factor);
+    }
+
+    /**
+     * Cambia el zoom y lo muestra en la barra de estado.
+     *
+     * @param zoom El zoom (1 es el tamaño real).
+     */
+    private void setZoom(double zoom)
+    {
+        imagePanel.setZoom(zoom);
+        showStatus(String.format("Zoom: %.0f%%", imagePanel.getZoom() * 100));
+    }
+
+    /**
+     * Aleja la imagen para que quepa entera en la ventana.
+     */
+    private void zoomToWindow()
+    {
+        setZoom(imagePanel.getFitZoom(scrollPane.getViewport().getExtentSize()));
+    }
+
+    /**
+     * Al abrir una imagen más grande que la pantalla, la aleja para que
+     * quepa.
+     */
+    private void zoomToScreen()
+    {
+        Rectangle screen = GraphicsEnvironment.getLocalGraphicsEnvironment().getMaximumWindowBounds();
+        // se deja lugar para los menús, la barra de herramientas y los bordes
+        Dimension space = new Dimension(screen.width - 200, screen.height - 150);
+        imagePanel.setZoom(Math.min(1, imagePanel.getFitZoom(space)));
+    }
+
+    /**
+     * Un trabajo sobre la imagen que se ejecuta fuera del hilo de Swing.
+     *
+     * Cada trabajo parte de la imagen que dejo el anterior y devuelve la
+     * nueva imagen. Si se cancela antes de terminar su resultado se descarta
+     * y la imagen queda como estaba. Los pasos de la imagen (ver EditGraph)
+     * siguen iguales salvo que el trabajo los cambie con setSteps o los
+     * aplique (ver appliesSteps).
+     */
+    private abstract class ImageJob extends SwingWorker<OFImage, Void>
+    {
+        private String description;
+        // si el resultado ya paso a ser la imagen de trabajo; usa el lock del objeto
+        private boolean committed;
+        // la imagen y los pasos antes y despues del trabajo, y los filtros que
+        // aplicó, hasta que se guarda el cambio
+        private OFImage before;
+        private OFImage after;
+        private List<Filter> stepsBefore;
+        private List<Filter> stepsAfter;
+        private List<Filter> editFilters;
+        // la imagen de la que partió y las zonas que cambió, hasta que se
+        // muestra el resultado: la vista solo actualiza esas zonas
+        private OFImage source;
+        private List<Rectangle> changes;
+        // los pasos nuevos, si el trabajo los cambia; los pasos que aplicó a
+        // la imagen; y el resultado con sus pasos
+        private List<Filter> steps;
+        private List<Filter> applied;
+        private EditGraph graph;
+        // el trabajo pedido antes, hasta que se muestra su resultado; y si
+        // ya se mostró el de este
+        private ImageJob previousJob;
+        private final CountDownLatch shown = new CountDownLatch(1);
+
+        /**
+         * @param description Lo que hace el trabajo, para mostrar su avance.
+         */
+        public ImageJob(String description)
+        {
+            this.description = description;
+        }
+
+        /**
+         * @return Lo que hace el trabajo.
+         */
+        public String getDescription()
+        {
+            return description;
+        }
+
+        /**
+         * Cancela el trabajo si su resultado todavia no se uso.
+         *
+         * @return 'true' si se canceló, 'false' si ya había terminado.
+         */
+        public synchronized boolean cancelJob()
+        {
+            if(!committed) {
+                cancel(false);
+                return true;
+            }
+            return false;
+        }
+
+        protected OFImage doInBackground() throws Exception
+        {
+            if(isCancelled()) {
+                return null;
+            }
+            if(fullImageFile != null && needsFullImage()) {
+                loadFullImage();
+            }
+            OFImage previous = workingImage;
+            List<Filter> previousSteps = workingGraph != null ? workingGraph.getSteps()
+                                                              : Collections.<Filter>emptyList();
+            OFImage image = previous;
+            applied = new ArrayList<Filter>();
+            if(appliesSteps() && !previousSteps.isEmpty()) {
+                // el trabajo parte de la imagen con los pasos aplicados
+                image = workingGraph.render(getTracker());
+                applied.addAll(previousSteps);
+                steps = new ArrayList<Filter>();
+            }
+            OFImage result = process(image);
+            List<Filter> newSteps = steps != null ? steps : previousSteps;
+            synchronized(this) {
+                if(isCancelled()) {
+                    return null;
+                }
+                workingImage = result;
+                workingGraph = createGraph(result, newSteps);
+                committed = true;
+                commit(result);
+            }
+            graph = workingGraph;
+            if(getEditFilters() != null && previous != null && result != null) {
+                before = previous;
+                after = result;
+                stepsBefore = previousSteps;
+                stepsAfter = newSteps;
+                editFilters = new ArrayList<Filter>(applied);
+                editFilters.addAll(getEditFilters());
+            }
+            source = previous;
+            if(changes == null && previous != null && result != null && previous != result) {
+                changes = MipmapPyramid.findChanges(previous, result);
+            }
+            return result;
+        }
+
+        /**
+         * Guarda el cambio en el historial si el trabajo terminó y se puede
+         * deshacer. Se ejecuta en la cola despues del trabajo, mientras se
+         * muestra el resultado.
+         */
+        public void recordEdit()
+        {
+            if(before == after && before != null) {
+                // solo cambiaron los pasos
+                if(!stepsBefore.equals(stepsAfter)) {
+                    history.recordSteps(description, stepsBefore, stepsAfter);
+                }
+                before = null;
+                after = null;
+            }
+            else if(before != null) {
+                history.record(description, editFilters, before, after, stepsBefore, stepsAfter);
+                before = null;
+                after = null;
+                SwingUtilities.invokeLater(new Runnable() {
+                               public void run() { updateHistoryItems(); }
+                           });
+            }
+        }
+
+        protected void done()
+        {
+            try {
+                pendingJobs.remove(this);
+                showProgress();
+                if(isCommitted()) {
+                    appliedFilters.addAll(applied);
+                    try {
+                        finished(get());
+                    }
+                    catch(InterruptedException | ExecutionException | CancellationException exc) {
+                        // no pasa: el resultado ya estaba calculado
+                        finished(currentImage);
+                    }
+                }
+                else if(isCancelled()) {
+                    cancelled();
+                }
+                else {
+                    try {
+                        get();
+                    }
+                    catch(ExecutionException exc) {
+                        failed(exc.getCause());
+                    }
+                    catch(InterruptedException | CancellationException exc) {
+                        cancelled();
+                    }
+                }
+                source = null;
+                changes = null;
+                graph = null;
+            }
+            finally {
+                // aunque falle al mostrarlo, los trabajos siguientes no esperan más
+                previousJob = null;
+                shown.countDown();
+            }
+        }
+
+        /**
+         * Espera a que se muestre (o se descarte) el resultado del trabajo
+         * anterior. Deshacer y rehacer pueden reutilizar una imagen que ya
+         * no es la de trabajo (ver EditHistory), pero que el hilo de Swing
+         * puede estar mostrando hasta entonces. Se llama desde process.
+         */
+        protected void awaitPreviousShown() throws InterruptedException
+        {
+            ImageJob previous = previousJob;
+            if(previous != null) {
+                previous.shown.await();
+            }
+        }
+
+        /**
+         * Hace el trabajo. Se ejecuta fuera del hilo de Swing.
+         *
+         * @param image La imagen actual; no se debe modificar.
+         * @return La nueva imagen.
+         * @throws Exception Si el trabajo no se pudo hacer.
+         */
+        protected abstract OFImage process(OFImage image) throws Exception;
+
+        /**
+         * Cambia el estado del editor que no debe cambiar si el trabajo se
+         * cancela, por ejemplo el historial. Se ejecuta en el hilo de los
+         * trabajos cuando el resultado pasa a ser la imagen de trabajo,
+         * antes de que empiece el trabajo siguiente; si el trabajo se
+         * cancela antes, no se llama.
+         *
+         * @param result La nueva imagen.
+         */
+        protected void commit(OFImage result)
+        {
+        }
+
+        /**
+         * Muestra el resultado. Se ejecuta en el hilo de Swing.
+         *
+         * @param result La nueva imagen.
+         */
+        protected void finished(OFImage result)
+        {
+            showResult(result);
+            showStatus("Listo: " + description);
+        }
+
+        /**
+         * Muestra la imagen que resultó del trabajo, actualizando solo las
+         * zonas que cambió. Se ejecuta en el hilo de Swing.
+         *
+         * @param result La nueva imagen.
+         */
+        protected void showResult(OFImage result)
+        {
+            showImage(graph, new Dimension(result.getWidth(), result.getHeight()),
+                      source, changes);
+        }
+
+        /**
+         * @return La imagen que resultó del trabajo con sus pasos, hasta que
+         *         se muestra el resultado.
+         */
+        protected EditGraph getGraph()
+        {
+            return graph;
+        }
+
+        /**
+         * Indica las zonas que cambia el trabajo, cuando modifica la imagen
+         * sin copiarla; si no, se buscan comparando la imagen de antes y la
+         * de despues. Se llama desde process. Si el trabajo modifica la
+         * imagen sin copiarla debe indicarlas: si no, se supone que no la
+         * cambió y se conservan las bandas calculadas de sus pasos.
+         *
+         * @param changes Las zonas, o 'null' si no se saben.
+         */
+        protected void setChanges(List<Rectangle> changes)
+        {
+            this.changes = changes;
+        }
+
+        /**
+         * Cambia los pasos de la imagen. Se llama desde process.
+         *
+         * @param newSteps Los filtros que se aplicarán a la nueva imagen.
+         */
+        protected void setSteps(List<Filter> newSteps)
+        {
+            steps = newSteps;
+        }
+
+        /**
+         * Indica si el trabajo necesita la imagen con los pasos aplicados,
+         * por ejemplo porque la gira. Entonces process la recibe asi, el
+         * resultado queda sin pasos y deshacer el cambio los devuelve.
+         *
+         * @return 'false' salvo que se redefina.
+         */
+        protected boolean appliesSteps()
+        {
+            return false;
+        }
+
+        /**
+         * Crea los pasos de la nueva imagen. Si es la misma imagen y no
+         * cambió, los pasos que no cambian conservan sus bandas calculadas.
+         */
+        private EditGraph createGraph(OFImage result, List<Filter> newSteps)
+        {
+            if(result == null) {
+                return null;
+            }
+            if(workingGraph != null && workingGraph.getOriginal() == result
+               && (changes == null || changes.isEmpty())) {
+                return workingGraph.withSteps(newSteps);
+            }
+            return new EditGraph(result, graphCache, executor).withSteps(newSteps);
+        }
+
+        /**
+         * Indica si el trabajo necesita la imagen completa. Si solo se cargó
+         * una version reducida, antes de empezar se carga la completa.
+         *
+         * @return 'true' salvo que se redefina.
+         */
+        protected boolean needsFullImage()
+        {
+            return true;
+        }
+
+        /**
+         * Carga la imagen completa en lugar de la version reducida.
+         */
+        private void loadFullImage() throws IOException
+        {
+            setProgress(0);
+            OFImage full = ImageFileManager.loadImage(fullImageFile);
+            if(full == null) {
+                throw new IOException("No se pudo cargar " + fullImageFile.getName());
+            }
+            workingImage = full;
+            workingGraph = workingGraph != null ? workingGraph.withOriginal(full)
+                                                : new EditGraph(full, graphCache, executor);
+            fullImageFile = null;
+        }
+
+        /**
+         * Indica si el cambio que hace este trabajo se puede deshacer, y
+         * con qué filtros.
+         *
+         * @return Los filtros que aplica (vacia si no aplica ninguno), o
+         *         'null' si el cambio no se guarda en el historial.
+         */
+        protected List<Filter> getEditFilters()
+        {
+            return null;
+        }
+
+        /**
+         * Informa que el trabajo se canceló. Se ejecuta en el hilo de Swing.
+         */
+        protected void cancelled()
+        {
+            showStatus("Cancelado: " + description);
+        }
+
+        /**
+         * Informa de un error. Se ejecuta en el hilo de Swing.
+         *
+         * @param error El error que detuvo el trabajo.
+         */
+        protected void failed(Throwable error)
+        {
+            JOptionPane.showMessageDialog(frame, String.valueOf(error.getMessage()),
+                    description, JOptionPane.ERROR_MESSAGE);
+            showStatus("Error: " + description);
+        }
+
+        /**
+         * Detiene el trabajo si fue cancelado.
+         */
+        protected void checkCancelled()
+        {
+            if(isCancelled()) {
+                throw new CancellationException();
+            }
+        }
+
+        /**
+         * Devuelve un objeto que pasa el avance de un filtro a este trabajo
+         * y lo detiene si se cancela.
+         */
+        protected TileExecutor.Progress getTracker()
+        {
+            return new TileExecutor.Progress() {
+                public void update(int done, int total)
+                {
+                    setProgress(100 * done / total);
+                }
 
-            // copia los datos de los pixeles en una nueva imagen
-            for(int y = 0; y < height; y++) {
-                for(int x = 0; x < width; x++) {
-                    newImage.setPixel(x, y, currentImage.getPixel(x * 2, y * 2));
+                public boolean isCancelled()
+                {
+                    return ImageJob.this.isCancelled();
                 }
+            };
+        }
+
+        private synchronized boolean isCommitted()
+        {
+            return committed;
+        }
+    }
+    
+    /**
+     * Un trabajo que cambia los pasos de la imagen sin cambiar la imagen:
+     * no calcula pixeles, asi que termina enseguida y no necesita la imagen
+     * completa.
+     */
+    private abstract class StepsJob extends ImageJob
+    {
+        /**
+         * @param description El cambio, por ejemplo "Quitar Suavizar".
+         */
+        public StepsJob(String description)
+        {
+            super(description);
+        }
+
+        protected boolean needsFullImage()
+        {
+            return false;
+        }
+
+        protected List<Filter> getEditFilters()
+        {
+            return new ArrayList<Filter>();
+        }
+
+        protected OFImage process(OFImage image)
+        {
+            if(workingGraph != null) {
+                List<Filter> steps = new ArrayList<Filter>(workingGraph.getSteps());
+                editSteps(steps);
+                setSteps(steps);
+            }
+            return image;
+        }
+
+        /**
+         * Cambia los pasos.
+         *
+         * @param steps Los pasos actuales, para cambiarlos.
+         */
+        protected abstract void editSteps(List<Filter> steps);
+
+        /**
+         * Busca un paso que se eligió en la lista de pasos. Si los pasos
+         * cambiaron desde entonces, lo busca por su filtro.
+         *
+         * @param steps Los pasos actuales.
+         * @param index La posicion en que se eligió.
+         * @param step El filtro del paso.
+         * @return La posicion del paso, o -1 si ya no está.
+         */
+        protected int findStep(List<Filter> steps, int index, Filter step)
+        {
+            if(index >= 0 && index < steps.size() && steps.get(index) == step) {
+                return index;
             }
-            
-            currentImage = newImage;
-            imagePanel.setImage(currentImage);
-            frame.pack();
+            return steps.indexOf(step);
         }
     }
     
@@ -223,33 +1235,11 @@ public class ImageViewer
      */
     private void setButtonsEnabled(boolean status)
     {
-        smallerButton.setEnabled(status);
-        largerButton.setEnabled(status);
+        scaleButton.setEnabled(status);
+        stepsPanel.setEditable(status);
     }
     
     
-    /**
-     * Crea la lista con todos los filtros disponibles.
-     * @return es la lista de los filtros.
-     */
-    private List<Filter> createFilters()
-    {
-        List<Filter> filterList = new ArrayList<Filter>();
-        filterList.add(new DarkerFilter("Más oscuro"));
-        filterList.add(new LighterFilter("Más claro"));
-        filterList.add(new ThresholdFilter("Threshold"));
-        filterList.add(new InvertFilter("Colores invertidos"));
-        filterList.add(new SolarizeFilter("Solarize"));
-        filterList.add(new SmoothFilter("Suavizar"));
-        filterList.add(new PixelizeFilter("Pixelizar"));
-        filterList.add(new MirrorFilter("Mirror"));
-        filterList.add(new GrayScaleFilter("Escala de grises"));
-        filterList.add(new EdgeFilter("Deteción de bordes"));
-        filterList.add(new FishEyeFilter("Fish Eye"));
-       
-        return filterList;
-    }
-    
     // ---- Se contruye la ventana y los menus ----
     
     /**
@@ -268,31 +1258,81 @@ public class ImageViewer
         
         // Se crea el panel del contenido de las imagenes mesa de trabajo
         imagePanel = new ImagePanel();
-        imagePanel.setBorder(new EtchedBorder());
-        contentPane.add(imagePanel, BorderLayout.CENTER);
+        imagePanel.setCacheMemory(VIEW_CACHE * 1024L * 1024L);
+        scrollPane = new JScrollPane(imagePanel);
+        scrollPane.setBorder(new EtchedBorder());
+        contentPane.add(scrollPane, BorderLayout.CENTER);
+
+        // A la derecha van el histograma, cuando se pide en el menú Ver, y
+        // los pasos
+        histogramPanel = new HistogramPanel();
+        histogramPanel.setBorder(new EtchedBorder());
+        histogramPanel.setVisible(false);
+        stepsPanel = new StepsPanel(filters, new StepsPanel.Listener() {
+                               public void moveStep(int index, Filter step, int offset)
+                               {
+                                   ImageViewer.this.moveStep(index, step, offset);
+                               }
+
+                               public void removeStep(int index, Filter step)
+                               {
+                                   ImageViewer.this.removeStep(index, step);
+                               }
+
+                               public void replaceStep(int index, Filter step, Filter replacement)
+                               {
+                                   ImageViewer.this.replaceStep(index, step, replacement);
+                               }
+                           });
+        JPanel sidePanel = new JPanel(new BorderLayout(0, 6));
+        sidePanel.add(histogramPanel, BorderLayout.NORTH);
+        sidePanel.add(stepsPanel, BorderLayout.CENTER);
+        contentPane.add(sidePanel, BorderLayout.EAST);
 
         // Se crean las etiquetas para el nombre de archivo y mensajes de estado
         filenameLabel = new JLabel();
         contentPane.add(filenameLabel, BorderLayout.NORTH);
 
+        JPanel statusBar = new JPanel(new BorderLayout(6, 0));
         statusLabel = new JLabel(VERSION);
-        contentPane.add(statusLabel, BorderLayout.SOUTH);
+        statusBar.add(statusLabel, BorderLayout.CENTER);
+
+        JPanel progressPanel = new JPanel(new BorderLayout(6, 0));
+        performanceLabel = new JLabel();
+        progressPanel.add(performanceLabel, BorderLayout.WEST);
+        PerformanceMonitor.getDefault().addListener(new PerformanceMonitor.Listener() {
+                               public void recorded(final PerformanceMonitor.Record record)
+                               {
+                                   SwingUtilities.invokeLater(new Runnable() {
+                                           public void run()
+                                           {
+                                               performanceLabel.setText(record.toString());
+                                           }
+                                       });
+                               }
+                           });
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setStringPainted(true);
+        progressBar.setVisible(false);
+        progressPanel.add(progressBar, BorderLayout.CENTER);
+        cancelButton = new JButton("Cancelar");
+        cancelButton.addActionListener(new ActionListener() {
+                               public void actionPerformed(ActionEvent e) { cancelJobs(); }
+                           });
+        cancelButton.setVisible(false);
+        progressPanel.add(cancelButton, BorderLayout.EAST);
+        statusBar.add(progressPanel, BorderLayout.EAST);
+        contentPane.add(statusBar, BorderLayout.SOUTH);
         
         // Crea la barra de herramientas con los botones
         JPanel toolbar = new JPanel();
         toolbar.setLayout(new GridLayout(0, 1));
         
-        smallerButton = new JButton("Más pequeña");
-        smallerButton.addActionListener(new ActionListener() {
-                               public void actionPerformed(ActionEvent e) { makeSmaller(); }
+        scaleButton = new JButton("Cambiar tamaño...");
+        scaleButton.addActionListener(new ActionListener() {
+                               public void actionPerformed(ActionEvent e) { scale(); }
                            });
-        toolbar.add(smallerButton);
-        
-        largerButton = new JButton("Más grande");
-        largerButton.addActionListener(new ActionListener() {
-                               public void actionPerformed(ActionEvent e) { makeLarger(); }
-                           });
-        toolbar.add(largerButton);
+        toolbar.add(scaleButton);
 
         // Agrega la barra de herramientas
         JPanel flow = new JPanel();
@@ -303,6 +1343,7 @@ public class ImageViewer
         // Organizamos los componentes  
         showFilename(null);
         setButtonsEnabled(false);
+        updateHistoryItems();
         frame.pack();
         
         // Se coloca la mesa de trabajo en el centro y se muestra
@@ -362,19 +1403,104 @@ public class ImageViewer
         menu.add(item);
 
 
+        // Se crea el menú de edición
+        menu = new JMenu("Editar");
+        menubar.add(menu);
+
+        item = new JMenuItem("Deshacer");
+            item.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, SHORTCUT_MASK));
+            item.addActionListener(new ActionListener() {
+                               public void actionPerformed(ActionEvent e) { undo(); }
+                           });
+        menu.add(item);
+        undoItem = item;
+
+        item = new JMenuItem("Rehacer");
+            item.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, SHORTCUT_MASK));
+            item.addActionListener(new ActionListener() {
+                               public void actionPerformed(ActionEvent e) { redo(); }
+                           });
+        menu.add(item);
+        redoItem = item;
+
+        // Se crea el menú de la vista
+        menu = new JMenu("Ver");
+        menubar.add(menu);
+
+        item = new JMenuItem("Acercar");
+            item.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_PLUS, SHORTCUT_MASK));
+            item.addActionListener(new ActionListener() {
+                               public void actionPerformed(ActionEvent e) { zoom(2); }
+                           });
+        menu.add(item);
+
+        item = new JMenuItem("Alejar");
+            item.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_MINUS, SHORTCUT_MASK));
+            item.addActionListener(new ActionListener() {
+                               public void actionPerformed(ActionEvent e) { zoom(0.5); }
+                           });
+        menu.add(item);
+
+        item = new JMenuItem("Tamaño real");
+            item.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_0, SHORTCUT_MASK));
+            item.addActionListener(new ActionListener() {
+                               public void actionPerformed(ActionEvent e) { setZoom(1); }
+                           });
+        menu.add(item);
+
+        item = new JMenuItem("Ajustar a la ventana");
+            item.addActionListener(new ActionListener() {
+                               public void actionPerformed(ActionEvent e) { zoomToWindow(); }
+                           });
+        menu.add(item);
+
+        menu.addSeparator();
+
+        final JCheckBoxMenuItem histogramItem = new JCheckBoxMenuItem("Histograma");
+            histogramItem.addActionListener(new ActionListener() {
+                               public void actionPerformed(ActionEvent e)
+                               {
+                                   showHistogram(histogramItem.isSelected());
+                               }
+                           });
+        menu.add(histogramItem);
+
+        final JCheckBoxMenuItem stepsItem = new JCheckBoxMenuItem("Pasos", true);
+            stepsItem.addActionListener(new ActionListener() {
+                               public void actionPerformed(ActionEvent e)
+                               {
+                                   showSteps(stepsItem.isSelected());
+                               }
+                           });
+        menu.add(stepsItem);
+
+        // Se crea el menú de los giros y volteos
+        menu = new JMenu("Transformar");
+        menubar.add(menu);
+
+        for(final Transform transform : Transform.values()) {
+            item = new JMenuItem(transform.toString());
+                item.addActionListener(new ActionListener() {
+                               public void actionPerformed(ActionEvent e) { transform(transform); }
+                           });
+            menu.add(item);
+        }
+
         // Se crea el menú de los filtros
         menu = new JMenu("Filtros");
         menubar.add(menu);
+        filterMenu = menu;
         
-        for(final Filter filter : filters) {
-            item = new JMenuItem(filter.getName());
+        for(Filter filter : filters) {
+            menu.add(makeFilterItem(filter));
+        }
+        menu.addSeparator();
+
+        item = new JMenuItem("Guardar filtros aplicados como preset...");
             item.addActionListener(new ActionListener() {
-                                public void actionPerformed(ActionEvent e) { 
-                                    applyFilter(filter);
-                                }
+                               public void actionPerformed(ActionEvent e) { savePreset(); }
                            });
-             menu.add(item);
-         }
+        menu.add(item);
 
         // Se crea el menú de ayuda y acerca de
         menu = new JMenu("Mas");
@@ -387,4 +1513,21 @@ public class ImageViewer
         menu.add(item);
 
     }
+
+    /**
+     * Crea la opción del menú que aplica un filtro.
+     * 
+     * @param filter El filtro que aplica la opción.
+     * @return La opción del menú.
+     */
+    private JMenuItem makeFilterItem(final Filter filter)
+    {
+        JMenuItem item = new JMenuItem(filter.getName());
+        item.addActionListener(new ActionListener() {
+                            public void actionPerformed(ActionEvent e) { 
+                                applyFilter(filter);
+                            }
+                       });
+        return item;
+    }
 }
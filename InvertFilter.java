@@ -1,7 +1,5 @@
-import java.awt.Color;
 
-
-public class InvertFilter extends Filter
+public class InvertFilter extends PointFilter
 {
     /**
      * Constructor for objects of class InvertFilter.
@@ -12,17 +10,17 @@ public class InvertFilter extends Filter
         super(name);
     }
 
-    public void apply(OFImage image)
+    protected LookupTable createTable()
     {
-        int height = image.getHeight();
-        int width = image.getWidth();
-        for(int y = 0; y < height; y++) {
-            for(int x = 0; x < width; x++) {
-                Color pix = image.getPixel(x, y);
-                image.setPixel(x, y, new Color(255 - pix.getRed(),
-                                               255 - pix.getGreen(),
-                                               255 - pix.getBlue()));
-            }
+        int[] table = new int[256];
+        for(int i = 0; i < 256; i++) {
+            table[i] = 255 - i;
         }
+        return LookupTable.forChannels(table);
+    }
+
+    protected void applyTable(int[] pixels, int start, int end)
+    {
+        PixelKernels.getDefault().invert(pixels, start, end);
     }
 }
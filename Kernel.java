@@ -0,0 +1,198 @@
+/**
+ * Kernel es la matriz de pesos de una convolucion (ver ConvolveFilter). El
+ * pixel del resultado es la suma de los pixeles de su alrededor por el peso
+ * que ocupa cada uno en la matriz, centrada en el pixel; el ancho y el alto
+ * son impares para que haya un centro.
+ *
+ * Ademas de una matriz cualquiera hay nucleos ya armados: enfocar, relieve,
+ * gaussiano y disco.
+ */
+public class Kernel
+{
+    // diferencia relativa aceptada al ver si el nucleo es separable
+    private static final double SEPARABLE_TOLERANCE = 1e-6;
+
+    private int width;
+    private int height;
+    private float[] values;
+
+    /**
+     * Crea un nucleo.
+     * @param width El ancho, impar.
+     * @param height El alto, impar.
+     * @param values Los pesos, fila por fila.
+     */
+    public Kernel(int width, int height, float[] values)
+    {
+        if(width < 1 || height < 1 || width % 2 == 0 || height % 2 == 0) {
+            throw new IllegalArgumentException("el nucleo debe tener lados impares: "
+                                               + width + "x" + height);
+        }
+        if(values.length != width * height) {
+            throw new IllegalArgumentException("se esperaban " + width * height + " pesos");
+        }
+        this.width = width;
+        this.height = height;
+        this.values = values.clone();
+    }
+
+    /**
+     * Nucleo que resalta los detalles restando al pixel el promedio de sus
+     * cuatro vecinos.
+     *
+     * @return El nucleo de 3x3.
+     */
+    public static Kernel sharpen()
+    {
+        return new Kernel(3, 3, new float[] { 0, -1, 0,
+                                              -1, 5, -1,
+                                              0, -1, 0 });
+    }
+
+    /**
+     * Nucleo que hace ver la imagen como un relieve iluminado desde arriba
+     * a la izquierda.
+     *
+     * @return El nucleo de 3x3.
+     */
+    public static Kernel emboss()
+    {
+        return new Kernel(3, 3, new float[] { -2, -1, 0,
+                                              -1, 1, 1,
+                                              0, 1, 2 });
+    }
+
+    /**
+     * Nucleo gaussiano normalizado, que desenfoca suavemente.
+     *
+     * @param radius El radio; el nucleo tiene 2 * radius + 1 de lado y la
+     *               desviacion es radius / 3.
+     * @return El nucleo.
+     */
+    public static Kernel gaussian(int radius)
+    {
+        int size = 2 * radius + 1;
+        double sigma = Math.max(radius / 3.0, 0.5);
+        double[] line = new double[size];
+        for(int i = 0; i < size; i++) {
+            double d = i - radius;
+            line[i] = Math.exp(-d * d / (2 * sigma * sigma));
+        }
+        float[] values = new float[size * size];
+        double sum = 0;
+        for(int y = 0; y < size; y++) {
+            for(int x = 0; x < size; x++) {
+                sum += line[x] * line[y];
+            }
+        }
+        for(int y = 0; y < size; y++) {
+            for(int x = 0; x < size; x++) {
+                values[y * size + x] = (float) (line[x] * line[y] / sum);
+            }
+        }
+        return new Kernel(size, size, values);
+    }
+
+    /**
+     * Nucleo normalizado con el mismo peso en todo un circulo, que
+     * desenfoca como una lente fuera de foco. No es separable.
+     *
+     * @param radius El radio del circulo.
+     * @return El nucleo, de 2 * radius + 1 de lado.
+     */
+    public static Kernel disk(int radius)
+    {
+        int size = 2 * radius + 1;
+        float[] values = new float[size * size];
+        int count = 0;
+        for(int y = -radius; y <= radius; y++) {
+            for(int x = -radius; x <= radius; x++) {
+                if(x * x + y * y <= radius * radius) {
+                    values[(y + radius) * size + x + radius] = 1;
+                    count++;
+                }
+            }
+        }
+        for(int i = 0; i < values.length; i++) {
+            values[i] /= count;
+        }
+        return new Kernel(size, size, values);
+    }
+
+    /**
+     * @return El ancho.
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * @return El alto.
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Devuelve un peso.
+     *
+     * @param x La columna, de 0 a getWidth() - 1.
+     * @param y La fila, de 0 a getHeight() - 1.
+     * @return El peso.
+     */
+    public float getValue(int x, int y)
+    {
+        return values[y * width + x];
+    }
+
+    /**
+     * @return Una copia de los pesos, fila por fila.
+     */
+    public float[] getValues()
+    {
+        return values.clone();
+    }
+
+    /**
+     * Intenta escribir el nucleo como el producto de una columna por una
+     * fila, para aplicarlo en dos pasadas de una dimension.
+     *
+     * @return La fila (de getWidth() pesos) y la columna (de getHeight()
+     *         pesos), o 'null' si el nucleo no es separable.
+     */
+    public float[][] separate()
+    {
+        // se parte del peso más grande para que la division sea estable
+        int pivot = 0;
+        for(int i = 1; i < values.length; i++) {
+            if(Math.abs(values[i]) > Math.abs(values[pivot])) {
+                pivot = i;
+            }
+        }
+        double p = values[pivot];
+        if(p == 0) {
+            return null;
+        }
+        int pivotX = pivot % width;
+        int pivotY = pivot / width;
+        float[] row = new float[width];
+        float[] column = new float[height];
+        for(int x = 0; x < width; x++) {
+            row[x] = values[pivotY * width + x];
+        }
+        for(int y = 0; y < height; y++) {
+            column[y] = (float) (values[y * width + pivotX] / p);
+        }
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                double product = (double) row[x] * column[y];
+                if(Math.abs(product - values[y * width + x]) > SEPARABLE_TOLERANCE * Math.abs(p)) {
+                    return null;
+                }
+            }
+        }
+        return new float[][] { row, column };
+    }
+}
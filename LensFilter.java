@@ -0,0 +1,51 @@
+/**
+ * LensFilter simula la distorsion radial de una lente: con una fuerza
+ * positiva la imagen se abomba (barril) y con una negativa se hunde hacia
+ * el centro (cojín). El desplazamiento crece con el cuadrado de la
+ * distancia al centro, medida en mitades de la diagonal.
+ */
+public class LensFilter extends WarpFilter
+{
+    // fuerza por defecto de la distorsion
+    public static final double DEFAULT_STRENGTH = 0.3;
+
+    private double strength;
+
+    /**
+     * Crea una lente de barril con la fuerza por defecto.
+     * @param name El nombre del filtro.
+     */
+    public LensFilter(String name)
+    {
+        this(name, DEFAULT_STRENGTH, EdgePolicy.TRANSPARENT);
+    }
+
+    /**
+     * Crea una lente.
+     * @param name El nombre del filtro.
+     * @param strength Positiva para barril, negativa para cojín.
+     * @param edgePolicy Que se toma para los puntos fuera de la imagen.
+     */
+    public LensFilter(String name, double strength, EdgePolicy edgePolicy)
+    {
+        super(name, edgePolicy);
+        this.strength = strength;
+    }
+
+    protected Object[] getParameters()
+    {
+        return new Object[] { strength, getEdgePolicy() };
+    }
+
+    protected void map(int x, int y, int width, int height, double[] source)
+    {
+        double centerX = (width - 1) / 2.0;
+        double centerY = (height - 1) / 2.0;
+        double radius = Math.max(Math.hypot(centerX, centerY), 1);
+        double dx = (x - centerX) / radius;
+        double dy = (y - centerY) / radius;
+        double factor = 1 + strength * (dx * dx + dy * dy);
+        source[0] = centerX + (x - centerX) * factor;
+        source[1] = centerY + (y - centerY) * factor;
+    }
+}
@@ -1,6 +1,9 @@
 
-public class LighterFilter extends Filter
+public class LighterFilter extends PointFilter
 {
+    // el mismo factor que usa Color.brighter()
+    private static final double FACTOR = 0.7;
+    private static final int MIN_VALUE = (int)(1.0 / (1.0 - FACTOR));
 
     public LighterFilter(String name)
     {
@@ -8,15 +11,19 @@ public class LighterFilter extends Filter
     }
 
 
-    public void apply(OFImage image)
+    protected LookupTable createTable()
     {
-        int height = image.getHeight();
-        int width = image.getWidth();
-        for(int y = 0; y < height; y++) {
-            for(int x = 0; x < width; x++) {
-                image.setPixel(x, y, image.getPixel(x, y).brighter());
+        int[] table = new int[256];
+        for(int i = 0; i < 256; i++) {
+            int value = i;
+            if(value > 0 && value < MIN_VALUE) {
+                value = MIN_VALUE;
             }
+            table[i] = Math.min((int)(value / FACTOR), 255);
         }
+        // como Color.brighter(), el negro puro pasa a un gris muy oscuro
+        int black = (MIN_VALUE << 16) | (MIN_VALUE << 8) | MIN_VALUE;
+        return LookupTable.forChannels(table, black);
     }
 
 }
@@ -0,0 +1,233 @@
+/**
+ * Una LookupTable transforma el color de cada pixel sin mirar a sus vecinos,
+ * usando tablas precalculadas de 256 entradas.
+ *
+ * Hay dos tipos de tabla:
+ * - por canal: una tabla para el rojo, otra para el verde y otra para el
+ *   azul. Opcionalmente el negro puro puede tener un color propio, porque
+ *   Color.brighter() trata ese caso aparte.
+ * - por luminosidad: el promedio (r + g + b) / 3 del pixel elige el color
+ *   resultante.
+ *
+ * Las tablas se construyen una vez y se aplican a la imagen en un solo
+ * recorrido de sus pixeles.
+ */
+public class LookupTable
+{
+    // tablas por canal, ya desplazadas a la posicion de su canal
+    private final int[] red;
+    private final int[] green;
+    private final int[] blue;
+    private final boolean mapsBlack;
+    private final int blackColor;
+
+    // tabla por luminosidad con el color resultante (0xRRGGBB)
+    private final int[] luminance;
+
+    // resultados de zeroEntries
+    private static final int NO_ZERO = 0;
+    private static final int ONLY_BLACK_ZERO = 1;
+    private static final int OTHER_ZERO = 2;
+
+    private LookupTable(int[] red, int[] green, int[] blue,
+                        boolean mapsBlack, int blackColor, int[] luminance)
+    {
+        this.red = red;
+        this.green = green;
+        this.blue = blue;
+        this.mapsBlack = mapsBlack;
+        this.blackColor = blackColor;
+        this.luminance = luminance;
+    }
+
+    /**
+     * Crea una tabla que transforma cada canal por separado.
+     * @param red   El nuevo valor (0-255) de cada valor de rojo.
+     * @param green El nuevo valor (0-255) de cada valor de verde.
+     * @param blue  El nuevo valor (0-255) de cada valor de azul.
+     * @return La tabla.
+     */
+    public static LookupTable forChannels(int[] red, int[] green, int[] blue)
+    {
+        return new LookupTable(shift(red, 16), shift(green, 8), shift(blue, 0),
+                               false, 0, null);
+    }
+
+    /**
+     * Crea una tabla que transforma los tres canales de la misma forma.
+     * @param table El nuevo valor (0-255) de cada valor de un canal.
+     * @return La tabla.
+     */
+    public static LookupTable forChannels(int[] table)
+    {
+        return forChannels(table, table, table);
+    }
+
+    /**
+     * Crea una tabla que transforma los tres canales de la misma forma,
+     * salvo el negro puro que se convierte en un color dado.
+     * @param table El nuevo valor (0-255) de cada valor de un canal.
+     * @param blackColor El color (0xRRGGBB) que toma el negro puro.
+     * @return La tabla.
+     */
+    public static LookupTable forChannels(int[] table, int blackColor)
+    {
+        return new LookupTable(shift(table, 16), shift(table, 8), shift(table, 0),
+                               true, blackColor & 0xffffff, null);
+    }
+
+    /**
+     * Crea una tabla que elige el color del pixel segun su luminosidad,
+     * calculada como (r + g + b) / 3.
+     * @param colors El color (0xRRGGBB) para cada luminosidad de 0 a 255.
+     * @return La tabla.
+     */
+    public static LookupTable forLuminance(int[] colors)
+    {
+        int[] table = new int[256];
+        for(int i = 0; i < 256; i++) {
+            table[i] = colors[i] & 0xffffff;
+        }
+        return new LookupTable(null, null, null, false, 0, table);
+    }
+
+    /**
+     * Transforma un solo pixel.
+     * @param pixel El pixel empaquetado.
+     * @return El pixel transformado, siempre opaco.
+     */
+    public int lookup(int pixel)
+    {
+        if(luminance != null) {
+            int avg = (((pixel >> 16) & 0xff) + ((pixel >> 8) & 0xff) + (pixel & 0xff)) / 3;
+            return 0xff000000 | luminance[avg];
+        }
+        if(mapsBlack && (pixel & 0xffffff) == 0) {
+            return 0xff000000 | blackColor;
+        }
+        return 0xff000000 | red[(pixel >> 16) & 0xff] | green[(pixel >> 8) & 0xff]
+                          | blue[pixel & 0xff];
+    }
+
+    /**
+     * Aplica la tabla a todos los pixeles de una imagen.
+     * @param image La imagen que cambiará.
+     */
+    public void apply(OFImage image)
+    {
+        int[] pixels = image.getPixels();
+        apply(pixels, 0, pixels.length);
+        image.setPixels(pixels);
+    }
+
+    /**
+     * Aplica la tabla a una parte de un arreglo de pixeles empaquetados.
+     * @param pixels Los pixeles.
+     * @param start La primera posicion a transformar.
+     * @param end La posicion siguiente a la ultima a transformar.
+     */
+    public void apply(int[] pixels, int start, int end)
+    {
+        if(luminance != null) {
+            int[] lum = luminance;
+            for(int i = start; i < end; i++) {
+                int pix = pixels[i];
+                int avg = (((pix >> 16) & 0xff) + ((pix >> 8) & 0xff) + (pix & 0xff)) / 3;
+                pixels[i] = 0xff000000 | lum[avg];
+            }
+        }
+        else if(mapsBlack) {
+            for(int i = start; i < end; i++) {
+                pixels[i] = lookup(pixels[i]);
+            }
+        }
+        else {
+            int[] r = red;
+            int[] g = green;
+            int[] b = blue;
+            for(int i = start; i < end; i++) {
+                int pix = pixels[i];
+                pixels[i] = 0xff000000 | r[(pix >> 16) & 0xff] | g[(pix >> 8) & 0xff]
+                                       | b[pix & 0xff];
+            }
+        }
+    }
+
+    /**
+     * Combina esta tabla con otra que se aplica despues, en una sola tabla
+     * con el mismo resultado que aplicar las dos seguidas.
+     *
+     * No todas las parejas se pueden combinar: una tabla por luminosidad
+     * despues de una por canal depende de los tres canales a la vez, y lo
+     * mismo pasa con el caso especial del negro si la primera tabla puede
+     * convertir otros colores en negro. En esos casos devuelve 'null'.
+     *
+     * @param next La tabla que se aplica despues de esta.
+     * @return La tabla combinada, o 'null' si no se puede combinar.
+     */
+    public LookupTable then(LookupTable next)
+    {
+        if(luminance != null) {
+            // el resultado solo depende de la luminosidad del pixel original
+            int[] colors = new int[256];
+            for(int i = 0; i < 256; i++) {
+                colors[i] = next.lookup(luminance[i]);
+            }
+            return forLuminance(colors);
+        }
+        if(next.luminance != null) {
+            return null;
+        }
+        boolean combinedMapsBlack = mapsBlack;
+        if(next.mapsBlack) {
+            // solo se puede si esta tabla no convierte en negro ningun
+            // color salvo, quizas, el propio negro
+            int red0 = zeroEntries(red);
+            int green0 = zeroEntries(green);
+            int blue0 = zeroEntries(blue);
+            if(red0 != NO_ZERO && green0 != NO_ZERO && blue0 != NO_ZERO) {
+                if(red0 == OTHER_ZERO || green0 == OTHER_ZERO || blue0 == OTHER_ZERO) {
+                    return null;
+                }
+                combinedMapsBlack = true;
+            }
+        }
+        int[] combinedRed = new int[256];
+        int[] combinedGreen = new int[256];
+        int[] combinedBlue = new int[256];
+        for(int i = 0; i < 256; i++) {
+            combinedRed[i] = next.red[red[i] >> 16];
+            combinedGreen[i] = next.green[green[i] >> 8];
+            combinedBlue[i] = next.blue[blue[i]];
+        }
+        int combinedBlack = next.lookup(lookup(0)) & 0xffffff;
+        return new LookupTable(combinedRed, combinedGreen, combinedBlue,
+                               combinedMapsBlack, combinedBlack, null);
+    }
+
+    /**
+     * Indica que entradas de una tabla por canal dan 0: ninguna, solo la
+     * del 0 o alguna otra.
+     */
+    private static int zeroEntries(int[] table)
+    {
+        for(int i = 1; i < 256; i++) {
+            if(table[i] == 0) {
+                return OTHER_ZERO;
+            }
+        }
+        return table[0] == 0 ? ONLY_BLACK_ZERO : NO_ZERO;
+    }
+
+    /**
+     * Copia una tabla de 256 valores desplazando cada valor a su canal.
+     */
+    private static int[] shift(int[] table, int bits)
+    {
+        int[] shifted = new int[256];
+        for(int i = 0; i < 256; i++) {
+            shifted[i] = (table[i] & 0xff) << bits;
+        }
+        return shifted;
+    }
+}
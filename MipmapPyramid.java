@@ -0,0 +1,644 @@
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MipmapPyramid guarda versiones reducidas de una imagen para poder
+ * mostrarla alejada sin recorrerla entera en cada repintado.
+ *
+ * El nivel 0 es la imagen misma (no se copia); el nivel k es la imagen
+ * reducida 2^k veces, promediando bloques de pixeles. Los niveles se dividen
+ * en cuadros de TILE_SIZE x TILE_SIZE que se calculan solo cuando se piden,
+ * a partir de los cuatro cuadros del nivel anterior si estan guardados, o
+ * si no directamente de la imagen. Los cuadros se guardan hasta un limite
+ * de memoria, olvidando primero los usados hace más tiempo.
+ *
+ * Para dibujar, cada cuadro (tambien los del nivel 0) se copia una vez a
+ * una imagen compatible con la pantalla (ver getDisplayTile), que se dibuja
+ * sin convertir los pixeles en cada repintado. Esas copias comparten el
+ * limite de memoria con los cuadros reducidos.
+ *
+ * Cuando la imagen cambia solo en algunas zonas (ver update), se olvidan
+ * solo los cuadros que las cubren.
+ *
+ * La imagen tambien puede ser el resultado de un EditGraph, que se calcula
+ * por bandas de la altura de un cuadro a medida que se piden los cuadros.
+ *
+ * isReady indica si un cuadro se puede pedir sin esperar: si está guardado
+ * o se calcula leyendo pocos pixeles. Los demas (los de los niveles
+ * reducidos de una imagen grande, que leen toda la zona que cubren) se
+ * calculan antes con prepareTile en otro hilo, sin bloquear la piramide.
+ */
+public class MipmapPyramid
+{
+    // lado de los cuadros, en pixeles de su nivel
+    public static final int TILE_SIZE = 256;
+    // memoria por defecto para los cuadros, en bytes
+    public static final long DEFAULT_MEMORY = 64L * 1024 * 1024;
+    // marca en la clave de las copias para la pantalla
+    private static final long DISPLAY = 1L << 62;
+    // pixeles de nivel 0 que puede leer un cuadro que se calcula sin esperar
+    private static final long READY_PIXELS = 4L * TILE_SIZE * TILE_SIZE;
+
+    private OFImage image;
+    private EditGraph graph;
+    private int width;
+    private int height;
+    private int maxLevel;
+    private long memoryLimit;
+    private long memoryUsed;
+    // cuadros por nivel y posicion, en orden de uso (el más viejo primero);
+    // las copias para la pantalla tienen DISPLAY en la clave
+    private LinkedHashMap<Long, BufferedImage> tiles;
+    private GraphicsConfiguration displayConfig;
+    // cambia cada vez que cambia la imagen, para no guardar un cuadro que
+    // prepareTile calculó de la anterior
+    private long version;
+
+    /**
+     * Crea la piramide de una imagen. De la imagen solo se leen las zonas
+     * de los cuadros que se piden, asi que puede guardar sus pixeles de
+     * cualquier forma (por ejemplo como bytes, las JPEG).
+     * @param image La imagen.
+     * @param memoryLimit Los bytes que pueden ocupar los cuadros guardados.
+     */
+    public MipmapPyramid(OFImage image, long memoryLimit)
+    {
+        this(image, null, image.getWidth(), image.getHeight(), memoryLimit);
+    }
+
+    /**
+     * Crea la piramide del resultado de un EditGraph.
+     * @param graph El grafo.
+     * @param memoryLimit Los bytes que pueden ocupar los cuadros guardados.
+     */
+    public MipmapPyramid(EditGraph graph, long memoryLimit)
+    {
+        this(null, graph, graph.getWidth(), graph.getHeight(), memoryLimit);
+    }
+
+    private MipmapPyramid(OFImage image, EditGraph graph, int width, int height, long memoryLimit)
+    {
+        this.image = image;
+        this.graph = graph;
+        this.memoryLimit = memoryLimit;
+        this.width = width;
+        this.height = height;
+        maxLevel = 0;
+        while(Math.max(width, height) >> maxLevel > TILE_SIZE) {
+            maxLevel++;
+        }
+        tiles = new LinkedHashMap<Long, BufferedImage>(64, 0.75f, true);
+    }
+
+    /**
+     * @return La imagen del nivel 0, o 'null' si la piramide es de un
+     *         EditGraph.
+     */
+    public OFImage getImage()
+    {
+        return image;
+    }
+
+    /**
+     * @return El grafo cuyo resultado es el nivel 0, o 'null' si la
+     *         piramide es de una imagen.
+     */
+    public EditGraph getGraph()
+    {
+        return graph;
+    }
+
+    /**
+     * @return El ancho del nivel 0.
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * @return La altura del nivel 0.
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Indica si un cuadro se puede pedir sin esperar: si está guardado, si
+     * se calcula de los cuatro cuadros guardados del nivel anterior, o si
+     * cubre pocos pixeles de la imagen (como los del nivel 0) y, si la
+     * piramide es de un EditGraph, sus bandas estan calculadas.
+     *
+     * @param level El nivel, de 0 a getMaxLevel().
+     * @param tileX La columna del cuadro.
+     * @param tileY La fila del cuadro.
+     * @return 'true' si el cuadro está guardado o se puede calcular enseguida.
+     */
+    public synchronized boolean isReady(int level, int tileX, int tileY)
+    {
+        Long key = key(level, tileX, tileY);
+        if(tiles.containsKey(key) || tiles.containsKey(key | DISPLAY)
+           || level > 1 && hasChildren(level, tileX, tileY)) {
+            return true;
+        }
+        Rectangle bounds = getTileBounds(level, tileX, tileY);
+        if((long) bounds.width * bounds.height > READY_PIXELS) {
+            return false;
+        }
+        if(graph == null) {
+            return true;
+        }
+        int band = bounds.y / EditGraph.BAND_HEIGHT;
+        for(; band * EditGraph.BAND_HEIGHT < bounds.y + bounds.height; band++) {
+            if(!graph.isReady(band)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Devuelve el nivel que conviene para mostrar la imagen a una escala:
+     * el más reducido que todavia tiene al menos un pixel por pixel de
+     * pantalla.
+     *
+     * @param scale Los pixeles de pantalla por pixel de la imagen.
+     * @return El nivel, de 0 a getMaxLevel().
+     */
+    public int getLevel(double scale)
+    {
+        int level = 0;
+        while(level < maxLevel && scale * (2 << level) <= 1) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * @return El nivel más reducido, que cabe en un cuadro.
+     */
+    public int getMaxLevel()
+    {
+        return maxLevel;
+    }
+
+    /**
+     * Devuelve el ancho de un nivel.
+     *
+     * @param level El nivel.
+     * @return El ancho en pixeles de ese nivel.
+     */
+    public int getLevelWidth(int level)
+    {
+        return (int) (((long) width + (1L << level) - 1) >> level);
+    }
+
+    /**
+     * Devuelve la altura de un nivel.
+     *
+     * @param level El nivel.
+     * @return La altura en pixeles de ese nivel.
+     */
+    public int getLevelHeight(int level)
+    {
+        return (int) (((long) height + (1L << level) - 1) >> level);
+    }
+
+    /**
+     * Devuelve un cuadro de un nivel, calculandolo si hace falta. Los
+     * cuadros del borde derecho e inferior pueden ser más pequeños. Los del
+     * nivel 0 son partes de la imagen y no se guardan.
+     *
+     * @param level El nivel, de 0 a getMaxLevel().
+     * @param tileX La columna del cuadro.
+     * @param tileY La fila del cuadro.
+     * @return El cuadro; no se debe modificar.
+     */
+    public synchronized BufferedImage getTile(int level, int tileX, int tileY)
+    {
+        if(level == 0) {
+            return getImageTile(tileX, tileY);
+        }
+        Long key = key(level, tileX, tileY);
+        BufferedImage tile = tiles.get(key);
+        if(tile == null) {
+            tile = level > 1 && hasChildren(level, tileX, tileY)
+                   ? reduceTiles(level, tileX, tileY) : reduceImage(image, level, tileX, tileY);
+            store(key, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Calcula y guarda un cuadro para que isReady lo dé por listo; si es de
+     * nivel 0 y la piramide es de un EditGraph, calcula sus bandas. Lee la
+     * imagen sin bloquear la piramide, asi que se puede llamar desde otro
+     * hilo mientras se dibuja. Si la imagen cambia mientras tanto (ver
+     * update), el cuadro no se guarda.
+     *
+     * @param level El nivel, de 0 a getMaxLevel().
+     * @param tileX La columna del cuadro.
+     * @param tileY La fila del cuadro.
+     */
+    public void prepareTile(int level, int tileX, int tileY)
+    {
+        Long key = key(level, tileX, tileY);
+        OFImage source;
+        long sourceVersion;
+        synchronized(this) {
+            if(tiles.containsKey(key) || tiles.containsKey(key | DISPLAY)) {
+                return;
+            }
+            source = image;
+            sourceVersion = version;
+        }
+        if(level == 0) {
+            if(graph != null) {
+                graph.getBand(tileY);
+            }
+            return;
+        }
+        BufferedImage tile = reduceImage(source, level, tileX, tileY);
+        synchronized(this) {
+            if(version == sourceVersion && !tiles.containsKey(key)) {
+                store(key, tile);
+            }
+        }
+    }
+
+    /**
+     * Devuelve otra piramide de la misma imagen, con los cuadros guardados
+     * hasta ahora, que no cambia con update. Sirve para seguir mostrando la
+     * imagen anterior mientras se calculan los cuadros de la nueva.
+     *
+     * @return La copia.
+     */
+    public synchronized MipmapPyramid copy()
+    {
+        MipmapPyramid copy = new MipmapPyramid(image, graph, width, height, memoryLimit);
+        copy.tiles.putAll(tiles);
+        copy.memoryUsed = memoryUsed;
+        copy.displayConfig = displayConfig;
+        return copy;
+    }
+
+    /**
+     * Devuelve un cuadro de cualquier nivel copiado a una imagen compatible
+     * con una pantalla, que se puede dibujar sin convertir sus pixeles.
+     *
+     * @param level El nivel, de 0 a getMaxLevel().
+     * @param tileX La columna del cuadro.
+     * @param tileY La fila del cuadro.
+     * @param config La configuracion de la pantalla donde se dibuja.
+     * @return La copia; no se debe modificar.
+     */
+    public synchronized BufferedImage getDisplayTile(int level, int tileX, int tileY,
+                                                     GraphicsConfiguration config)
+    {
+        if(config != displayConfig) {
+            // las copias para otra pantalla ya no sirven
+            removeTiles(true, null);
+            displayConfig = config;
+        }
+        Long key = key(level, tileX, tileY) | DISPLAY;
+        BufferedImage tile = tiles.get(key);
+        if(tile == null) {
+            BufferedImage source = getTile(level, tileX, tileY);
+            tile = config.createCompatibleImage(source.getWidth(), source.getHeight(),
+                                                Transparency.OPAQUE);
+            Graphics2D g = tile.createGraphics();
+            g.drawImage(source, 0, 0, null);
+            g.dispose();
+            store(key, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Cambia la imagen por otra del mismo tamaño que solo difiere en unas
+     * zonas, conservando los cuadros que no las tocan.
+     *
+     * @param newImage La nueva imagen (puede ser la misma, modificada).
+     * @param changes Las zonas que cambiaron, en pixeles de la imagen.
+     */
+    public synchronized void update(OFImage newImage, List<Rectangle> changes)
+    {
+        if(image == null) {
+            throw new IllegalStateException("la piramide es de un EditGraph");
+        }
+        if(newImage.getWidth() != width || newImage.getHeight() != height) {
+            throw new IllegalArgumentException("la imagen nueva tiene otro tamaño");
+        }
+        image = newImage;
+        version++;
+        removeTiles(false, changes);
+    }
+
+    /**
+     * Devuelve la zona de la imagen que cubre un cuadro.
+     *
+     * @param level El nivel del cuadro.
+     * @param tileX La columna del cuadro.
+     * @param tileY La fila del cuadro.
+     * @return La zona, en pixeles de la imagen.
+     */
+    public Rectangle getTileBounds(int level, int tileX, int tileY)
+    {
+        long span = (long) TILE_SIZE << level;
+        int x = (int) Math.min(tileX * span, width);
+        int y = (int) Math.min(tileY * span, height);
+        return new Rectangle(x, y, (int) Math.min(span, width - x), (int) Math.min(span, height - y));
+    }
+
+    /**
+     * Olvida todos los cuadros guardados.
+     */
+    public synchronized void clear()
+    {
+        tiles.clear();
+        memoryUsed = 0;
+        version++;
+    }
+
+    /**
+     * Devuelve las zonas de TILE_SIZE x TILE_SIZE en que difieren dos
+     * imagenes del mismo tamaño. Cada zona se compara fila por fila y se
+     * deja de comparar en la primera diferencia, asi que cuesta poco si
+     * cambió casi todo.
+     *
+     * @param before La imagen de antes.
+     * @param after La imagen de despues.
+     * @return Las zonas que cambiaron, o 'null' si las imagenes no tienen
+     *         el mismo tamaño.
+     */
+    public static List<Rectangle> findChanges(OFImage before, OFImage after)
+    {
+        int width = before.getWidth();
+        int height = before.getHeight();
+        if(after.getWidth() != width || after.getHeight() != height) {
+            return null;
+        }
+        // se comparan de a una fila de cuadros, sin copiar las imagenes enteras
+        int[] oldPixels = new int[width * Math.min(TILE_SIZE, height)];
+        int[] newPixels = new int[oldPixels.length];
+        List<Rectangle> changes = new ArrayList<Rectangle>();
+        for(int y = 0; y < height; y += TILE_SIZE) {
+            int tileHeight = Math.min(TILE_SIZE, height - y);
+            Rectangle band = new Rectangle(0, y, width, tileHeight);
+            before.getPixels(band, oldPixels);
+            after.getPixels(band, newPixels);
+            for(int x = 0; x < width; x += TILE_SIZE) {
+                int tileWidth = Math.min(TILE_SIZE, width - x);
+                for(int row = 0; row < tileHeight; row++) {
+                    int offset = row * width + x;
+                    if(!Arrays.equals(oldPixels, offset, offset + tileWidth,
+                                      newPixels, offset, offset + tileWidth)) {
+                        changes.add(new Rectangle(x, y, tileWidth, tileHeight));
+                        break;
+                    }
+                }
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Guarda un cuadro, olvidando los usados hace más tiempo si se pasa el
+     * limite de memoria.
+     */
+    private void store(Long key, BufferedImage tile)
+    {
+        tiles.put(key, tile);
+        memoryUsed += tileBytes(tile);
+        Iterator<BufferedImage> eldest = tiles.values().iterator();
+        while(memoryUsed > memoryLimit && tiles.size() > 1) {
+            memoryUsed -= tileBytes(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Olvida los cuadros que tocan unas zonas de la imagen, o todas las
+     * copias para la pantalla.
+     *
+     * @param displayOnly Si solo se olvidan las copias para la pantalla.
+     * @param changes Las zonas, o 'null' para olvidar todos.
+     */
+    private void removeTiles(boolean displayOnly, List<Rectangle> changes)
+    {
+        Iterator<Map.Entry<Long, BufferedImage>> entries = tiles.entrySet().iterator();
+        while(entries.hasNext()) {
+            Map.Entry<Long, BufferedImage> entry = entries.next();
+            long key = entry.getKey();
+            if(displayOnly && (key & DISPLAY) == 0) {
+                continue;
+            }
+            boolean remove = changes == null;
+            if(!remove) {
+                Rectangle covered = getTileBounds((int) ((key >>> 56) & 0x3f),
+                                                  (int) (key & 0xfffffff),
+                                                  (int) ((key >>> 28) & 0xfffffff));
+                for(Rectangle change : changes) {
+                    if(covered.intersects(change)) {
+                        remove = true;
+                        break;
+                    }
+                }
+            }
+            if(remove) {
+                memoryUsed -= tileBytes(entry.getValue());
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Indica si estan guardados los cuadros del nivel anterior que forman
+     * un cuadro.
+     */
+    private boolean hasChildren(int level, int tileX, int tileY)
+    {
+        int columns = (getLevelWidth(level - 1) + TILE_SIZE - 1) / TILE_SIZE;
+        int rows = (getLevelHeight(level - 1) + TILE_SIZE - 1) / TILE_SIZE;
+        for(int y = tileY * 2; y < Math.min(tileY * 2 + 2, rows); y++) {
+            for(int x = tileX * 2; x < Math.min(tileX * 2 + 2, columns); x++) {
+                if(!tiles.containsKey(key(level - 1, x, y))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Calcula un cuadro promediando bloques de 2x2 pixeles de los cuadros
+     * del nivel anterior.
+     */
+    private BufferedImage reduceTiles(int level, int tileX, int tileY)
+    {
+        BufferedImage tile = createTile(level, tileX, tileY);
+        int[] target = pixels(tile);
+        int tileWidth = tile.getWidth();
+        int tileHeight = tile.getHeight();
+        for(int part = 0; part < 4; part++) {
+            int childX = tileX * 2 + (part & 1);
+            int childY = tileY * 2 + (part >> 1);
+            BufferedImage child = tiles.get(key(level - 1, childX, childY));
+            if(child == null) {
+                continue;  // fuera de la imagen
+            }
+            int[] source = pixels(child);
+            int childWidth = child.getWidth();
+            int childHeight = child.getHeight();
+            int offsetX = (part & 1) * TILE_SIZE / 2;
+            int offsetY = (part >> 1) * TILE_SIZE / 2;
+            for(int y = 0; y < (childHeight + 1) / 2 && offsetY + y < tileHeight; y++) {
+                int y0 = y * 2;
+                int y1 = Math.min(y0 + 1, childHeight - 1);
+                for(int x = 0; x < (childWidth + 1) / 2 && offsetX + x < tileWidth; x++) {
+                    int x0 = x * 2;
+                    int x1 = Math.min(x0 + 1, childWidth - 1);
+                    target[(offsetY + y) * tileWidth + offsetX + x] =
+                        average(source[y0 * childWidth + x0], source[y0 * childWidth + x1],
+                                source[y1 * childWidth + x0], source[y1 * childWidth + x1]);
+                }
+            }
+        }
+        return tile;
+    }
+
+    /**
+     * Devuelve un cuadro del nivel 0 sin copiar sus pixeles: una parte de la
+     * imagen o de una banda del grafo.
+     */
+    private BufferedImage getImageTile(int tileX, int tileY)
+    {
+        int x = tileX * TILE_SIZE;
+        int y = tileY * TILE_SIZE;
+        int tileWidth = Math.min(TILE_SIZE, width - x);
+        int tileHeight = Math.min(TILE_SIZE, height - y);
+        if(graph != null) {
+            // las bandas del grafo tienen la altura de un cuadro
+            return graph.getBandImage(tileY).getSubimage(x, 0, tileWidth, tileHeight);
+        }
+        return image.getSubimage(x, y, tileWidth, tileHeight);
+    }
+
+    /**
+     * Calcula un cuadro promediando bloques de 2^level x 2^level pixeles de
+     * la imagen (o del grafo, si image es 'null'). De la imagen solo se lee
+     * la zona que cubre el cuadro, de a un bloque de filas.
+     */
+    private BufferedImage reduceImage(OFImage image, int level, int tileX, int tileY)
+    {
+        BufferedImage tile = createTile(level, tileX, tileY);
+        int[] target = pixels(tile);
+        int tileWidth = tile.getWidth();
+        int tileHeight = tile.getHeight();
+        int factor = 1 << level;
+        int startX = tileX * TILE_SIZE * factor;
+        int sourceWidth = Math.min(tileWidth * factor, width - startX);
+        // las filas de la zona de la imagen, o de la banda del grafo que se
+        // está leyendo
+        int[] rows = graph == null ? new int[sourceWidth * factor] : null;
+        int[] source = null;
+        int sourceY = 0;
+        long[] red = new long[tileWidth];
+        long[] green = new long[tileWidth];
+        long[] blue = new long[tileWidth];
+        int[] count = new int[tileWidth];
+        for(int y = 0; y < tileHeight; y++) {
+            Arrays.fill(red, 0);
+            Arrays.fill(green, 0);
+            Arrays.fill(blue, 0);
+            Arrays.fill(count, 0);
+            int startY = (tileY * TILE_SIZE + y) * factor;
+            int endY = Math.min(startY + factor, height);
+            if(graph == null) {
+                source = image.getPixels(new Rectangle(startX, startY, sourceWidth, endY - startY),
+                                         rows);
+            }
+            for(int row = startY; row < endY; row++) {
+                int offset;
+                if(graph == null) {
+                    // la zona empieza en la columna startX
+                    offset = (row - startY) * sourceWidth - startX;
+                }
+                else {
+                    if(source == null || row >= sourceY + source.length / width) {
+                        sourceY = row - row % EditGraph.BAND_HEIGHT;
+                        source = graph.getBand(row / EditGraph.BAND_HEIGHT);
+                    }
+                    offset = (row - sourceY) * width;
+                }
+                for(int x = 0; x < tileWidth; x++) {
+                    int from = startX + x * factor;
+                    int to = Math.min(from + factor, width);
+                    for(int column = from; column < to; column++) {
+                        int pixel = source[offset + column];
+                        red[x] += (pixel >> 16) & 0xff;
+                        green[x] += (pixel >> 8) & 0xff;
+                        blue[x] += pixel & 0xff;
+                    }
+                    count[x] += to - from;
+                }
+            }
+            for(int x = 0; x < tileWidth; x++) {
+                int n = count[x];
+                target[y * tileWidth + x] = (int) ((red[x] + n / 2) / n) << 16
+                                            | (int) ((green[x] + n / 2) / n) << 8
+                                            | (int) ((blue[x] + n / 2) / n);
+            }
+        }
+        return tile;
+    }
+
+    /**
+     * Crea un cuadro vacio del tamaño que le toca en su nivel.
+     */
+    private BufferedImage createTile(int level, int tileX, int tileY)
+    {
+        int tileWidth = Math.min(TILE_SIZE, getLevelWidth(level) - tileX * TILE_SIZE);
+        int tileHeight = Math.min(TILE_SIZE, getLevelHeight(level) - tileY * TILE_SIZE);
+        return new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_RGB);
+    }
+
+    private static int[] pixels(BufferedImage tile)
+    {
+        return ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+    }
+
+    private static long tileBytes(BufferedImage tile)
+    {
+        return 4L * tile.getWidth() * tile.getHeight();
+    }
+
+    /**
+     * Promedia cuatro pixeles, redondeando.
+     */
+    private static int average(int a, int b, int c, int d)
+    {
+        int red = (((a >> 16) & 0xff) + ((b >> 16) & 0xff) + ((c >> 16) & 0xff)
+                   + ((d >> 16) & 0xff) + 2) >> 2;
+        int green = (((a >> 8) & 0xff) + ((b >> 8) & 0xff) + ((c >> 8) & 0xff)
+                     + ((d >> 8) & 0xff) + 2) >> 2;
+        int blue = ((a & 0xff) + (b & 0xff) + (c & 0xff) + (d & 0xff) + 2) >> 2;
+        return (red << 16) | (green << 8) | blue;
+    }
+
+    private static Long key(int level, int tileX, int tileY)
+    {
+        return ((long) level << 56) | ((long) tileY << 28) | tileX;
+    }
+}
@@ -1,7 +1,5 @@
-import java.awt.Color;
 
-
-public class MirrorFilter extends Filter
+public class MirrorFilter extends RowFilter
 {
 
     public MirrorFilter(String name)
@@ -10,15 +8,35 @@ public class MirrorFilter extends Filter
     }
 
 
-    public void apply(OFImage image)
+    /**
+     * Cada fila se invierte por separado, intercambiando sus pixeles en el
+     * mismo arreglo si hace falta, asi que no se necesita una copia.
+     */
+    public boolean readsNeighbors()
+    {
+        return false;
+    }
+
+
+    public void applyRows(int[] source, int[] pixels, int width, int height,
+                          int startY, int endY)
     {
-        int height = image.getHeight();
-        int width = image.getWidth();
-        for(int y = 0; y < height; y++) {
-            for(int x = 0; x < width / 2; x++) {
-                Color left = image.getPixel(x, y);
-                image.setPixel(x, y, image.getPixel(width - 1 - x, y));
-                image.setPixel(width - 1 - x, y, left);
+        for(int y = startY; y < endY; y++) {
+            int left = y * width;
+            int right = left + width - 1;
+            if(source == pixels) {
+                while(left < right) {
+                    int pix = pixels[left];
+                    pixels[left++] = 0xff000000 | pixels[right];
+                    pixels[right--] = 0xff000000 | pix;
+                }
+            }
+            else {
+                while(left <= right) {
+                    int pix = source[left];
+                    pixels[left++] = 0xff000000 | source[right];
+                    pixels[right--] = 0xff000000 | pix;
+                }
             }
         }
     }
@@ -4,6 +4,11 @@ import javax.swing.*;
 
 /**
  * OFImage es una clase que define una imagen en formato OF (Objects First).
+ *
+ * Ademas del acceso por pixel con Color, permite leer y escribir los pixeles
+ * como enteros empaquetados (0xAARRGGBB) por filas o de toda la imagen. Si la
+ * imagen guarda sus pixeles en un DataBufferInt con el formato adecuado, se
+ * trabaja directamente sobre ese arreglo sin copiarlo.
  */
 public class OFImage extends BufferedImage
 {
@@ -13,7 +18,7 @@ public class OFImage extends BufferedImage
      */
     public OFImage(BufferedImage image)
     {
-         super(image.getColorModel(), image.copyData(null), 
+         super(image.getColorModel(), copyRaster(image),
                image.isAlphaPremultiplied(), null);
     }
 
@@ -27,6 +32,17 @@ public class OFImage extends BufferedImage
         super(width, height, TYPE_INT_RGB);
     }
 
+    /**
+     * Crea una OFImage con un modelo de color y unos pixeles dados, sin
+     * copiarlos; por ejemplo para que un ImageReader decodifique en ella.
+     * @param colorModel El modelo de color.
+     * @param raster Los pixeles.
+     */
+    public OFImage(ColorModel colorModel, WritableRaster raster)
+    {
+        super(colorModel, raster, colorModel.isAlphaPremultiplied(), null);
+    }
+
     /**
      * Establece un píxel dado de esta imagen en un color específico. los
       * el color se representa como un valor (r,g,b).
@@ -39,7 +55,7 @@ public class OFImage extends BufferedImage
         int pixel = col.getRGB();
         setRGB(x, y, pixel);
     }
-    
+
     /**
      * Obtiene el valor de color en una posición de píxel especificada.
       * @param x La posición x del píxel.
@@ -51,4 +67,195 @@ public class OFImage extends BufferedImage
         int pixel = getRGB(x, y);
         return new Color(pixel);
     }
+
+    /**
+     * Devuelve todos los pixeles de la imagen como enteros empaquetados,
+     * fila por fila (el pixel (x, y) esta en la posicion y * ancho + x).
+     *
+     * Si la imagen lo permite, el arreglo devuelto es el propio buffer de la
+     * imagen y los cambios se ven de inmediato. Si no, es una copia y hay que
+     * devolverla con setPixels. Siempre se debe llamar a setPixels despues de
+     * modificar el arreglo.
+     *
+     * Los bits de alfa de cada valor no estan definidos; los filtros solo
+     * deben usar los canales rojo, verde y azul.
+     *
+     * @return Los pixeles de la imagen.
+     */
+    public int[] getPixels()
+    {
+        int[] data = getDirectPixels();
+        if(data != null) {
+            return data;
+        }
+        int width = getWidth();
+        int height = getHeight();
+        return getRGB(0, 0, width, height, new int[width * height], 0, width);
+    }
+
+    /**
+     * Escribe todos los pixeles de la imagen desde un arreglo de enteros
+     * empaquetados obtenido con getPixels. Si el arreglo es el buffer de la
+     * imagen no hace nada.
+     *
+     * @param pixels Los pixeles a escribir, fila por fila.
+     */
+    public void setPixels(int[] pixels)
+    {
+        if(pixels != getDirectPixels()) {
+            int width = getWidth();
+            setRGB(0, 0, width, getHeight(), pixels, 0, width);
+        }
+    }
+
+    /**
+     * Copia una fila de pixeles empaquetados en un arreglo.
+     *
+     * @param y La fila a leer.
+     * @param row El arreglo destino (de al menos el ancho de la imagen),
+     *            o 'null' para crear uno nuevo.
+     * @return El arreglo con los pixeles de la fila.
+     */
+    public int[] getRow(int y, int[] row)
+    {
+        int width = getWidth();
+        if(row == null) {
+            row = new int[width];
+        }
+        int[] data = getDirectPixels();
+        if(data != null) {
+            System.arraycopy(data, y * width, row, 0, width);
+        }
+        else {
+            getRGB(0, y, width, 1, row, 0, width);
+        }
+        return row;
+    }
+
+    /**
+     * Escribe una fila de pixeles empaquetados en la imagen.
+     *
+     * @param y La fila a escribir.
+     * @param row Los pixeles de la fila.
+     */
+    public void setRow(int y, int[] row)
+    {
+        int width = getWidth();
+        int[] data = getDirectPixels();
+        if(data != null) {
+            System.arraycopy(row, 0, data, y * width, width);
+        }
+        else {
+            setRGB(0, y, width, 1, row, 0, width);
+        }
+    }
+
+    /**
+     * Copia los pixeles de una zona de la imagen en un arreglo, fila por
+     * fila (el pixel (x, y) de la zona esta en la posicion y * ancho + x).
+     * Solo lee esa zona, aunque la imagen no guarde sus pixeles como
+     * enteros (por ejemplo las JPEG, que se guardan como bytes BGR).
+     *
+     * @param area La zona a leer.
+     * @param pixels El arreglo destino (de al menos el tamaño de la zona),
+     *               o 'null' para crear uno nuevo.
+     * @return El arreglo con los pixeles de la zona.
+     */
+    public int[] getPixels(Rectangle area, int[] pixels)
+    {
+        if(pixels == null) {
+            pixels = new int[area.width * area.height];
+        }
+        int[] data = getDirectPixels();
+        if(data != null) {
+            int width = getWidth();
+            for(int row = 0; row < area.height; row++) {
+                System.arraycopy(data, (area.y + row) * width + area.x,
+                                 pixels, row * area.width, area.width);
+            }
+        }
+        else if(area.width > 0 && area.height > 0) {
+            getRGB(area.x, area.y, area.width, area.height, pixels, 0, area.width);
+        }
+        return pixels;
+    }
+
+    /**
+     * Escribe los pixeles de una zona de la imagen desde un arreglo como el
+     * de getPixels(Rectangle, int[]).
+     *
+     * @param area La zona a escribir.
+     * @param pixels Los pixeles de la zona, fila por fila.
+     */
+    public void setPixels(Rectangle area, int[] pixels)
+    {
+        int[] data = getDirectPixels();
+        if(data != null) {
+            int width = getWidth();
+            for(int row = 0; row < area.height; row++) {
+                System.arraycopy(pixels, row * area.width,
+                                 data, (area.y + row) * width + area.x, area.width);
+            }
+        }
+        else if(area.width > 0 && area.height > 0) {
+            setRGB(area.x, area.y, area.width, area.height, pixels, 0, area.width);
+        }
+    }
+
+    /**
+     * Copia los pixeles de una imagen. Si estan en un solo arreglo de bytes
+     * o de enteros se copia el arreglo entero, que es mucho mas rapido que
+     * copyData para las imagenes de bytes (JPEG, BMP).
+     */
+    private static WritableRaster copyRaster(BufferedImage image)
+    {
+        WritableRaster raster = image.getRaster();
+        DataBuffer buffer = raster.getDataBuffer();
+        if(raster.getParent() != null || buffer.getNumBanks() != 1
+           || raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0) {
+            return image.copyData(null);
+        }
+        DataBuffer copy;
+        if(buffer instanceof DataBufferByte) {
+            copy = new DataBufferByte(((DataBufferByte) buffer).getData().clone(),
+                                      buffer.getSize(), buffer.getOffset());
+        }
+        else if(buffer instanceof DataBufferInt) {
+            copy = new DataBufferInt(((DataBufferInt) buffer).getData().clone(),
+                                     buffer.getSize(), buffer.getOffset());
+        }
+        else {
+            return image.copyData(null);
+        }
+        return Raster.createWritableRaster(raster.getSampleModel(), copy, null);
+    }
+
+    /**
+     * Devuelve el arreglo interno de la imagen si sus pixeles estan guardados
+     * como enteros RGB o ARGB sin premultiplicar, uno por pixel y sin huecos
+     * entre filas. En cualquier otro caso devuelve 'null'.
+     */
+    private int[] getDirectPixels()
+    {
+        int type = getType();
+        if(type != TYPE_INT_RGB && type != TYPE_INT_ARGB) {
+            return null;
+        }
+        WritableRaster raster = getRaster();
+        if(!(raster.getDataBuffer() instanceof DataBufferInt)
+           || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)
+           || raster.getParent() != null) {
+            return null;
+        }
+        DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+        SinglePixelPackedSampleModel model =
+            (SinglePixelPackedSampleModel) raster.getSampleModel();
+        if(buffer.getNumBanks() != 1 || buffer.getOffset() != 0
+           || model.getScanlineStride() != getWidth()
+           || raster.getSampleModelTranslateX() != 0
+           || raster.getSampleModelTranslateY() != 0) {
+            return null;
+        }
+        return buffer.getData();
+    }
 }
@@ -0,0 +1,159 @@
+import javax.management.openmbean.CompositeData;
+
+/**
+ * OperationStatistics acumula las mediciones de una operacion (un filtro,
+ * cargar o guardar en un formato): cuantas veces se hizo, los tiempos y su
+ * histograma, los megapixeles por segundo y la memoria asignada.
+ *
+ * PerformanceMonitor la actualiza y entrega copias, que son las que se
+ * publican por JMX.
+ */
+public class OperationStatistics
+{
+    private String operation;
+    private long count;
+    private long totalNanos;
+    private long minNanos;
+    private long maxNanos;
+    private long totalPixels;
+    private long totalBytes;
+    private int maxThreads;
+    // cuantas mediciones cayeron en cada intervalo de tiempo
+    private long[] histogram;
+
+    /**
+     * Crea estadisticas vacias.
+     *
+     * @param operation El nombre de la operacion.
+     * @param buckets El numero de intervalos del histograma.
+     */
+    OperationStatistics(String operation, int buckets)
+    {
+        this.operation = operation;
+        this.histogram = new long[buckets];
+        this.minNanos = Long.MAX_VALUE;
+    }
+
+    /**
+     * Agrega una medicion.
+     *
+     * @param record La medicion.
+     * @param bucket El intervalo del histograma en que cae su tiempo.
+     */
+    void add(PerformanceMonitor.Record record, int bucket)
+    {
+        count++;
+        totalNanos += record.getNanos();
+        minNanos = Math.min(minNanos, record.getNanos());
+        maxNanos = Math.max(maxNanos, record.getNanos());
+        totalPixels += record.getPixels();
+        totalBytes += Math.max(record.getAllocatedBytes(), 0);
+        maxThreads = Math.max(maxThreads, record.getThreads());
+        histogram[bucket]++;
+    }
+
+    /**
+     * Reconstruye las estadisticas que se recibieron por JMX, por ejemplo
+     * en un proxy de PerformanceMonitorMXBean.
+     *
+     * @param data Las estadisticas como las publica JMX.
+     * @return Las estadisticas.
+     */
+    public static OperationStatistics from(CompositeData data)
+    {
+        long[] histogram = (long[]) data.get("timeHistogram");
+        OperationStatistics statistics =
+            new OperationStatistics((String) data.get("operation"), histogram.length);
+        statistics.count = (Long) data.get("count");
+        statistics.totalNanos = Math.round((Double) data.get("totalMillis") * 1e6);
+        statistics.minNanos = Math.round((Double) data.get("minMillis") * 1e6);
+        statistics.maxNanos = Math.round((Double) data.get("maxMillis") * 1e6);
+        statistics.totalPixels = Math.round((Double) data.get("megapixelsPerSecond")
+                                            * statistics.totalNanos / 1e3);
+        statistics.totalBytes = (Long) data.get("allocatedBytes");
+        statistics.maxThreads = (Integer) data.get("maxThreads");
+        statistics.histogram = histogram;
+        return statistics;
+    }
+
+    /**
+     * @return Una copia de estas estadisticas.
+     */
+    OperationStatistics copy()
+    {
+        OperationStatistics copy = new OperationStatistics(operation, histogram.length);
+        copy.count = count;
+        copy.totalNanos = totalNanos;
+        copy.minNanos = minNanos;
+        copy.maxNanos = maxNanos;
+        copy.totalPixels = totalPixels;
+        copy.totalBytes = totalBytes;
+        copy.maxThreads = maxThreads;
+        copy.histogram = histogram.clone();
+        return copy;
+    }
+
+    public String getOperation()
+    {
+        return operation;
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    public double getTotalMillis()
+    {
+        return totalNanos / 1e6;
+    }
+
+    public double getMeanMillis()
+    {
+        return count == 0 ? 0 : totalNanos / 1e6 / count;
+    }
+
+    public double getMinMillis()
+    {
+        return count == 0 ? 0 : minNanos / 1e6;
+    }
+
+    public double getMaxMillis()
+    {
+        return maxNanos / 1e6;
+    }
+
+    /**
+     * @return Los megapixeles procesados por segundo, en total.
+     */
+    public double getMegapixelsPerSecond()
+    {
+        return totalNanos == 0 ? 0 : totalPixels * 1e3 / totalNanos;
+    }
+
+    /**
+     * @return La memoria asignada en total, en bytes (0 si la maquina
+     *         virtual no la informa).
+     */
+    public long getAllocatedBytes()
+    {
+        return totalBytes;
+    }
+
+    /**
+     * @return El mayor numero de hilos que trabajaron en una medicion.
+     */
+    public int getMaxThreads()
+    {
+        return maxThreads;
+    }
+
+    /**
+     * @return Cuantas mediciones cayeron en cada intervalo de tiempo (ver
+     *         PerformanceMonitorMXBean.getHistogramLimits).
+     */
+    public long[] getTimeHistogram()
+    {
+        return histogram.clone();
+    }
+}
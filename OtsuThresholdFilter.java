@@ -0,0 +1,129 @@
+import java.awt.Color;
+
+/**
+ * OtsuThresholdFilter es un Threshold que elige sus cortes segun la imagen,
+ * con el metodo de Otsu: los cortes que separan el histograma de
+ * luminosidad en grupos con la mayor varianza entre grupos. Con dos niveles
+ * la imagen queda en blanco y negro; con tres, como ThresholdFilter, en
+ * negro, gris y blanco.
+ */
+public class OtsuThresholdFilter extends HistogramFilter
+{
+    private int levels;
+
+    /**
+     * Crea un filtro de negro, gris y blanco.
+     * @param name El nombre del filtro.
+     */
+    public OtsuThresholdFilter(String name)
+    {
+        this(name, 3);
+    }
+
+    /**
+     * @param name El nombre del filtro.
+     * @param levels Los colores del resultado: 2 (blanco y negro) o 3.
+     */
+    public OtsuThresholdFilter(String name, int levels)
+    {
+        super(name);
+        if(levels != 2 && levels != 3) {
+            throw new IllegalArgumentException("niveles no validos: " + levels);
+        }
+        this.levels = levels;
+    }
+
+    public LookupTable createTable(ImageStatistics statistics)
+    {
+        int[] histogram = statistics.getHistogram(ImageStatistics.Channel.LUMINANCE);
+        int[] cuts = levels == 2 ? new int[] { findCut(histogram), 255 }
+                                 : findCuts(histogram);
+        int[] colors = new int[256];
+        for(int brightness = 0; brightness < 256; brightness++) {
+            if(brightness <= cuts[0]) {
+                colors[brightness] = Color.BLACK.getRGB();
+            }
+            else if(brightness <= cuts[1]) {
+                colors[brightness] = levels == 2 ? Color.WHITE.getRGB() : Color.GRAY.getRGB();
+            }
+            else {
+                colors[brightness] = Color.WHITE.getRGB();
+            }
+        }
+        return LookupTable.forLuminance(colors);
+    }
+
+    /**
+     * Busca el corte que separa el histograma en dos grupos: los valores
+     * hasta el corte y los de despues.
+     */
+    private static int findCut(int[] histogram)
+    {
+        double[] count = new double[257];
+        double[] sum = new double[257];
+        accumulate(histogram, count, sum);
+        int best = 0;
+        double bestVariance = -1;
+        for(int t = 0; t < 255; t++) {
+            double variance = between(count, sum, 0, t + 1) + between(count, sum, t + 1, 256);
+            if(variance > bestVariance) {
+                bestVariance = variance;
+                best = t;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Busca los dos cortes que separan el histograma en tres grupos.
+     */
+    private static int[] findCuts(int[] histogram)
+    {
+        double[] count = new double[257];
+        double[] sum = new double[257];
+        accumulate(histogram, count, sum);
+        int[] best = { 85, 170 };
+        double bestVariance = -1;
+        for(int low = 0; low < 254; low++) {
+            double first = between(count, sum, 0, low + 1);
+            for(int high = low + 1; high < 255; high++) {
+                double variance = first + between(count, sum, low + 1, high + 1)
+                                  + between(count, sum, high + 1, 256);
+                if(variance > bestVariance) {
+                    bestVariance = variance;
+                    best[0] = low;
+                    best[1] = high;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Acumula cuantos pixeles y que suma de valores hay por debajo de cada
+     * valor.
+     */
+    private static void accumulate(int[] histogram, double[] count, double[] sum)
+    {
+        for(int i = 0; i < 256; i++) {
+            count[i + 1] = count[i] + histogram[i];
+            sum[i + 1] = sum[i] + (double) i * histogram[i];
+        }
+    }
+
+    /**
+     * Devuelve lo que aporta a la varianza entre grupos el grupo de los
+     * valores de from a to (excluido): su cantidad por su promedio al
+     * cuadrado. La suma de todos los grupos solo difiere de la varianza en
+     * una constante, asi que sirve para comparar cortes.
+     */
+    private static double between(double[] count, double[] sum, int from, int to)
+    {
+        double n = count[to] - count[from];
+        if(n == 0) {
+            return 0;
+        }
+        double s = sum[to] - sum[from];
+        return s * s / n;
+    }
+}
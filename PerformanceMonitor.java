@@ -0,0 +1,430 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * PerformanceMonitor mide cada aplicacion de un filtro y cada vez que se
+ * carga o se guarda una imagen: el tiempo, los megapixeles por segundo, la
+ * memoria que asignaron los hilos que trabajaron (con los contadores de
+ * ThreadMXBean) y cuantos hilos fueron.
+ *
+ * Las mediciones se acumulan por operacion en OperationStatistics, que se
+ * publican por JMX (ver PerformanceMonitorMXBean), y se avisan a los
+ * Listener, como la barra de estado del editor. Con la propiedad
+ * editor.perfLog se registra ademas cada medicion en un archivo: en JSON,
+ * un objeto por linea, si termina en .json, y si no en CSV.
+ */
+public class PerformanceMonitor implements PerformanceMonitorMXBean
+{
+    /**
+     * Recibe cada medicion, desde el hilo que la hizo.
+     */
+    public interface Listener
+    {
+        void recorded(Record record);
+    }
+
+    // el nombre con que se publica por JMX
+    public static final String OBJECT_NAME = "JavaPhotoEditor:type=PerformanceMonitor";
+
+    // limites de los intervalos de los histogramas de tiempos, en milisegundos
+    private static final long[] LIMITS = {
+        1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 60000
+    };
+
+    private static final PerformanceMonitor DEFAULT = createDefault();
+
+    private com.sun.management.ThreadMXBean threads;
+    private boolean measuresAllocation;
+    private boolean measuresCpu;
+    // usa el lock de este objeto
+    private Map<String, OperationStatistics> operations;
+    private List<Listener> listeners;
+    // los dos usan el lock de logLock
+    private File logFile;
+    private Writer log;
+    private Object logLock;
+
+    /**
+     * Crea un monitor.
+     *
+     * @param logFile El archivo donde registrar cada medicion, o 'null'.
+     */
+    public PerformanceMonitor(File logFile)
+    {
+        this.logFile = logFile;
+        logLock = new Object();
+        operations = new LinkedHashMap<String, OperationStatistics>();
+        listeners = new CopyOnWriteArrayList<Listener>();
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(bean instanceof com.sun.management.ThreadMXBean) {
+            threads = (com.sun.management.ThreadMXBean) bean;
+            try {
+                if(threads.isThreadAllocatedMemorySupported()) {
+                    threads.setThreadAllocatedMemoryEnabled(true);
+                    measuresAllocation = true;
+                }
+                if(threads.isThreadCpuTimeSupported()) {
+                    threads.setThreadCpuTimeEnabled(true);
+                    measuresCpu = true;
+                }
+            }
+            catch(UnsupportedOperationException exc) {
+                // se mide solo lo que se pudo activar
+            }
+        }
+    }
+
+    /**
+     * Crea el monitor del editor y lo publica por JMX.
+     */
+    private static PerformanceMonitor createDefault()
+    {
+        String log = System.getProperty("editor.perfLog");
+        PerformanceMonitor monitor = new PerformanceMonitor(log == null ? null : new File(log));
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                             .registerMBean(monitor, new ObjectName(OBJECT_NAME));
+        }
+        catch(JMException exc) {
+            // sin JMX las mediciones siguen llegando a los Listener y al registro
+        }
+        return monitor;
+    }
+
+    /**
+     * @return El monitor del editor, el que se publica por JMX.
+     */
+    public static PerformanceMonitor getDefault()
+    {
+        return DEFAULT;
+    }
+
+    public void addListener(Listener listener)
+    {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Empieza a medir una operacion que se hace en el hilo que llama.
+     *
+     * @param operation El nombre de la operacion, por ejemplo el del filtro.
+     * @return La medicion, que se termina con stop.
+     */
+    public Measurement start(String operation)
+    {
+        return start(operation, null);
+    }
+
+    /**
+     * Empieza a medir una operacion que el hilo que llama reparte entre
+     * otros hilos.
+     *
+     * @param operation El nombre de la operacion, por ejemplo el del filtro.
+     * @param workers Los hilos que pueden ayudar, o 'null'. Se vuelve a
+     *                recorrer al terminar, asi que puede cambiar mientras
+     *                tanto.
+     * @return La medicion, que se termina con stop.
+     */
+    public Measurement start(String operation, Collection<Thread> workers)
+    {
+        return new Measurement(operation, workers);
+    }
+
+    /**
+     * Acumula una medicion, la avisa y la registra.
+     */
+    private void record(Record record)
+    {
+        int bucket = 0;
+        while(bucket < LIMITS.length && record.getNanos() >= LIMITS[bucket] * 1000000) {
+            bucket++;
+        }
+        synchronized(this) {
+            OperationStatistics statistics = operations.get(record.getOperation());
+            if(statistics == null) {
+                statistics = new OperationStatistics(record.getOperation(), LIMITS.length + 1);
+                operations.put(record.getOperation(), statistics);
+            }
+            statistics.add(record, bucket);
+        }
+        for(Listener listener : listeners) {
+            listener.recorded(record);
+        }
+        writeLog(record);
+    }
+
+    /**
+     * Agrega una medicion al registro. Si no se puede escribir se avisa una
+     * vez y no se registra nada más.
+     */
+    private void writeLog(Record record)
+    {
+        synchronized(logLock) {
+            if(logFile == null) {
+                return;
+            }
+            boolean json = logFile.getName().toLowerCase(Locale.ROOT).endsWith(".json");
+            try {
+                if(log == null) {
+                    boolean empty = logFile.length() == 0;
+                    log = new FileWriter(logFile, StandardCharsets.UTF_8, true);
+                    if(empty && !json) {
+                        log.write("time,operation,pixels,millis,megapixelsPerSecond,"
+                                  + "allocatedBytes,threads\n");
+                    }
+                }
+                log.write(json ? record.toJson() : record.toCsv());
+                log.write('\n');
+                log.flush();
+            }
+            catch(IOException exc) {
+                System.err.println("No se puede escribir en " + logFile + ": " + exc.getMessage());
+                logFile = null;
+            }
+        }
+    }
+
+    public synchronized List<OperationStatistics> getOperations()
+    {
+        List<OperationStatistics> copies = new ArrayList<OperationStatistics>();
+        for(OperationStatistics statistics : operations.values()) {
+            copies.add(statistics.copy());
+        }
+        return copies;
+    }
+
+    public long[] getHistogramLimits()
+    {
+        return LIMITS.clone();
+    }
+
+    public String getLogFile()
+    {
+        synchronized(logLock) {
+            return logFile == null ? null : logFile.getPath();
+        }
+    }
+
+    public synchronized void reset()
+    {
+        operations.clear();
+    }
+
+    /**
+     * Una medicion en curso. Al empezar y al terminar se leen los
+     * contadores de memoria asignada y de tiempo de CPU de cada hilo; los
+     * hilos cuyo tiempo de CPU avanzó son los que trabajaron.
+     */
+    public class Measurement
+    {
+        private String operation;
+        private Collection<Thread> workers;
+        private Thread caller;
+        private long start;
+        // id del hilo -> {memoria asignada, tiempo de CPU} al empezar
+        private Map<Long, long[]> before;
+
+        private Measurement(String operation, Collection<Thread> workers)
+        {
+            this.operation = operation;
+            this.workers = workers;
+            caller = Thread.currentThread();
+            before = readCounters();
+            start = System.nanoTime();
+        }
+
+        /**
+         * Termina la medicion y la registra.
+         *
+         * @param pixels Los pixeles procesados, para los megapixeles por
+         *               segundo.
+         * @return La medicion.
+         */
+        public Record stop(long pixels)
+        {
+            long nanos = System.nanoTime() - start;
+            long bytes = measuresAllocation ? 0 : -1;
+            int working = 0;
+            for(Map.Entry<Long, long[]> entry : readCounters().entrySet()) {
+                long[] now = entry.getValue();
+                long[] then = before.get(entry.getKey());
+                if(then == null) {
+                    // el hilo se creó durante la medicion
+                    then = new long[2];
+                }
+                if(measuresAllocation) {
+                    bytes += Math.max(now[0] - then[0], 0);
+                }
+                boolean worked = measuresCpu ? now[1] > then[1] : now[0] > then[0];
+                if(worked || entry.getKey() == caller.getId()) {
+                    working++;
+                }
+            }
+            Record record = new Record(operation, pixels, nanos, bytes, working);
+            record(record);
+            return record;
+        }
+
+        /**
+         * Lee los contadores del hilo que llamó y de los que pueden ayudar.
+         */
+        private Map<Long, long[]> readCounters()
+        {
+            List<Thread> measured = new ArrayList<Thread>();
+            measured.add(caller);
+            if(workers != null) {
+                for(Thread worker : workers) {
+                    if(worker.isAlive() && worker != caller) {
+                        measured.add(worker);
+                    }
+                }
+            }
+            long[] ids = new long[measured.size()];
+            for(int i = 0; i < ids.length; i++) {
+                ids[i] = measured.get(i).getId();
+            }
+            long[] allocated = measuresAllocation ? threads.getThreadAllocatedBytes(ids)
+                                                  : new long[ids.length];
+            long[] cpu = measuresCpu ? threads.getThreadCpuTime(ids) : new long[ids.length];
+            Map<Long, long[]> counters = new HashMap<Long, long[]>();
+            for(int i = 0; i < ids.length; i++) {
+                // -1 si el hilo terminó entre tanto
+                if(allocated[i] >= 0 && cpu[i] >= 0) {
+                    counters.put(ids[i], new long[] { allocated[i], cpu[i] });
+                }
+            }
+            return counters;
+        }
+    }
+
+    /**
+     * Una medicion terminada.
+     */
+    public static class Record
+    {
+        private long time;
+        private String operation;
+        private long pixels;
+        private long nanos;
+        private long allocatedBytes;
+        private int threads;
+
+        public Record(String operation, long pixels, long nanos, long allocatedBytes, int threads)
+        {
+            this.time = System.currentTimeMillis();
+            this.operation = operation;
+            this.pixels = pixels;
+            this.nanos = nanos;
+            this.allocatedBytes = allocatedBytes;
+            this.threads = threads;
+        }
+
+        public String getOperation()
+        {
+            return operation;
+        }
+
+        public long getPixels()
+        {
+            return pixels;
+        }
+
+        public long getNanos()
+        {
+            return nanos;
+        }
+
+        /**
+         * @return La memoria asignada, en bytes, o -1 si la maquina virtual
+         *         no la informa.
+         */
+        public long getAllocatedBytes()
+        {
+            return allocatedBytes;
+        }
+
+        /**
+         * @return El numero de hilos que trabajaron.
+         */
+        public int getThreads()
+        {
+            return threads;
+        }
+
+        public double getMegapixelsPerSecond()
+        {
+            return nanos == 0 ? 0 : pixels * 1e3 / nanos;
+        }
+
+        /**
+         * @return La medicion como una linea del registro CSV, sin el fin
+         *         de linea.
+         */
+        public String toCsv()
+        {
+            return String.format(Locale.ROOT, "%s,\"%s\",%d,%.3f,%.3f,%d,%d",
+                                 Instant.ofEpochMilli(time), operation.replace("\"", "\"\""),
+                                 pixels, nanos / 1e6, getMegapixelsPerSecond(),
+                                 allocatedBytes, threads);
+        }
+
+        /**
+         * @return La medicion como un objeto JSON, en una sola linea.
+         */
+        public String toJson()
+        {
+            StringBuilder name = new StringBuilder();
+            for(char c : operation.toCharArray()) {
+                if(c == '"' || c == '\\') {
+                    name.append('\\').append(c);
+                }
+                else if(c < 0x20) {
+                    name.append(String.format("\\u%04x", (int) c));
+                }
+                else {
+                    name.append(c);
+                }
+            }
+            return String.format(Locale.ROOT,
+                                 "{\"time\":\"%s\",\"operation\":\"%s\",\"pixels\":%d,"
+                                 + "\"millis\":%.3f,\"megapixelsPerSecond\":%.3f,"
+                                 + "\"allocatedBytes\":%d,\"threads\":%d}",
+                                 Instant.ofEpochMilli(time), name, pixels, nanos / 1e6,
+                                 getMegapixelsPerSecond(), allocatedBytes, threads);
+        }
+
+        /**
+         * @return La medicion para mostrar, por ejemplo "Suavizar: 312 ms,
+         *         38.5 MP/s, 96 MB, 4 hilos".
+         */
+        public String toString()
+        {
+            String text = String.format(Locale.ROOT, "%s: %d ms, %.1f MP/s", operation,
+                                        nanos / 1000000, getMegapixelsPerSecond());
+            if(allocatedBytes >= 0) {
+                text += String.format(Locale.ROOT, ", %.1f MB", allocatedBytes / 1e6);
+            }
+            return text + ", " + threads + (threads == 1 ? " hilo" : " hilos");
+        }
+    }
+}
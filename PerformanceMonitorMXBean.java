@@ -0,0 +1,33 @@
+import java.util.List;
+
+/**
+ * La interfaz JMX de PerformanceMonitor. Se publica con el nombre
+ * PerformanceMonitor.OBJECT_NAME, y se puede ver por ejemplo con jconsole.
+ */
+public interface PerformanceMonitorMXBean
+{
+    /**
+     * @return Las estadisticas de cada operacion medida desde el inicio o
+     *         desde el ultimo reset, en el orden en que se midieron por
+     *         primera vez.
+     */
+    List<OperationStatistics> getOperations();
+
+    /**
+     * @return Los limites superiores de los intervalos de los histogramas
+     *         de tiempos, en milisegundos; el ultimo intervalo no tiene
+     *         limite.
+     */
+    long[] getHistogramLimits();
+
+    /**
+     * @return El archivo donde se registra cada medicion, o 'null' si no
+     *         se registran.
+     */
+    String getLogFile();
+
+    /**
+     * Borra las estadisticas acumuladas.
+     */
+    void reset();
+}
@@ -0,0 +1,183 @@
+/**
+ * PixelKernels reune las operaciones aritmeticas sobre arreglos de pixeles
+ * empaquetados que usan los filtros mas simples (escala de grises, invertir,
+ * threshold, solarize) y las sumas por columnas de SmoothFilter.
+ *
+ * Esta clase las hace pixel a pixel. Si la JVM tiene el modulo
+ * jdk.incubator.vector (por ejemplo con --add-modules jdk.incubator.vector),
+ * getDefault() devuelve en su lugar una VectorPixelKernels, que procesa
+ * varios pixeles por instruccion con la Vector API y da exactamente el mismo
+ * resultado. Esa clase esta en vector/ y se compila aparte; si no se
+ * compiló, o con -Deditor.vector=false, se usa siempre esta clase.
+ */
+public class PixelKernels
+{
+    private static final PixelKernels SCALAR = new PixelKernels();
+    private static final PixelKernels DEFAULT = createDefault();
+
+    /**
+     * Crea las operaciones pixel a pixel.
+     */
+    protected PixelKernels()
+    {
+    }
+
+    /**
+     * Devuelve las operaciones mas rapidas disponibles en esta JVM.
+     *
+     * @return Las operaciones vectoriales si se pueden usar, o las escalares.
+     */
+    public static PixelKernels getDefault()
+    {
+        return DEFAULT;
+    }
+
+    /**
+     * Devuelve las operaciones pixel a pixel.
+     *
+     * @return Las operaciones escalares.
+     */
+    public static PixelKernels getScalar()
+    {
+        return SCALAR;
+    }
+
+    /**
+     * Devuelve una descripcion de estas operaciones.
+     *
+     * @return El nombre de la implementacion.
+     */
+    public String getName()
+    {
+        return "escalar";
+    }
+
+    /**
+     * Convierte pixeles a gris con el promedio (r + g + b) / 3.
+     *
+     * @param pixels Los pixeles.
+     * @param start La primera posicion a transformar.
+     * @param end La posicion siguiente a la ultima a transformar.
+     */
+    public void grayScale(int[] pixels, int start, int end)
+    {
+        for(int i = start; i < end; i++) {
+            int avg = luminance(pixels[i]);
+            pixels[i] = 0xff000000 | (avg << 16) | (avg << 8) | avg;
+        }
+    }
+
+    /**
+     * Invierte cada canal de los pixeles (255 - valor).
+     *
+     * @param pixels Los pixeles.
+     * @param start La primera posicion a transformar.
+     * @param end La posicion siguiente a la ultima a transformar.
+     */
+    public void invert(int[] pixels, int start, int end)
+    {
+        for(int i = start; i < end; i++) {
+            pixels[i] = 0xff000000 | ~pixels[i];
+        }
+    }
+
+    /**
+     * Invierte los canales que valen 127 o menos y deja igual el resto.
+     *
+     * @param pixels Los pixeles.
+     * @param start La primera posicion a transformar.
+     * @param end La posicion siguiente a la ultima a transformar.
+     */
+    public void solarize(int[] pixels, int start, int end)
+    {
+        for(int i = start; i < end; i++) {
+            int pix = pixels[i];
+            // 1 en el bit bajo de cada canal que vale 127 o menos
+            int dark = (~pix >>> 7) & 0x010101;
+            pixels[i] = 0xff000000 | (pix ^ (dark * 0xff));
+        }
+    }
+
+    /**
+     * Cambia cada pixel por uno de tres colores segun su luminosidad
+     * (r + g + b) / 3.
+     *
+     * @param pixels Los pixeles.
+     * @param start La primera posicion a transformar.
+     * @param end La posicion siguiente a la ultima a transformar.
+     * @param low La luminosidad maxima que toma el color dark.
+     * @param high La luminosidad maxima que toma el color middle.
+     * @param dark El color (0xRRGGBB) hasta low.
+     * @param middle El color hasta high.
+     * @param light El color por encima de high.
+     */
+    public void threshold(int[] pixels, int start, int end, int low, int high,
+                          int dark, int middle, int light)
+    {
+        dark |= 0xff000000;
+        middle |= 0xff000000;
+        light |= 0xff000000;
+        for(int i = start; i < end; i++) {
+            int brightness = luminance(pixels[i]);
+            if(brightness <= low) {
+                pixels[i] = dark;
+            }
+            else if(brightness <= high) {
+                pixels[i] = middle;
+            }
+            else {
+                pixels[i] = light;
+            }
+        }
+    }
+
+    /**
+     * Suma (o resta, si sign es -1) los canales de una fila de pixeles a
+     * tres arreglos de sumas por columna.
+     *
+     * @param pixels Los pixeles de la imagen.
+     * @param offset La posicion del primer pixel de la fila.
+     * @param width El ancho de la fila.
+     * @param red Las sumas de rojo de cada columna.
+     * @param green Las sumas de verde de cada columna.
+     * @param blue Las sumas de azul de cada columna.
+     * @param sign 1 para sumar, -1 para restar.
+     */
+    public void addRow(int[] pixels, int offset, int width,
+                       int[] red, int[] green, int[] blue, int sign)
+    {
+        for(int x = 0; x < width; x++) {
+            int pix = pixels[offset + x];
+            red[x] += sign * ((pix >> 16) & 0xff);
+            green[x] += sign * ((pix >> 8) & 0xff);
+            blue[x] += sign * (pix & 0xff);
+        }
+    }
+
+    /**
+     * Devuelve la luminosidad (r + g + b) / 3 de un pixel.
+     */
+    protected static int luminance(int pixel)
+    {
+        return (((pixel >> 16) & 0xff) + ((pixel >> 8) & 0xff) + (pixel & 0xff)) / 3;
+    }
+
+    /**
+     * Elige las operaciones vectoriales si el modulo esta disponible.
+     */
+    private static PixelKernels createDefault()
+    {
+        if(!Boolean.parseBoolean(System.getProperty("editor.vector", "true"))
+           || !ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            return SCALAR;
+        }
+        try {
+            // se carga por nombre para no necesitar el modulo si no se usa
+            return (PixelKernels) Class.forName("VectorPixelKernels")
+                                       .getDeclaredConstructor().newInstance();
+        }
+        catch(ReflectiveOperationException | LinkageError exc) {
+            return SCALAR;
+        }
+    }
+}
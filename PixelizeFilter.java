@@ -1,29 +1,73 @@
-import java.awt.Color;
+import java.util.Arrays;
 
-
-public class PixelizeFilter extends Filter
+public class PixelizeFilter extends RowFilter
 {
+    // lado de los bloques si no se indica otro
+    public static final int DEFAULT_PIXEL_SIZE = 5;
+
+    private int pixelSize;
 
     public PixelizeFilter(String name)
+    {
+        this(name, DEFAULT_PIXEL_SIZE);
+    }
+
+
+    /**
+     * @param name El nombre del filtro.
+     * @param pixelSize El lado de los bloques, en pixeles.
+     */
+    public PixelizeFilter(String name, int pixelSize)
     {
         super(name);
+        if(pixelSize < 1) {
+            throw new IllegalArgumentException("tamaño de bloque no valido: " + pixelSize);
+        }
+        this.pixelSize = pixelSize;
+    }
+
+
+    /**
+     * @return Las filas que puede haber entre una fila y la primera o la
+     *         ultima de su bloque.
+     */
+    public int getHaloRows()
+    {
+        return pixelSize - 1;
+    }
+
+
+    public void applyRows(int[] source, int[] pixels, int width, int height,
+                          int startY, int endY)
+    {
+        applyStrip(source, pixels, width, height, 0, height, startY, endY);
     }
 
 
-    public void apply(OFImage image)
+    /**
+     * Cada bloque toma el color promedio de sus pixeles, que se calcula con
+     * una SummedAreaTable de las filas de los bloques que tocan las filas
+     * pedidas. Los bloques se alinean con las filas de la imagen entera, no
+     * de la franja.
+     */
+    public void applyStrip(int[] source, int[] pixels, int width, int height,
+                           int sourceY, int sourceRows, int startY, int endY)
     {
-        final int PIXEL_SIZE = 5;
-        int width = image.getWidth();
-        int height = image.getHeight();
-        
-        for(int y = 0; y < height; y += PIXEL_SIZE) {
-            for(int x = 0; x < width; x += PIXEL_SIZE) {
-                Color pix = image.getPixel(x, y);
-                for(int dy = y; dy < y + PIXEL_SIZE; dy++) {
-                    for(int dx = x; dx < x + PIXEL_SIZE; dx++) {
-                        if( dx < width && dy < height )
-                            image.setPixel(dx, dy, pix);
-                    }
+        int firstBlockY = startY - startY % pixelSize;
+        int lastBlockY = Math.min((endY - 1) - (endY - 1) % pixelSize + pixelSize, height);
+        SummedAreaTable table = new SummedAreaTable(source, width, firstBlockY - sourceY,
+                                                    lastBlockY - firstBlockY);
+        int[] means = new int[(width + pixelSize - 1) / pixelSize];
+        for(int blockY = firstBlockY; blockY < lastBlockY; blockY += pixelSize) {
+            int blockEndY = Math.min(blockY + pixelSize, height);
+            for(int x = 0, i = 0; x < width; x += pixelSize, i++) {
+                means[i] = table.getMean(x, blockY - sourceY, Math.min(x + pixelSize, width),
+                                         blockEndY - sourceY);
+            }
+            for(int y = Math.max(blockY, startY); y < Math.min(blockEndY, endY); y++) {
+                int row = (y - sourceY) * width;
+                for(int x = 0, i = 0; x < width; x += pixelSize, i++) {
+                    Arrays.fill(pixels, row + x, row + Math.min(x + pixelSize, width), means[i]);
                 }
             }
         }
@@ -0,0 +1,77 @@
+/**
+ * PointFilter es la superclase de los filtros que cambian cada pixel segun
+ * su propio color, sin mirar a sus vecinos. Cada subclase describe su efecto
+ * con una LookupTable, que se construye una sola vez y luego se aplica a
+ * toda la imagen en un solo recorrido.
+ */
+public abstract class PointFilter extends RowFilter
+{
+    private LookupTable table;
+
+    /**
+     * Crea un nuevo filtro de pixel con un nombre dado.
+     * @param name El nombre del filtro.
+     */
+    public PointFilter(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Devuelve la tabla de este filtro, creandola la primera vez.
+     *
+     * @return La tabla de este filtro.
+     */
+    public LookupTable getTable()
+    {
+        if(table == null) {
+            table = createTable();
+        }
+        return table;
+    }
+
+    /**
+     * Los filtros de pixel solo leen el pixel que calculan.
+     *
+     * @return 'false'.
+     */
+    public boolean readsNeighbors()
+    {
+        return false;
+    }
+
+    /**
+     * Calcula las filas de startY (incluida) a endY (excluida).
+     */
+    public void applyRows(int[] source, int[] target, int width, int height,
+                          int startY, int endY)
+    {
+        int start = startY * width;
+        int end = endY * width;
+        if(source != target) {
+            System.arraycopy(source, start, target, start, end - start);
+        }
+        applyTable(target, start, end);
+    }
+
+    /**
+     * Aplica el efecto del filtro a una parte de un arreglo de pixeles. Por
+     * defecto usa la tabla del filtro; las subclases pueden usar un camino
+     * mas rapido con el mismo resultado.
+     *
+     * @param pixels Los pixeles.
+     * @param start La primera posicion a transformar.
+     * @param end La posicion siguiente a la ultima a transformar.
+     */
+    protected void applyTable(int[] pixels, int start, int end)
+    {
+        getTable().apply(pixels, start, end);
+    }
+
+    /**
+     * Construye la tabla que describe el efecto de este filtro.
+     *
+     * @return La tabla del filtro.
+     */
+    protected abstract LookupTable createTable();
+}
@@ -0,0 +1,405 @@
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Resampler cambia el tamaño de una imagen a cualquier escala con uno de
+ * varios metodos (ver Mode).
+ *
+ * El remuestreo es separable: se cambia el ancho de cada fila y el alto de
+ * cada columna en dos pasos, empezando por el que deja la imagen intermedia
+ * más pequeña. Los pesos de cada pixel de salida se calculan una sola vez
+ * por eje, en enteros de punto fijo, y se usan en todas las filas o
+ * columnas. Al reducir, el nucleo se ensancha en proporcion a la escala, de
+ * modo que todos los pixeles de origen cuentan y no aparece aliasing.
+ *
+ * Cada paso se puede repartir en bandas de filas con un TileExecutor.
+ */
+public class Resampler
+{
+    /**
+     * Los metodos de remuestreo.
+     */
+    public enum Mode
+    {
+        // el pixel de origen más cercano, sin mezclar
+        NEAREST("Vecino más cercano", 0),
+        // interpolacion lineal entre los dos pixeles más cercanos
+        BILINEAR("Bilineal", 1),
+        // cubica de Keys (a = -0.5), más nitida que la bilineal
+        BICUBIC("Bicúbica", 2),
+        // Lanczos de 3 lobulos, la más nitida
+        LANCZOS("Lanczos", 3),
+        // promedio de los pixeles que cubre cada pixel de salida
+        AREA("Promedio de área", 0.5);
+
+        private String name;
+        private double support;
+
+        private Mode(String name, double support)
+        {
+            this.name = name;
+            this.support = support;
+        }
+
+        /**
+         * Evalua el nucleo de este metodo.
+         *
+         * @param x La distancia al centro, en pixeles.
+         * @return El peso.
+         */
+        private double kernel(double x)
+        {
+            x = Math.abs(x);
+            switch(this) {
+                case BILINEAR:
+                    return x < 1 ? 1 - x : 0;
+                case BICUBIC:
+                    if(x < 1) {
+                        return (1.5 * x - 2.5) * x * x + 1;
+                    }
+                    return x < 2 ? ((-0.5 * x + 2.5) * x - 4) * x + 2 : 0;
+                case LANCZOS:
+                    return x < 3 ? sinc(x) * sinc(x / 3) : 0;
+                default:
+                    return x < 0.5 ? 1 : 0;
+            }
+        }
+
+        private static double sinc(double x)
+        {
+            if(x == 0) {
+                return 1;
+            }
+            x *= Math.PI;
+            return Math.sin(x) / x;
+        }
+
+        public String toString()
+        {
+            return name;
+        }
+    }
+
+    // bits de la parte fraccionaria de los pesos
+    private static final int PRECISION_BITS = 14;
+    private static final int ONE = 1 << PRECISION_BITS;
+
+    private Mode mode;
+
+    /**
+     * Crea un remuestreador.
+     * @param mode El metodo de remuestreo.
+     */
+    public Resampler(Mode mode)
+    {
+        this.mode = mode;
+    }
+
+    /**
+     * Devuelve el metodo de remuestreo.
+     *
+     * @return El metodo.
+     */
+    public Mode getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * Cambia el tamaño de una imagen en el hilo que llama.
+     *
+     * @param image La imagen; no se modifica.
+     * @param width El nuevo ancho.
+     * @param height La nueva altura.
+     * @return Una imagen nueva del tamaño pedido.
+     */
+    public OFImage resize(OFImage image, int width, int height)
+    {
+        return resize(image, width, height, null, null);
+    }
+
+    /**
+     * Cambia el tamaño de una imagen repartiendo las filas entre los hilos
+     * de un ejecutor.
+     *
+     * @param image La imagen; no se modifica.
+     * @param width El nuevo ancho.
+     * @param height La nueva altura.
+     * @param executor El ejecutor, o 'null' para hacerlo en el hilo que llama.
+     * @param progress Recibe el avance, o 'null'.
+     * @return Una imagen nueva del tamaño pedido.
+     * @throws CancellationException Si progress indica que hay que detenerse.
+     */
+    public OFImage resize(OFImage image, int width, int height,
+                          TileExecutor executor, TileExecutor.Progress progress)
+    {
+        if(width < 1 || height < 1) {
+            throw new IllegalArgumentException("tamaño no valido: " + width + "x" + height);
+        }
+        int sourceWidth = image.getWidth();
+        int sourceHeight = image.getHeight();
+        int[] source = image.getPixels();
+        OFImage result = new OFImage(width, height);
+        int[] target = result.getPixels();
+
+        if(mode == Mode.NEAREST) {
+            run(height, nearest(source, sourceWidth, sourceHeight, target, width, height),
+                executor, progress, 0, 1);
+        }
+        else if(sourceWidth == width && sourceHeight == height) {
+            System.arraycopy(source, 0, target, 0, target.length);
+        }
+        else if(sourceWidth == width) {
+            run(height, vertical(source, width, sourceHeight, target, height),
+                executor, progress, 0, 1);
+        }
+        else if(sourceHeight == height) {
+            run(height, horizontal(source, sourceWidth, target, width),
+                executor, progress, 0, 1);
+        }
+        else if((long) width * sourceHeight <= (long) sourceWidth * height) {
+            // primero el ancho: la imagen intermedia es width x sourceHeight
+            int[] middle = new int[width * sourceHeight];
+            run(sourceHeight, horizontal(source, sourceWidth, middle, width),
+                executor, progress, 0, 2);
+            run(height, vertical(middle, width, sourceHeight, target, height),
+                executor, progress, 1, 2);
+        }
+        else {
+            // primero el alto: la imagen intermedia es sourceWidth x height
+            int[] middle = new int[sourceWidth * height];
+            run(height, vertical(source, sourceWidth, sourceHeight, middle, height),
+                executor, progress, 0, 2);
+            run(height, horizontal(middle, sourceWidth, target, width),
+                executor, progress, 1, 2);
+        }
+        result.setPixels(target);
+        return result;
+    }
+
+    /**
+     * Hace un paso del remuestreo, con el ejecutor si hay uno. El avance se
+     * informa como la parte 'pass' de 'passes' pasos.
+     */
+    private void run(int rows, TileExecutor.Rows task, TileExecutor executor,
+                     final TileExecutor.Progress progress, final int pass, final int passes)
+    {
+        if(executor == null) {
+            if(progress != null && progress.isCancelled()) {
+                throw new CancellationException();
+            }
+            task.compute(0, rows);
+            if(progress != null) {
+                progress.update(pass + 1, passes);
+            }
+            return;
+        }
+        TileExecutor.Progress passProgress = null;
+        if(progress != null) {
+            passProgress = new TileExecutor.Progress() {
+                public void update(int done, int total)
+                {
+                    progress.update(pass * total + done, passes * total);
+                }
+
+                public boolean isCancelled()
+                {
+                    return progress.isCancelled();
+                }
+            };
+        }
+        executor.run(rows, task, passProgress);
+    }
+
+    /**
+     * Copia a cada pixel de salida el pixel de origen que cae en su centro.
+     */
+    private TileExecutor.Rows nearest(final int[] source, final int sourceWidth, int sourceHeight,
+                                      final int[] target, final int width, int height)
+    {
+        final int[] columns = nearestIndexes(sourceWidth, width);
+        final int[] rows = nearestIndexes(sourceHeight, height);
+        return new TileExecutor.Rows() {
+            public void compute(int startY, int endY)
+            {
+                for(int y = startY; y < endY; y++) {
+                    int sourceRow = rows[y] * sourceWidth;
+                    int targetRow = y * width;
+                    for(int x = 0; x < width; x++) {
+                        target[targetRow + x] = source[sourceRow + columns[x]];
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Cambia el ancho de cada fila. Las filas de la tarea son las de la
+     * imagen (no cambian en este paso).
+     */
+    private TileExecutor.Rows horizontal(final int[] source, final int sourceWidth,
+                                         final int[] target, final int width)
+    {
+        final Weights weights = new Weights(sourceWidth, width);
+        return new TileExecutor.Rows() {
+            public void compute(int startY, int endY)
+            {
+                int taps = weights.taps;
+                for(int y = startY; y < endY; y++) {
+                    int sourceRow = y * sourceWidth;
+                    int targetRow = y * width;
+                    for(int x = 0; x < width; x++) {
+                        int index = sourceRow + weights.start[x];
+                        int w = x * taps;
+                        int r = 0, g = 0, b = 0;
+                        for(int k = 0; k < taps; k++) {
+                            int weight = weights.values[w + k];
+                            int pixel = source[index + k];
+                            r += ((pixel >> 16) & 0xff) * weight;
+                            g += ((pixel >> 8) & 0xff) * weight;
+                            b += (pixel & 0xff) * weight;
+                        }
+                        target[targetRow + x] = pack(r, g, b);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Cambia el alto de cada columna. Las filas de la tarea son las de la
+     * imagen de salida.
+     */
+    private TileExecutor.Rows vertical(final int[] source, final int width, int sourceHeight,
+                                       final int[] target, int height)
+    {
+        final Weights weights = new Weights(sourceHeight, height);
+        return new TileExecutor.Rows() {
+            public void compute(int startY, int endY)
+            {
+                int taps = weights.taps;
+                // se recorren filas enteras del origen, sumando en estos arreglos
+                int[] red = new int[width];
+                int[] green = new int[width];
+                int[] blue = new int[width];
+                for(int y = startY; y < endY; y++) {
+                    Arrays.fill(red, 0);
+                    Arrays.fill(green, 0);
+                    Arrays.fill(blue, 0);
+                    for(int k = 0; k < taps; k++) {
+                        int weight = weights.values[y * taps + k];
+                        if(weight == 0) {
+                            continue;
+                        }
+                        int sourceRow = (weights.start[y] + k) * width;
+                        for(int x = 0; x < width; x++) {
+                            int pixel = source[sourceRow + x];
+                            red[x] += ((pixel >> 16) & 0xff) * weight;
+                            green[x] += ((pixel >> 8) & 0xff) * weight;
+                            blue[x] += (pixel & 0xff) * weight;
+                        }
+                    }
+                    int targetRow = y * width;
+                    for(int x = 0; x < width; x++) {
+                        target[targetRow + x] = pack(red[x], green[x], blue[x]);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Redondea y limita las sumas de punto fijo y las empaqueta en un pixel.
+     */
+    private static int pack(int r, int g, int b)
+    {
+        r = clamp((r + ONE / 2) >> PRECISION_BITS);
+        g = clamp((g + ONE / 2) >> PRECISION_BITS);
+        b = clamp((b + ONE / 2) >> PRECISION_BITS);
+        return (r << 16) | (g << 8) | b;
+    }
+
+    private static int clamp(int value)
+    {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    /**
+     * Devuelve, para cada pixel de salida, el pixel de origen que cae en su
+     * centro.
+     */
+    private static int[] nearestIndexes(int sourceSize, int targetSize)
+    {
+        int[] indexes = new int[targetSize];
+        double scale = (double) sourceSize / targetSize;
+        for(int i = 0; i < targetSize; i++) {
+            indexes[i] = Math.min((int) ((i + 0.5) * scale), sourceSize - 1);
+        }
+        return indexes;
+    }
+
+    /**
+     * Los pesos de un eje: cada pixel de salida i mezcla 'taps' pixeles de
+     * origen a partir de start[i], con los pesos values[i * taps + k], que
+     * suman ONE. Las ventanas que se salen de la imagen se recortan.
+     */
+    private class Weights
+    {
+        private int taps;
+        private int[] start;
+        private int[] values;
+
+        public Weights(int sourceSize, int targetSize)
+        {
+            double scale = (double) sourceSize / targetSize;
+            // al reducir el nucleo se estira para cubrir todos los pixeles
+            double filterScale = Math.max(scale, 1);
+            double support = mode == Mode.AREA ? scale / 2 + 1 : mode.support * filterScale;
+            taps = Math.min((int) Math.ceil(support) * 2 + 1, sourceSize);
+            start = new int[targetSize];
+            values = new int[targetSize * taps];
+            double[] weights = new double[taps];
+
+            for(int i = 0; i < targetSize; i++) {
+                double center = (i + 0.5) * scale;
+                int first = Math.max((int) (center - support + 0.5), 0);
+                int end = Math.min((int) (center + support + 0.5), sourceSize);
+                // la ventana se corre hacia dentro para tener siempre 'taps' pixeles
+                first = Math.max(Math.min(first, sourceSize - taps), 0);
+                end = Math.min(end, first + taps);
+                double sum = 0;
+                for(int k = 0; k < taps; k++) {
+                    int j = first + k;
+                    double weight = 0;
+                    if(j < end) {
+                        if(mode == Mode.AREA) {
+                            // lo que se solapan el pixel j y el de salida
+                            double left = i * scale;
+                            double right = left + scale;
+                            weight = Math.max(0, Math.min(right, j + 1) - Math.max(left, j));
+                        }
+                        else {
+                            weight = mode.kernel((j + 0.5 - center) / filterScale);
+                        }
+                    }
+                    weights[k] = weight;
+                    sum += weight;
+                }
+                start[i] = first;
+                // se pasa a punto fijo y el error de redondeo va al peso mayor,
+                // para que un color uniforme no cambie
+                int total = 0;
+                int largest = 0;
+                for(int k = 0; k < taps; k++) {
+                    int value = (int) Math.round(weights[k] / sum * ONE);
+                    values[i * taps + k] = value;
+                    total += value;
+                    if(value > values[i * taps + largest]) {
+                        largest = k;
+                    }
+                }
+                values[i * taps + largest] += ONE - total;
+            }
+        }
+    }
+}
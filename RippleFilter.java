@@ -0,0 +1,55 @@
+/**
+ * RippleFilter ondula la imagen como el reflejo en el agua: cada fila se
+ * desplaza a los lados y cada columna arriba y abajo siguiendo una onda.
+ */
+public class RippleFilter extends WarpFilter
+{
+    // desplazamiento maximo y largo de la onda, en pixeles
+    public static final int DEFAULT_AMPLITUDE = 8;
+    public static final int DEFAULT_WAVELENGTH = 48;
+
+    private int amplitude;
+    private int wavelength;
+
+    /**
+     * Crea las ondas con el tamaño por defecto.
+     * @param name El nombre del filtro.
+     */
+    public RippleFilter(String name)
+    {
+        this(name, DEFAULT_AMPLITUDE, DEFAULT_WAVELENGTH);
+    }
+
+    /**
+     * Crea las ondas.
+     * @param name El nombre del filtro.
+     * @param amplitude El desplazamiento maximo en pixeles.
+     * @param wavelength La distancia entre dos crestas en pixeles.
+     */
+    public RippleFilter(String name, int amplitude, int wavelength)
+    {
+        super(name, EdgePolicy.CLAMP);
+        this.amplitude = amplitude;
+        this.wavelength = wavelength;
+    }
+
+    /**
+     * @return La amplitud más la fila que se interpola: ninguna fila se
+     *         desplaza más que eso.
+     */
+    public int getHaloRows()
+    {
+        return amplitude + 1;
+    }
+
+    protected Object[] getParameters()
+    {
+        return new Object[] { amplitude, wavelength };
+    }
+
+    protected void map(int x, int y, int width, int height, double[] source)
+    {
+        source[0] = x + amplitude * Math.sin(2 * Math.PI * y / wavelength);
+        source[1] = y + amplitude * Math.sin(2 * Math.PI * x / wavelength);
+    }
+}
@@ -0,0 +1,192 @@
+import java.util.List;
+
+/**
+ * RowFilter es la superclase de los filtros que pueden calcular cualquier
+ * grupo de filas de la imagen por separado. Asi la imagen se puede dividir
+ * en bandas que se procesan en paralelo (ver TileExecutor) con el mismo
+ * resultado que procesandola entera.
+ *
+ * Los filtros que leen pixeles vecinos (o de otras filas) los leen siempre
+ * de una copia de la imagen original, que no cambia mientras se filtra.
+ */
+public abstract class RowFilter extends Filter
+{
+    // valor de getHaloRows para los filtros que pueden leer cualquier fila
+    public static final int ALL_ROWS = Integer.MAX_VALUE;
+
+    /**
+     * Crea un nuevo filtro por filas con un nombre dado.
+     * @param name El nombre del filtro.
+     */
+    public RowFilter(String name)
+    {
+        super(name);
+    }
+
+    /**
+     * Aplica este filtro a una imagen.
+     *
+     * @param image La imagen que cambiará este filtro.
+     */
+    public void apply(OFImage image)
+    {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getPixels();
+        int[] source = readsNeighbors() ? pixels.clone() : pixels;
+        applyRows(source, pixels, width, height, 0, height);
+        image.setPixels(pixels);
+    }
+
+    /**
+     * Indica si el resultado de un pixel depende de otros pixeles. Si es
+     * asi, el origen y el destino de applyRows deben ser arreglos
+     * distintos; si no, pueden ser el mismo.
+     *
+     * @return 'true' si el filtro lee pixeles distintos del que calcula.
+     */
+    public boolean readsNeighbors()
+    {
+        return true;
+    }
+
+    /**
+     * Indica cuantas filas por encima y por debajo de las que calcula
+     * necesita leer el filtro. Con ese margen alrededor de una franja de la
+     * imagen (o hasta el borde de la imagen) el resultado es el mismo que
+     * filtrando la imagen entera; ver applyStrip.
+     *
+     * @return Las filas de margen, o ALL_ROWS si puede leer cualquier fila.
+     */
+    public int getHaloRows()
+    {
+        return readsNeighbors() ? ALL_ROWS : 0;
+    }
+
+    /**
+     * Calcula las filas de startY (incluida) a endY (excluida) cuando los
+     * arreglos solo tienen una franja de la imagen: las filas de sourceY a
+     * sourceY + sourceRows. Las filas que se calculan deben tener dentro de
+     * la franja el margen que indica getHaloRows, salvo en los bordes de la
+     * imagen.
+     *
+     * Por defecto la franja se trata como si fuera la imagen entera, lo que
+     * sirve para los filtros que no dependen de la posicion de la fila.
+     *
+     * @param source Los pixeles originales de la franja; no cambian.
+     * @param target Los pixeles de la franja donde se escribe el resultado.
+     * @param width El ancho de la imagen.
+     * @param height La altura de la imagen entera.
+     * @param sourceY La fila de la imagen en que empieza la franja.
+     * @param sourceRows El numero de filas de la franja.
+     * @param startY La primera fila a calcular, en filas de la imagen.
+     * @param endY La fila siguiente a la ultima a calcular.
+     */
+    public void applyStrip(int[] source, int[] target, int width, int height,
+                           int sourceY, int sourceRows, int startY, int endY)
+    {
+        applyRows(source, target, width, sourceRows, startY - sourceY, endY - sourceY);
+    }
+
+    /**
+     * Suma las filas de margen de varios pasos que se aplican uno tras otro.
+     *
+     * @param stages Los pasos; ninguno puede leer cualquier fila.
+     * @return Las filas de margen que necesita el primero para que el
+     *         ultimo calcule bien sus filas.
+     */
+    public static int getHaloRows(List<RowFilter> stages)
+    {
+        long totalHalo = 0;
+        for(RowFilter stage : stages) {
+            totalHalo += stage.getHaloRows();
+        }
+        return (int) Math.min(totalHalo, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Aplica varios pasos uno tras otro a una franja de la imagen: las
+     * filas de readY a readY + readRows, que deben incluir alrededor de las
+     * que se calculan el margen de getHaloRows(stages) o llegar hasta el
+     * borde de la imagen. Cada paso calcula solo las filas que necesitan
+     * los siguientes, y los pasos que leen pixeles vecinos escriben en un
+     * segundo arreglo que se alterna con el primero.
+     *
+     * @param stages Los pasos.
+     * @param pixels Los pixeles de la franja; pueden cambiar.
+     * @param width El ancho de la imagen.
+     * @param height La altura de la imagen entera.
+     * @param readY La fila de la imagen en que empieza la franja.
+     * @param readRows El numero de filas de la franja.
+     * @param startY La primera fila a calcular, en filas de la imagen.
+     * @param endY La fila siguiente a la ultima a calcular.
+     * @param executor Reparte las filas de cada paso entre sus hilos, o
+     *                 'null' para calcularlas en el hilo que llama.
+     * @return Los pixeles de la franja con el resultado en las filas de
+     *         startY a endY; puede ser pixels u otro arreglo.
+     */
+    public static int[] applyStages(List<RowFilter> stages, int[] pixels, int width, int height,
+                                    int readY, int readRows, int startY, int endY,
+                                    TileExecutor executor)
+    {
+        int[] other = null;
+        int remaining = Math.min(getHaloRows(stages), height);
+        for(RowFilter stage : stages) {
+            remaining -= Math.min(stage.getHaloRows(), remaining);
+            int fromY = Math.max(startY - remaining, readY);
+            int toY = Math.min(endY + remaining, readY + readRows);
+            if(stage.readsNeighbors()) {
+                if(other == null) {
+                    other = new int[pixels.length];
+                }
+                stage.applyStrip(pixels, other, width, height, readY, readRows, fromY, toY,
+                                 executor);
+                int[] swap = pixels;
+                pixels = other;
+                other = swap;
+            }
+            else {
+                stage.applyStrip(pixels, pixels, width, height, readY, readRows, fromY, toY,
+                                 executor);
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Llama a applyStrip, repartiendo las filas entre los hilos del
+     * ejecutor si hay.
+     */
+    private void applyStrip(final int[] source, final int[] target, final int width,
+                            final int height, final int readY, final int readRows,
+                            final int fromY, int toY, TileExecutor executor)
+    {
+        if(fromY >= toY) {
+            return;
+        }
+        if(executor == null) {
+            applyStrip(source, target, width, height, readY, readRows, fromY, toY);
+            return;
+        }
+        executor.run(toY - fromY, new TileExecutor.Rows() {
+                         public void compute(int startY, int endY)
+                         {
+                             applyStrip(source, target, width, height, readY, readRows,
+                                        fromY + startY, fromY + endY);
+                         }
+                     }, null);
+    }
+
+    /**
+     * Calcula las filas de startY (incluida) a endY (excluida).
+     *
+     * @param source Los pixeles originales de toda la imagen; no cambian.
+     * @param target Los pixeles de toda la imagen donde se escribe el resultado.
+     * @param width El ancho de la imagen.
+     * @param height La altura de la imagen.
+     * @param startY La primera fila a calcular.
+     * @param endY La fila siguiente a la ultima a calcular.
+     */
+    public abstract void applyRows(int[] source, int[] target, int width, int height,
+                                   int startY, int endY);
+}
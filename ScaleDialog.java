@@ -0,0 +1,156 @@
+import java.awt.*;
+import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+/**
+ * ScaleDialog pide el nuevo tamaño de la imagen y el metodo de remuestreo.
+ * El tamaño se puede dar en pixeles o en porcentaje; si se mantiene la
+ * proporcion, al cambiar el ancho cambia tambien el alto y viceversa.
+ */
+public class ScaleDialog
+{
+    // tamaño maximo que se puede pedir, por lado
+    private static final int MAX_SIZE = 100000;
+
+    private int width;
+    private int height;
+    private JSpinner widthSpinner;
+    private JSpinner heightSpinner;
+    private JSpinner percentSpinner;
+    private JCheckBox keepRatio;
+    private JComboBox<Resampler.Mode> modeBox;
+    // evita que los cambios hechos por el dialogo se vuelvan a propagar
+    private boolean updating;
+
+    /**
+     * Crea el dialogo para una imagen de un tamaño dado.
+     * @param width El ancho actual.
+     * @param height La altura actual.
+     * @param mode El metodo que aparece elegido.
+     */
+    public ScaleDialog(int width, int height, Resampler.Mode mode)
+    {
+        this.width = width;
+        this.height = height;
+        widthSpinner = new JSpinner(new SpinnerNumberModel(width, 1, MAX_SIZE, 1));
+        heightSpinner = new JSpinner(new SpinnerNumberModel(height, 1, MAX_SIZE, 1));
+        percentSpinner = new JSpinner(new SpinnerNumberModel(100.0, 0.01, 10000.0, 10.0));
+        keepRatio = new JCheckBox("Mantener proporción", true);
+        modeBox = new JComboBox<Resampler.Mode>(Resampler.Mode.values());
+        modeBox.setSelectedItem(mode);
+
+        widthSpinner.addChangeListener(new ChangeListener() {
+                               public void stateChanged(ChangeEvent e) { widthChanged(); }
+                           });
+        heightSpinner.addChangeListener(new ChangeListener() {
+                               public void stateChanged(ChangeEvent e) { heightChanged(); }
+                           });
+        percentSpinner.addChangeListener(new ChangeListener() {
+                               public void stateChanged(ChangeEvent e) { percentChanged(); }
+                           });
+    }
+
+    /**
+     * Muestra el dialogo y espera a que se acepte o cancele.
+     *
+     * @param parent La ventana sobre la que se muestra.
+     * @return 'true' si se aceptó.
+     */
+    public boolean show(Component parent)
+    {
+        JPanel panel = new JPanel(new GridLayout(0, 2, 6, 6));
+        panel.add(new JLabel("Ancho (pixeles):"));
+        panel.add(widthSpinner);
+        panel.add(new JLabel("Alto (pixeles):"));
+        panel.add(heightSpinner);
+        panel.add(new JLabel("Porcentaje:"));
+        panel.add(percentSpinner);
+        panel.add(new JLabel());
+        panel.add(keepRatio);
+        panel.add(new JLabel("Método:"));
+        panel.add(modeBox);
+        int result = JOptionPane.showConfirmDialog(parent, panel, "Cambiar tamaño",
+                                                   JOptionPane.OK_CANCEL_OPTION,
+                                                   JOptionPane.PLAIN_MESSAGE);
+        return result == JOptionPane.OK_OPTION;
+    }
+
+    /**
+     * Devuelve el ancho elegido.
+     *
+     * @return El nuevo ancho.
+     */
+    public int getNewWidth()
+    {
+        return (Integer) widthSpinner.getValue();
+    }
+
+    /**
+     * Devuelve la altura elegida.
+     *
+     * @return La nueva altura.
+     */
+    public int getNewHeight()
+    {
+        return (Integer) heightSpinner.getValue();
+    }
+
+    /**
+     * Devuelve el metodo de remuestreo elegido.
+     *
+     * @return El metodo.
+     */
+    public Resampler.Mode getMode()
+    {
+        return (Resampler.Mode) modeBox.getSelectedItem();
+    }
+
+    private void widthChanged()
+    {
+        if(updating) {
+            return;
+        }
+        updating = true;
+        double scale = (double) getNewWidth() / width;
+        if(keepRatio.isSelected()) {
+            heightSpinner.setValue(scaled(height, scale));
+        }
+        percentSpinner.setValue(scale * 100);
+        updating = false;
+    }
+
+    private void heightChanged()
+    {
+        if(updating) {
+            return;
+        }
+        updating = true;
+        double scale = (double) getNewHeight() / height;
+        if(keepRatio.isSelected()) {
+            widthSpinner.setValue(scaled(width, scale));
+        }
+        percentSpinner.setValue(scale * 100);
+        updating = false;
+    }
+
+    private void percentChanged()
+    {
+        if(updating) {
+            return;
+        }
+        updating = true;
+        double scale = (Double) percentSpinner.getValue() / 100;
+        widthSpinner.setValue(scaled(width, scale));
+        heightSpinner.setValue(scaled(height, scale));
+        updating = false;
+    }
+
+    /**
+     * Escala un lado, sin bajar de un pixel ni pasar del maximo.
+     */
+    private static int scaled(int size, double scale)
+    {
+        return (int) Math.max(1, Math.min(MAX_SIZE, Math.round(size * scale)));
+    }
+}
@@ -1,74 +1,129 @@
-import java.awt.Color;
-import java.util.List;
-import java.util.ArrayList;
 
-
-public class SmoothFilter extends Filter
+/**
+ * Suaviza la imagen: cada pixel pasa a ser el promedio de los pixeles de un
+ * cuadrado de (2 * radio + 1) de lado centrado en el. En los bordes solo se
+ * promedian los pixeles que estan dentro de la imagen.
+ *
+ * Las sumas se calculan por columnas y por filas con ventanas que se
+ * desplazan: al avanzar un pixel se suma lo que entra y se resta lo que
+ * sale, asi que el costo por pixel no depende del radio.
+ */
+public class SmoothFilter extends RowFilter
 {
-    private OFImage original;
-    private int width;
-    private int height;
-    
+    // con este radio la suma de un canal todavia cabe en un int
+    public static final int MAX_RADIUS = 1000;
+
+    private int radius;
 
+    /**
+     * Crea un filtro que promedia cada pixel con sus adyacentes (radio 1).
+     * @param name El nombre del filtro.
+     */
     public SmoothFilter(String name)
     {
-        super(name);
+        this(name, 1);
     }
 
-
-    public void apply(OFImage image)
+    /**
+     * Crea un filtro de suavizado con un radio dado.
+     * @param name El nombre del filtro.
+     * @param radius El radio, de 1 a MAX_RADIUS.
+     */
+    public SmoothFilter(String name, int radius)
     {
-        original = new OFImage(image);
-        width = original.getWidth();
-        height = original.getHeight();
-        
-        for(int y = 0; y < height; y++) {
-            for(int x = 0; x < width; x++) {
-                image.setPixel(x, y, smooth(x, y));
-            }
+        super(name);
+        if(radius < 1 || radius > MAX_RADIUS) {
+            throw new IllegalArgumentException("radio fuera de rango: " + radius);
         }
+        this.radius = radius;
     }
-    
-    private Color smooth(int xpos, int ypos)
+
+    /**
+     * Devuelve el radio de este filtro.
+     *
+     * @return El radio.
+     */
+    public int getRadius()
     {
-        List<Color> pixels = new ArrayList<Color>(9);
-        
-        for(int y = ypos - 1; y <= ypos + 1; y++) {
-            for(int x = xpos - 1; x <= xpos + 1; x++) {
-                if( x >= 0 && x < width && y >= 0 && y < height )
-                    pixels.add(original.getPixel(x, y));
-            }
-        }
+        return radius;
+    }
+
 
-        return new Color(avgRed(pixels), avgGreen(pixels), avgBlue(pixels));
+    /**
+     * @return El radio: cada fila lee las de su ventana.
+     */
+    public int getHaloRows()
+    {
+        return radius;
     }
 
-    private int avgRed(List<Color> pixels)
+    public void applyRows(int[] original, int[] pixels, int width, int height,
+                          int startY, int endY)
     {
-        int total = 0;
-        for(Color color : pixels) {
-            total += color.getRed();
+        // sumas de cada columna para las filas de la ventana actual
+        int[] columnRed = new int[width];
+        int[] columnGreen = new int[width];
+        int[] columnBlue = new int[width];
+        PixelKernels kernels = PixelKernels.getDefault();
+
+        int firstY = Math.max(startY - radius, 0);
+        int lastY = Math.min(startY + radius, height - 1);
+        for(int y = firstY; y <= lastY; y++) {
+            kernels.addRow(original, y * width, width, columnRed, columnGreen, columnBlue, 1);
         }
-        return total / pixels.size();
-    }
 
+        for(int y = startY; y < endY; y++) {
+            int rows = Math.min(y + radius, height - 1) - Math.max(y - radius, 0) + 1;
+            smoothRow(columnRed, columnGreen, columnBlue, pixels, y * width, width, rows);
 
-    private int avgGreen(List<Color> pixels)
-    {
-        int total = 0;
-        for(Color color : pixels) {
-            total += color.getGreen();
+            // se mueve la ventana una fila hacia abajo
+            if(y - radius >= 0) {
+                kernels.addRow(original, (y - radius) * width, width,
+                               columnRed, columnGreen, columnBlue, -1);
+            }
+            if(y + radius + 1 < height) {
+                kernels.addRow(original, (y + radius + 1) * width, width,
+                               columnRed, columnGreen, columnBlue, 1);
+            }
         }
-        return total / pixels.size();
     }
 
-
-    private int avgBlue(List<Color> pixels)
+    /**
+     * Escribe una fila de pixeles promediando, con una ventana que avanza
+     * por la fila, las sumas de las columnas.
+     * @param rows El numero de filas que suman las columnas.
+     */
+    private void smoothRow(int[] columnRed, int[] columnGreen, int[] columnBlue,
+                           int[] pixels, int offset, int width, int rows)
     {
-        int total = 0;
-        for(Color color : pixels) {
-            total += color.getBlue();
+        int red = 0;
+        int green = 0;
+        int blue = 0;
+        int last = Math.min(radius, width - 1);
+        for(int x = 0; x <= last; x++) {
+            red += columnRed[x];
+            green += columnGreen[x];
+            blue += columnBlue[x];
+        }
+
+        for(int x = 0; x < width; x++) {
+            int columns = Math.min(x + radius, width - 1) - Math.max(x - radius, 0) + 1;
+            int count = columns * rows;
+            pixels[offset + x] = 0xff000000 | ((red / count) << 16)
+                                            | ((green / count) << 8) | (blue / count);
+
+            int out = x - radius;
+            if(out >= 0) {
+                red -= columnRed[out];
+                green -= columnGreen[out];
+                blue -= columnBlue[out];
+            }
+            int in = x + radius + 1;
+            if(in < width) {
+                red += columnRed[in];
+                green += columnGreen[in];
+                blue += columnBlue[in];
+            }
         }
-        return total / pixels.size();
     }
 }
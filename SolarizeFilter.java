@@ -1,7 +1,5 @@
-import java.awt.Color;
 
-
-public class SolarizeFilter extends Filter
+public class SolarizeFilter extends PointFilter
 {
 
     public SolarizeFilter(String name)
@@ -10,28 +8,24 @@ public class SolarizeFilter extends Filter
     }
 
 
-    public void apply(OFImage image)
+    protected LookupTable createTable()
     {
-        int height = image.getHeight();
-        int width = image.getWidth();
-        for(int y = 0; y < height; y++) {
-            for(int x = 0; x < width; x++) {
-                Color pix = image.getPixel(x, y);
-                int red = pix.getRed();
-                if(red <= 127) {
-                    red = 255 - red;
-                }
-                int green = pix.getGreen();
-                if(green <= 127) {
-                    green = 255 - green;
-                }
-                int blue = pix.getBlue();
-                if(blue <= 127) {
-                    blue = 255 - blue;
-                }
-                image.setPixel(x, y, new Color(red, green, blue));
+        int[] table = new int[256];
+        for(int i = 0; i < 256; i++) {
+            if(i <= 127) {
+                table[i] = 255 - i;
+            }
+            else {
+                table[i] = i;
             }
         }
+        return LookupTable.forChannels(table);
+    }
+
+
+    protected void applyTable(int[] pixels, int start, int end)
+    {
+        PixelKernels.getDefault().solarize(pixels, start, end);
     }
 
 }
@@ -0,0 +1,217 @@
+import java.awt.*;
+import java.awt.event.*;
+import java.util.List;
+import javax.swing.*;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+
+/**
+ * StepsPanel muestra los pasos de la imagen (ver EditGraph): los filtros
+ * que se le aplican, en orden, y permite subir, bajar, quitar o cambiar por
+ * otro filtro cualquiera de ellos sin tocar los demas.
+ *
+ * El panel no cambia los pasos: avisa lo que se pidió a un Listener, y
+ * muestra los pasos nuevos cuando se los pasan con setSteps.
+ */
+public class StepsPanel extends JPanel
+{
+    /**
+     * Recibe los cambios que se piden sobre los pasos. Cada metodo recibe
+     * la posicion y el filtro del paso, por si los pasos cambiaron antes
+     * de hacer el cambio.
+     */
+    public interface Listener
+    {
+        /**
+         * Se pidió mover un paso.
+         *
+         * @param index La posicion del paso.
+         * @param step El filtro del paso.
+         * @param offset -1 para aplicarlo antes, 1 para aplicarlo despues.
+         */
+        void moveStep(int index, Filter step, int offset);
+
+        /**
+         * Se pidió quitar un paso.
+         *
+         * @param index La posicion del paso.
+         * @param step El filtro del paso.
+         */
+        void removeStep(int index, Filter step);
+
+        /**
+         * Se pidió cambiar el filtro de un paso.
+         *
+         * @param index La posicion del paso.
+         * @param step El filtro del paso.
+         * @param replacement El filtro que lo reemplaza.
+         */
+        void replaceStep(int index, Filter step, Filter replacement);
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    private List<Filter> available;
+    private Listener listener;
+    private DefaultListModel<Filter> steps;
+    private JList<Filter> list;
+    private JButton upButton;
+    private JButton downButton;
+    private JButton removeButton;
+    private JButton changeButton;
+    private boolean editable;
+    // el paso que se elige cuando lleguen los pasos nuevos, o -1
+    private int nextSelection;
+
+    /**
+     * Crea un panel sin pasos.
+     *
+     * @param available Los filtros que se pueden elegir al cambiar un paso;
+     *                  se leen cada vez, asi que pueden cambiar.
+     * @param listener Recibe los cambios que se piden.
+     */
+    public StepsPanel(List<Filter> available, Listener listener)
+    {
+        super(new BorderLayout(0, 6));
+        this.available = available;
+        this.listener = listener;
+        nextSelection = -1;
+
+        steps = new DefaultListModel<Filter>();
+        list = new JList<Filter>(steps);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setVisibleRowCount(8);
+        list.setCellRenderer(new DefaultListCellRenderer() {
+                               public Component getListCellRendererComponent(JList<?> list,
+                                       Object value, int index, boolean selected, boolean focused)
+                               {
+                                   String text = (index + 1) + ". " + ((Filter) value).getName();
+                                   return super.getListCellRendererComponent(list, text, index,
+                                                                             selected, focused);
+                               }
+                           });
+        list.addListSelectionListener(new ListSelectionListener() {
+                               public void valueChanged(ListSelectionEvent e) { updateButtons(); }
+                           });
+        add(new JLabel("Pasos"), BorderLayout.NORTH);
+        add(new JScrollPane(list), BorderLayout.CENTER);
+
+        JPanel buttons = new JPanel(new GridLayout(0, 2, 4, 4));
+        upButton = new JButton("Subir");
+        upButton.addActionListener(new ActionListener() {
+                               public void actionPerformed(ActionEvent e) { move(-1); }
+                           });
+        buttons.add(upButton);
+        downButton = new JButton("Bajar");
+        downButton.addActionListener(new ActionListener() {
+                               public void actionPerformed(ActionEvent e) { move(1); }
+                           });
+        buttons.add(downButton);
+        removeButton = new JButton("Quitar");
+        removeButton.addActionListener(new ActionListener() {
+                               public void actionPerformed(ActionEvent e) { remove(); }
+                           });
+        buttons.add(removeButton);
+        changeButton = new JButton("Cambiar...");
+        changeButton.addActionListener(new ActionListener() {
+                               public void actionPerformed(ActionEvent e) { change(); }
+                           });
+        buttons.add(changeButton);
+        add(buttons, BorderLayout.SOUTH);
+        updateButtons();
+    }
+
+    /**
+     * Muestra los pasos de la imagen.
+     *
+     * @param newSteps Los filtros que se aplican, en orden.
+     */
+    public void setSteps(List<Filter> newSteps)
+    {
+        int selection = nextSelection >= 0 ? nextSelection : list.getSelectedIndex();
+        nextSelection = -1;
+        steps.clear();
+        for(Filter step : newSteps) {
+            steps.addElement(step);
+        }
+        if(selection >= 0 && selection < steps.size()) {
+            list.setSelectedIndex(selection);
+        }
+        updateButtons();
+    }
+
+    /**
+     * Habilita o deshabilita los botones, por ejemplo si no hay imagen.
+     *
+     * @param editable 'true' si se pueden cambiar los pasos.
+     */
+    public void setEditable(boolean editable)
+    {
+        this.editable = editable;
+        updateButtons();
+    }
+
+    /**
+     * Pide mover el paso elegido.
+     */
+    private void move(int offset)
+    {
+        int index = list.getSelectedIndex();
+        if(index >= 0) {
+            nextSelection = index + offset;
+            listener.moveStep(index, steps.get(index), offset);
+        }
+    }
+
+    /**
+     * Pide quitar el paso elegido.
+     */
+    private void remove()
+    {
+        int index = list.getSelectedIndex();
+        if(index >= 0) {
+            listener.removeStep(index, steps.get(index));
+        }
+    }
+
+    /**
+     * Pregunta por qué filtro cambiar el paso elegido y lo pide.
+     */
+    private void change()
+    {
+        int index = list.getSelectedIndex();
+        if(index < 0) {
+            return;
+        }
+        Filter step = steps.get(index);
+        String[] names = new String[available.size()];
+        for(int i = 0; i < names.length; i++) {
+            names[i] = available.get(i).getName();
+        }
+        Object choice = JOptionPane.showInputDialog(this, "Cambiar " + step.getName() + " por:",
+                                                    "Cambiar paso", JOptionPane.QUESTION_MESSAGE,
+                                                    null, names, step.getName());
+        if(choice == null) {
+            return;  // cancelado
+        }
+        for(int i = 0; i < names.length; i++) {
+            if(names[i].equals(choice) && available.get(i) != step) {
+                nextSelection = index;
+                listener.replaceStep(index, step, available.get(i));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Habilita los botones que sirven para el paso elegido.
+     */
+    private void updateButtons()
+    {
+        int index = list.getSelectedIndex();
+        upButton.setEnabled(editable && index > 0);
+        downButton.setEnabled(editable && index >= 0 && index < steps.size() - 1);
+        removeButton.setEnabled(editable && index >= 0);
+        changeButton.setEnabled(editable && index >= 0);
+    }
+}
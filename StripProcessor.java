@@ -0,0 +1,344 @@
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Vector;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * StripProcessor filtra imagenes demasiado grandes para tenerlas enteras en
+ * memoria. La imagen se lee por franjas horizontales (con
+ * ImageReadParam.setSourceRegion), cada franja se filtra junto con las filas
+ * de margen que necesitan los filtros (ver RowFilter.getHaloRows) y se
+ * escribe antes de leer la siguiente, asi que la memoria usada depende del
+ * tamaño de la franja y no del de la imagen.
+ *
+ * Solo se puede escribir por franjas en los formatos cuyo ImageWriter pide
+ * los pixeles por partes (ver STREAMING_FORMATS); JPEG y GIF piden la
+ * imagen entera. Los lectores de PNG y JPEG decodifican desde el principio
+ * del archivo para cada franja, por lo que conviene que las franjas no sean
+ * muy pequeñas.
+ */
+public class StripProcessor
+{
+    // formatos que se pueden escribir por franjas
+    public static final List<String> STREAMING_FORMATS =
+        Arrays.asList("png", "tif", "tiff", "bmp");
+    // pixeles por franja si no se indica el alto
+    public static final int DEFAULT_STRIP_PIXELS = 4 * 1024 * 1024;
+
+    private List<RowFilter> stages;
+    private int stripHeight;
+    private int pngLevel;
+
+    /**
+     * Crea un procesador por franjas.
+     * @param filter El filtro a aplicar; debe ser un RowFilter o una
+     *               FilterChain de ellos, y ninguno puede necesitar todas
+     *               las filas (RowFilter.ALL_ROWS): cada franja tendria
+     *               que leer y filtrar la imagen entera.
+     */
+    public StripProcessor(Filter filter)
+    {
+        stages = new ArrayList<RowFilter>();
+        List<Filter> parts = filter instanceof FilterChain
+                             ? ((FilterChain) filter).getStages() : Arrays.asList(filter);
+        for(Filter part : parts) {
+            if(!(part instanceof RowFilter)
+               || ((RowFilter) part).getHaloRows() == RowFilter.ALL_ROWS) {
+                throw new IllegalArgumentException(
+                    "el filtro " + part.getName() + " no se puede aplicar por franjas");
+            }
+            stages.add((RowFilter) part);
+        }
+        pngLevel = ImageFileManager.DEFAULT_PNG_LEVEL;
+    }
+
+    /**
+     * Cambia el alto de las franjas.
+     * @param stripHeight Las filas de cada franja, o 0 para que cada franja
+     *                    tenga unos DEFAULT_STRIP_PIXELS pixeles.
+     */
+    public void setStripHeight(int stripHeight)
+    {
+        if(stripHeight < 0) {
+            throw new IllegalArgumentException("alto de franja no valido: " + stripHeight);
+        }
+        this.stripHeight = stripHeight;
+    }
+
+    /**
+     * Cambia el nivel de compresion al escribir PNG.
+     * @param pngLevel El nivel, de 0 (ninguna) a 9.
+     */
+    public void setPngLevel(int pngLevel)
+    {
+        if(pngLevel < 0 || pngLevel > 9) {
+            throw new IllegalArgumentException("nivel de compresion PNG fuera de rango: " + pngLevel);
+        }
+        this.pngLevel = pngLevel;
+    }
+
+    /**
+     * Indica si se puede escribir por franjas en un formato.
+     *
+     * @param format El formato, por ejemplo "png".
+     * @return 'true' si se puede.
+     */
+    public static boolean canStream(String format)
+    {
+        return STREAMING_FORMATS.contains(format.toLowerCase());
+    }
+
+    /**
+     * Filtra un archivo de imagen y escribe el resultado en otro.
+     *
+     * @param input El archivo a leer.
+     * @param output El archivo a escribir.
+     * @param format El formato de salida; ver canStream.
+     * @return El numero de pixeles de la imagen.
+     * @throws IOException Si no se puede leer o escribir, o si el formato
+     *                     no se puede escribir por franjas.
+     */
+    public long process(File input, File output, String format) throws IOException
+    {
+        if(!canStream(format)) {
+            throw new IOException("el formato " + format + " no se puede escribir por franjas");
+        }
+        ImageInputStream in = ImageIO.createImageInputStream(input);
+        if(in == null) {
+            throw new IOException("no se puede leer " + input);
+        }
+        ImageReader reader = null;
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if(!readers.hasNext()) {
+                throw new IOException(input + " no es una imagen que se pueda leer");
+            }
+            reader = readers.next();
+            reader.setInput(in, true, true);
+            StripImage image = new StripImage(reader);
+            try {
+                ImageFileManager.writeImage(image, output, format,
+                                            ImageFileManager.DEFAULT_JPEG_QUALITY, pngLevel);
+            }
+            catch(UncheckedIOException exc) {
+                // un error al leer una franja mientras se escribia
+                throw exc.getCause();
+            }
+            return (long) image.getWidth() * image.getHeight();
+        }
+        finally {
+            if(reader != null) {
+                reader.dispose();
+            }
+            in.close();
+        }
+    }
+
+    /**
+     * Una imagen que se calcula por franjas a medida que se piden sus
+     * pixeles. Guarda solo la ultima franja calculada, asi que se debe
+     * recorrer en orden (de arriba abajo o de abajo arriba).
+     */
+    private class StripImage implements RenderedImage
+    {
+        private ImageReader reader;
+        private int width;
+        private int height;
+        private int rows;
+        private int halo;
+        private ColorModel colorModel;
+        // la ultima franja calculada
+        private int cachedStrip;
+        private Raster cachedRaster;
+
+        public StripImage(ImageReader reader) throws IOException
+        {
+            this.reader = reader;
+            width = reader.getWidth(0);
+            height = reader.getHeight(0);
+            rows = stripHeight > 0 ? stripHeight
+                                   : Math.max(1, DEFAULT_STRIP_PIXELS / width);
+            rows = Math.min(rows, height);
+            halo = Math.min(RowFilter.getHaloRows(stages), height);
+            colorModel = new DirectColorModel(24, 0xff0000, 0xff00, 0xff);
+            cachedStrip = -1;
+        }
+
+        /**
+         * Lee y filtra una franja.
+         */
+        private Raster computeStrip(int strip)
+        {
+            if(strip == cachedStrip) {
+                return cachedRaster;
+            }
+            int startY = strip * rows;
+            int endY = Math.min(startY + rows, height);
+            int readY = Math.max(startY - halo, 0);
+            int readRows = Math.min(endY + halo, height) - readY;
+            int[] pixels = RowFilter.applyStages(stages, readRows(readY, readRows), width, height,
+                                                 readY, readRows, startY, endY, null);
+
+            int[] result = Arrays.copyOfRange(pixels, (startY - readY) * width,
+                                              (endY - readY) * width);
+            cachedRaster = Raster.createWritableRaster(
+                colorModel.createCompatibleSampleModel(width, endY - startY),
+                new DataBufferInt(result, result.length), new Point(0, startY));
+            cachedStrip = strip;
+            return cachedRaster;
+        }
+
+        /**
+         * Lee unas filas de la imagen como pixeles empaquetados.
+         */
+        private int[] readRows(int y, int count)
+        {
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(0, y, width, count));
+            try {
+                BufferedImage part = reader.read(0, param);
+                return part.getRGB(0, 0, width, count, new int[width * count], 0, width);
+            }
+            catch(IOException exc) {
+                throw new UncheckedIOException(exc);
+            }
+        }
+
+        public Vector<RenderedImage> getSources()
+        {
+            return null;
+        }
+
+        public Object getProperty(String name)
+        {
+            return java.awt.Image.UndefinedProperty;
+        }
+
+        public String[] getPropertyNames()
+        {
+            return null;
+        }
+
+        public ColorModel getColorModel()
+        {
+            return colorModel;
+        }
+
+        public SampleModel getSampleModel()
+        {
+            return colorModel.createCompatibleSampleModel(width, rows);
+        }
+
+        public int getWidth()
+        {
+            return width;
+        }
+
+        public int getHeight()
+        {
+            return height;
+        }
+
+        public int getMinX()
+        {
+            return 0;
+        }
+
+        public int getMinY()
+        {
+            return 0;
+        }
+
+        public int getNumXTiles()
+        {
+            return 1;
+        }
+
+        public int getNumYTiles()
+        {
+            return (height + rows - 1) / rows;
+        }
+
+        public int getMinTileX()
+        {
+            return 0;
+        }
+
+        public int getMinTileY()
+        {
+            return 0;
+        }
+
+        public int getTileWidth()
+        {
+            return width;
+        }
+
+        public int getTileHeight()
+        {
+            return rows;
+        }
+
+        public int getTileGridXOffset()
+        {
+            return 0;
+        }
+
+        public int getTileGridYOffset()
+        {
+            return 0;
+        }
+
+        public Raster getTile(int tileX, int tileY)
+        {
+            return computeStrip(tileY);
+        }
+
+        public Raster getData()
+        {
+            return getData(new Rectangle(0, 0, width, height));
+        }
+
+        public Raster getData(Rectangle rect)
+        {
+            WritableRaster raster = colorModel.createCompatibleWritableRaster(rect.width, rect.height)
+                                              .createWritableTranslatedChild(rect.x, rect.y);
+            copyData(raster);
+            return raster;
+        }
+
+        public WritableRaster copyData(WritableRaster raster)
+        {
+            Rectangle bounds = raster.getBounds().intersection(new Rectangle(0, 0, width, height));
+            if(bounds.isEmpty()) {
+                return raster;
+            }
+            for(int strip = bounds.y / rows; strip <= (bounds.y + bounds.height - 1) / rows; strip++) {
+                Raster tile = computeStrip(strip);
+                Rectangle part = bounds.intersection(tile.getBounds());
+                // la parte conserva sus coordenadas, asi que se copia en su lugar
+                raster.setDataElements(0, 0, tile.createChild(part.x, part.y,
+                                       part.width, part.height, part.x, part.y, null));
+            }
+            return raster;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * SummedAreaTable es la tabla de sumas acumuladas (imagen integral) de unos
+ * pixeles empaquetados: para cada posicion guarda la suma de cada canal de
+ * todos los pixeles de arriba y de la izquierda. Con ella la suma o el
+ * promedio de cualquier rectangulo se calcula con cuatro lecturas, sin
+ * importar su tamaño; sirve para pixelar, desenfocar con una caja o medir
+ * el contraste local.
+ *
+ * La tabla puede cubrir solo algunas filas del arreglo, por ejemplo las de
+ * una banda o una franja; las posiciones se siguen dando en filas del
+ * arreglo. Las sumas se guardan en enteros que pueden desbordar: las de un
+ * rectangulo son exactas mientras tenga hasta MAX_AREA pixeles.
+ */
+public class SummedAreaTable
+{
+    // pixeles que puede tener como maximo un rectangulo que se suma
+    public static final int MAX_AREA = (int) (0xffffffffL / 255);
+
+    private int width;
+    private int firstRow;
+    private int rows;
+    // sumas de cada canal, de (width + 1) x (rows + 1) con una fila y una
+    // columna de ceros al principio
+    private int[] red;
+    private int[] green;
+    private int[] blue;
+
+    /**
+     * Crea la tabla de una imagen entera.
+     * @param pixels Los pixeles, fila por fila.
+     * @param width El ancho de la imagen.
+     * @param height La altura de la imagen.
+     */
+    public SummedAreaTable(int[] pixels, int width, int height)
+    {
+        this(pixels, width, 0, height);
+    }
+
+    /**
+     * Crea la tabla de algunas filas de unos pixeles.
+     * @param pixels Los pixeles, fila por fila.
+     * @param width El ancho de cada fila.
+     * @param firstRow La primera fila que cubre la tabla.
+     * @param rows Cuantas filas cubre.
+     */
+    public SummedAreaTable(int[] pixels, int width, int firstRow, int rows)
+    {
+        this.width = width;
+        this.firstRow = firstRow;
+        this.rows = rows;
+        int stride = width + 1;
+        red = new int[stride * (rows + 1)];
+        green = new int[stride * (rows + 1)];
+        blue = new int[stride * (rows + 1)];
+        for(int y = 0; y < rows; y++) {
+            int in = (firstRow + y) * width;
+            int above = y * stride;
+            int out = above + stride;
+            int sumRed = 0;
+            int sumGreen = 0;
+            int sumBlue = 0;
+            for(int x = 0; x < width; x++) {
+                int pix = pixels[in + x];
+                sumRed += (pix >> 16) & 0xff;
+                sumGreen += (pix >> 8) & 0xff;
+                sumBlue += pix & 0xff;
+                red[out + x + 1] = red[above + x + 1] + sumRed;
+                green[out + x + 1] = green[above + x + 1] + sumGreen;
+                blue[out + x + 1] = blue[above + x + 1] + sumBlue;
+            }
+        }
+    }
+
+    /**
+     * @return La primera fila que cubre la tabla.
+     */
+    public int getFirstRow()
+    {
+        return firstRow;
+    }
+
+    /**
+     * @return Cuantas filas cubre la tabla.
+     */
+    public int getRows()
+    {
+        return rows;
+    }
+
+    /**
+     * Suma cada canal de los pixeles de un rectangulo.
+     *
+     * @param x0 La primera columna.
+     * @param y0 La primera fila, en filas del arreglo.
+     * @param x1 La columna siguiente a la ultima.
+     * @param y1 La fila siguiente a la ultima.
+     * @param sums Donde se escriben las sumas de rojo, verde y azul.
+     * @return El numero de pixeles del rectangulo.
+     */
+    public int getSums(int x0, int y0, int x1, int y1, long[] sums)
+    {
+        int area = checkArea(x0, y0, x1, y1);
+        int stride = width + 1;
+        int a = (y0 - firstRow) * stride + x0;
+        int b = (y0 - firstRow) * stride + x1;
+        int c = (y1 - firstRow) * stride + x0;
+        int d = (y1 - firstRow) * stride + x1;
+        sums[0] = (red[d] - red[b] - red[c] + red[a]) & 0xffffffffL;
+        sums[1] = (green[d] - green[b] - green[c] + green[a]) & 0xffffffffL;
+        sums[2] = (blue[d] - blue[b] - blue[c] + blue[a]) & 0xffffffffL;
+        return area;
+    }
+
+    /**
+     * Calcula el color promedio de un rectangulo, redondeado.
+     *
+     * @param x0 La primera columna.
+     * @param y0 La primera fila, en filas del arreglo.
+     * @param x1 La columna siguiente a la ultima.
+     * @param y1 La fila siguiente a la ultima.
+     * @return El color promedio empaquetado, opaco.
+     */
+    public int getMean(int x0, int y0, int x1, int y1)
+    {
+        int area = checkArea(x0, y0, x1, y1);
+        int stride = width + 1;
+        int a = (y0 - firstRow) * stride + x0;
+        int b = (y0 - firstRow) * stride + x1;
+        int c = (y1 - firstRow) * stride + x0;
+        int d = (y1 - firstRow) * stride + x1;
+        long half = area / 2;
+        long r = (((red[d] - red[b] - red[c] + red[a]) & 0xffffffffL) + half) / area;
+        long g = (((green[d] - green[b] - green[c] + green[a]) & 0xffffffffL) + half) / area;
+        long bl = (((blue[d] - blue[b] - blue[c] + blue[a]) & 0xffffffffL) + half) / area;
+        return 0xff000000 | (int) (r << 16) | (int) (g << 8) | (int) bl;
+    }
+
+    /**
+     * Comprueba que un rectangulo este dentro de la tabla y devuelve su area.
+     */
+    private int checkArea(int x0, int y0, int x1, int y1)
+    {
+        if(x0 < 0 || x1 > width || y0 < firstRow || y1 > firstRow + rows
+           || x0 >= x1 || y0 >= y1) {
+            throw new IllegalArgumentException("rectangulo fuera de la tabla: " + x0 + "," + y0
+                                               + " - " + x1 + "," + y1);
+        }
+        long area = (long) (x1 - x0) * (y1 - y0);
+        if(area > MAX_AREA) {
+            throw new IllegalArgumentException("rectangulo demasiado grande: " + area + " pixeles");
+        }
+        return (int) area;
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * SwirlFilter gira la imagen alrededor del centro, más cuanto más cerca
+ * del centro, como un remolino. Fuera del radio la imagen no cambia.
+ */
+public class SwirlFilter extends WarpFilter
+{
+    // giro en el centro, en radianes
+    public static final double DEFAULT_ANGLE = Math.PI;
+
+    private double angle;
+
+    /**
+     * Crea un remolino con el giro por defecto.
+     * @param name El nombre del filtro.
+     */
+    public SwirlFilter(String name)
+    {
+        this(name, DEFAULT_ANGLE);
+    }
+
+    /**
+     * Crea un remolino.
+     * @param name El nombre del filtro.
+     * @param angle El giro en el centro, en radianes (negativo para girar
+     *              al reves).
+     */
+    public SwirlFilter(String name, double angle)
+    {
+        super(name, EdgePolicy.CLAMP);
+        this.angle = angle;
+    }
+
+    protected Object[] getParameters()
+    {
+        return new Object[] { angle };
+    }
+
+    /**
+     * El radio es la mitad del lado más corto; el giro baja suavemente
+     * hasta cero en el borde del circulo.
+     */
+    protected void map(int x, int y, int width, int height, double[] source)
+    {
+        double centerX = (width - 1) / 2.0;
+        double centerY = (height - 1) / 2.0;
+        double radius = Math.min(width, height) / 2.0;
+        double dx = x - centerX;
+        double dy = y - centerY;
+        double distance = Math.hypot(dx, dy);
+        if(distance >= radius) {
+            source[0] = x;
+            source[1] = y;
+            return;
+        }
+        double falloff = 1 - distance / radius;
+        double theta = angle * falloff * falloff;
+        double cos = Math.cos(theta);
+        double sin = Math.sin(theta);
+        source[0] = centerX + dx * cos - dy * sin;
+        source[1] = centerY + dx * sin + dy * cos;
+    }
+}
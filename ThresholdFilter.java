@@ -1,8 +1,10 @@
 import java.awt.Color;
 
 
-public class ThresholdFilter extends Filter
+public class ThresholdFilter extends PointFilter
 {
+    private static final int LOW = 85;
+    private static final int HIGH = 170;
 
     public ThresholdFilter(String name)
     {
@@ -10,24 +12,28 @@ public class ThresholdFilter extends Filter
     }
 
 
-    public void apply(OFImage image)
+    protected LookupTable createTable()
     {
-        int height = image.getHeight();
-        int width = image.getWidth();
-        for(int y = 0; y < height; y++) {
-            for(int x = 0; x < width; x++) {
-                Color pixel = image.getPixel(x, y);
-                int brightness = (pixel.getRed() + pixel.getBlue() + pixel.getGreen()) / 3;
-                if(brightness <= 85) {
-                    image.setPixel(x, y, Color.BLACK);
-                }
-                else if(brightness <= 170) {
-                    image.setPixel(x, y, Color.GRAY);
-                }
-                else {
-                    image.setPixel(x, y, Color.WHITE);
-                }
+        int[] colors = new int[256];
+        for(int brightness = 0; brightness < 256; brightness++) {
+            if(brightness <= LOW) {
+                colors[brightness] = Color.BLACK.getRGB();
+            }
+            else if(brightness <= HIGH) {
+                colors[brightness] = Color.GRAY.getRGB();
+            }
+            else {
+                colors[brightness] = Color.WHITE.getRGB();
             }
         }
+        return LookupTable.forLuminance(colors);
+    }
+
+
+    protected void applyTable(int[] pixels, int start, int end)
+    {
+        PixelKernels.getDefault().threshold(pixels, start, end, LOW, HIGH,
+                                            Color.BLACK.getRGB(), Color.GRAY.getRGB(),
+                                            Color.WHITE.getRGB());
     }
 }
@@ -0,0 +1,357 @@
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TileExecutor aplica filtros dividiendo la imagen en bandas de filas que se
+ * procesan en paralelo en un ForkJoinPool.
+ *
+ * Solo los filtros por filas (RowFilter) se dividen; el resto se aplica
+ * entero en el hilo que llama. Los filtros que leen pixeles vecinos leen
+ * siempre de una copia de la imagen original, asi que las filas de los
+ * bordes de cada banda salen igual que al procesar la imagen de una vez y
+ * el resultado es identico al de la ejecucion en serie.
+ *
+ * Con run se puede repartir igual cualquier otro trabajo por filas (ver
+ * Rows), como el cambio de tamaño de Resampler.
+ *
+ * Opcionalmente se puede seguir el avance de cada filtro, banda por banda,
+ * y cancelarlo (ver Progress).
+ *
+ * Cada filtro que se aplica se mide con PerformanceMonitor, contando la
+ * memoria que asignan el hilo que llama y los hilos del ejecutor.
+ */
+public class TileExecutor
+{
+    /**
+     * Recibe el avance de un filtro y le indica si debe detenerse.
+     */
+    public interface Progress
+    {
+        /**
+         * Se llama cada vez que se termina una parte del trabajo, desde
+         * cualquiera de los hilos del ejecutor.
+         *
+         * @param done Las partes terminadas.
+         * @param total El numero total de partes.
+         */
+        void update(int done, int total);
+
+        /**
+         * Indica si el trabajo fue cancelado. Se consulta antes de cada
+         * parte; si devuelve 'true' el filtro se detiene con una
+         * CancellationException y la imagen queda a medio filtrar.
+         *
+         * @return 'true' si hay que detenerse.
+         */
+        boolean isCancelled();
+    }
+
+    /**
+     * Un trabajo que se puede hacer por grupos de filas independientes,
+     * como el de un RowFilter; ver run.
+     */
+    public interface Rows
+    {
+        /**
+         * Calcula las filas de startY (incluida) a endY (excluida).
+         *
+         * @param startY La primera fila.
+         * @param endY La fila siguiente a la ultima.
+         */
+        void compute(int startY, int endY);
+    }
+
+    // alto por defecto de cada banda, en filas
+    public static final int DEFAULT_BAND_HEIGHT = 64;
+
+    private ForkJoinPool pool;
+    // los hilos que creó el pool, para medir lo que hacen
+    private Set<Thread> workers;
+    private int bandHeight;
+
+    /**
+     * Crea un ejecutor con un hilo por procesador y bandas del alto por
+     * defecto.
+     */
+    public TileExecutor()
+    {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_BAND_HEIGHT);
+    }
+
+    /**
+     * Crea un ejecutor.
+     * @param parallelism El numero de hilos que procesan bandas.
+     * @param bandHeight El alto de cada banda, en filas.
+     */
+    public TileExecutor(int parallelism, int bandHeight)
+    {
+        if(parallelism < 1 || bandHeight < 1) {
+            throw new IllegalArgumentException("parallelism y bandHeight deben ser positivos");
+        }
+        final Set<Thread> created = ConcurrentHashMap.newKeySet();
+        this.pool = new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                               public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+                               {
+                                   ForkJoinWorkerThread thread =
+                                       ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                                   // los que terminaron ya no sirven
+                                   for(Iterator<Thread> it = created.iterator(); it.hasNext();) {
+                                       if(!it.next().isAlive()) {
+                                           it.remove();
+                                       }
+                                   }
+                                   created.add(thread);
+                                   return thread;
+                               }
+                           }, null, false);
+        this.workers = created;
+        this.bandHeight = bandHeight;
+    }
+
+    /**
+     * Devuelve el numero de hilos de este ejecutor.
+     *
+     * @return El numero de hilos.
+     */
+    public int getParallelism()
+    {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Devuelve el alto de las bandas en que se divide la imagen.
+     *
+     * @return El alto de cada banda, en filas.
+     */
+    public int getBandHeight()
+    {
+        return bandHeight;
+    }
+
+    /**
+     * Aplica un filtro a una imagen, en paralelo si el filtro lo permite.
+     *
+     * @param filter El filtro a aplicar.
+     * @param image La imagen que cambiará el filtro.
+     */
+    public void apply(Filter filter, OFImage image)
+    {
+        apply(filter, image, null);
+    }
+
+    /**
+     * Aplica un filtro a una imagen informando del avance.
+     *
+     * @param filter El filtro a aplicar.
+     * @param image La imagen que cambiará el filtro.
+     * @param progress Recibe el avance, o 'null'.
+     * @throws CancellationException Si progress indica que hay que detenerse.
+     */
+    public void apply(Filter filter, OFImage image, Progress progress)
+    {
+        PerformanceMonitor.Measurement measurement =
+            PerformanceMonitor.getDefault().start(filter.getName(), workers);
+        Tracker tracker = new Tracker(progress, countParts(filter, image.getHeight()));
+        applyStage(filter, image, tracker);
+        measurement.stop((long) image.getWidth() * image.getHeight());
+    }
+
+    /**
+     * Hace un trabajo por filas repartiendo las bandas entre los hilos.
+     *
+     * @param height El numero de filas.
+     * @param rows El trabajo.
+     * @param progress Recibe el avance, o 'null'.
+     * @throws CancellationException Si progress indica que hay que detenerse.
+     */
+    public void run(int height, Rows rows, Progress progress)
+    {
+        int bands = (height + bandHeight - 1) / bandHeight;
+        Tracker tracker = new Tracker(progress, bands);
+        tracker.check();
+        pool.invoke(new BandTask(rows, height, 0, bands, tracker));
+    }
+
+    /**
+     * Libera los hilos de este ejecutor.
+     */
+    public void shutdown()
+    {
+        pool.shutdown();
+    }
+
+    /**
+     * Aplica un filtro, o cada paso de una cadena, con el ejecutor.
+     */
+    private void applyStage(Filter filter, OFImage image, Tracker tracker)
+    {
+        if(filter instanceof FilterChain) {
+            for(Filter stage : ((FilterChain) filter).getStages()) {
+                applyStage(stage, image, tracker);
+            }
+        }
+        else if(filter instanceof RowFilter) {
+            applyRows((RowFilter) filter, image, tracker);
+        }
+        else if(filter instanceof HistogramFilter) {
+            applyHistogram((HistogramFilter) filter, image, tracker);
+        }
+        else {
+            tracker.check();
+            filter.apply(image);
+            tracker.partDone();
+        }
+    }
+
+    /**
+     * Cuenta las partes en que se divide el trabajo de un filtro: una por
+     * banda en los filtros por filas, una más para las estadisticas en los
+     * HistogramFilter y una por cada otro filtro.
+     */
+    private int countParts(Filter filter, int height)
+    {
+        if(filter instanceof FilterChain) {
+            int parts = 0;
+            for(Filter stage : ((FilterChain) filter).getStages()) {
+                parts += countParts(stage, height);
+            }
+            return parts;
+        }
+        if(filter instanceof RowFilter) {
+            return (height + bandHeight - 1) / bandHeight;
+        }
+        if(filter instanceof HistogramFilter) {
+            return (height + bandHeight - 1) / bandHeight + 1;
+        }
+        return 1;
+    }
+
+    /**
+     * Aplica un filtro por filas repartiendo las bandas entre los hilos.
+     */
+    private void applyRows(final RowFilter filter, OFImage image, Tracker tracker)
+    {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int[] pixels = image.getPixels();
+        final int[] source = filter.readsNeighbors() ? pixels.clone() : pixels;
+        int bands = (height + bandHeight - 1) / bandHeight;
+        Rows rows = new Rows() {
+            public void compute(int startY, int endY)
+            {
+                filter.applyRows(source, pixels, width, height, startY, endY);
+            }
+        };
+        tracker.check();
+        pool.invoke(new BandTask(rows, height, 0, bands, tracker));
+        image.setPixels(pixels);
+    }
+
+    /**
+     * Aplica un HistogramFilter: calcula las estadisticas de la imagen y
+     * despues aplica la tabla, las dos cosas repartiendo las bandas.
+     */
+    private void applyHistogram(HistogramFilter filter, OFImage image, Tracker tracker)
+    {
+        tracker.check();
+        final LookupTable table = filter.createTable(ImageStatistics.compute(image, this, null));
+        tracker.partDone();
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int[] pixels = image.getPixels();
+        int bands = (height + bandHeight - 1) / bandHeight;
+        Rows rows = new Rows() {
+            public void compute(int startY, int endY)
+            {
+                table.apply(pixels, startY * width, endY * width);
+            }
+        };
+        tracker.check();
+        pool.invoke(new BandTask(rows, height, 0, bands, tracker));
+        image.setPixels(pixels);
+    }
+
+    /**
+     * Una tarea que procesa un grupo de bandas, dividiendolo en dos mientras
+     * tenga mas de una.
+     */
+    private class BandTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private Rows rows;
+        private int height;
+        private int firstBand;
+        private int endBand;
+        private Tracker tracker;
+
+        public BandTask(Rows rows, int height, int firstBand, int endBand, Tracker tracker)
+        {
+            this.rows = rows;
+            this.height = height;
+            this.firstBand = firstBand;
+            this.endBand = endBand;
+            this.tracker = tracker;
+        }
+
+        protected void compute()
+        {
+            if(endBand - firstBand > 1) {
+                int middle = (firstBand + endBand) >>> 1;
+                invokeAll(new BandTask(rows, height, firstBand, middle, tracker),
+                          new BandTask(rows, height, middle, endBand, tracker));
+            }
+            else if(endBand > firstBand) {
+                tracker.check();
+                int startY = firstBand * bandHeight;
+                int endY = Math.min(startY + bandHeight, height);
+                rows.compute(startY, endY);
+                tracker.partDone();
+            }
+        }
+    }
+
+    /**
+     * Cuenta las partes terminadas de un trabajo y las informa.
+     */
+    private static class Tracker
+    {
+        private Progress progress;
+        private int total;
+        private AtomicInteger done;
+
+        public Tracker(Progress progress, int total)
+        {
+            this.progress = progress;
+            this.total = total;
+            this.done = new AtomicInteger();
+        }
+
+        /**
+         * Detiene el trabajo si fue cancelado.
+         */
+        public void check()
+        {
+            if(progress != null && progress.isCancelled()) {
+                throw new CancellationException();
+            }
+        }
+
+        /**
+         * Informa que se termino una parte mas.
+         */
+        public void partDone()
+        {
+            int count = done.incrementAndGet();
+            if(progress != null) {
+                progress.update(count, total);
+            }
+        }
+    }
+}
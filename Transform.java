@@ -0,0 +1,273 @@
+/**
+ * Transform son los giros y volteos de la imagen: voltear horizontal o
+ * verticalmente, girar 90, 180 o 270 grados y trasponer (cambiar filas por
+ * columnas).
+ *
+ * Todos se hacen sobre los pixeles empaquetados: el pixel (x, y) del
+ * resultado sale de la posicion origin + x * strideX + y * strideY del
+ * arreglo original. Cuando el resultado recorre el original por columnas
+ * (los giros de 90 y 270 grados y la traspuesta) se copia por bloques de
+ * BLOCK x BLOCK pixeles, para que las filas del original que se leen sigan
+ * en la cache mientras se escribe el bloque.
+ */
+public enum Transform
+{
+    FLIP_HORIZONTAL("Voltear horizontalmente"),
+    FLIP_VERTICAL("Voltear verticalmente"),
+    ROTATE_90("Girar 90° a la derecha"),
+    ROTATE_180("Girar 180°"),
+    ROTATE_270("Girar 90° a la izquierda"),
+    TRANSPOSE("Trasponer");
+
+    // lado de los bloques que se copian juntos, en pixeles
+    public static final int BLOCK = 64;
+
+    private String label;
+
+    private Transform(String label)
+    {
+        this.label = label;
+    }
+
+    /**
+     * @return El nombre que se muestra en los menús.
+     */
+    public String toString()
+    {
+        return label;
+    }
+
+    /**
+     * Indica si el resultado tiene el ancho y el alto intercambiados.
+     *
+     * @return 'true' para los giros de 90 y 270 grados y la traspuesta.
+     */
+    public boolean swapsSides()
+    {
+        return this == ROTATE_90 || this == ROTATE_270 || this == TRANSPOSE;
+    }
+
+    /**
+     * Transforma una imagen en una imagen nueva.
+     *
+     * @param image La imagen; no se modifica.
+     * @return La imagen transformada.
+     */
+    public OFImage apply(OFImage image)
+    {
+        return apply(image, null, null);
+    }
+
+    /**
+     * Transforma una imagen en una imagen nueva repartiendo las filas entre
+     * los hilos de un ejecutor.
+     *
+     * @param image La imagen; no se modifica.
+     * @param executor El ejecutor, o 'null' para hacerlo en el hilo que llama.
+     * @param progress Recibe el avance, o 'null'.
+     * @return La imagen transformada.
+     * @throws CancellationException Si progress indica que hay que detenerse.
+     */
+    public OFImage apply(OFImage image, TileExecutor executor, TileExecutor.Progress progress)
+    {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        final int[] source = image.getPixels();
+        final OFImage result = swapsSides() ? new OFImage(height, width)
+                                            : new OFImage(width, height);
+        final int[] target = result.getPixels();
+        final int targetWidth = result.getWidth();
+
+        // donde está en el original el pixel (0, 0) del resultado, y cuanto
+        // se avanza en el original al avanzar una columna o una fila
+        final int origin;
+        final int strideX;
+        final int strideY;
+        switch(this) {
+            case FLIP_HORIZONTAL:
+                origin = width - 1;
+                strideX = -1;
+                strideY = width;
+                break;
+            case FLIP_VERTICAL:
+                origin = (height - 1) * width;
+                strideX = 1;
+                strideY = -width;
+                break;
+            case ROTATE_180:
+                origin = width * height - 1;
+                strideX = -1;
+                strideY = -width;
+                break;
+            case ROTATE_90:
+                origin = (height - 1) * width;
+                strideX = -width;
+                strideY = 1;
+                break;
+            case ROTATE_270:
+                origin = width - 1;
+                strideX = width;
+                strideY = -1;
+                break;
+            default:
+                origin = 0;
+                strideX = width;
+                strideY = 1;
+        }
+
+        TileExecutor.Rows rows = new TileExecutor.Rows() {
+            public void compute(int startY, int endY)
+            {
+                if(strideX == 1) {
+                    for(int y = startY; y < endY; y++) {
+                        System.arraycopy(source, origin + y * strideY,
+                                         target, y * targetWidth, targetWidth);
+                    }
+                }
+                else if(strideX == -1) {
+                    for(int y = startY; y < endY; y++) {
+                        int from = origin + y * strideY;
+                        int to = y * targetWidth;
+                        for(int x = 0; x < targetWidth; x++) {
+                            target[to + x] = source[from - x];
+                        }
+                    }
+                }
+                else {
+                    copyBlocks(source, target, targetWidth, origin, strideX, strideY,
+                               startY, endY);
+                }
+            }
+        };
+        if(executor != null) {
+            executor.run(result.getHeight(), rows, progress);
+        }
+        else {
+            rows.compute(0, result.getHeight());
+        }
+        result.setPixels(target);
+        return result;
+    }
+
+    /**
+     * Transforma una imagen sobre sus propios pixeles si el resultado tiene
+     * el mismo tamaño: siempre para los volteos y el giro de 180 grados, y
+     * para los demas si la imagen es cuadrada. Si no, devuelve una imagen
+     * nueva.
+     *
+     * @param image La imagen.
+     * @return La imagen transformada: la misma si se pudo hacer sobre ella.
+     */
+    public OFImage applyInPlace(OFImage image)
+    {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if(swapsSides() && width != height) {
+            return apply(image);
+        }
+        int[] pixels = image.getPixels();
+        switch(this) {
+            case FLIP_HORIZONTAL:
+                flipRows(pixels, width, height);
+                break;
+            case FLIP_VERTICAL:
+                flipColumns(pixels, width, height);
+                break;
+            case ROTATE_180:
+                reverse(pixels, 0, pixels.length - 1);
+                break;
+            case ROTATE_90:
+                transpose(pixels, width);
+                flipRows(pixels, width, height);
+                break;
+            case ROTATE_270:
+                transpose(pixels, width);
+                flipColumns(pixels, width, height);
+                break;
+            default:
+                transpose(pixels, width);
+        }
+        image.setPixels(pixels);
+        return image;
+    }
+
+    /**
+     * Copia las filas de startY a endY del resultado por bloques cuadrados.
+     */
+    private static void copyBlocks(int[] source, int[] target, int targetWidth,
+                                   int origin, int strideX, int strideY,
+                                   int startY, int endY)
+    {
+        for(int blockY = startY; blockY < endY; blockY += BLOCK) {
+            int blockEndY = Math.min(blockY + BLOCK, endY);
+            for(int blockX = 0; blockX < targetWidth; blockX += BLOCK) {
+                int blockEndX = Math.min(blockX + BLOCK, targetWidth);
+                for(int y = blockY; y < blockEndY; y++) {
+                    int from = origin + blockX * strideX + y * strideY;
+                    int to = y * targetWidth;
+                    for(int x = blockX; x < blockEndX; x++) {
+                        target[to + x] = source[from];
+                        from += strideX;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Invierte cada fila.
+     */
+    private static void flipRows(int[] pixels, int width, int height)
+    {
+        for(int y = 0; y < height; y++) {
+            reverse(pixels, y * width, y * width + width - 1);
+        }
+    }
+
+    /**
+     * Intercambia las filas de arriba con las de abajo.
+     */
+    private static void flipColumns(int[] pixels, int width, int height)
+    {
+        int[] row = new int[width];
+        for(int top = 0, bottom = height - 1; top < bottom; top++, bottom--) {
+            System.arraycopy(pixels, top * width, row, 0, width);
+            System.arraycopy(pixels, bottom * width, pixels, top * width, width);
+            System.arraycopy(row, 0, pixels, bottom * width, width);
+        }
+    }
+
+    /**
+     * Invierte el orden de los pixeles entre dos posiciones (incluidas).
+     */
+    private static void reverse(int[] pixels, int left, int right)
+    {
+        while(left < right) {
+            int pix = pixels[left];
+            pixels[left++] = pixels[right];
+            pixels[right--] = pix;
+        }
+    }
+
+    /**
+     * Traspone una imagen cuadrada intercambiando cada bloque de arriba de
+     * la diagonal con el de abajo.
+     */
+    private static void transpose(int[] pixels, int size)
+    {
+        for(int blockY = 0; blockY < size; blockY += BLOCK) {
+            int blockEndY = Math.min(blockY + BLOCK, size);
+            for(int blockX = blockY; blockX < size; blockX += BLOCK) {
+                int blockEndX = Math.min(blockX + BLOCK, size);
+                for(int y = blockY; y < blockEndY; y++) {
+                    // en el bloque de la diagonal solo la mitad de arriba
+                    for(int x = Math.max(blockX, y + 1); x < blockEndX; x++) {
+                        int pix = pixels[y * size + x];
+                        pixels[y * size + x] = pixels[x * size + y];
+                        pixels[x * size + y] = pix;
+                    }
+                }
+            }
+        }
+    }
+}
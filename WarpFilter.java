@@ -0,0 +1,412 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * WarpFilter es la superclase de las deformaciones geometricas: cada pixel
+ * del resultado se toma de otro punto de la imagen original (ver map),
+ * interpolando entre los cuatro pixeles que lo rodean.
+ *
+ * Las posiciones de origen de cada fila se calculan una sola vez y se
+ * guardan en un mapa por tamaño de imagen y parametros del filtro, asi que
+ * volver a aplicar el filtro a imagenes del mismo tamaño solo cuesta la
+ * interpolacion. Cada posicion se guarda como lo que cambia respecto de
+ * la del pixel anterior de la fila, en punto fijo de 16 bits con 8 bits de
+ * fraccion (la precision de la interpolacion): 4 bytes por pixel, con el
+ * mismo resultado que calculandola. Solo si de un pixel al siguiente la
+ * posicion salta 128 pixeles o más se guarda esa fila con menos
+ * fraccion. Los mapas se guardan hasta MAP_MEMORY
+ * bytes entre todos los filtros; de un mapa que no cabe entero se guardan
+ * las filas que caben y el resto se calcula en cada aplicacion. Las
+ * deformaciones separables (la x de origen depende solo de x y la y solo
+ * de y) guardan solo una fila y una columna.
+ *
+ * Los puntos que caen fuera de la imagen se resuelven segun un EdgePolicy.
+ */
+public abstract class WarpFilter extends RowFilter
+{
+    // memoria para los mapas guardados, en bytes; se cambia con
+    // -Deditor.warpCache=<megabytes>
+    public static final long MAP_MEMORY = Long.getLong("editor.warpCache", 128) * 1024 * 1024;
+
+    // mapas guardados por filtro, parametros y tamaño, el más viejo primero
+    private static final LinkedHashMap<List<Object>, WarpMap> maps =
+        new LinkedHashMap<List<Object>, WarpMap>(16, 0.75f, true);
+    private static long mapMemory;
+
+    private EdgePolicy edgePolicy;
+
+    /**
+     * Crea una deformacion.
+     * @param name El nombre del filtro.
+     * @param edgePolicy Que se toma para los puntos fuera de la imagen.
+     */
+    public WarpFilter(String name, EdgePolicy edgePolicy)
+    {
+        super(name);
+        this.edgePolicy = edgePolicy;
+    }
+
+    /**
+     * @return Que se toma para los puntos fuera de la imagen.
+     */
+    public EdgePolicy getEdgePolicy()
+    {
+        return edgePolicy;
+    }
+
+    /**
+     * Calcula de qué punto de la imagen original se toma un pixel. Las
+     * coordenadas enteras son los centros de los pixeles.
+     *
+     * @param x La columna del pixel.
+     * @param y La fila del pixel.
+     * @param width El ancho de la imagen.
+     * @param height La altura de la imagen.
+     * @param source Donde se escriben la x y la y de origen.
+     */
+    protected abstract void map(int x, int y, int width, int height, double[] source);
+
+    /**
+     * Devuelve los parametros que determinan el mapa, para reconocer los
+     * mapas ya calculados.
+     *
+     * @return Los parametros.
+     */
+    protected abstract Object[] getParameters();
+
+    /**
+     * Indica si la x de origen depende solo de x y la y solo de y.
+     *
+     * @return 'true' si es asi.
+     */
+    protected boolean isSeparable()
+    {
+        return false;
+    }
+
+    public void applyRows(int[] original, int[] pixels, int width, int height,
+                          int startY, int endY)
+    {
+        applyStrip(original, pixels, width, height, 0, height, startY, endY);
+    }
+
+    /**
+     * El mapa depende de la posicion en la imagen entera, no en la franja.
+     */
+    public void applyStrip(int[] original, int[] pixels, int width, int height,
+                           int sourceY, int sourceRows, int startY, int endY)
+    {
+        WarpMap warpMap = getMap(width, height);
+        float[] row = null;
+        for(int y = startY; y < endY; y++) {
+            int offset = (y - sourceY) * width;
+            if(warpMap.columnX != null) {
+                float sy = warpMap.rowY[y];
+                for(int x = 0; x < width; x++) {
+                    pixels[offset + x] = sample(original, width, height, sourceY, sourceRows,
+                                                warpMap.columnX[x], sy);
+                }
+            }
+            else {
+                if(row == null) {
+                    row = new float[2 * width];
+                }
+                warpMap.getRow(y, row);
+                for(int x = 0; x < width; x++) {
+                    pixels[offset + x] = sample(original, width, height, sourceY, sourceRows,
+                                                row[2 * x], row[2 * x + 1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Interpola el color en un punto de la imagen original.
+     */
+    private int sample(int[] original, int width, int height, int sourceY, int sourceRows,
+                       float sx, float sy)
+    {
+        int x0 = (int) Math.floor(sx);
+        int y0 = (int) Math.floor(sy);
+        // pesos de punto fijo, de 0 a 256
+        int wx = (int) ((sx - x0) * 256);
+        int wy = (int) ((sy - y0) * 256);
+        int p00, p01, p10, p11;
+        if(x0 >= 0 && x0 + 1 < width && y0 >= sourceY && y0 + 1 < sourceY + sourceRows) {
+            int i = (y0 - sourceY) * width + x0;
+            p00 = original[i];
+            p01 = original[i + 1];
+            p10 = original[i + width];
+            p11 = original[i + width + 1];
+        }
+        else {
+            int ax = edgePolicy.resolve(x0, width);
+            int bx = edgePolicy.resolve(x0 + 1, width);
+            int ay = rowIndex(y0, height, sourceY, sourceRows);
+            int by = rowIndex(y0 + 1, height, sourceY, sourceRows);
+            p00 = pixel(original, width, ax, ay);
+            p01 = pixel(original, width, bx, ay);
+            p10 = pixel(original, width, ax, by);
+            p11 = pixel(original, width, bx, by);
+        }
+        if((p00 == p01 && p00 == p10 && p00 == p11) || (wx == 0 && wy == 0)) {
+            return p00;
+        }
+        int result = 0;
+        for(int shift = 0; shift < 32; shift += 8) {
+            int top = (((p00 >>> shift) & 0xff) << 8) + (((p01 >>> shift) & 0xff)
+                      - ((p00 >>> shift) & 0xff)) * wx;
+            int bottom = (((p10 >>> shift) & 0xff) << 8) + (((p11 >>> shift) & 0xff)
+                         - ((p10 >>> shift) & 0xff)) * wx;
+            int value = ((top << 8) + (bottom - top) * wy + (1 << 15)) >> 16;
+            result |= value << shift;
+        }
+        return result;
+    }
+
+    /**
+     * Resuelve una fila segun el EdgePolicy y la pasa a la franja.
+     */
+    private int rowIndex(int y, int height, int sourceY, int sourceRows)
+    {
+        int row = edgePolicy.resolve(y, height);
+        if(row < 0) {
+            return -1;
+        }
+        // con el margen de getHaloRows no pasa, pero se limita por las dudas
+        return Math.min(Math.max(row - sourceY, 0), sourceRows - 1);
+    }
+
+    private static int pixel(int[] original, int width, int x, int y)
+    {
+        return x < 0 || y < 0 ? 0 : original[y * width + x];
+    }
+
+    /**
+     * Devuelve el mapa de este filtro para un tamaño de imagen, guardado si
+     * ya se habia calculado.
+     */
+    private WarpMap getMap(int width, int height)
+    {
+        List<Object> key = new ArrayList<Object>();
+        key.add(getClass());
+        key.addAll(Arrays.asList(getParameters()));
+        key.add(width);
+        key.add(height);
+        synchronized(maps) {
+            WarpMap warpMap = maps.get(key);
+            if(warpMap == null) {
+                warpMap = new WarpMap(width, height);
+                maps.put(key, warpMap);
+                if(!reserve(warpMap, warpMap.getBaseBytes())) {
+                    maps.remove(key);
+                    warpMap.evicted = true;
+                }
+            }
+            return warpMap;
+        }
+    }
+
+    /**
+     * Cuenta la memoria que ocupará una parte de un mapa, olvidando los
+     * mapas usados hace más tiempo si hace falta.
+     *
+     * @return 'false' si no cabe ni olvidando todos los demas mapas; si el
+     *         mapa ya se olvidó, tampoco cabe.
+     */
+    private static boolean reserve(WarpMap warpMap, long bytes)
+    {
+        synchronized(maps) {
+            if(warpMap.evicted) {
+                return false;
+            }
+            Iterator<WarpMap> eldest = maps.values().iterator();
+            while(mapMemory + bytes > MAP_MEMORY && eldest.hasNext()) {
+                WarpMap old = eldest.next();
+                if(old != warpMap) {
+                    mapMemory -= old.bytes;
+                    old.evicted = true;
+                    eldest.remove();
+                }
+            }
+            if(mapMemory + bytes > MAP_MEMORY) {
+                return false;
+            }
+            mapMemory += bytes;
+            warpMap.bytes += bytes;
+            return true;
+        }
+    }
+
+    /**
+     * Descuenta la memoria de una parte de un mapa que al final no se
+     * guardó.
+     */
+    private static void release(WarpMap warpMap, long bytes)
+    {
+        synchronized(maps) {
+            if(!warpMap.evicted) {
+                mapMemory -= bytes;
+                warpMap.bytes -= bytes;
+            }
+        }
+    }
+
+    /**
+     * Las posiciones de origen de cada pixel para un tamaño de imagen. Cada
+     * fila se calcula la primera vez que se pide, desde cualquier hilo, y
+     * se guarda si cabe (ver reserve).
+     */
+    private class WarpMap
+    {
+        private int width;
+        private int height;
+        // la memoria que ocupa y si ya se olvidó; usan el lock de maps
+        private long bytes;
+        private boolean evicted;
+        // cada fila guarda cuanto cambian la x y la y de origen respecto del
+        // pixel anterior, intercaladas, en punto fijo con los bits de
+        // fraccion de fractionBits; firstX y firstY son las del pixel 0
+        private AtomicReferenceArray<short[]> rows;
+        private byte[] fractionBits;
+        private int[] firstX;
+        private int[] firstY;
+        // para las deformaciones separables: la x de cada columna y la y de cada fila
+        private float[] columnX;
+        private float[] rowY;
+
+        public WarpMap(int width, int height)
+        {
+            this.width = width;
+            this.height = height;
+            if(isSeparable()) {
+                double[] source = new double[2];
+                columnX = new float[width];
+                rowY = new float[height];
+                for(int x = 0; x < width; x++) {
+                    map(x, 0, width, height, source);
+                    columnX[x] = (float) source[0];
+                }
+                for(int y = 0; y < height; y++) {
+                    map(0, y, width, height, source);
+                    rowY[y] = (float) source[1];
+                }
+            }
+            else {
+                rows = new AtomicReferenceArray<short[]>(height);
+                fractionBits = new byte[height];
+                firstX = new int[height];
+                firstY = new int[height];
+            }
+        }
+
+        /**
+         * @return Los bytes que ocupa el mapa sin contar sus filas.
+         */
+        public long getBaseBytes()
+        {
+            return columnX != null ? 4L * (width + height) : 17L * height;
+        }
+
+        /**
+         * Escribe las posiciones de origen de una fila, con x e y
+         * intercaladas (solo para las deformaciones no separables).
+         *
+         * @param y La fila.
+         * @param row Donde se escriben, de 2 * width posiciones.
+         */
+        public void getRow(int y, float[] row)
+        {
+            short[] offsets = rows.get(y);
+            if(offsets == null) {
+                offsets = new short[2 * width];
+                // se escriben antes de publicar la fila; si dos hilos la
+                // calculan a la vez escriben lo mismo
+                int bits = encodeRow(y, offsets);
+                if(reserve(this, 2L * offsets.length)
+                   && !rows.compareAndSet(y, null, offsets)) {
+                    // otro hilo la guardó mientras tanto
+                    release(this, 2L * offsets.length);
+                }
+                decodeRow(y, offsets, bits, row);
+            }
+            else {
+                decodeRow(y, offsets, fractionBits[y], row);
+            }
+        }
+
+        /**
+         * Calcula las posiciones de origen de una fila y guarda lo que
+         * cambian de un pixel al siguiente, en punto fijo con la mayor
+         * fraccion (hasta 8 bits) con que caben en 16 bits.
+         *
+         * @return Los bits de fraccion.
+         */
+        private int encodeRow(int y, short[] offsets)
+        {
+            // posicion de origen menos la del pixel, con 8 bits de fraccion
+            long[] fixed = new long[2 * width];
+            double[] source = new double[2];
+            for(int x = 0; x < width; x++) {
+                map(x, y, width, height, source);
+                // la misma posicion que interpola sample con la x e y en float
+                fixed[2 * x] = (long) Math.floor((float) source[0] * 256f) - ((long) x << 8);
+                fixed[2 * x + 1] = (long) Math.floor((float) source[1] * 256f) - ((long) y << 8);
+            }
+            int bits = 8;
+            while(bits > 0 && largestStep(fixed, 8 - bits) > Short.MAX_VALUE) {
+                bits--;
+            }
+            int shift = 8 - bits;
+            firstX[y] = clamp(fixed[0] >> shift, Integer.MAX_VALUE);
+            firstY[y] = clamp(fixed[1] >> shift, Integer.MAX_VALUE);
+            for(int i = 2; i < fixed.length; i++) {
+                // los saltos de más de 32767 pixeles se acortan
+                offsets[i] = (short) clamp((fixed[i] >> shift) - (fixed[i - 2] >> shift),
+                                           Short.MAX_VALUE);
+            }
+            fractionBits[y] = (byte) bits;
+            return bits;
+        }
+
+        /**
+         * Devuelve el mayor cambio de posicion de un pixel al siguiente con
+         * shift bits de fraccion menos.
+         */
+        private long largestStep(long[] fixed, int shift)
+        {
+            long largest = 0;
+            for(int i = 2; i < fixed.length; i++) {
+                largest = Math.max(largest, Math.abs((fixed[i] >> shift) - (fixed[i - 2] >> shift)));
+            }
+            return largest;
+        }
+
+        private int clamp(long value, int limit)
+        {
+            return (int) Math.max(-limit - 1, Math.min(limit, value));
+        }
+
+        /**
+         * Convierte los cambios de una fila en posiciones de origen.
+         */
+        private void decodeRow(int y, short[] offsets, int bits, float[] row)
+        {
+            float scale = 1f / (1 << bits);
+            int offsetX = firstX[y];
+            int offsetY = firstY[y];
+            row[0] = offsetX * scale;
+            row[1] = y + offsetY * scale;
+            for(int x = 1; x < width; x++) {
+                offsetX += offsets[2 * x];
+                offsetY += offsets[2 * x + 1];
+                row[2 * x] = x + offsetX * scale;
+                row[2 * x + 1] = y + offsetY * scale;
+            }
+        }
+    }
+}
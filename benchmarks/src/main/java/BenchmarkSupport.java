@@ -0,0 +1,100 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import photoeditor.benchmarks.EditorAccess;
+
+/**
+ * BenchmarkSupport implementa EditorAccess con las clases del editor. Esta
+ * en el paquete por defecto para poder usarlas; los benchmarks la crean
+ * con EditorAccess.create.
+ */
+public class BenchmarkSupport implements EditorAccess
+{
+    private List<Filter> filters;
+    private TileExecutor executor;
+
+    public BenchmarkSupport()
+    {
+        filters = FilterCatalog.createFilters();
+        executor = new TileExecutor();
+    }
+
+    public List<String> getFilterNames()
+    {
+        List<String> names = new ArrayList<String>();
+        for(Filter filter : filters) {
+            names.add(filter.getName());
+        }
+        return names;
+    }
+
+    public Operation getFilter(String name, final boolean parallel)
+    {
+        final Filter filter = findFilter(name);
+        return new Operation() {
+            public void apply(BufferedImage image)
+            {
+                if(parallel) {
+                    executor.apply(filter, (OFImage) image);
+                }
+                else {
+                    filter.apply((OFImage) image);
+                }
+            }
+        };
+    }
+
+    /**
+     * Busca un filtro del catalogo, o arma la cadena.
+     */
+    private Filter findFilter(String name)
+    {
+        if(CHAIN.equals(name)) {
+            return new FilterChain(CHAIN, Arrays.asList(findFilter("Más claro"),
+                                                        findFilter("Suavizar"),
+                                                        findFilter("Escala de grises")));
+        }
+        for(Filter filter : filters) {
+            if(filter.getName().equals(name)) {
+                return filter;
+            }
+        }
+        throw new IllegalArgumentException("filtro desconocido: " + name);
+    }
+
+    public BufferedImage copy(BufferedImage image)
+    {
+        return new OFImage(image);
+    }
+
+    public BufferedImage load(File file) throws IOException
+    {
+        OFImage image = ImageFileManager.loadImage(file);
+        if(image == null) {
+            throw new IOException("no se pudo leer " + file);
+        }
+        return image;
+    }
+
+    public long save(BufferedImage image, File file) throws IOException
+    {
+        return ImageFileManager.saveImage((OFImage) image, file);
+    }
+
+    public BufferedImage resize(BufferedImage image, String mode, int width, int height,
+                                boolean parallel)
+    {
+        Resampler resampler = new Resampler(Resampler.Mode.valueOf(mode));
+        return resampler.resize((OFImage) image, width, height,
+                                parallel ? executor : null, null);
+    }
+
+    public void shutdown()
+    {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,36 @@
+package photoeditor.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.ProfilerConfig;
+
+/**
+ * Ejecuta los benchmarks con las mismas opciones que la linea de comandos
+ * de JMH (por ejemplo -p megapixels=1 o -h para la ayuda), agregando
+ * siempre el profiler "gc" para informar la memoria que se asigna.
+ */
+public class Benchmarks
+{
+    public static void main(String[] args) throws Exception
+    {
+        CommandLineOptions options = new CommandLineOptions(args);
+        if(options.shouldHelp() || options.shouldList() || options.shouldListProfilers()
+           || options.shouldListResultFormats() || options.shouldListWithParams()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(options);
+        boolean hasGC = false;
+        for(ProfilerConfig profiler : options.getProfilers()) {
+            hasGC |= profiler.getKlass().equals(GCProfiler.class.getName())
+                     || profiler.getKlass().equals("gc");
+        }
+        if(!hasGC) {
+            builder.addProfiler(GCProfiler.class);
+        }
+        new Runner(builder.build()).run();
+    }
+}
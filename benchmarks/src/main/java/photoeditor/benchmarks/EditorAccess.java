@@ -0,0 +1,85 @@
+package photoeditor.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * EditorAccess da acceso a las clases del editor, que estan en el paquete
+ * por defecto y no se pueden importar desde un paquete con nombre. La
+ * implementa BenchmarkSupport, que esta en el paquete por defecto; las
+ * imagenes del editor (OFImage) se pasan como BufferedImage.
+ */
+public interface EditorAccess
+{
+    /**
+     * Una operacion que modifica una imagen del editor.
+     */
+    interface Operation
+    {
+        void apply(BufferedImage image);
+    }
+
+    /**
+     * @return Los nombres de los filtros del catalogo del editor.
+     */
+    List<String> getFilterNames();
+
+    /**
+     * Busca un filtro por su nombre.
+     *
+     * @param name El nombre de un filtro del catalogo, o CHAIN para una
+     *             cadena de varios.
+     * @param parallel 'true' para aplicarlo con TileExecutor, como el
+     *                 editor; 'false' para aplicarlo en el hilo que llama.
+     * @return El filtro.
+     * @throws IllegalArgumentException Si no hay un filtro con ese nombre.
+     */
+    Operation getFilter(String name, boolean parallel);
+
+    /**
+     * Copia una imagen en una imagen del editor con el mismo tipo.
+     */
+    BufferedImage copy(BufferedImage image);
+
+    /**
+     * ImageFileManager.loadImage.
+     */
+    BufferedImage load(File file) throws IOException;
+
+    /**
+     * ImageFileManager.saveImage.
+     */
+    long save(BufferedImage image, File file) throws IOException;
+
+    /**
+     * Resampler.resize con uno de los metodos de Resampler.Mode.
+     */
+    BufferedImage resize(BufferedImage image, String mode, int width, int height,
+                         boolean parallel);
+
+    /**
+     * Libera los hilos del ejecutor.
+     */
+    void shutdown();
+
+    /**
+     * Nombre del filtro que es una cadena de varios filtros del catalogo.
+     */
+    String CHAIN = "Cadena";
+
+    /**
+     * Crea la implementacion, que esta en el paquete por defecto.
+     */
+    static EditorAccess create()
+    {
+        try {
+            return (EditorAccess) Class.forName("BenchmarkSupport")
+                                       .getDeclaredConstructor().newInstance();
+        }
+        catch(ReflectiveOperationException exc) {
+            throw new IllegalStateException("no se encontró BenchmarkSupport", exc);
+        }
+    }
+}
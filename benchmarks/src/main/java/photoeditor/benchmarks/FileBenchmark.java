@@ -0,0 +1,53 @@
+package photoeditor.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Level;
+
+/**
+ * Lee y guarda la imagen de prueba con ImageFileManager. Las imagenes
+ * indexadas se guardan en PNG con paleta.
+ */
+public class FileBenchmark extends ImageState
+{
+    @Param({ "png", "jpg", "bmp" })
+    public String format;
+
+    private File directory;
+    private File input;
+    private File output;
+
+    protected void prepare() throws IOException
+    {
+        directory = Files.createTempDirectory("benchmark").toFile();
+        input = new File(directory, "input." + format);
+        output = new File(directory, "output." + format);
+        editor.save(source, input);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles()
+    {
+        input.delete();
+        output.delete();
+        directory.delete();
+    }
+
+    @Benchmark
+    public BufferedImage load() throws IOException
+    {
+        return editor.load(input);
+    }
+
+    @Benchmark
+    public long save() throws IOException
+    {
+        return editor.save(source, output);
+    }
+}
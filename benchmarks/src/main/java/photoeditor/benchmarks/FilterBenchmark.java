@@ -0,0 +1,73 @@
+package photoeditor.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * Aplica cada filtro del catalogo, y una cadena de varios, a una copia de
+ * la imagen de prueba. La copia se restaura antes de cada aplicacion, fuera
+ * del tiempo medido.
+ */
+public class FilterBenchmark extends ImageState
+{
+    // todos los filtros de FilterCatalog, mas la cadena de EditorAccess
+    @Param({ "Más oscuro", "Más claro", "Threshold", "Threshold automático",
+             "Blanco y negro (Otsu)", "Niveles automáticos", "Ecualizar",
+             "Colores invertidos", "Solarize", "Suavizar", "Desenfoque fuerte",
+             "Pixelizar", "Pixelizar grueso", "Mirror", "Escala de grises",
+             "Deteción de bordes", "Bordes (Sobel)", "Bordes (Prewitt)", "Enfocar",
+             "Relieve", "Desenfoque gaussiano", "Desenfoque circular", "Fish Eye",
+             "Lente (barril)", "Lente (cojín)", "Remolino", "Ondas",
+             "Claro + Solarize + Invertido", EditorAccess.CHAIN })
+    public String filter;
+
+    // 'true' para repartir las filas entre hilos como el editor
+    @Param({ "false" })
+    public boolean parallel;
+
+    private EditorAccess.Operation operation;
+    private BufferedImage image;
+
+    protected void prepare() throws Exception
+    {
+        checkCatalog();
+        operation = editor.getFilter(filter, parallel);
+        image = editor.copy(source);
+    }
+
+    /**
+     * Comprueba que la lista de filtros del parametro tenga todos los del
+     * catalogo, para que un filtro nuevo no quede sin medir.
+     *
+     * @throws IllegalStateException Si falta alguno.
+     */
+    private void checkCatalog() throws NoSuchFieldException
+    {
+        Param param = FilterBenchmark.class.getField("filter").getAnnotation(Param.class);
+        List<String> missing = new ArrayList<String>(editor.getFilterNames());
+        missing.removeAll(Arrays.asList(param.value()));
+        if(!missing.isEmpty()) {
+            throw new IllegalStateException("faltan filtros en FilterBenchmark: " + missing);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void restore()
+    {
+        source.copyData(image.getRaster());
+    }
+
+    @Benchmark
+    public BufferedImage apply()
+    {
+        operation.apply(image);
+        return image;
+    }
+}
@@ -0,0 +1,66 @@
+package photoeditor.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ImageState es la base de los benchmarks: crea una imagen de prueba del
+ * tamaño y el tipo de los parametros y la copia en una imagen del editor
+ * (OFImage) del mismo tipo. Las imagenes que no son INT_RGB no se pueden
+ * leer directamente, asi que los filtros pasan por getRGB y setRGB.
+ *
+ * Las imagenes de 48 MP ocupan 192 MB cada una; la maquina virtual de
+ * cada benchmark arranca con 6 GB, que se pueden cambiar con
+ * -jvmArgsAppend.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector", "-Xmx6g" })
+public abstract class ImageState
+{
+    // millones de pixeles de la imagen
+    @Param({ "1", "12", "48" })
+    public double megapixels;
+
+    @Param({ "INT_RGB", "BGR_3BYTE", "INDEXED" })
+    public TestImages.Type type;
+
+    protected EditorAccess editor;
+    // la imagen de prueba, como imagen del editor
+    protected BufferedImage source;
+
+    @Setup(Level.Trial)
+    public void createImage() throws Exception
+    {
+        editor = EditorAccess.create();
+        source = editor.copy(TestImages.create(megapixels, type));
+        prepare();
+    }
+
+    /**
+     * Prepara lo que necesita cada benchmark, despues de crear la imagen.
+     */
+    protected abstract void prepare() throws Exception;
+
+    @TearDown(Level.Trial)
+    public void shutdown()
+    {
+        editor.shutdown();
+    }
+}
@@ -0,0 +1,39 @@
+package photoeditor.benchmarks;
+
+import java.awt.image.BufferedImage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Cambia el tamaño de la imagen de prueba con Resampler: a la mitad y al
+ * doble de cada lado, como hacian makeSmaller y makeLarger.
+ */
+public class ScaleBenchmark extends ImageState
+{
+    @Param({ "NEAREST", "BILINEAR", "BICUBIC", "LANCZOS", "AREA" })
+    public String mode;
+
+    // factor de escala de cada lado
+    @Param({ "0.5", "2" })
+    public double factor;
+
+    // 'true' para repartir las filas entre hilos como el editor
+    @Param({ "false" })
+    public boolean parallel;
+
+    private int width;
+    private int height;
+
+    protected void prepare()
+    {
+        width = (int) Math.round(source.getWidth() * factor);
+        height = (int) Math.round(source.getHeight() * factor);
+    }
+
+    @Benchmark
+    public BufferedImage resize()
+    {
+        return editor.resize(source, mode, width, height, parallel);
+    }
+}
@@ -0,0 +1,77 @@
+package photoeditor.benchmarks;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * TestImages crea las imagenes de prueba: degradados suaves con bordes y un
+ * poco de ruido, para que los filtros y los compresores trabajen como con
+ * una foto y no con ruido puro. Siempre se crea la misma imagen para los
+ * mismos parametros.
+ */
+public class TestImages
+{
+    private TestImages()
+    {
+    }
+
+    /**
+     * Los tipos de imagen que se prueban.
+     */
+    public enum Type
+    {
+        INT_RGB(BufferedImage.TYPE_INT_RGB),
+        BGR_3BYTE(BufferedImage.TYPE_3BYTE_BGR),
+        INDEXED(BufferedImage.TYPE_BYTE_INDEXED);
+
+        private int imageType;
+
+        private Type(int imageType)
+        {
+            this.imageType = imageType;
+        }
+    }
+
+    /**
+     * Crea una imagen de 4:3 con unos megapixeles dados.
+     *
+     * @param megapixels Los millones de pixeles, por ejemplo 12.
+     * @param type El tipo de la imagen.
+     * @return La imagen.
+     */
+    public static BufferedImage create(double megapixels, Type type)
+    {
+        int width = (int) Math.round(Math.sqrt(megapixels * 1e6 * 4 / 3));
+        int height = (int) Math.round(width * 3 / 4.0);
+        BufferedImage rgb = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        int[] row = new int[width];
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                double u = (double) x / width;
+                double v = (double) y / height;
+                double wave = Math.sin(u * 23 + Math.cos(v * 7) * 3) * 40;
+                int noise = random.nextInt(17) - 8;
+                int red = clamp(60 + u * 150 + wave + noise);
+                int green = clamp(40 + v * 170 - wave / 2 + noise);
+                int blue = clamp(((x / 97 + y / 61) % 2 == 0 ? 70 : 180) + noise);
+                row[x] = (red << 16) | (green << 8) | blue;
+            }
+            rgb.setRGB(0, y, width, 1, row, 0, width);
+        }
+        if(type == Type.INT_RGB) {
+            return rgb;
+        }
+        BufferedImage image = new BufferedImage(width, height, type.imageType);
+        Graphics2D g = image.createGraphics();
+        g.drawImage(rgb, 0, 0, null);
+        g.dispose();
+        return image;
+    }
+
+    private static int clamp(double value)
+    {
+        return (int) Math.max(0, Math.min(255, value));
+    }
+}
@@ -0,0 +1,137 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Comprueba que las formas separable y por transformadas de Fourier de
+ * ConvolveFilter dan lo mismo que aplicar el nucleo directamente, con los
+ * tres EdgePolicy, y que aplicarlas por bandas da lo mismo que de una vez.
+ */
+public class ConvolveFilterTest
+{
+    // altos de banda: una fila, uno que no divide la imagen y uno mayor que ella
+    private static final int[] BAND_HEIGHTS = { 1, 7, 200 };
+
+    @Test
+    public void fourierGivesDirectResult()
+    {
+        // 15x17 pesos: más que FFT_MIN_AREA, y la imagen ocupa varios bloques
+        Kernel kernel = randomKernel(15, 17, 1);
+        assertNull(kernel.separate());
+        assertTrue(15 * 17 >= ConvolveFilter.FFT_MIN_AREA);
+        compareWithDirect(kernel);
+    }
+
+    @Test
+    public void separableGivesDirectResult()
+    {
+        Random random = new Random(2);
+        float[] row = new float[7];
+        float[] column = new float[5];
+        for(int i = 0; i < row.length; i++) {
+            row[i] = random.nextFloat() - 0.2f;
+        }
+        for(int i = 0; i < column.length; i++) {
+            column[i] = random.nextFloat() / 2;
+        }
+        float[] values = new float[row.length * column.length];
+        for(int y = 0; y < column.length; y++) {
+            for(int x = 0; x < row.length; x++) {
+                values[y * row.length + x] = row[x] * column[y];
+            }
+        }
+        Kernel kernel = new Kernel(row.length, column.length, values);
+        assertNotNull(kernel.separate());
+        compareWithDirect(kernel);
+    }
+
+    @Test
+    public void bandsGiveSerialResult()
+    {
+        OFImage image = TileExecutorTest.randomImage(150, 90, 3);
+        Kernel[] kernels = { randomKernel(15, 17, 4), Kernel.gaussian(3), Kernel.sharpen() };
+        for(Kernel kernel : kernels) {
+            for(EdgePolicy policy : EdgePolicy.values()) {
+                ConvolveFilter filter = new ConvolveFilter("prueba", kernel, policy);
+                OFImage serial = new OFImage(image);
+                filter.apply(serial);
+                for(int bandHeight : BAND_HEIGHTS) {
+                    OFImage banded = new OFImage(image);
+                    TileExecutor executor = new TileExecutor(4, bandHeight);
+                    try {
+                        executor.apply(filter, banded);
+                    }
+                    finally {
+                        executor.shutdown();
+                    }
+                    assertClose(serial, banded, kernel.getWidth() + "x" + kernel.getHeight()
+                                + ", " + policy + ", bandas de " + bandHeight, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Aplica el nucleo con cada EdgePolicy, en una imagen de varios bloques
+     * y en una más chica que el nucleo, y compara con la forma directa.
+     */
+    private static void compareWithDirect(Kernel kernel)
+    {
+        OFImage[] images = { TileExecutorTest.randomImage(150, 90, 5),
+                             TileExecutorTest.randomImage(9, 6, 6) };
+        for(OFImage image : images) {
+            for(EdgePolicy policy : EdgePolicy.values()) {
+                ConvolveFilter filter = new ConvolveFilter("prueba", kernel, policy);
+                OFImage expected = new OFImage(image);
+                filter.directFilter().apply(expected);
+                OFImage actual = new OFImage(image);
+                filter.apply(actual);
+                // las sumas se hacen en otro orden: el redondeo puede cambiar en uno
+                assertClose(expected, actual, policy + ", " + image.getWidth() + "x"
+                            + image.getHeight(), 1);
+            }
+        }
+    }
+
+    /**
+     * Comprueba que cada canal de cada pixel difiere a lo sumo en tolerance.
+     */
+    private static void assertClose(OFImage expected, OFImage actual, String message,
+                                    int tolerance)
+    {
+        int[] a = TileExecutorTest.rgb(expected);
+        int[] b = TileExecutorTest.rgb(actual);
+        assertEquals(a.length, b.length);
+        for(int i = 0; i < a.length; i++) {
+            for(int shift = 0; shift <= 16; shift += 8) {
+                int difference = Math.abs(((a[i] >> shift) & 0xff) - ((b[i] >> shift) & 0xff));
+                if(difference > tolerance) {
+                    assertEquals(a[i], b[i], message + ", pixel " + i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Crea un nucleo con pesos al azar que suman uno, algunos negativos.
+     */
+    private static Kernel randomKernel(int width, int height, long seed)
+    {
+        Random random = new Random(seed);
+        float[] values = new float[width * height];
+        float sum = 0;
+        for(int i = 0; i < values.length; i++) {
+            values[i] = random.nextFloat() - 0.2f;
+            sum += values[i];
+        }
+        for(int i = 0; i < values.length; i++) {
+            values[i] /= sum;
+        }
+        return new Kernel(width, height, values);
+    }
+}
@@ -0,0 +1,153 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Comprueba que deshacer y rehacer devuelven los pixeles de antes y de
+ * despues de cada cambio, sin modificar la imagen que reciben y leyendo y
+ * escribiendo solo los cuadros que cambiaron.
+ */
+public class EditHistoryTest
+{
+    private static final int TILE = EditHistory.TILE_SIZE;
+    private static final List<Filter> NO_FILTERS = Collections.emptyList();
+
+    @Test
+    public void undoAndRedoOneEdit()
+    {
+        TrackedImage before = tracked(TileExecutorTest.randomImage(5 * TILE + 9, 3 * TILE + 1, 1));
+        // toca cuatro cuadros
+        TrackedImage after = changed(before, new Rectangle(TILE - 10, 2 * TILE - 10, 20, 20));
+        int[] beforePixels = TileExecutorTest.rgb(before);
+        int[] afterPixels = TileExecutorTest.rgb(after);
+
+        EditHistory history = new EditHistory(1L << 30);
+        history.record("cambio", NO_FILTERS, before, after);
+        List<Rectangle> changes = history.getUndoChanges();
+        assertEquals(4, changes.size());
+
+        OFImage undone = history.undo(after);
+        assertArrayEquals(beforePixels, TileExecutorTest.rgb(undone));
+        assertArrayEquals(afterPixels, TileExecutorTest.rgb(after));
+        assertEquals(changes, history.getRedoChanges());
+
+        OFImage redone = history.redo(undone);
+        assertArrayEquals(afterPixels, TileExecutorTest.rgb(redone));
+        assertArrayEquals(beforePixels, TileExecutorTest.rgb(undone));
+    }
+
+    @Test
+    public void undoTouchesOnlyChangedTiles()
+    {
+        TrackedImage first = tracked(TileExecutorTest.randomImage(6 * TILE, 4 * TILE, 2));
+        TrackedImage second = changed(first, new Rectangle(10, 10, 30, 30));
+        TrackedImage third = changed(second, new Rectangle(4 * TILE + 5, 3 * TILE + 5, TILE, 20));
+        int[][] expected = { TileExecutorTest.rgb(first), TileExecutorTest.rgb(second),
+                             TileExecutorTest.rgb(third) };
+
+        EditHistory history = new EditHistory(1L << 30);
+        history.record("primero", NO_FILTERS, first, second);
+        List<Rectangle> firstChanges = history.getUndoChanges();
+        history.record("segundo", NO_FILTERS, second, third);
+        List<Rectangle> secondChanges = history.getUndoChanges();
+        Set<Rectangle> allowed = new HashSet<Rectangle>(firstChanges);
+        allowed.addAll(secondChanges);
+
+        OFImage image = third;
+        for(int step = 0; step < 3; step++) {
+            for(TrackedImage tracked : new TrackedImage[] { first, second, third }) {
+                tracked.touched.clear();
+            }
+            image = history.undo(image);
+            assertArrayEquals(expected[1], TileExecutorTest.rgb(image));
+            image = history.undo(image);
+            assertArrayEquals(expected[0], TileExecutorTest.rgb(image));
+            image = history.redo(image);
+            assertArrayEquals(expected[1], TileExecutorTest.rgb(image));
+            image = history.redo(image);
+            assertArrayEquals(expected[2], TileExecutorTest.rgb(image));
+            for(TrackedImage tracked : new TrackedImage[] { first, second, third }) {
+                assertTrue(allowed.containsAll(tracked.touched), "cuadros " + tracked.touched);
+            }
+        }
+        assertTrue(image instanceof TrackedImage, "se copió la imagen entera");
+    }
+
+    @Test
+    public void undoWithoutSpareCopies()
+    {
+        TrackedImage before = tracked(TileExecutorTest.randomImage(200, 150, 3));
+        TrackedImage after = changed(before, new Rectangle(0, 0, 5, 5));
+        EditHistory history = new EditHistory(1L << 30);
+        history.record("cambio", NO_FILTERS, before, after);
+        // otra imagen con los mismos pixeles: no se puede reutilizar la de antes
+        OFImage copy = new OFImage(after);
+        OFImage undone = history.undo(copy);
+        assertNotSame(before, undone);
+        assertNotSame(copy, undone);
+        assertArrayEquals(TileExecutorTest.rgb(before), TileExecutorTest.rgb(undone));
+        assertArrayEquals(TileExecutorTest.rgb(after), TileExecutorTest.rgb(copy));
+    }
+
+    /**
+     * Crea una copia de la imagen que anota las zonas que se leen o se
+     * escriben.
+     */
+    private static TrackedImage tracked(OFImage image)
+    {
+        TrackedImage copy = new TrackedImage(image.getWidth(), image.getHeight());
+        copy.setPixels(image.getPixels());
+        return copy;
+    }
+
+    /**
+     * Crea una copia de la imagen con una zona cambiada.
+     */
+    private static TrackedImage changed(OFImage image, Rectangle area)
+    {
+        TrackedImage copy = tracked(image);
+        int[] pixels = copy.getPixels();
+        for(int y = area.y; y < area.y + area.height; y++) {
+            for(int x = area.x; x < area.x + area.width; x++) {
+                pixels[y * copy.getWidth() + x] ^= 0x5a5a5a;
+            }
+        }
+        copy.setPixels(pixels);
+        return copy;
+    }
+
+    /**
+     * Una imagen que anota las zonas que se leen o escriben por partes.
+     */
+    private static class TrackedImage extends OFImage
+    {
+        private final List<Rectangle> touched = new ArrayList<Rectangle>();
+
+        public TrackedImage(int width, int height)
+        {
+            super(width, height);
+        }
+
+        public int[] getPixels(Rectangle area, int[] pixels)
+        {
+            touched.add(new Rectangle(area));
+            return super.getPixels(area, pixels);
+        }
+
+        public void setPixels(Rectangle area, int[] pixels)
+        {
+            touched.add(new Rectangle(area));
+            super.setPixels(area, pixels);
+        }
+    }
+}
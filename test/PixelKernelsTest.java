@@ -0,0 +1,133 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Comprueba que las operaciones vectoriales (VectorPixelKernels) dan
+ * exactamente lo mismo que las escalares, con tramos de cualquier largo y
+ * posicion: los pixeles que no llenan un registro vectorial se hacen con la
+ * version escalar.
+ *
+ * Necesita el modulo jdk.incubator.vector, que mvn test agrega.
+ */
+public class PixelKernelsTest
+{
+    // los largos llegan a varios registros de 16 pixeles mas un resto
+    private static final int MAX_LENGTH = 70;
+    private static final int[] STARTS = { 0, 1, 5 };
+
+    private PixelKernels scalar;
+    private PixelKernels vector;
+    private int[] data;
+
+    @BeforeEach
+    public void setUp()
+    {
+        scalar = PixelKernels.getScalar();
+        vector = PixelKernels.getDefault();
+        data = new int[MAX_LENGTH + 8];
+        Random random = new Random(7);
+        for(int i = 0; i < data.length; i++) {
+            data[i] = random.nextInt();
+        }
+    }
+
+    @Test
+    public void vectorKernelsAreAvailable()
+    {
+        assertNotSame(scalar, vector, "no se cargó VectorPixelKernels");
+    }
+
+    @Test
+    public void grayScale()
+    {
+        for(int start : STARTS) {
+            for(int end = start; end <= start + MAX_LENGTH; end++) {
+                int[] expected = data.clone();
+                int[] actual = data.clone();
+                scalar.grayScale(expected, start, end);
+                vector.grayScale(actual, start, end);
+                assertArrayEquals(expected, actual, start + " a " + end);
+            }
+        }
+    }
+
+    @Test
+    public void invert()
+    {
+        for(int start : STARTS) {
+            for(int end = start; end <= start + MAX_LENGTH; end++) {
+                int[] expected = data.clone();
+                int[] actual = data.clone();
+                scalar.invert(expected, start, end);
+                vector.invert(actual, start, end);
+                assertArrayEquals(expected, actual, start + " a " + end);
+            }
+        }
+    }
+
+    @Test
+    public void solarize()
+    {
+        for(int start : STARTS) {
+            for(int end = start; end <= start + MAX_LENGTH; end++) {
+                int[] expected = data.clone();
+                int[] actual = data.clone();
+                scalar.solarize(expected, start, end);
+                vector.solarize(actual, start, end);
+                assertArrayEquals(expected, actual, start + " a " + end);
+            }
+        }
+    }
+
+    @Test
+    public void threshold()
+    {
+        for(int start : STARTS) {
+            for(int end = start; end <= start + MAX_LENGTH; end++) {
+                int[] expected = data.clone();
+                int[] actual = data.clone();
+                scalar.threshold(expected, start, end, 85, 170, 0x000000, 0x808080, 0xffffff);
+                vector.threshold(actual, start, end, 85, 170, 0x000000, 0x808080, 0xffffff);
+                assertArrayEquals(expected, actual, start + " a " + end);
+            }
+        }
+    }
+
+    @Test
+    public void addRow()
+    {
+        for(int offset : STARTS) {
+            for(int width = 0; width <= MAX_LENGTH; width++) {
+                for(int sign = -1; sign <= 1; sign += 2) {
+                    int[][] expected = sums(width);
+                    int[][] actual = sums(width);
+                    scalar.addRow(data, offset, width, expected[0], expected[1], expected[2], sign);
+                    vector.addRow(data, offset, width, actual[0], actual[1], actual[2], sign);
+                    for(int channel = 0; channel < 3; channel++) {
+                        assertArrayEquals(expected[channel], actual[channel],
+                                          "ancho " + width + ", signo " + sign);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Crea sumas por columna de partida, distintas en cada columna.
+     */
+    private static int[][] sums(int width)
+    {
+        int[][] sums = new int[3][width];
+        for(int channel = 0; channel < 3; channel++) {
+            for(int x = 0; x < width; x++) {
+                sums[channel][x] = 1000 * channel + x;
+            }
+        }
+        return sums;
+    }
+}
@@ -0,0 +1,102 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Comprueba que aplicar un filtro por bandas en paralelo (TileExecutor) da
+ * los mismos pixeles que aplicarlo de una vez, sobre todo en las filas de
+ * los bordes de cada banda, que leen las filas vecinas de otras bandas.
+ */
+public class TileExecutorTest
+{
+    // altos de banda: una fila, uno que no divide la imagen y uno mayor que ella
+    private static final int[] BAND_HEIGHTS = { 1, 7, 64, 200 };
+
+    @Test
+    public void rowFiltersGiveSerialResult()
+    {
+        OFImage image = randomImage(61, 97, 1);
+        int tested = 0;
+        for(Filter filter : FilterCatalog.createFilters()) {
+            if(filter instanceof RowFilter || filter instanceof FilterChain) {
+                int[] expected = serial(filter, image);
+                for(int bandHeight : BAND_HEIGHTS) {
+                    assertArrayEquals(expected, banded(filter, image, bandHeight),
+                                      filter.getName() + ", bandas de " + bandHeight);
+                }
+                tested++;
+            }
+        }
+        assertTrue(tested > 0);
+    }
+
+    @Test
+    public void otherFiltersGiveSerialResult()
+    {
+        OFImage image = randomImage(40, 33, 2);
+        for(Filter filter : FilterCatalog.createFilters()) {
+            if(!(filter instanceof RowFilter)) {
+                assertArrayEquals(serial(filter, image), banded(filter, image, 7),
+                                  filter.getName());
+            }
+        }
+    }
+
+    /**
+     * Aplica un filtro a una copia de la imagen de una vez.
+     */
+    private static int[] serial(Filter filter, OFImage image)
+    {
+        OFImage copy = new OFImage(image);
+        filter.apply(copy);
+        return rgb(copy);
+    }
+
+    /**
+     * Aplica un filtro a una copia de la imagen por bandas, con 4 hilos.
+     */
+    private static int[] banded(Filter filter, OFImage image, int bandHeight)
+    {
+        OFImage copy = new OFImage(image);
+        TileExecutor executor = new TileExecutor(4, bandHeight);
+        try {
+            executor.apply(filter, copy);
+        }
+        finally {
+            executor.shutdown();
+        }
+        return rgb(copy);
+    }
+
+    /**
+     * Devuelve los pixeles de una imagen sin los bits de alfa, que no estan
+     * definidos (ver OFImage.getPixels).
+     */
+    static int[] rgb(OFImage image)
+    {
+        int[] pixels = image.getPixels().clone();
+        for(int i = 0; i < pixels.length; i++) {
+            pixels[i] &= 0xffffff;
+        }
+        return pixels;
+    }
+
+    /**
+     * Crea una imagen con pixeles al azar.
+     */
+    static OFImage randomImage(int width, int height, long seed)
+    {
+        Random random = new Random(seed);
+        OFImage image = new OFImage(width, height);
+        int[] pixels = image.getPixels();
+        for(int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        image.setPixels(pixels);
+        return image;
+    }
+}
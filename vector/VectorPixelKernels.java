@@ -0,0 +1,122 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+import static jdk.incubator.vector.VectorOperators.LE;
+import static jdk.incubator.vector.VectorOperators.LSHL;
+import static jdk.incubator.vector.VectorOperators.LSHR;
+import static jdk.incubator.vector.VectorOperators.XOR;
+
+/**
+ * Las operaciones de PixelKernels hechas con la Vector API: cada
+ * instruccion procesa tantos pixeles como quepan en un registro vectorial
+ * del procesador (8 con AVX2, 16 con AVX-512). Los pixeles que sobran al
+ * final se procesan con la version escalar.
+ *
+ * Necesita el modulo jdk.incubator.vector al compilar y al ejecutar, asi
+ * que esta fuera de la carpeta del proyecto de BlueJ (ver el README). No se
+ * usa directamente: PixelKernels.getDefault() la carga solo si el modulo
+ * esta disponible.
+ */
+public class VectorPixelKernels extends PixelKernels
+{
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    // (x * DIVIDE_BY_3) >>> 17 es x / 3 para x de 0 a 765
+    private static final int DIVIDE_BY_3 = 43691;
+
+    /**
+     * Crea las operaciones vectoriales.
+     */
+    public VectorPixelKernels()
+    {
+    }
+
+    public String getName()
+    {
+        return "vectorial (" + SPECIES.vectorBitSize() + " bits)";
+    }
+
+    public void grayScale(int[] pixels, int start, int end)
+    {
+        int i = start;
+        int bound = start + SPECIES.loopBound(end - start);
+        for(; i < bound; i += SPECIES.length()) {
+            IntVector avg = luminance(IntVector.fromArray(SPECIES, pixels, i));
+            avg.lanewise(LSHL, 16).or(avg.lanewise(LSHL, 8)).or(avg).or(0xff000000)
+               .intoArray(pixels, i);
+        }
+        super.grayScale(pixels, i, end);
+    }
+
+    public void invert(int[] pixels, int start, int end)
+    {
+        int i = start;
+        int bound = start + SPECIES.loopBound(end - start);
+        for(; i < bound; i += SPECIES.length()) {
+            IntVector.fromArray(SPECIES, pixels, i).not().or(0xff000000).intoArray(pixels, i);
+        }
+        super.invert(pixels, i, end);
+    }
+
+    public void solarize(int[] pixels, int start, int end)
+    {
+        int i = start;
+        int bound = start + SPECIES.loopBound(end - start);
+        for(; i < bound; i += SPECIES.length()) {
+            IntVector pix = IntVector.fromArray(SPECIES, pixels, i);
+            IntVector dark = pix.not().lanewise(LSHR, 7).and(0x010101);
+            pix.lanewise(XOR, dark.mul(0xff)).or(0xff000000).intoArray(pixels, i);
+        }
+        super.solarize(pixels, i, end);
+    }
+
+    public void threshold(int[] pixels, int start, int end, int low, int high,
+                          int dark, int middle, int light)
+    {
+        IntVector lightColor = IntVector.broadcast(SPECIES, light | 0xff000000);
+        int i = start;
+        int bound = start + SPECIES.loopBound(end - start);
+        for(; i < bound; i += SPECIES.length()) {
+            IntVector brightness = luminance(IntVector.fromArray(SPECIES, pixels, i));
+            VectorMask<Integer> isDark = brightness.compare(LE, low);
+            VectorMask<Integer> isMiddle = brightness.compare(LE, high);
+            lightColor.blend(middle | 0xff000000, isMiddle).blend(dark | 0xff000000, isDark)
+                      .intoArray(pixels, i);
+        }
+        super.threshold(pixels, i, end, low, high, dark, middle, light);
+    }
+
+    public void addRow(int[] pixels, int offset, int width,
+                       int[] red, int[] green, int[] blue, int sign)
+    {
+        int x = 0;
+        int bound = SPECIES.loopBound(width);
+        for(; x < bound; x += SPECIES.length()) {
+            IntVector pix = IntVector.fromArray(SPECIES, pixels, offset + x);
+            IntVector.fromArray(SPECIES, red, x)
+                     .add(pix.lanewise(LSHR, 16).and(0xff).mul(sign)).intoArray(red, x);
+            IntVector.fromArray(SPECIES, green, x)
+                     .add(pix.lanewise(LSHR, 8).and(0xff).mul(sign)).intoArray(green, x);
+            IntVector.fromArray(SPECIES, blue, x)
+                     .add(pix.and(0xff).mul(sign)).intoArray(blue, x);
+        }
+        for(; x < width; x++) {
+            int pix = pixels[offset + x];
+            red[x] += sign * ((pix >> 16) & 0xff);
+            green[x] += sign * ((pix >> 8) & 0xff);
+            blue[x] += sign * (pix & 0xff);
+        }
+    }
+
+    /**
+     * Calcula (r + g + b) / 3 de cada pixel de un vector.
+     */
+    private static IntVector luminance(IntVector pix)
+    {
+        IntVector sum = pix.lanewise(LSHR, 16).and(0xff)
+                           .add(pix.lanewise(LSHR, 8).and(0xff))
+                           .add(pix.and(0xff));
+        return sum.mul(DIVIDE_BY_3).lanewise(LSHR, 17);
+    }
+}